@@ -18,17 +18,27 @@
 
 package org.eclipse.jetty.annotations;
 
+import java.io.File;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EventListener;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletContainerInitializer;
 import javax.servlet.annotation.HandlesTypes;
 
 import org.eclipse.jetty.annotations.AnnotationParser.DiscoverableAnnotationHandler;
+import org.eclipse.jetty.annotations.AnnotationParser.ScannedClass;
 import org.eclipse.jetty.plus.annotation.ContainerInitializer;
 import org.eclipse.jetty.util.ArrayUtil;
 import org.eclipse.jetty.util.MultiMap;
@@ -52,6 +62,8 @@ public class AnnotationConfiguration extends AbstractConfiguration
     public static final String CLASS_INHERITANCE_MAP  = "org.eclipse.jetty.classInheritanceMap";
     public static final String CONTAINER_INITIALIZERS = "org.eclipse.jetty.containerInitializers";
     public static final String CONTAINER_INITIALIZER_LISTENER = "org.eclipse.jetty.containerInitializerListener";
+    public static final String SCAN_THREADS = "org.eclipse.jetty.annotations.scanThreads";
+    public static final String JAR_SCAN_CACHE = "org.eclipse.jetty.annotations.jarScanCache";
   
     
     protected List<DiscoverableAnnotationHandler> _discoverableAnnotationHandlers = new ArrayList<DiscoverableAnnotationHandler>();
@@ -375,6 +387,11 @@ public class AnnotationConfiguration extends AbstractConfiguration
 
     /**
      * Scan jars in WEB-INF/lib
+     * <p>
+     * The jars are read in parallel by at most {@link #SCAN_THREADS} threads, see {@link #newJarScan(JarScanCache, String, AnnotationParser, Resource, ClassNameResolver)},
+     * but the handlers are called for the classes of each jar in the order of the jars.
+     * Only the jars being read ahead of the jar being handled are held in memory, so at most 
+     * one more jar than there are threads.
      * 
      * @param context
      * @param parser
@@ -388,34 +405,76 @@ public class AnnotationConfiguration extends AbstractConfiguration
         //email from Rajiv Mordani jsrs 315 7 April 2010
         //jars that do not have a web-fragment.xml are still considered fragments
         //they have to participate in the ordering
-        ArrayList<URI> webInfUris = new ArrayList<URI>();
-
         List<Resource> jars = context.getMetaData().getOrderedWebInfJars();
 
         //No ordering just use the jars in any order
         if (jars == null || jars.isEmpty())
             jars = context.getMetaData().getWebInfJars();
 
+        //if its from a fragment jar that is metadata complete, we should skip scanning for @webservlet etc
+        // but yet we still need to do the scanning for the classes on behalf of  the servletcontainerinitializers
+        //if a jar has no web-fragment.xml we scan it (because it is not excluded by the ordering)
+        //or if it has a fragment we scan it if it is not metadata complete
+        List<Resource> scannedJars = new ArrayList<Resource>();
         for (Resource r : jars)
         {
-            //for each jar, we decide which set of annotations we need to parse for
-            parser.clearHandlers();
-
-            URI uri  = r.getURI();
             FragmentDescriptor f = getFragmentFromJar(r, frags);
-
-            //if its from a fragment jar that is metadata complete, we should skip scanning for @webservlet etc
-            // but yet we still need to do the scanning for the classes on behalf of  the servletcontainerinitializers
-            //if a jar has no web-fragment.xml we scan it (because it is not excluded by the ordering)
-            //or if it has a fragment we scan it if it is not metadata complete
             if (f == null || !isMetaDataComplete(f) || _classInheritanceHandler != null ||  !_containerInitializerAnnotationHandlers.isEmpty())
+                scannedJars.add(r);
+        }
+
+        ClassNameResolver resolver = new ClassNameResolver()
+        {
+            public boolean isExcluded (String name)
             {
+                if (context.isSystemClass(name)) return true;
+                if (context.isServerClass(name)) return false;
+                return false;
+            }
+
+            public boolean shouldOverride (String name)
+            {
+                //looking at webapp classpath, found already-parsed class of same name - did it come from system or duplicate in webapp?
+                if (context.isParentLoaderPriority())
+                    return false;
+                return true;
+            }
+        };
+
+        final JarScanCache cache = getJarScanCache(context);
+        //the webapp classes are excluded if they are system classes
+        final String exclusions = Arrays.toString(context.getSystemClasses());
+        List<Callable<List<ScannedClass>>> jarScans = new ArrayList<Callable<List<ScannedClass>>>(scannedJars.size());
+        for (Resource r : scannedJars)
+            jarScans.add(newJarScan(cache, exclusions, parser, r, resolver));
+
+        int threads = Math.min(getScanThreads(context), scannedJars.size());
+        ExecutorService executor = threads > 1?newScanExecutor(threads):null;
+        List<Future<List<ScannedClass>>> scans = new ArrayList<Future<List<ScannedClass>>>(scannedJars.size());
+        try
+        {
+            for (int i=0; i<scannedJars.size(); i++)
+            {
+                //read ahead the next jars, one per thread
+                while (executor != null && scans.size() < scannedJars.size() && scans.size() <= i+threads)
+                {
+                    Callable<List<ScannedClass>> jarScan = jarScans.get(scans.size());
+                    scans.add(jarScan == null?null:executor.submit(jarScan));
+                }
+
+                Resource r = scannedJars.get(i);
+
+                //for each jar, we decide which set of annotations we need to parse for
+                parser.clearHandlers();
+
+                FragmentDescriptor f = getFragmentFromJar(r, frags);
+
                 //register the classinheritance handler if there is one
                 parser.registerHandler(_classInheritanceHandler);
-                
+
                 //register the handlers for the @HandlesTypes values that are themselves annotations if there are any
                 parser.registerHandlers(_containerInitializerAnnotationHandlers);
-                
+
                 //only register the discoverable annotation handlers if this fragment is not metadata complete, or has no fragment descriptor
                 if (f == null || !isMetaDataComplete(f))
                 {
@@ -427,28 +486,134 @@ public class AnnotationConfiguration extends AbstractConfiguration
                     parser.registerHandlers(_discoverableAnnotationHandlers);
                 }
 
-                parser.parse(uri,
-                             new ClassNameResolver()
-                             {
-                                 public boolean isExcluded (String name)
-                                 {
-                                     if (context.isSystemClass(name)) return true;
-                                     if (context.isServerClass(name)) return false;
-                                     return false;
-                                 }
-
-                                 public boolean shouldOverride (String name)
-                                 {
-                                    //looking at webapp classpath, found already-parsed class of same name - did it come from system or duplicate in webapp?
-                                    if (context.isParentLoaderPriority())
-                                        return false;
-                                    return true;
-                                 }
-                             });
+                Callable<List<ScannedClass>> jarScan = jarScans.get(i);
+                if (jarScan == null)
+                {
+                    parser.parse(r.getURI(), resolver);
+                }
+                else if (executor == null)
+                {
+                    parser.parse(jarScan.call(), resolver);
+                }
+                else
+                {
+                    //release the classes of the jar once handled
+                    Future<List<ScannedClass>> scan = scans.set(i, null);
+                    try
+                    {
+                        parser.parse(scan.get(), resolver);
+                    }
+                    catch (ExecutionException e)
+                    {
+                        if (e.getCause() instanceof Exception)
+                            throw (Exception)e.getCause();
+                        throw e;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            if (executor != null)
+            {
+                //do not leave jars being read if the scan failed
+                for (Future<List<ScannedClass>> scan : scans)
+                {
+                    if (scan != null)
+                        scan.cancel(true);
+                }
+                executor.shutdown();
             }
         }
     }
 
+
+    /**
+     * Create the task that reads the classes of a jar that are not excluded, without calling the handlers.
+     * <p>
+     * The classes of a jar are taken from the {@link #getJarScanCache(WebAppContext) scan cache} if the 
+     * jar has not changed since it was last scanned with the same exclusions, else they are read from 
+     * the jar and put in the cache.
+     * 
+     * @param cache the scan cache, or null
+     * @param exclusions a description of the excluded classes, that keys the cache
+     * @param parser
+     * @param jar
+     * @param resolver the resolver of the excluded classes, that are not read
+     * @return the task returning the classes of the jar, or null if the resource is not a jar
+     */
+    protected Callable<List<ScannedClass>> newJarScan (final JarScanCache cache, final String exclusions, final AnnotationParser parser, final Resource jar, final ClassNameResolver resolver)
+    {
+        if (!jar.toString().endsWith(".jar"))
+            return null;
+
+        return new Callable<List<ScannedClass>>()
+        {
+            public List<ScannedClass> call() throws Exception
+            {
+                List<ScannedClass> scannedClasses = (cache == null?null:cache.get(jar, exclusions));
+                if (scannedClasses == null)
+                {
+                    scannedClasses = parser.scanJar(jar, resolver);
+                    if (cache != null)
+                        cache.put(jar, exclusions, scannedClasses);
+                }
+                return scannedClasses;
+            }
+        };
+    }
+
+
+    /**
+     * @param threads
+     * @return the executor of the jar scans, with named daemon threads that exit once the scans are done
+     */
+    protected ExecutorService newScanExecutor (int threads)
+    {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private final AtomicInteger _count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "AnnotationConfiguration-scan-"+_count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+
+    /**
+     * @param context
+     * @return the number of threads to read jars with, from the {@link #SCAN_THREADS} context attribute, 
+     * or the number of processors if it is not set
+     */
+    protected int getScanThreads (WebAppContext context)
+    {
+        Object threads = context.getAttribute(SCAN_THREADS);
+        if (threads == null)
+            return Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.parseInt(threads.toString().trim()));
+    }
+
+
+    /**
+     * @param context
+     * @return the cache set by the {@link #JAR_SCAN_CACHE} context attribute, which may be
+     * a {@link JarScanCache}, or the directory of one as a file or a file name; or null if it is not set
+     */
+    protected JarScanCache getJarScanCache (WebAppContext context)
+    {
+        Object cache = context.getAttribute(JAR_SCAN_CACHE);
+        if (cache == null || cache instanceof JarScanCache)
+            return (JarScanCache)cache;
+        if (cache instanceof File)
+            return new JarScanCache((File)cache);
+        return new JarScanCache(new File(cache.toString().trim()));
+    }
+
+
     /**
      * Scan classes in WEB-INF/classes
      * 
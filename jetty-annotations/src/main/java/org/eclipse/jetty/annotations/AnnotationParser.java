@@ -20,11 +20,14 @@ package org.eclipse.jetty.annotations;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.annotation.ElementType;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
@@ -72,7 +75,7 @@ public class AnnotationParser
 
 
 
-    public abstract class Value
+    public static abstract class Value
     {
         String _name;
 
@@ -93,7 +96,7 @@ public class AnnotationParser
 
 
 
-    public class SimpleValue extends Value
+    public static class SimpleValue extends Value
     {
         Object _val;
 
@@ -119,7 +122,7 @@ public class AnnotationParser
         }
     }
 
-    public class ListValue extends Value
+    public static class ListValue extends Value
     {
         List<Value> _val;
 
@@ -169,6 +172,184 @@ public class AnnotationParser
 
 
 
+    /**
+     * ScannedClass
+     *
+     * What asm found in a class file: the class and the annotations on it, its methods and its fields.
+     * The handlers can be called back with it without reading the class file again.
+     */
+    public static class ScannedClass
+    {
+        final String _className;
+        final int _version;
+        final int _access;
+        final String _signature;
+        final String _superName;
+        final String[] _interfaces;
+        final List<ScannedAnnotation> _annotations = new ArrayList<ScannedAnnotation>();
+
+        /**
+         * @param className the normalized name of the class
+         * @param version
+         * @param access
+         * @param signature
+         * @param superName the internal name of the super class, as found in the class file
+         * @param interfaces the internal names of the interfaces, as found in the class file
+         */
+        public ScannedClass (String className, int version, int access, String signature, String superName, String[] interfaces)
+        {
+            _className = className;
+            _version = version;
+            _access = access;
+            _signature = signature;
+            _superName = superName;
+            _interfaces = interfaces;
+        }
+
+        public String getClassName()
+        {
+            return _className;
+        }
+
+        public int getVersion()
+        {
+            return _version;
+        }
+
+        public int getAccess()
+        {
+            return _access;
+        }
+
+        public String getSignature()
+        {
+            return _signature;
+        }
+
+        public String getSuperName()
+        {
+            return _superName;
+        }
+
+        public String[] getInterfaces()
+        {
+            return _interfaces;
+        }
+
+        /**
+         * @return the annotations, in the order they were found in the class file
+         */
+        public List<ScannedAnnotation> getAnnotations()
+        {
+            return Collections.unmodifiableList(_annotations);
+        }
+
+        public void addAnnotation (ScannedAnnotation annotation)
+        {
+            _annotations.add(annotation);
+        }
+
+        @Override
+        public String toString()
+        {
+            return _className+_annotations;
+        }
+    }
+
+
+
+    /**
+     * ScannedAnnotation
+     *
+     * An annotation found on a class ({@link ElementType#TYPE}), a method ({@link ElementType#METHOD})
+     * or a field ({@link ElementType#FIELD}). For a method, the desc is the method descriptor, and for
+     * a field it is the field type and the value is the field's initial value, if any.
+     */
+    public static class ScannedAnnotation
+    {
+        final ElementType _elementType;
+        final String _annotationName;
+        final List<Value> _values;
+        final String _name;
+        final int _access;
+        final String _desc;
+        final String _signature;
+        final String[] _exceptions;
+        final Object _value;
+
+        public ScannedAnnotation (String annotationName, List<Value> values)
+        {
+            this(ElementType.TYPE, annotationName, values, null, 0, null, null, null, null);
+        }
+
+        public ScannedAnnotation (ElementType elementType, String annotationName, List<Value> values,
+                                  String name, int access, String desc, String signature, String[] exceptions, Object value)
+        {
+            _elementType = elementType;
+            _annotationName = annotationName;
+            _values = values;
+            _name = name;
+            _access = access;
+            _desc = desc;
+            _signature = signature;
+            _exceptions = exceptions;
+            _value = value;
+        }
+
+        public ElementType getElementType()
+        {
+            return _elementType;
+        }
+
+        public String getAnnotationName()
+        {
+            return _annotationName;
+        }
+
+        public List<Value> getValues()
+        {
+            return _values;
+        }
+
+        public String getName()
+        {
+            return _name;
+        }
+
+        public int getAccess()
+        {
+            return _access;
+        }
+
+        public String getDesc()
+        {
+            return _desc;
+        }
+
+        public String getSignature()
+        {
+            return _signature;
+        }
+
+        public String[] getExceptions()
+        {
+            return _exceptions;
+        }
+
+        public Object getValue()
+        {
+            return _value;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "@"+_annotationName+(_name==null?"":" "+_name)+_values;
+        }
+    }
+
+
+
     /**
      * Handler
      *
@@ -362,16 +543,12 @@ public class AnnotationParser
     /**
      * MyClassVisitor
      *
-     * ASM visitor for a class.
+     * ASM visitor for a class, recording the class and its annotations.
      */
     public class MyClassVisitor extends EmptyVisitor
     {
         String _className;
-        int _access;
-        String _signature;
-        String _superName;
-        String[] _interfaces;
-        int _version;
+        ScannedClass _scannedClass;
 
 
         @Override
@@ -383,30 +560,12 @@ public class AnnotationParser
                            final String[] interfaces)
         {
             _className = normalize(name);
-            _access = access;
-            _signature = signature;
-            _superName = superName;
-            _interfaces = interfaces;
-            _version = version;
-
-            _parsedClassNames.add(_className);
-            //call all registered ClassHandlers
-            String[] normalizedInterfaces = null;
-            if (interfaces!= null)
-            {
-                normalizedInterfaces = new String[interfaces.length];
-                int i=0;
-                for (String s : interfaces)
-                    normalizedInterfaces[i++] = normalize(s);
-            }
+            _scannedClass = new ScannedClass(_className, version, access, signature, superName, interfaces);
+        }
 
-            for (Handler h : AnnotationParser.this._handlers)
-            {
-                if (h instanceof ClassHandler)
-                {
-                    ((ClassHandler)h).handle(_className, _version, _access, _signature, normalize(_superName), normalizedInterfaces);
-                }
-            }
+        public ScannedClass getScannedClass()
+        {
+            return _scannedClass;
         }
 
         @Override
@@ -418,17 +577,7 @@ public class AnnotationParser
                 public void visitEnd()
                 {
                     super.visitEnd();
-
-                    //call all AnnotationHandlers with classname, annotation name + values
-                    for (Handler h : AnnotationParser.this._handlers)
-                    {
-                        if (h instanceof DiscoverableAnnotationHandler)
-                        {
-                            DiscoverableAnnotationHandler dah = (DiscoverableAnnotationHandler)h;
-                            if (_annotationName.equalsIgnoreCase(dah.getAnnotationName()))
-                                dah.handleClass(_className, _version, _access, _signature, _superName, _interfaces, _annotationName, _annotationValues);
-                        }
-                    }
+                    _scannedClass.addAnnotation(new ScannedAnnotation(_annotationName, _annotationValues));
                 }
             };
 
@@ -454,16 +603,8 @@ public class AnnotationParser
                         public void visitEnd()
                         {
                             super.visitEnd();
-                            //call all AnnotationHandlers with classname, method, annotation name + values
-                            for (Handler h : AnnotationParser.this._handlers)
-                            {
-                                if (h instanceof DiscoverableAnnotationHandler)
-                                {
-                                    DiscoverableAnnotationHandler dah = (DiscoverableAnnotationHandler)h;
-                                    if (_annotationName.equalsIgnoreCase(dah.getAnnotationName()))
-                                        dah.handleMethod(_className, name, access, methodDesc, signature, exceptions, _annotationName, _annotationValues);
-                                }
-                            }
+                            _scannedClass.addAnnotation(new ScannedAnnotation(ElementType.METHOD, _annotationName, _annotationValues,
+                                                                              name, access, methodDesc, signature, exceptions, null));
                         }
                     };
 
@@ -491,15 +632,8 @@ public class AnnotationParser
                         public void visitEnd()
                         {
                             super.visitEnd();
-                            for (Handler h : AnnotationParser.this._handlers)
-                            {
-                                if (h instanceof DiscoverableAnnotationHandler)
-                                {
-                                    DiscoverableAnnotationHandler dah = (DiscoverableAnnotationHandler)h;
-                                    if (_annotationName.equalsIgnoreCase(dah.getAnnotationName()))
-                                        dah.handleField(_className, fieldName, access, fieldType, signature, value, _annotationName, _annotationValues);
-                                }
-                            }
+                            _scannedClass.addAnnotation(new ScannedAnnotation(ElementType.FIELD, _annotationName, _annotationValues,
+                                                                              fieldName, access, fieldType, signature, null, value));
                         }
                     };
                     return visitor;
@@ -632,6 +766,65 @@ public class AnnotationParser
         return _parsedClassNames.contains(className);
     }
 
+
+
+    /**
+     * Call the registered handlers for a scanned class, and its annotations
+     *
+     * @param scannedClass
+     */
+    protected void handle (ScannedClass scannedClass)
+    {
+        String className = scannedClass.getClassName();
+        _parsedClassNames.add(className);
+
+        //call all registered ClassHandlers
+        String[] interfaces = scannedClass.getInterfaces();
+        String[] normalizedInterfaces = null;
+        if (interfaces!= null)
+        {
+            normalizedInterfaces = new String[interfaces.length];
+            int i=0;
+            for (String s : interfaces)
+                normalizedInterfaces[i++] = normalize(s);
+        }
+
+        for (Handler h : _handlers)
+        {
+            if (h instanceof ClassHandler)
+            {
+                ((ClassHandler)h).handle(className, scannedClass.getVersion(), scannedClass.getAccess(), scannedClass.getSignature(), normalize(scannedClass.getSuperName()), normalizedInterfaces);
+            }
+        }
+
+        //call all AnnotationHandlers with classname, annotation name + values
+        for (ScannedAnnotation a : scannedClass.getAnnotations())
+        {
+            for (Handler h : _handlers)
+            {
+                if (h instanceof DiscoverableAnnotationHandler)
+                {
+                    DiscoverableAnnotationHandler dah = (DiscoverableAnnotationHandler)h;
+                    if (!a.getAnnotationName().equalsIgnoreCase(dah.getAnnotationName()))
+                        continue;
+
+                    switch (a.getElementType())
+                    {
+                        case METHOD:
+                            dah.handleMethod(className, a.getName(), a.getAccess(), a.getDesc(), a.getSignature(), a.getExceptions(), a.getAnnotationName(), a.getValues());
+                            break;
+                        case FIELD:
+                            dah.handleField(className, a.getName(), a.getAccess(), a.getDesc(), a.getSignature(), a.getValue(), a.getAnnotationName(), a.getValues());
+                            break;
+                        default:
+                            dah.handleClass(className, scannedClass.getVersion(), scannedClass.getAccess(), scannedClass.getSignature(), scannedClass.getSuperName(), interfaces, a.getAnnotationName(), a.getValues());
+                            break;
+                    }
+                }
+            }
+        }
+    }
+
     
     
     /**
@@ -913,53 +1106,108 @@ public class AnnotationParser
         if (jarResource == null)
             return;
         
-        URI uri = jarResource.getURI();
-        
         if (jarResource.toString().endsWith(".jar"))
-        {
-            if (LOG.isDebugEnabled()) {LOG.debug("Scanning jar {}", jarResource);};
-            
-            //treat it as a jar that we need to open and scan all entries from             
-            InputStream in = jarResource.getInputStream();
-            if (in==null)
-                return;
+            parse(scanJar(jarResource, resolver), resolver);
+    }
 
-            JarInputStream jar_in = new JarInputStream(in);
-            try
-            { 
-                JarEntry entry = jar_in.getNextJarEntry();
-                while (entry!=null)
-                {                   
-                    try
+
+    /**
+     * Read all the classes of a jar file, without calling the handlers.
+     * <p>
+     * Unlike the parse methods, this does not change the state of the parser, so 
+     * several jars can be read at once by different threads.
+     * 
+     * @param jarResource
+     * @return the classes of the jar, in the order of the jar entries
+     * @throws Exception
+     */
+    public List<ScannedClass> scanJar (Resource jarResource)
+    throws Exception
+    {
+        return scanJar(jarResource, null);
+    }
+
+
+    /**
+     * Read the classes of a jar file that are not excluded, without calling the handlers.
+     * <p>
+     * Excluded classes are skipped by the name of their jar entry, so they are never read.
+     * Whether a class was already parsed depends on the order the jars are parsed in, so
+     * it is only checked when the classes are parsed, see {@link #parse(Collection, ClassNameResolver)}.
+     * 
+     * @param jarResource
+     * @param resolver the resolver to exclude classes with, or null to read all the classes
+     * @return the classes of the jar that are not excluded, in the order of the jar entries
+     * @throws Exception
+     */
+    public List<ScannedClass> scanJar (Resource jarResource, ClassNameResolver resolver)
+    throws Exception
+    {
+        List<ScannedClass> scannedClasses = new ArrayList<ScannedClass>();
+        if (LOG.isDebugEnabled()) {LOG.debug("Scanning jar {}", jarResource);};
+
+        //treat it as a jar that we need to open and scan all entries from             
+        InputStream in = jarResource.getInputStream();
+        if (in==null)
+            return scannedClasses;
+
+        JarInputStream jar_in = new JarInputStream(in);
+        try
+        { 
+            JarEntry entry = jar_in.getNextJarEntry();
+            while (entry!=null)
+            {                   
+                try
+                {
+                    String name = entry.getName();
+                    if (name.toLowerCase(Locale.ENGLISH).endsWith(".class"))
                     {
-                        String name = entry.getName();
-                        if (name.toLowerCase(Locale.ENGLISH).endsWith(".class"))
+                        //excluded classes are skipped without being read
+                        String shortName =  name.replace('/', '.').substring(0,name.length()-6);
+                        if (resolver == null || !resolver.isExcluded(shortName))
                         {
-                            String shortName =  name.replace('/', '.').substring(0,name.length()-6);
-
-                            if ((resolver == null)
-                                 ||
-                                (!resolver.isExcluded(shortName) && (!isParsed(shortName) || resolver.shouldOverride(shortName))))
-                            {
-                                Resource clazz = Resource.newResource("jar:"+uri+"!/"+name);
-                                if (LOG.isDebugEnabled()) {LOG.debug("Scanning class from jar {}", clazz);};
-                                scanClass(clazz.getInputStream());
-                            }
+                            //the class is read from the jar stream, up to the end of the entry
+                            ScannedClass scannedClass = readClass(jar_in);
+                            if (scannedClass != null)
+                                scannedClasses.add(scannedClass);
                         }
                     }
-                    catch (Exception e)
-                    {
-                        LOG.warn("Problem processing jar entry "+entry, e);
-                    }
-                                    
-                    entry = jar_in.getNextJarEntry();
                 }
+                catch (Exception e)
+                {
+                    LOG.warn("Problem processing jar entry "+entry, e);
+                }
+
+                entry = jar_in.getNextJarEntry();
             }
-            finally
+        }
+        finally
+        {
+            jar_in.close();
+        }
+        return scannedClasses;
+    }
+
+
+    /**
+     * Call the handlers for classes that have already been read, 
+     * for example by {@link #scanJar(Resource)}.
+     * 
+     * @param scannedClasses
+     * @param resolver
+     */
+    public void parse (Collection<ScannedClass> scannedClasses, ClassNameResolver resolver)
+    {
+        for (ScannedClass scannedClass : scannedClasses)
+        {
+            String className = scannedClass.getClassName();
+            if ((resolver == null)
+                 ||
+                (!resolver.isExcluded(className) && (!isParsed(className) || resolver.shouldOverride(className))))
             {
-                jar_in.close();
-            } 
-        }   
+                handle(scannedClass);
+            }
+        }
     }
     
     
@@ -971,9 +1219,26 @@ public class AnnotationParser
      */
     protected void scanClass (InputStream is)
     throws IOException
+    {
+        ScannedClass scannedClass = readClass(is);
+        if (scannedClass != null)
+            handle(scannedClass);
+    }
+
+
+    /**
+     * Use ASM to read a class, without calling the handlers
+     * 
+     * @param is
+     * @return the class and its annotations
+     * @throws IOException
+     */
+    protected ScannedClass readClass (InputStream is)
+    throws IOException
     {
         ClassReader reader = new ClassReader(is);
-        reader.accept(new MyClassVisitor(), ClassReader.SKIP_CODE|ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES);
+        MyClassVisitor visitor = new MyClassVisitor();
+        reader.accept(visitor, ClassReader.SKIP_CODE|ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES);
+        return visitor.getScannedClass();
     }
 }
-
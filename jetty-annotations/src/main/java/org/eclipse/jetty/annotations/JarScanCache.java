@@ -0,0 +1,552 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.annotations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.reflect.Array;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.annotations.AnnotationParser.ListValue;
+import org.eclipse.jetty.annotations.AnnotationParser.ScannedAnnotation;
+import org.eclipse.jetty.annotations.AnnotationParser.ScannedClass;
+import org.eclipse.jetty.annotations.AnnotationParser.SimpleValue;
+import org.eclipse.jetty.annotations.AnnotationParser.Value;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.resource.Resource;
+import org.objectweb.asm.Type;
+
+/**
+ * JarScanCache
+ *
+ * Keeps the classes scanned from jar files in a directory, one file per jar, so that a jar
+ * that has not changed since it was last scanned (same path, size and last modified time)
+ * does not need to have its class files read again, for example when a webapp is redeployed
+ * or the server restarted.
+ * <p>
+ * Only jars that are files can be cached. A cache file that cannot be read, or that was
+ * written for another version of the jar, is ignored and replaced.
+ * The cache files only contain strings and the primitive values of constants and annotations,
+ * written with a {@link DataOutputStream}, so reading them never instantiates arbitrary classes.
+ * The cache can be used by several threads and several webapps at once.
+ */
+public class JarScanCache
+{
+    private static final Logger LOG = Log.getLogger(JarScanCache.class);
+    private static final int FORMAT = 0x4A534303;
+
+    private final File _directory;
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    public JarScanCache (File directory)
+    {
+        _directory = directory;
+    }
+
+    public File getDirectory()
+    {
+        return _directory;
+    }
+
+    /**
+     * @return the number of jars whose classes were found in the cache
+     */
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /**
+     * @return the number of jars whose classes were not found in the cache
+     */
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /**
+     * Get the classes of a jar, if the jar has not changed since they were {@link #put(Resource, List) put} in the cache
+     *
+     * @param jar
+     * @return the classes of the jar, or null if they are not in the cache
+     */
+    public List<ScannedClass> get (Resource jar)
+    {
+        return get(jar, "");
+    }
+
+    /**
+     * Get the classes of a jar, if the jar has not changed since they were {@link #put(Resource, String, List) put} 
+     * in the cache, and if they were scanned with the same exclusions
+     *
+     * @param jar
+     * @param exclusions a description of the classes that were excluded from the scan
+     * @return the classes of the jar, or null if they are not in the cache
+     */
+    public List<ScannedClass> get (Resource jar, String exclusions)
+    {
+        File file = getFile(jar);
+        List<ScannedClass> scannedClasses = null;
+        if (file != null && file.exists())
+        {
+            DataInputStream in = null;
+            try
+            {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() == FORMAT
+                    && getPath(jar).equals(in.readUTF())
+                    && in.readLong() == jar.length()
+                    && in.readLong() == jar.lastModified()
+                    && exclusions.equals(in.readUTF()))
+                {
+                    scannedClasses = readClasses(in);
+                }
+            }
+            catch (Exception e)
+            {
+                LOG.warn("Unable to read scan cache {} for {}", file, jar);
+                LOG.debug(e);
+            }
+            finally
+            {
+                IO.close(in);
+            }
+        }
+
+        if (scannedClasses == null)
+            _misses.incrementAndGet();
+        else
+            _hits.incrementAndGet();
+        if (LOG.isDebugEnabled()) LOG.debug("Scan cache {} for {}", (scannedClasses == null?"miss":"hit"), jar);
+        return scannedClasses;
+    }
+
+    /**
+     * Put the classes of a jar in the cache
+     *
+     * @param jar
+     * @param scannedClasses the classes as they were read from the jar, see {@link AnnotationParser#scanJar(Resource)}
+     */
+    public void put (Resource jar, List<ScannedClass> scannedClasses)
+    {
+        put(jar, "", scannedClasses);
+    }
+
+    /**
+     * Put the classes of a jar in the cache
+     *
+     * @param jar
+     * @param exclusions a description of the classes that were excluded from the scan
+     * @param scannedClasses the classes as they were read from the jar, see {@link AnnotationParser#scanJar(Resource, ClassNameResolver)}
+     */
+    public void put (Resource jar, String exclusions, List<ScannedClass> scannedClasses)
+    {
+        File file = getFile(jar);
+        if (file == null)
+            return;
+
+        File tmp = null;
+        DataOutputStream out = null;
+        try
+        {
+            if (!_directory.exists() && !_directory.mkdirs() && !_directory.exists())
+                throw new IOException("Cannot create "+_directory);
+
+            //write to a temporary file first, so that a cache file is never seen half written
+            tmp = File.createTempFile(file.getName(), ".tmp", _directory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT);
+            out.writeUTF(getPath(jar));
+            out.writeLong(jar.length());
+            out.writeLong(jar.lastModified());
+            out.writeUTF(exclusions);
+            writeClasses(out, scannedClasses);
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(file))
+            {
+                //cannot rename over an existing file on some platforms
+                file.delete();
+                if (!tmp.renameTo(file))
+                    throw new IOException("Cannot rename "+tmp+" to "+file);
+            }
+            tmp = null;
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Unable to write scan cache {} for {}", file, jar);
+            LOG.debug(e);
+        }
+        finally
+        {
+            IO.close(out);
+            if (tmp != null)
+                tmp.delete();
+        }
+    }
+
+    /**
+     * Remove all the cache files
+     */
+    public void clear ()
+    {
+        File[] files = _directory.listFiles();
+        for (int i=0; files != null && i<files.length; i++)
+        {
+            if (files[i].getName().endsWith(".scan"))
+                files[i].delete();
+        }
+    }
+
+    private File getFile (Resource jar)
+    {
+        try
+        {
+            if (jar.getFile() == null)
+                return null;
+
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            byte[] digest = md5.digest(getPath(jar).getBytes(StringUtil.__UTF8_CHARSET));
+            return new File(_directory, jar.getName().replaceAll(".*[/\\\\]", "")+"-"+TypeUtil.toHexString(digest)+".scan");
+        }
+        catch (Exception e)
+        {
+            LOG.ignore(e);
+            return null;
+        }
+    }
+
+    private String getPath (Resource jar) throws IOException
+    {
+        return jar.getFile().getCanonicalPath();
+    }
+
+    private void writeClasses (DataOutputStream out, List<ScannedClass> scannedClasses) throws IOException
+    {
+        out.writeInt(scannedClasses.size());
+        for (ScannedClass c : scannedClasses)
+        {
+            out.writeUTF(c.getClassName());
+            out.writeInt(c.getVersion());
+            out.writeInt(c.getAccess());
+            writeString(out, c.getSignature());
+            writeString(out, c.getSuperName());
+            writeStrings(out, c.getInterfaces());
+
+            List<ScannedAnnotation> annotations = c.getAnnotations();
+            out.writeInt(annotations.size());
+            for (ScannedAnnotation a : annotations)
+            {
+                out.writeUTF(a.getElementType().name());
+                out.writeUTF(a.getAnnotationName());
+                writeValues(out, a.getValues());
+                writeString(out, a.getName());
+                out.writeInt(a.getAccess());
+                writeString(out, a.getDesc());
+                writeString(out, a.getSignature());
+                writeStrings(out, a.getExceptions());
+                writeValue(out, a.getValue());
+            }
+        }
+    }
+
+    private List<ScannedClass> readClasses (DataInputStream in) throws IOException
+    {
+        int size = in.readInt();
+        List<ScannedClass> scannedClasses = new ArrayList<ScannedClass>(size);
+        for (int i=0; i<size; i++)
+        {
+            ScannedClass c = new ScannedClass(in.readUTF(), in.readInt(), in.readInt(),
+                                              readString(in), readString(in), readStrings(in));
+
+            int annotations = in.readInt();
+            for (int j=0; j<annotations; j++)
+            {
+                ElementType elementType = ElementType.valueOf(in.readUTF());
+                String annotationName = in.readUTF();
+                List<Value> values = readValues(in);
+                c.addAnnotation(new ScannedAnnotation(elementType, annotationName, values,
+                                                      readString(in), in.readInt(), readString(in),
+                                                      readString(in), readStrings(in), readValue(in)));
+            }
+            scannedClasses.add(c);
+        }
+        return scannedClasses;
+    }
+
+    private void writeValues (DataOutputStream out, List<Value> values) throws IOException
+    {
+        out.writeInt(values.size());
+        for (Value v : values)
+        {
+            writeString(out, v.getName());
+            if (v instanceof ListValue)
+            {
+                out.writeByte('L');
+                writeValues(out, ((ListValue)v).getList());
+            }
+            else
+            {
+                out.writeByte('S');
+                writeValue(out, v.getValue());
+            }
+        }
+    }
+
+    private List<Value> readValues (DataInputStream in) throws IOException
+    {
+        int size = in.readInt();
+        List<Value> values = new ArrayList<Value>(size);
+        for (int i=0; i<size; i++)
+        {
+            String name = readString(in);
+            byte kind = in.readByte();
+            if (kind == 'L')
+            {
+                ListValue v = new ListValue(name);
+                v.getList().addAll(readValues(in));
+                values.add(v);
+            }
+            else
+            {
+                SimpleValue v = new SimpleValue(name);
+                v.setValue(readValue(in));
+                values.add(v);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Write a constant or annotation value, which asm reads as a boxed primitive, a String, 
+     * a {@link Type}, or an array of primitives
+     */
+    private void writeValue (DataOutputStream out, Object value) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte('N');
+        }
+        else if (value instanceof Type)
+        {
+            out.writeByte('T');
+            out.writeUTF(((Type)value).getDescriptor());
+        }
+        else if (value instanceof String)
+        {
+            //constants may be longer than writeUTF allows
+            byte[] bytes = ((String)value).getBytes(StringUtil.__UTF8_CHARSET);
+            out.writeByte('s');
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else if (value.getClass().isArray() && value.getClass().getComponentType().isPrimitive())
+        {
+            out.writeByte('[');
+            out.writeByte(getTag(value.getClass().getComponentType()));
+            int length = Array.getLength(value);
+            out.writeInt(length);
+            for (int i=0; i<length; i++)
+                writePrimitive(out, Array.get(value, i));
+        }
+        else
+        {
+            writePrimitive(out, value);
+        }
+    }
+
+    private Object readValue (DataInputStream in) throws IOException
+    {
+        byte tag = in.readByte();
+        switch (tag)
+        {
+            case 'N':
+                return null;
+            case 'T':
+                return Type.getType(in.readUTF());
+            case 's':
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StringUtil.__UTF8_CHARSET);
+            case '[':
+                byte componentTag = in.readByte();
+                Object array = Array.newInstance(getType(componentTag), in.readInt());
+                for (int i=0; i<Array.getLength(array); i++)
+                    Array.set(array, i, readPrimitive(in, in.readByte()));
+                return array;
+            default:
+                return readPrimitive(in, tag);
+        }
+    }
+
+    private void writePrimitive (DataOutputStream out, Object value) throws IOException
+    {
+        if (value instanceof Boolean)
+        {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean)value);
+        }
+        else if (value instanceof Byte)
+        {
+            out.writeByte('B');
+            out.writeByte((Byte)value);
+        }
+        else if (value instanceof Character)
+        {
+            out.writeByte('C');
+            out.writeChar((Character)value);
+        }
+        else if (value instanceof Short)
+        {
+            out.writeByte('S');
+            out.writeShort((Short)value);
+        }
+        else if (value instanceof Integer)
+        {
+            out.writeByte('I');
+            out.writeInt((Integer)value);
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte('J');
+            out.writeLong((Long)value);
+        }
+        else if (value instanceof Float)
+        {
+            out.writeByte('F');
+            out.writeFloat((Float)value);
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte('D');
+            out.writeDouble((Double)value);
+        }
+        else
+        {
+            throw new IOException("Cannot cache value of "+value.getClass());
+        }
+    }
+
+    private Object readPrimitive (DataInputStream in, byte tag) throws IOException
+    {
+        switch (tag)
+        {
+            case 'Z':
+                return in.readBoolean();
+            case 'B':
+                return in.readByte();
+            case 'C':
+                return in.readChar();
+            case 'S':
+                return in.readShort();
+            case 'I':
+                return in.readInt();
+            case 'J':
+                return in.readLong();
+            case 'F':
+                return in.readFloat();
+            case 'D':
+                return in.readDouble();
+            default:
+                throw new IOException("Unknown value tag "+tag);
+        }
+    }
+
+    private byte getTag (Class<?> primitive)
+    {
+        return (byte)Type.getDescriptor(primitive).charAt(0);
+    }
+
+    private Class<?> getType (byte tag) throws IOException
+    {
+        switch (tag)
+        {
+            case 'Z':
+                return boolean.class;
+            case 'B':
+                return byte.class;
+            case 'C':
+                return char.class;
+            case 'S':
+                return short.class;
+            case 'I':
+                return int.class;
+            case 'J':
+                return long.class;
+            case 'F':
+                return float.class;
+            case 'D':
+                return double.class;
+            default:
+                throw new IOException("Unknown array tag "+tag);
+        }
+    }
+
+    private void writeString (DataOutputStream out, String value) throws IOException
+    {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private String readString (DataInputStream in) throws IOException
+    {
+        return in.readBoolean()?in.readUTF():null;
+    }
+
+    private void writeStrings (DataOutputStream out, String[] values) throws IOException
+    {
+        out.writeInt(values == null?-1:values.length);
+        for (int i=0; values != null && i<values.length; i++)
+            out.writeUTF(values[i]);
+    }
+
+    private String[] readStrings (DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        String[] values = new String[length];
+        for (int i=0; i<length; i++)
+            values[i] = in.readUTF();
+        return values;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,hits=%d,misses=%d}", getClass().getSimpleName(), hashCode(), _directory, getHits(), getMisses());
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.annotations;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 import java.io.File;
@@ -25,9 +26,12 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.eclipse.jetty.annotations.TestJarScanCache.RecordingAnnotationHandler;
+import org.eclipse.jetty.toolchain.test.TestingDir;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.webapp.FragmentDescriptor;
 import org.eclipse.jetty.webapp.WebAppContext;
+import org.junit.Rule;
 import org.junit.Test;
 
 /**
@@ -37,6 +41,9 @@ import org.junit.Test;
  */
 public class TestAnnotationConfiguration
 {
+    @Rule
+    public TestingDir testdir = new TestingDir();
+
     @Test
     public void testGetFragmentFromJar() throws Exception
     {
@@ -56,4 +63,38 @@ public class TestAnnotationConfiguration
 
         assertNotNull(config.getFragmentFromJar(jar1, frags));
     }
+
+    @Test
+    public void testParseWebInfLibInJarOrder() throws Exception
+    {
+        File dir = testdir.getEmptyDir();
+        WebAppContext wac = new WebAppContext();
+        wac.getMetaData().addWebInfJar(Resource.newResource(TestJarScanCache.createJar(dir, "a.jar", "org.eclipse.jetty.annotations.ClassA")));
+        wac.getMetaData().addWebInfJar(Resource.newResource(TestJarScanCache.createJar(dir, "b.jar", "org.eclipse.jetty.annotations.ClassB")));
+        wac.getMetaData().addWebInfJar(Resource.newResource(TestJarScanCache.createJar(dir, "c.jar", "org.eclipse.jetty.annotations.ServletC")));
+
+        //serially, without cache
+        wac.setAttribute(AnnotationConfiguration.SCAN_THREADS, "1");
+        List<String> expected = parseWebInfLib(wac);
+        assertEquals(10, expected.size());
+        assertEquals("org.eclipse.jetty.annotations.ClassA java/lang/Object [(value:1)]", expected.get(0));
+
+        //in parallel, filling the cache then from the cache
+        JarScanCache cache = new JarScanCache(new File(dir, "cache"));
+        wac.setAttribute(AnnotationConfiguration.SCAN_THREADS, "3");
+        wac.setAttribute(AnnotationConfiguration.JAR_SCAN_CACHE, cache);
+        assertEquals(expected, parseWebInfLib(wac));
+        assertEquals(3, cache.getMisses());
+        assertEquals(expected, parseWebInfLib(wac));
+        assertEquals(3, cache.getHits());
+    }
+
+    private List<String> parseWebInfLib(WebAppContext wac) throws Exception
+    {
+        RecordingAnnotationHandler handler = new RecordingAnnotationHandler("org.eclipse.jetty.annotations.Sample");
+        AnnotationConfiguration config = new AnnotationConfiguration();
+        config._discoverableAnnotationHandlers.add(handler);
+        config.parseWebInfLib(wac, new AnnotationParser());
+        return handler._found;
+    }
 }
@@ -0,0 +1,288 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.annotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.eclipse.jetty.annotations.AnnotationParser.DiscoverableAnnotationHandler;
+import org.eclipse.jetty.annotations.AnnotationParser.ListValue;
+import org.eclipse.jetty.annotations.AnnotationParser.ScannedAnnotation;
+import org.eclipse.jetty.annotations.AnnotationParser.ScannedClass;
+import org.eclipse.jetty.annotations.AnnotationParser.SimpleValue;
+import org.eclipse.jetty.annotations.AnnotationParser.Value;
+import org.eclipse.jetty.toolchain.test.TestingDir;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.resource.Resource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.objectweb.asm.Type;
+
+public class TestJarScanCache
+{
+    @Rule
+    public TestingDir testdir = new TestingDir();
+
+    private static final String[] CLASSES = new String[]{"org.eclipse.jetty.annotations.ClassA", "org.eclipse.jetty.annotations.ClassB", "org.eclipse.jetty.annotations.ServletC"};
+
+    /**
+     * Collects the annotations found, as strings
+     */
+    public static class RecordingAnnotationHandler implements DiscoverableAnnotationHandler
+    {
+        private final String _annotationName;
+        public final List<String> _found = new ArrayList<String>();
+
+        public RecordingAnnotationHandler(String annotationName)
+        {
+            _annotationName = annotationName;
+        }
+
+        public void handleClass(String className, int version, int access, String signature, String superName, String[] interfaces, String annotation,
+                                List<Value> values)
+        {
+            _found.add(className+" "+superName+" "+values);
+        }
+
+        public void handleMethod(String className, String methodName, int access, String desc, String signature, String[] exceptions, String annotation,
+                                 List<Value> values)
+        {
+            _found.add(className+"."+methodName+desc+" "+values);
+        }
+
+        public void handleField(String className, String fieldName, int access, String fieldType, String signature, Object value, String annotation,
+                                List<Value> values)
+        {
+            _found.add(className+"."+fieldName+" "+fieldType+" "+values);
+        }
+
+        public String getAnnotationName()
+        {
+            return _annotationName;
+        }
+    }
+
+    private File createJar(String name) throws Exception
+    {
+        return createJar(testdir.getEmptyDir(), name, CLASSES);
+    }
+
+    /**
+     * Create a jar of test classes
+     */
+    static File createJar(File dir, String name, String... classNames) throws Exception
+    {
+        File jar = new File(dir, name);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try
+        {
+            for (String className : classNames)
+            {
+                String entry = className.replace('.', '/')+".class";
+                out.putNextEntry(new JarEntry(entry));
+                InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(entry);
+                IO.copy(in, out);
+                in.close();
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return jar;
+    }
+
+    private List<String> parse(AnnotationParser parser, List<ScannedClass> scannedClasses) throws Exception
+    {
+        RecordingAnnotationHandler sample = new RecordingAnnotationHandler("org.eclipse.jetty.annotations.Sample");
+        RecordingAnnotationHandler multi = new RecordingAnnotationHandler("org.eclipse.jetty.annotations.Multi");
+        RecordingAnnotationHandler servlet = new RecordingAnnotationHandler("javax.servlet.annotation.WebServlet");
+        parser.registerHandler(sample);
+        parser.registerHandler(multi);
+        parser.registerHandler(servlet);
+        if (scannedClasses == null)
+            parser.parse(CLASSES, null);
+        else
+            parser.parse(scannedClasses, null);
+
+        List<String> found = new ArrayList<String>();
+        found.addAll(sample._found);
+        found.addAll(multi._found);
+        found.addAll(servlet._found);
+        return found;
+    }
+
+    @Test
+    public void testScanJarSameAsParse() throws Exception
+    {
+        File jar = createJar("classes.jar");
+        AnnotationParser parser = new AnnotationParser();
+        List<ScannedClass> scannedClasses = parser.scanJar(Resource.newResource(jar));
+        assertEquals(CLASSES.length, scannedClasses.size());
+        assertEquals(0, parser._parsedClassNames.size());
+
+        List<String> expected = parse(new AnnotationParser(), null);
+        List<String> found = parse(parser, scannedClasses);
+        assertTrue(expected.size() > 0);
+        assertEquals(expected, found);
+        assertTrue(parser.isParsed("org.eclipse.jetty.annotations.ClassA"));
+    }
+
+    @Test
+    public void testScanJarSkipsExcludedClasses() throws Exception
+    {
+        File jar = createJar("classes.jar");
+        final List<String> read = new ArrayList<String>();
+        AnnotationParser parser = new AnnotationParser()
+        {
+            @Override
+            protected ScannedClass readClass(InputStream is) throws IOException
+            {
+                ScannedClass scannedClass = super.readClass(is);
+                read.add(scannedClass.getClassName());
+                return scannedClass;
+            }
+        };
+        ClassNameResolver resolver = new ClassNameResolver()
+        {
+            public boolean isExcluded(String name)
+            {
+                return "org.eclipse.jetty.annotations.ClassA".equals(name);
+            }
+
+            public boolean shouldOverride(String name)
+            {
+                return false;
+            }
+        };
+
+        List<ScannedClass> scannedClasses = parser.scanJar(Resource.newResource(jar), resolver);
+        assertEquals(CLASSES.length-1, scannedClasses.size());
+        assertEquals(CLASSES.length-1, read.size());
+        assertFalse(read.contains("org.eclipse.jetty.annotations.ClassA"));
+    }
+
+    @Test
+    public void testCacheKeyedByExclusions() throws Exception
+    {
+        Resource jar = Resource.newResource(createJar("classes.jar"));
+        JarScanCache cache = new JarScanCache(testdir.getFile("cache"));
+        cache.put(jar, "[org.example.]", new AnnotationParser().scanJar(jar));
+
+        assertNotNull(cache.get(jar, "[org.example.]"));
+        assertNull(cache.get(jar, "[org.other.]"));
+        assertNull(cache.get(jar));
+    }
+
+    @Test
+    public void testCachedSameAsScanned() throws Exception
+    {
+        Resource jar = Resource.newResource(createJar("classes.jar"));
+        JarScanCache cache = new JarScanCache(testdir.getFile("cache"));
+        assertNull(cache.get(jar));
+
+        cache.put(jar, new AnnotationParser().scanJar(jar));
+        List<ScannedClass> cached = new JarScanCache(testdir.getFile("cache")).get(jar);
+        assertNotNull(cached);
+
+        List<String> expected = parse(new AnnotationParser(), null);
+        assertEquals(expected, parse(new AnnotationParser(), cached));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testChangedJarNotCached() throws Exception
+    {
+        File file = createJar("classes.jar");
+        Resource jar = Resource.newResource(file);
+        JarScanCache cache = new JarScanCache(testdir.getFile("cache"));
+        cache.put(jar, new AnnotationParser().scanJar(jar));
+        assertNotNull(cache.get(jar));
+
+        assertTrue(file.setLastModified(file.lastModified()-60000));
+        assertNull(cache.get(Resource.newResource(file)));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testCachedValues() throws Exception
+    {
+        Resource jar = Resource.newResource(createJar("values.jar"));
+
+        List<Value> values = new ArrayList<Value>();
+        SimpleValue type = new SimpleValue("value");
+        type.setValue(Type.getType("Ljava/lang/String;"));
+        values.add(type);
+        ListValue array = new ListValue("array");
+        SimpleValue element = new SimpleValue(null);
+        element.setValue(new int[]{1,2,3});
+        array.addValue(element);
+        SimpleValue chars = new SimpleValue(null);
+        chars.setValue(new char[]{'a','b'});
+        array.addValue(chars);
+        values.add(array);
+        SimpleValue none = new SimpleValue("none");
+        values.add(none);
+        char[] text = new char[70000];
+        Arrays.fill(text, 'x');
+        SimpleValue string = new SimpleValue("string");
+        string.setValue(new String(text));
+        values.add(string);
+
+        ScannedClass scannedClass = new ScannedClass("foo.Bar", 49, 1, null, "java/lang/Object", new String[]{"java/io/Serializable"});
+        scannedClass.addAnnotation(new ScannedAnnotation(ElementType.FIELD, "foo.Annotation", values, "field", 2, "I", null, null, 42));
+
+        JarScanCache cache = new JarScanCache(testdir.getFile("cache"));
+        cache.put(jar, Collections.singletonList(scannedClass));
+        List<ScannedClass> cached = cache.get(jar);
+
+        assertEquals(1, cached.size());
+        ScannedClass c = cached.get(0);
+        assertEquals("foo.Bar", c.getClassName());
+        assertEquals("java/io/Serializable", c.getInterfaces()[0]);
+        ScannedAnnotation a = c.getAnnotations().get(0);
+        assertEquals(ElementType.FIELD, a.getElementType());
+        assertEquals("field", a.getName());
+        assertEquals(42, a.getValue());
+        assertEquals(Type.getType("Ljava/lang/String;"), a.getValues().get(0).getValue());
+        ListValue list = (ListValue)a.getValues().get(1);
+        assertEquals("array", list.getName());
+        assertEquals(3, ((int[])list.getList().get(0).getValue())[2]);
+        assertEquals('b', ((char[])list.getList().get(1).getValue())[1]);
+        assertNull(a.getValues().get(2).getValue());
+        assertEquals(text.length, ((String)a.getValues().get(3).getValue()).length());
+    }
+}
@@ -0,0 +1,339 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.client.api.Connection;
+import org.eclipse.jetty.client.api.Destination;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.component.Dumpable;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+
+/**
+ * <p>The pool of the connections of a {@link Destination}.</p>
+ * <p>Idle connections are kept in a deque and reused in LIFO order, so that the most recently
+ * used connections (with warm TCP windows and caches) are reused first, while the least recently
+ * used ones sit at the bottom of the deque and are eventually closed by their idle timeout;
+ * active connections are kept in a concurrent set.</p>
+ * <p>All operations of the pool are O(1), except {@link #remove(Connection) removing} an idle
+ * connection, which is linear in the number of idle connections, bounded by the
+ * {@link #getMaxConnectionCount() max number of connections}.</p>
+ * <p>Connections that have been used for {@link #getMaxUsage() max usage} exchanges are not
+ * released to the idle connections, but closed by the destination.</p>
+ */
+@ManagedObject("The connection pool of a destination")
+public class ConnectionPool implements Dumpable
+{
+    private static final Logger LOG = Log.getLogger(ConnectionPool.class);
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final SampleStatistic waitTimeStats = new SampleStatistic();
+    private final Destination destination;
+    private final int maxConnections;
+    private final int minConnections;
+    private final int maxUsage;
+    private final BlockingDeque<Connection> idleConnections;
+    private final Set<Connection> activeConnections;
+    private final ConcurrentMap<Connection, AtomicInteger> usages;
+
+    /**
+     * @param destination the destination of the connections
+     * @param maxConnections the max number of connections of the pool
+     * @param minConnections the number of connections to create in advance
+     * @param maxUsage the max number of exchanges a connection is used for, or 0 for no limit
+     */
+    public ConnectionPool(Destination destination, int maxConnections, int minConnections, int maxUsage)
+    {
+        this.destination = destination;
+        this.maxConnections = maxConnections;
+        this.minConnections = Math.min(minConnections, maxConnections);
+        this.maxUsage = maxUsage;
+        this.idleConnections = new LinkedBlockingDeque<>(maxConnections);
+        this.activeConnections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+        this.usages = maxUsage > 0 ? new ConcurrentHashMap<Connection, AtomicInteger>() : null;
+    }
+
+    @ManagedAttribute("The number of connections")
+    public int getConnectionCount()
+    {
+        return connectionCount.get();
+    }
+
+    @ManagedAttribute("The number of connections being opened")
+    public int getPendingConnectionCount()
+    {
+        return pendingCount.get();
+    }
+
+    @ManagedAttribute("The number of idle connections")
+    public int getIdleConnectionCount()
+    {
+        return idleConnections.size();
+    }
+
+    @ManagedAttribute("The number of active connections")
+    public int getActiveConnectionCount()
+    {
+        return activeConnections.size();
+    }
+
+    @ManagedAttribute("The max number of connections")
+    public int getMaxConnectionCount()
+    {
+        return maxConnections;
+    }
+
+    @ManagedAttribute("The number of connections created in advance")
+    public int getMinConnectionCount()
+    {
+        return minConnections;
+    }
+
+    @ManagedAttribute("The max number of exchanges per connection, 0 for no limit")
+    public int getMaxUsage()
+    {
+        return maxUsage;
+    }
+
+    @ManagedAttribute("The max time in ms requests waited for a connection")
+    public long getWaitTimeMax()
+    {
+        return waitTimeStats.getMax();
+    }
+
+    @ManagedAttribute("The mean time in ms requests waited for a connection")
+    public double getWaitTimeMean()
+    {
+        return waitTimeStats.getCount() == 0 ? 0 : waitTimeStats.getMean();
+    }
+
+    @ManagedAttribute("The standard deviation of the time requests waited for a connection")
+    public double getWaitTimeStdDev()
+    {
+        return waitTimeStats.getStdDev();
+    }
+
+    public BlockingDeque<Connection> getIdleConnections()
+    {
+        return idleConnections;
+    }
+
+    public Collection<Connection> getActiveConnections()
+    {
+        return activeConnections;
+    }
+
+    /**
+     * <p>Reserves a slot for a new connection, if the max number of connections is not reached.</p>
+     * <p>The new connection is pending until either {@link #created(Connection)} or
+     * {@link #failed()} is called.</p>
+     *
+     * @return whether a new connection can be created
+     */
+    public boolean tryCreate()
+    {
+        while (true)
+        {
+            int current = connectionCount.get();
+            int next = current + 1;
+            if (next > maxConnections)
+            {
+                LOG.debug("Max connections {}/{} reached for {}", current, maxConnections, destination);
+                return false;
+            }
+            if (connectionCount.compareAndSet(current, next))
+            {
+                pendingCount.incrementAndGet();
+                LOG.debug("Creating connection {}/{} for {}", next, maxConnections, destination);
+                return true;
+            }
+        }
+    }
+
+    public void created(Connection connection)
+    {
+        pendingCount.decrementAndGet();
+        LOG.debug("Created connection {} for {}", connection, destination);
+    }
+
+    public void failed()
+    {
+        pendingCount.decrementAndGet();
+        connectionCount.decrementAndGet();
+    }
+
+    /**
+     * @return the most recently used idle connection, or null if there are no idle connections
+     */
+    public Connection acquire()
+    {
+        return idleConnections.pollFirst();
+    }
+
+    /**
+     * @param connection the connection to make idle
+     * @return false if the idle connections overflow
+     */
+    public boolean idle(Connection connection)
+    {
+        return idleConnections.offerFirst(connection);
+    }
+
+    /**
+     * @param connection the connection to make active, counting one more usage of it
+     * @return false if the connection was already active
+     */
+    public boolean activate(Connection connection)
+    {
+        if (usages != null)
+        {
+            AtomicInteger usage = usages.get(connection);
+            if (usage == null)
+            {
+                usage = new AtomicInteger();
+                AtomicInteger existing = usages.putIfAbsent(connection, usage);
+                if (existing != null)
+                    usage = existing;
+            }
+            usage.incrementAndGet();
+        }
+        return activeConnections.add(connection);
+    }
+
+    /**
+     * @param connection the connection to test
+     * @return whether the connection has been used for the max number of exchanges
+     */
+    public boolean isExhausted(Connection connection)
+    {
+        if (usages == null)
+            return false;
+        AtomicInteger usage = usages.get(connection);
+        return usage != null && usage.get() >= maxUsage;
+    }
+
+    /**
+     * @param connection the connection that is not active anymore
+     * @return true if the connection was active, false if it was not a pooled connection
+     */
+    public boolean release(Connection connection)
+    {
+        return activeConnections.remove(connection);
+    }
+
+    /**
+     * <p>Removes a connection from the pool.</p>
+     * <p>Removing an active connection is O(1). Removing an idle connection scans the idle
+     * connections, which is cheap because there are at most {@link #getMaxConnectionCount()}
+     * of them, and because idle connections are only removed when they are closed, typically by
+     * their idle timeout, which is rare compared to the acquire/release cycle.</p>
+     *
+     * @param connection the connection to remove from the pool
+     * @return whether the connection was in the pool
+     */
+    public boolean remove(Connection connection)
+    {
+        boolean removed = activeConnections.remove(connection);
+        // A connection is either active or idle, so only scan the idle connections if it was not active
+        if (!removed)
+            removed = idleConnections.remove(connection);
+        if (usages != null)
+            usages.remove(connection);
+        if (removed)
+        {
+            int open = connectionCount.decrementAndGet();
+            LOG.debug("Removed connection {} for {} - open: {}", connection, destination, open);
+        }
+        return removed;
+    }
+
+    /**
+     * @param millis the time a request waited in the destination queue before being sent
+     */
+    public void waited(long millis)
+    {
+        waitTimeStats.set(millis);
+    }
+
+    public void close()
+    {
+        List<Connection> idles = new ArrayList<>();
+        idleConnections.drainTo(idles);
+        for (Connection connection : idles)
+            connection.close();
+
+        // A bit drastic, but we cannot wait for all requests to complete
+        List<Connection> actives = new ArrayList<>(activeConnections);
+        activeConnections.clear();
+        for (Connection connection : actives)
+            connection.close();
+
+        if (usages != null)
+            usages.clear();
+        connectionCount.set(0);
+        pendingCount.set(0);
+    }
+
+    @Override
+    public String dump()
+    {
+        return ContainerLifeCycle.dump(this);
+    }
+
+    @Override
+    public void dump(Appendable out, String indent) throws IOException
+    {
+        ContainerLifeCycle.dumpObject(out, this);
+        List<String> connections = new ArrayList<>();
+        for (Connection connection : idleConnections)
+            connections.add(connection + " - IDLE");
+        for (Connection connection : activeConnections)
+            connections.add(connection + " - ACTIVE");
+        ContainerLifeCycle.dump(out, indent, connections);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[c=%d/%d,p=%d,a=%d,i=%d]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getConnectionCount(),
+                getMaxConnectionCount(),
+                getPendingConnectionCount(),
+                getActiveConnectionCount(),
+                getIdleConnectionCount());
+    }
+}
@@ -0,0 +1,47 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+/**
+ * <p>{@link HttpChannel} is the transport of a single {@link HttpExchange}.</p>
+ * <p>An exchange is associated to a channel while its request is sent and its response
+ * is received; for HTTP/1.1 the channel is the {@link HttpConnection} itself, while
+ * multiplexing transports use one channel per exchange over a shared connection.</p>
+ *
+ * @see HttpExchange#setChannel(HttpChannel)
+ */
+public interface HttpChannel
+{
+    /**
+     * <p>Aborts the given exchange, failing both its request and its response.</p>
+     *
+     * @param exchange the exchange to abort
+     * @param cause the abort cause
+     * @return whether the exchange has been aborted, false if its response already completed
+     */
+    boolean abort(HttpExchange exchange, Throwable cause);
+
+    /**
+     * <p>Resumes or stops the sending of the request content, for example after the
+     * server replied to a request with {@code Expect: 100-continue}.</p>
+     *
+     * @param proceed whether the request content must be sent
+     */
+    void proceed(boolean proceed);
+}
@@ -116,6 +116,7 @@ public class HttpClient extends ContainerLifeCycle
     private final List<Request.Listener> requestListeners = new ArrayList<>();
     private final AuthenticationStore authenticationStore = new HttpAuthenticationStore();
     private final Set<ContentDecoder.Factory> decoderFactories = new ContentDecoderFactorySet();
+    private final HttpClientTransport transport;
     private final SslContextFactory sslContextFactory;
     private volatile CookieManager cookieManager;
     private volatile CookieStore cookieStore;
@@ -127,6 +128,9 @@ public class HttpClient extends ContainerLifeCycle
     private volatile HttpField agentField = new HttpField(HttpHeader.USER_AGENT, "Jetty/" + Jetty.VERSION);
     private volatile boolean followRedirects = true;
     private volatile int maxConnectionsPerDestination = 64;
+    private volatile int minConnectionsPerDestination = 0;
+    private volatile int maxRequestsPerConnection = 0;
+    private volatile int pipelineDepth = 1;
     private volatile int maxRequestsQueuedPerDestination = 1024;
     private volatile int requestBufferSize = 4096;
     private volatile int responseBufferSize = 4096;
@@ -160,7 +164,30 @@ public class HttpClient extends ContainerLifeCycle
      */
     public HttpClient(SslContextFactory sslContextFactory)
     {
+        this(new HttpClientTransportOverHTTP(), sslContextFactory);
+    }
+
+    /**
+     * Creates a {@link HttpClient} instance that performs requests using the given transport.
+     *
+     * @param transport the {@link HttpClientTransport} that creates the destinations of this client
+     * @param sslContextFactory the {@link SslContextFactory} that manages TLS encryption
+     * @see #getTransport()
+     */
+    public HttpClient(HttpClientTransport transport, SslContextFactory sslContextFactory)
+    {
+        this.transport = transport;
         this.sslContextFactory = sslContextFactory;
+        transport.setHttpClient(this);
+    }
+
+    /**
+     * @return the {@link HttpClientTransport} of this client
+     * @see #HttpClient(HttpClientTransport, SslContextFactory)
+     */
+    public HttpClientTransport getTransport()
+    {
+        return transport;
     }
 
     /**
@@ -206,6 +233,8 @@ public class HttpClient extends ContainerLifeCycle
         selectorManager.setConnectTimeout(getConnectTimeout());
         addBean(selectorManager);
 
+        addBean(transport);
+
         handlers.add(new ContinueProtocolHandler(this));
         handlers.add(new RedirectProtocolHandler(this));
         handlers.add(new WWWAuthenticationProtocolHandler(this));
@@ -451,14 +480,20 @@ public class HttpClient extends ContainerLifeCycle
         HttpDestination destination = destinations.get(address);
         if (destination == null)
         {
-            destination = new HttpDestination(this, scheme, host, port);
+            destination = transport.newHttpDestination(scheme, host, port);
             if (isRunning())
             {
                 HttpDestination existing = destinations.putIfAbsent(address, destination);
                 if (existing != null)
+                {
                     destination = existing;
+                }
                 else
+                {
                     LOG.debug("Created {}", destination);
+                    if (isRunning())
+                        destination.prewarm();
+                }
                 if (!isRunning())
                     destinations.remove(address);
             }
@@ -568,7 +603,7 @@ public class HttpClient extends ContainerLifeCycle
         return handlers;
     }
 
-    protected ProtocolHandler findProtocolHandler(Request request, Response response)
+    public ProtocolHandler findProtocolHandler(Request request, Response response)
     {
         // Optimized to avoid allocations of iterator instances
         List<ProtocolHandler> protocolHandlers = getProtocolHandlers();
@@ -762,6 +797,72 @@ public class HttpClient extends ContainerLifeCycle
         this.maxConnectionsPerDestination = maxConnectionsPerDestination;
     }
 
+    /**
+     * @return the number of connections that this {@link HttpClient} opens in advance to new {@link Destination}s
+     */
+    public int getMinConnectionsPerDestination()
+    {
+        return minConnectionsPerDestination;
+    }
+
+    /**
+     * Sets the number of connections to open in advance when a destination is first used.
+     * <p />
+     * The connections are opened in the background, so that the first requests to a
+     * destination (or a burst of them) do not have to wait for the connections to be opened.
+     *
+     * @param minConnectionsPerDestination the number of connections to open in advance to {@link Destination}s
+     */
+    public void setMinConnectionsPerDestination(int minConnectionsPerDestination)
+    {
+        this.minConnectionsPerDestination = minConnectionsPerDestination;
+    }
+
+    /**
+     * @return the max number of requests sent on a connection before it is closed, or 0 for no limit
+     */
+    public int getMaxRequestsPerConnection()
+    {
+        return maxRequestsPerConnection;
+    }
+
+    /**
+     * Sets the max number of requests sent on a connection before it is closed.
+     * <p />
+     * Recycling connections allows, for example, to spread the load on servers behind
+     * a load balancer that only balances new connections.
+     *
+     * @param maxRequestsPerConnection the max number of requests per connection, or 0 for no limit
+     */
+    public void setMaxRequestsPerConnection(int maxRequestsPerConnection)
+    {
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+    }
+
+    /**
+     * @return the max number of requests that new {@link Destination}s pipeline on a connection
+     * @see HttpDestination#getPipelineDepth()
+     */
+    public int getPipelineDepth()
+    {
+        return pipelineDepth;
+    }
+
+    /**
+     * Sets the max number of requests that new {@link Destination}s pipeline on a connection.
+     * <p />
+     * HTTP/1.1 pipelining allows to send requests on a connection without waiting for
+     * the responses of the previous requests, but it must be supported by the server.
+     * Pipelining is therefore disabled by default, and can be enabled for all destinations
+     * with this method, or per destination with {@link HttpDestination#setPipelineDepth(int)}.
+     *
+     * @param pipelineDepth the max number of requests pipelined on a connection, or 1 to disable pipelining
+     */
+    public void setPipelineDepth(int pipelineDepth)
+    {
+        this.pipelineDepth = pipelineDepth;
+    }
+
     /**
      * @return the max number of requests that may be queued to a {@link Destination}.
      */
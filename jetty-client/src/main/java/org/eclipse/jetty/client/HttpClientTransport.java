@@ -0,0 +1,50 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+/**
+ * <p>{@link HttpClientTransport} is the pluggable transport of {@link HttpClient}.</p>
+ * <p>The transport creates the {@link HttpDestination}s of the client, and so decides
+ * how the queued exchanges of each destination are sent over the network: the default
+ * transport {@link HttpClientTransportOverHTTP} sends them over pooled HTTP/1.1 connections,
+ * while other transports may multiplex them over a single connection.</p>
+ * <p>The transport is added as a bean of the client, so that it is started and stopped
+ * with the client if it is a {@link org.eclipse.jetty.util.component.LifeCycle}.</p>
+ *
+ * @see HttpClient#HttpClient(HttpClientTransport, org.eclipse.jetty.util.ssl.SslContextFactory)
+ */
+public interface HttpClientTransport
+{
+    /**
+     * <p>Called by the {@link HttpClient} that uses this transport.</p>
+     *
+     * @param client the client that uses this transport
+     */
+    void setHttpClient(HttpClient client);
+
+    /**
+     * <p>Creates a new destination for the given scheme, host and port.</p>
+     *
+     * @param scheme the destination scheme
+     * @param host the destination host
+     * @param port the destination port
+     * @return a new destination
+     */
+    HttpDestination newHttpDestination(String scheme, String host, int port);
+}
@@ -0,0 +1,45 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+/**
+ * <p>The default {@link HttpClientTransport}, that sends requests over pooled HTTP/1.1 connections.</p>
+ */
+public class HttpClientTransportOverHTTP implements HttpClientTransport
+{
+    private volatile HttpClient client;
+
+    @Override
+    public void setHttpClient(HttpClient client)
+    {
+        this.client = client;
+    }
+
+    @Override
+    public HttpDestination newHttpDestination(String scheme, String host, int port)
+    {
+        return new HttpDestination(client, scheme, host, port);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x", getClass().getSimpleName(), hashCode());
+    }
+}
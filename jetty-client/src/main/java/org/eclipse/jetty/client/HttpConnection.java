@@ -18,20 +18,16 @@
 
 package org.eclipse.jetty.client;
 
-import java.net.HttpCookie;
-import java.net.URI;
+import java.io.EOFException;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Enumeration;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
-import org.eclipse.jetty.client.api.Authentication;
 import org.eclipse.jetty.client.api.Connection;
-import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
-import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpHeaderValue;
@@ -42,12 +38,11 @@ import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
-public class HttpConnection extends AbstractConnection implements Connection
+public class HttpConnection extends AbstractConnection implements Connection, HttpChannel
 {
     private static final Logger LOG = Log.getLogger(HttpConnection.class);
-    private static final HttpField CHUNKED_FIELD = new HttpField(HttpHeader.TRANSFER_ENCODING, HttpHeaderValue.CHUNKED);
 
-    private final AtomicReference<HttpExchange> exchange = new AtomicReference<>();
+    private final Deque<HttpExchange> exchanges = new ConcurrentLinkedDeque<>();
     private final HttpClient client;
     private final HttpDestination destination;
     private final HttpSender sender;
@@ -139,7 +134,7 @@ public class HttpConnection extends AbstractConnection implements Connection
     public void send(HttpExchange exchange)
     {
         Request request = exchange.getRequest();
-        normalizeRequest(request);
+        destination.normalizeRequest(request);
 
         // Save the old idle timeout to restore it
         EndPoint endPoint = getEndPoint();
@@ -152,110 +147,108 @@ public class HttpConnection extends AbstractConnection implements Connection
         sender.send(exchange);
     }
 
-    private void normalizeRequest(Request request)
+    /**
+     * <p>Takes the next exchange from the given queue and associates it to this connection,
+     * if the exchange can be pipelined after the exchanges already associated.</p>
+     * <p>Only HTTP/1.1 requests with idempotent methods are pipelined, after the previous
+     * request has been completely sent, up to the {@link HttpDestination#getPipelineDepth()
+     * pipeline depth} of the destination.</p>
+     *
+     * @param queue the queue of exchanges waiting for a connection
+     * @return the exchange taken from the queue, to be sent with {@link #sendPipelined(HttpExchange)},
+     * or null if no exchange can be pipelined on this connection
+     */
+    protected HttpExchange pipeline(Queue<HttpExchange> queue)
     {
-        if (request.getMethod() == null)
-            request.method(HttpMethod.GET);
-
-        if (request.getVersion() == null)
-            request.version(HttpVersion.HTTP_1_1);
-
-        if (request.getIdleTimeout() <= 0)
-            request.idleTimeout(client.getIdleTimeout(), TimeUnit.MILLISECONDS);
-
-        HttpMethod method = request.getMethod();
-        HttpVersion version = request.getVersion();
-        HttpFields headers = request.getHeaders();
-        ContentProvider content = request.getContent();
-
-        if (request.getAgent() == null)
-            headers.put(client.getUserAgentField());
-
-        // Make sure the path is there
-        String path = request.getPath();
-        if (path.trim().length() == 0)
+        HttpExchange exchange;
+        synchronized (this)
         {
-            path = "/";
-            request.path(path);
-        }
-        if (destination.isProxied() && HttpMethod.CONNECT != method)
-        {
-            path = request.getURI().toString();
-            request.path(path);
-        }
-
-        // If we are HTTP 1.1, add the Host header
-        if (version.getVersion() > 10)
-        {
-            if (!headers.containsKey(HttpHeader.HOST.asString()))
-                headers.put(getDestination().getHostField());
+            HttpExchange last = exchanges.peekLast();
+            if (closed || last == null || exchanges.size() >= destination.getPipelineDepth())
+                return null;
+            // The sender must be done with the previous request
+            if (!last.isRequestComplete() || !sender.isIdle() || !isPipelinable(last.getRequest()))
+                return null;
+            exchange = queue.peek();
+            if (exchange == null || !isPipelinable(exchange.getRequest()) || !queue.remove(exchange))
+                return null;
+            exchanges.offerLast(exchange);
         }
+        exchange.setChannel(this);
+        LOG.debug("{} pipelined to {}", exchange, this);
+        return exchange;
+    }
 
-        // Add content headers
-        if (content != null)
-        {
-            long contentLength = content.getLength();
-            if (contentLength >= 0)
-            {
-                if (!headers.containsKey(HttpHeader.CONTENT_LENGTH.asString()))
-                    headers.put(HttpHeader.CONTENT_LENGTH, String.valueOf(contentLength));
-            }
-            else
-            {
-                if (!headers.containsKey(HttpHeader.TRANSFER_ENCODING.asString()))
-                    headers.put(CHUNKED_FIELD);
-            }
-        }
+    /**
+     * @param exchange the exchange returned by {@link #pipeline(Queue)}
+     */
+    protected void sendPipelined(HttpExchange exchange)
+    {
+        Request request = exchange.getRequest();
+        destination.normalizeRequest(request);
 
-        // Cookies
-        List<HttpCookie> cookies = client.getCookieStore().get(request.getURI());
-        StringBuilder cookieString = null;
-        for (int i = 0; i < cookies.size(); ++i)
-        {
-            if (cookieString == null)
-                cookieString = new StringBuilder();
-            if (i > 0)
-                cookieString.append("; ");
-            HttpCookie cookie = cookies.get(i);
-            cookieString.append(cookie.getName()).append("=").append(cookie.getValue());
-        }
-        if (cookieString != null)
-            request.header(HttpHeader.COOKIE.asString(), cookieString.toString());
+        // The idle timeout of the first exchange is restored when all pipelined exchanges are completed
+        EndPoint endPoint = getEndPoint();
+        endPoint.setIdleTimeout(Math.max(endPoint.getIdleTimeout(), request.getIdleTimeout()));
 
-        // Authorization
-        URI authenticationURI = destination.isProxied() ? destination.getProxyURI() : request.getURI();
-        Authentication.Result authnResult = client.getAuthenticationStore().findAuthenticationResult(authenticationURI);
-        if (authnResult != null)
-            authnResult.apply(request);
+        sender.send(exchange);
+    }
 
-        if (!headers.containsKey(HttpHeader.ACCEPT_ENCODING.asString()))
+    private boolean isPipelinable(Request request)
+    {
+        if (request.getAbortCause() != null)
+            return false;
+        HttpVersion version = request.getVersion();
+        if (version != null && version != HttpVersion.HTTP_1_1)
+            return false;
+        // Requests waiting for a 100 Continue response cannot be followed by other requests
+        if (request.getHeaders().contains(HttpHeader.EXPECT, HttpHeaderValue.CONTINUE.asString()))
+            return false;
+        HttpMethod method = request.getMethod();
+        if (method == null)
+            return true;
+        switch (method)
         {
-            HttpField acceptEncodingField = client.getAcceptEncodingField();
-            if (acceptEncodingField != null)
-                headers.put(acceptEncodingField);
+            case GET:
+            case HEAD:
+            case OPTIONS:
+            case TRACE:
+            case PUT:
+            case DELETE:
+                return true;
+            default:
+                return false;
         }
     }
 
+    /**
+     * @return the exchange whose response is expected next, that is the
+     * least recently associated exchange when requests are pipelined
+     */
     public HttpExchange getExchange()
     {
-        return exchange.get();
+        return exchanges.peekFirst();
     }
 
-    protected void associate(HttpExchange exchange)
+    /**
+     * @return the exchange whose request is being sent, that is the
+     * most recently associated exchange when requests are pipelined
+     */
+    public HttpExchange getLastExchange()
     {
-        if (!this.exchange.compareAndSet(null, exchange))
-            throw new UnsupportedOperationException("Pipelined requests not supported");
-        exchange.setConnection(this);
-        LOG.debug("{} associated to {}", exchange, this);
+        return exchanges.peekLast();
     }
 
-    protected HttpExchange disassociate()
+    protected void associate(HttpExchange exchange)
     {
-        HttpExchange exchange = this.exchange.getAndSet(null);
-        if (exchange != null)
-            exchange.setConnection(null);
-        LOG.debug("{} disassociated from {}", exchange, this);
-        return exchange;
+        synchronized (this)
+        {
+            if (!exchanges.isEmpty())
+                throw new UnsupportedOperationException("Pipelined requests must be sent by the destination");
+            exchanges.offer(exchange);
+        }
+        exchange.setChannel(this);
+        LOG.debug("{} associated to {}", exchange, this);
     }
 
     @Override
@@ -281,61 +274,91 @@ public class HttpConnection extends AbstractConnection implements Connection
 
     public void complete(HttpExchange exchange, boolean success)
     {
-        HttpExchange existing = disassociate();
-        if (existing == exchange)
+        boolean disassociated;
+        boolean pipelined;
+        synchronized (this)
         {
-            exchange.awaitTermination();
+            disassociated = exchanges.remove(exchange);
+            pipelined = !exchanges.isEmpty();
+        }
+
+        // It is possible that the exchange has already been disassociated,
+        // for example if the connection idle timeouts: this will fail
+        // the response, but the request may still be under processing.
+        // Eventually the request will also fail as the connection is closed
+        // and will arrive here without being associated anymore.
+        // We just ignore this fact, as the exchange has already been processed
+        if (!disassociated)
+            return;
 
-            // Restore idle timeout
+        exchange.setChannel(null);
+        exchange.awaitTermination();
+
+        // Restore idle timeout
+        if (!pipelined)
             getEndPoint().setIdleTimeout(idleTimeout);
 
-            LOG.debug("{} disassociated from {}", exchange, this);
-            if (success)
+        LOG.debug("{} disassociated from {}", exchange, this);
+        if (success)
+        {
+            HttpFields responseHeaders = exchange.getResponse().getHeaders();
+            Enumeration<String> values = responseHeaders.getValues(HttpHeader.CONNECTION.asString(), ",");
+            if (values != null)
             {
-                HttpFields responseHeaders = exchange.getResponse().getHeaders();
-                Enumeration<String> values = responseHeaders.getValues(HttpHeader.CONNECTION.asString(), ",");
-                if (values != null)
+                while (values.hasMoreElements())
                 {
-                    while (values.hasMoreElements())
+                    if ("close".equalsIgnoreCase(values.nextElement()))
                     {
-                        if ("close".equalsIgnoreCase(values.nextElement()))
-                        {
-                            close();
-                            return;
-                        }
+                        close();
+                        if (pipelined)
+                            abortPipelined(new EOFException("Connection closed by " + exchange.getResponse()));
+                        return;
                     }
                 }
-                destination.release(this);
             }
+            if (pipelined)
+                destination.pipeline(this);
             else
-            {
-                close();
-            }
-        }
-        else if (existing == null)
-        {
-            // It is possible that the exchange has already been disassociated,
-            // for example if the connection idle timeouts: this will fail
-            // the response, but the request may still be under processing.
-            // Eventually the request will also fail as the connection is closed
-            // and will arrive here without an exchange being present.
-            // We just ignore this fact, as the exchange has already been processed
+                destination.release(this);
         }
         else
         {
-            throw new IllegalStateException();
+            close();
+            if (pipelined)
+            {
+                Throwable failure = exchange.getResponseFailure();
+                if (failure == null)
+                    failure = exchange.getRequestFailure();
+                abortPipelined(failure == null ? new EOFException() : failure);
+            }
         }
     }
 
-    public boolean abort(Throwable cause)
+    /**
+     * <p>Fails the exchanges pipelined after an exchange that caused this connection to be closed,
+     * as their responses will never arrive, and tells the destination to stop pipelining.</p>
+     *
+     * @param failure the failure of the exchange that caused this connection to be closed
+     */
+    private void abortPipelined(Throwable failure)
     {
+        LOG.debug("Aborting pipelined exchanges of {}: {}", this, failure);
+        destination.pipelineFailed(this, failure);
+        for (HttpExchange exchange : exchanges)
+            abort(exchange, failure);
+    }
+
+    @Override
+    public boolean abort(HttpExchange exchange, Throwable cause)
+    {
+        sender.abort(exchange, cause);
         // We want the return value to be that of the response
         // because if the response has already successfully
         // arrived then we failed to abort the exchange
-        sender.abort(cause);
-        return receiver.abort(cause);
+        return receiver.abort(exchange, cause);
     }
 
+    @Override
     public void proceed(boolean proceed)
     {
         sender.proceed(proceed);
@@ -20,27 +20,37 @@ package org.eclipse.jetty.client;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.HttpCookie;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeoutException;
 
+import org.eclipse.jetty.client.api.Authentication;
 import org.eclipse.jetty.client.api.Connection;
+import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.Destination;
 import org.eclipse.jetty.client.api.ProxyConfiguration;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
 import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpScheme;
+import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.Promise;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
@@ -51,19 +61,19 @@ import org.eclipse.jetty.util.ssl.SslContextFactory;
 public class HttpDestination implements Destination, Closeable, Dumpable
 {
     private static final Logger LOG = Log.getLogger(HttpDestination.class);
+    private static final HttpField CHUNKED_FIELD = new HttpField(HttpHeader.TRANSFER_ENCODING, HttpHeaderValue.CHUNKED);
 
-    private final AtomicInteger connectionCount = new AtomicInteger();
     private final HttpClient client;
     private final String scheme;
     private final String host;
     private final Address address;
     private final Queue<HttpExchange> exchanges;
-    private final BlockingQueue<Connection> idleConnections;
-    private final BlockingQueue<Connection> activeConnections;
+    private final ConnectionPool connectionPool;
     private final RequestNotifier requestNotifier;
     private final ResponseNotifier responseNotifier;
     private final Address proxyAddress;
     private final HttpField hostField;
+    private volatile int pipelineDepth;
 
     public HttpDestination(HttpClient client, String scheme, String host, int port)
     {
@@ -76,10 +86,8 @@ public class HttpDestination implements Destination, Closeable, Dumpable
         int capacity = Math.min(32, maxRequestsQueued);
         this.exchanges = new BlockingArrayQueue<>(capacity, capacity, maxRequestsQueued);
 
-        int maxConnections = client.getMaxConnectionsPerDestination();
-        capacity = Math.min(8, maxConnections);
-        this.idleConnections = new BlockingArrayQueue<>(capacity, capacity, maxConnections);
-        this.activeConnections = new BlockingArrayQueue<>(capacity, capacity, maxConnections);
+        this.connectionPool = newConnectionPool(client);
+        this.pipelineDepth = client.getPipelineDepth();
 
         this.requestNotifier = new RequestNotifier(client);
         this.responseNotifier = new ResponseNotifier(client);
@@ -93,14 +101,59 @@ public class HttpDestination implements Destination, Closeable, Dumpable
         hostField = new HttpField(HttpHeader.HOST, host);
     }
 
-    protected BlockingQueue<Connection> getIdleConnections()
+    protected ConnectionPool newConnectionPool(HttpClient client)
     {
-        return idleConnections;
+        return new ConnectionPool(this,
+                client.getMaxConnectionsPerDestination(),
+                client.getMinConnectionsPerDestination(),
+                client.getMaxRequestsPerConnection());
     }
 
-    protected BlockingQueue<Connection> getActiveConnections()
+    /**
+     * @return the queue of the exchanges waiting to be sent
+     */
+    protected Queue<HttpExchange> getHttpExchanges()
+    {
+        return exchanges;
+    }
+
+    public ConnectionPool getConnectionPool()
     {
-        return activeConnections;
+        return connectionPool;
+    }
+
+    protected BlockingDeque<Connection> getIdleConnections()
+    {
+        return connectionPool.getIdleConnections();
+    }
+
+    protected Collection<Connection> getActiveConnections()
+    {
+        return connectionPool.getActiveConnections();
+    }
+
+    /**
+     * @return the max number of requests pipelined on a connection, 1 if pipelining is disabled
+     */
+    public int getPipelineDepth()
+    {
+        return pipelineDepth;
+    }
+
+    /**
+     * <p>Sets the max number of requests pipelined on a connection.</p>
+     * <p>When pipelining is enabled, queued HTTP/1.1 requests with idempotent methods are sent on an
+     * active connection, as soon as the previous request has been sent, rather than waiting for an
+     * idle connection or opening a new one; their responses are received in the order they are sent.</p>
+     * <p>If a connection is closed while requests are pipelined, the pipelined requests fail and
+     * pipelining is disabled for this destination.</p>
+     *
+     * @param pipelineDepth the max number of requests pipelined on a connection, or 1 to disable pipelining
+     * @see HttpClient#setPipelineDepth(int)
+     */
+    public void setPipelineDepth(int pipelineDepth)
+    {
+        this.pipelineDepth = pipelineDepth;
     }
 
     public RequestNotifier getRequestNotifier()
@@ -157,6 +210,96 @@ public class HttpDestination implements Destination, Closeable, Dumpable
         return hostField;
     }
 
+    /**
+     * <p>Completes the given request with the defaults of the client and the headers
+     * required by this destination, before the request is sent by a transport.</p>
+     *
+     * @param request the request to normalize
+     */
+    protected void normalizeRequest(Request request)
+    {
+        if (request.getMethod() == null)
+            request.method(HttpMethod.GET);
+
+        if (request.getVersion() == null)
+            request.version(HttpVersion.HTTP_1_1);
+
+        if (request.getIdleTimeout() <= 0)
+            request.idleTimeout(client.getIdleTimeout(), TimeUnit.MILLISECONDS);
+
+        HttpMethod method = request.getMethod();
+        HttpVersion version = request.getVersion();
+        HttpFields headers = request.getHeaders();
+        ContentProvider content = request.getContent();
+
+        if (request.getAgent() == null)
+            headers.put(client.getUserAgentField());
+
+        // Make sure the path is there
+        String path = request.getPath();
+        if (path.trim().length() == 0)
+        {
+            path = "/";
+            request.path(path);
+        }
+        if (isProxied() && HttpMethod.CONNECT != method)
+        {
+            path = request.getURI().toString();
+            request.path(path);
+        }
+
+        // If we are HTTP 1.1, add the Host header
+        if (version.getVersion() > 10)
+        {
+            if (!headers.containsKey(HttpHeader.HOST.asString()))
+                headers.put(getHostField());
+        }
+
+        // Add content headers
+        if (content != null)
+        {
+            long contentLength = content.getLength();
+            if (contentLength >= 0)
+            {
+                if (!headers.containsKey(HttpHeader.CONTENT_LENGTH.asString()))
+                    headers.put(HttpHeader.CONTENT_LENGTH, String.valueOf(contentLength));
+            }
+            else
+            {
+                if (!headers.containsKey(HttpHeader.TRANSFER_ENCODING.asString()))
+                    headers.put(CHUNKED_FIELD);
+            }
+        }
+
+        // Cookies
+        List<HttpCookie> cookies = client.getCookieStore().get(request.getURI());
+        StringBuilder cookieString = null;
+        for (int i = 0; i < cookies.size(); ++i)
+        {
+            if (cookieString == null)
+                cookieString = new StringBuilder();
+            if (i > 0)
+                cookieString.append("; ");
+            HttpCookie cookie = cookies.get(i);
+            cookieString.append(cookie.getName()).append("=").append(cookie.getValue());
+        }
+        if (cookieString != null)
+            request.header(HttpHeader.COOKIE.asString(), cookieString.toString());
+
+        // Authorization
+        URI authenticationURI = isProxied() ? getProxyURI() : request.getURI();
+        Authentication.Result authnResult = client.getAuthenticationStore().findAuthenticationResult(authenticationURI);
+        if (authnResult != null)
+            authnResult.apply(request);
+
+        if (!headers.containsKey(HttpHeader.ACCEPT_ENCODING.asString()))
+        {
+            HttpField acceptEncodingField = client.getAcceptEncodingField();
+            if (acceptEncodingField != null)
+                headers.put(acceptEncodingField);
+        }
+    }
+
     public void send(Request request, List<Response.ResponseListener> listeners)
     {
         if (!scheme.equals(request.getScheme()))
@@ -182,9 +325,7 @@ public class HttpDestination implements Destination, Closeable, Dumpable
                 {
                     LOG.debug("Queued {}", request);
                     requestNotifier.notifyQueued(request);
-                    Connection connection = acquire();
-                    if (connection != null)
-                        process(connection, false);
+                    send();
                 }
             }
             else
@@ -199,6 +340,19 @@ public class HttpDestination implements Destination, Closeable, Dumpable
         }
     }
 
+    /**
+     * <p>Sends the queued exchanges, if possible.</p>
+     * <p>This implementation acquires a pooled connection and processes the next queued
+     * exchange with it; subclasses that use a different transport override this method
+     * to take the exchanges from {@link #getHttpExchanges()}.</p>
+     */
+    protected void send()
+    {
+        Connection connection = acquire();
+        if (connection != null)
+            process(connection, false);
+    }
+
     public void newConnection(Promise<Connection> promise)
     {
         createConnection(new ProxyPromise(promise));
@@ -211,75 +365,101 @@ public class HttpDestination implements Destination, Closeable, Dumpable
 
     protected Connection acquire()
     {
-        Connection result = idleConnections.poll();
+        Connection result = connectionPool.acquire();
         if (result != null)
             return result;
 
-        final int maxConnections = client.getMaxConnectionsPerDestination();
-        while (true)
+        // Pipeline on active connections rather than opening new ones
+        if (getPipelineDepth() > 1)
         {
-            int current = connectionCount.get();
-            final int next = current + 1;
-
-            if (next > maxConnections)
+            for (Connection connection : getActiveConnections())
             {
-                LOG.debug("Max connections per destination {} exceeded for {}", current, this);
-                // Try again the idle connections
-                return idleConnections.poll();
+                if (pipeline((HttpConnection)connection))
+                    return null;
             }
+        }
 
-            if (connectionCount.compareAndSet(current, next))
-            {
-                LOG.debug("Creating connection {}/{} for {}", next, maxConnections, this);
+        if (connectionPool.tryCreate())
+            createPooledConnection(false);
 
-                // This is the promise that is being called when a connection (eventually proxied) succeeds or fails.
-                Promise<Connection> promise = new Promise<Connection>()
-                {
-                    @Override
-                    public void succeeded(Connection connection)
-                    {
-                        process(connection, true);
-                    }
+        // Try again the idle connections
+        return connectionPool.acquire();
+    }
 
-                    @Override
-                    public void failed(final Throwable x)
-                    {
-                        client.getExecutor().execute(new Runnable()
-                        {
-                            @Override
-                            public void run()
-                            {
-                                abort(x);
-                            }
-                        });
-                    }
-                };
+    /**
+     * <p>Creates, in advance, the connections needed to reach the
+     * {@link HttpClient#getMinConnectionsPerDestination() min number of connections}.</p>
+     * <p>The new connections become idle, unless requests have been queued in the meantime.</p>
+     * <p>Prewarming is best-effort: a connection that fails to open is only logged, and any
+     * request queued in the meantime gets a connection opened on its behalf.</p>
+     */
+    public void prewarm()
+    {
+        while (connectionPool.getConnectionCount() < connectionPool.getMinConnectionCount())
+        {
+            if (!connectionPool.tryCreate())
+                break;
+            createPooledConnection(true);
+        }
+    }
 
-                // Create a new connection, and pass a ProxyPromise to establish a proxy tunnel, if needed.
-                // Differently from the case where the connection is created explicitly by applications, here
-                // we need to do a bit more logging and keep track of the connection count in case of failures.
-                createConnection(new ProxyPromise(promise)
-                {
-                    @Override
-                    public void succeeded(Connection connection)
-                    {
-                        LOG.debug("Created connection {}/{} {} for {}", next, maxConnections, connection, HttpDestination.this);
-                        super.succeeded(connection);
-                    }
+    private void createPooledConnection(final boolean prewarm)
+    {
+        // This is the promise that is being called when a connection (eventually proxied) succeeds or fails.
+        Promise<Connection> promise = new Promise<Connection>()
+        {
+            @Override
+            public void succeeded(Connection connection)
+            {
+                process(connection, true);
+            }
 
+            @Override
+            public void failed(final Throwable x)
+            {
+                client.getExecutor().execute(new Runnable()
+                {
                     @Override
-                    public void failed(Throwable x)
+                    public void run()
                     {
-                        LOG.debug("Connection failed {} for {}", x, HttpDestination.this);
-                        connectionCount.decrementAndGet();
-                        super.failed(x);
+                        if (prewarm)
+                            prewarmFailed(x);
+                        else
+                            abort(x);
                     }
                 });
+            }
+        };
+
+        // Create a new connection, and pass a ProxyPromise to establish a proxy tunnel, if needed.
+        // Differently from the case where the connection is created explicitly by applications, here
+        // we need to do a bit more logging and keep track of the connection count in case of failures.
+        createConnection(new ProxyPromise(promise)
+        {
+            @Override
+            public void succeeded(Connection connection)
+            {
+                connectionPool.created(connection);
+                super.succeeded(connection);
+            }
 
-                // Try again the idle connections
-                return idleConnections.poll();
+            @Override
+            public void failed(Throwable x)
+            {
+                LOG.debug("Connection failed {} for {}", x, HttpDestination.this);
+                connectionPool.failed();
+                super.failed(x);
             }
-        }
+        });
+    }
+
+    private void prewarmFailed(Throwable cause)
+    {
+        LOG.info("Prewarm connection failed {} for {}", cause, this);
+        // Requests may have been queued waiting for the prewarm connection,
+        // open a connection for them so that they do not wait forever
+        if (!exchanges.isEmpty() && connectionPool.tryCreate())
+            createPooledConnection(false);
     }
 
     private void abort(Throwable cause)
@@ -308,7 +488,7 @@ public class HttpDestination implements Destination, Closeable, Dumpable
         if (exchange == null)
         {
             LOG.debug("{} idle", httpConnection);
-            if (!idleConnections.offer(httpConnection))
+            if (!connectionPool.idle(httpConnection))
             {
                 LOG.debug("{} idle overflow");
                 httpConnection.close();
@@ -332,10 +512,8 @@ public class HttpDestination implements Destination, Closeable, Dumpable
             else
             {
                 LOG.debug("{} active", httpConnection);
-                if (!activeConnections.offer(httpConnection))
-                {
-                    LOG.warn("{} active overflow");
-                }
+                connectionPool.activate(httpConnection);
+                connectionPool.waited(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - exchange.getQueueTime()));
                 if (dispatch)
                 {
                     client.getExecutor().execute(new Runnable()
@@ -355,13 +533,59 @@ public class HttpDestination implements Destination, Closeable, Dumpable
         }
     }
 
+    /**
+     * <p>Sends a queued exchange pipelined on the given active connection, if the connection can accept it.</p>
+     *
+     * @param connection the active connection
+     * @return whether an exchange has been sent
+     */
+    protected boolean pipeline(HttpConnection connection)
+    {
+        // Explicitly created connections are not used to send queued requests
+        if (getPipelineDepth() <= 1 || !getActiveConnections().contains(connection))
+            return false;
+
+        HttpExchange exchange = connection.pipeline(exchanges);
+        if (exchange == null)
+            return false;
+
+        LOG.debug("{} pipelined", connection);
+        connectionPool.activate(connection);
+        connectionPool.waited(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - exchange.getQueueTime()));
+        connection.sendPipelined(exchange);
+        return true;
+    }
+
+    /**
+     * <p>Disables pipelining after a connection has been closed with pipelined requests,
+     * unless the connection was closed because of a timeout.</p>
+     *
+     * @param connection the connection that has been closed
+     * @param failure the failure that caused the connection to be closed
+     */
+    protected void pipelineFailed(HttpConnection connection, Throwable failure)
+    {
+        if (failure instanceof TimeoutException)
+            return;
+        if (getPipelineDepth() > 1)
+        {
+            LOG.debug("Pipelining disabled for {} after {} on {}", this, failure, connection);
+            setPipelineDepth(1);
+        }
+    }
+
     public void release(Connection connection)
     {
         LOG.debug("{} released", connection);
         if (client.isRunning())
         {
-            boolean removed = activeConnections.remove(connection);
-            if (removed)
+            if (connectionPool.isExhausted(connection))
+            {
+                LOG.debug("{} exhausted", connection);
+                // Closing the connection removes it from the pool
+                connection.close();
+            }
+            else if (connectionPool.release(connection))
                 process(connection, false);
             else
                 LOG.debug("{} explicit", connection);
@@ -376,40 +600,21 @@ public class HttpDestination implements Destination, Closeable, Dumpable
 
     public void remove(Connection connection)
     {
-        boolean removed = activeConnections.remove(connection);
-        removed |= idleConnections.remove(connection);
-        if (removed)
-        {
-            int open = connectionCount.decrementAndGet();
-            LOG.debug("Removed connection {} for {} - open: {}", connection, this, open);
-        }
+        connectionPool.remove(connection);
 
         // We need to execute queued requests even if this connection failed.
         // We may create a connection that is not needed, but it will eventually
         // idle timeout, so no worries
         if (!exchanges.isEmpty())
-        {
-            connection = acquire();
-            if (connection != null)
-                process(connection, false);
-        }
+            send();
     }
 
     public void close()
     {
-        for (Connection connection : idleConnections)
-            connection.close();
-        idleConnections.clear();
-
-        // A bit drastic, but we cannot wait for all requests to complete
-        for (Connection connection : activeConnections)
-            connection.close();
-        activeConnections.clear();
+        connectionPool.close();
 
         abort(new AsynchronousCloseException());
 
-        connectionCount.set(0);
-
         LOG.debug("Closed {}", this);
     }
 
@@ -422,6 +627,14 @@ public class HttpDestination implements Destination, Closeable, Dumpable
     {
         Request request = exchange.getRequest();
         HttpResponse response = exchange.getResponse();
+        // The content was not sent, but its provider may be waiting for it to be written
+        ContentProvider content = request.getContent();
+        if (content instanceof AsyncContentProvider)
+        {
+            Iterator<ByteBuffer> iterator = content.iterator();
+            if (iterator instanceof Callback)
+                ((Callback)iterator).failed(cause);
+        }
         getRequestNotifier().notifyFailure(request, cause);
         List<Response.ResponseListener> listeners = exchange.getConversation().getResponseListeners();
         getResponseNotifier().notifyFailure(listeners, response, cause);
@@ -438,12 +651,7 @@ public class HttpDestination implements Destination, Closeable, Dumpable
     public void dump(Appendable out, String indent) throws IOException
     {
         ContainerLifeCycle.dumpObject(out, this + " - requests queued: " + exchanges.size());
-        List<String> connections = new ArrayList<>();
-        for (Connection connection : idleConnections)
-            connections.add(connection + " - IDLE");
-        for (Connection connection : activeConnections)
-            connections.add(connection + " - ACTIVE");
-        ContainerLifeCycle.dump(out, indent, connections);
+        ContainerLifeCycle.dump(out, indent, Collections.singletonList(connectionPool));
     }
 
     @Override
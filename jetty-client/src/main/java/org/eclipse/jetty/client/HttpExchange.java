@@ -40,7 +40,8 @@ public class HttpExchange
     private final Request request;
     private final List<Response.ResponseListener> listeners;
     private final HttpResponse response;
-    private volatile HttpConnection connection;
+    private final long queueTime = System.nanoTime();
+    private volatile HttpChannel channel;
     private volatile Throwable requestFailure;
     private volatile Throwable responseFailure;
 
@@ -55,6 +56,14 @@ public class HttpExchange
         conversation.updateResponseListeners(null);
     }
 
+    /**
+     * @return the {@link System#nanoTime()} at which this exchange was queued
+     */
+    public long getQueueTime()
+    {
+        return queueTime;
+    }
+
     public HttpConversation getConversation()
     {
         return conversation;
@@ -85,9 +94,18 @@ public class HttpExchange
         return responseFailure;
     }
 
-    public void setConnection(HttpConnection connection)
+    public void setChannel(HttpChannel channel)
+    {
+        this.channel = channel;
+    }
+
+    /**
+     * @return whether the request has been completed, either successfully or not
+     */
+    public boolean isRequestComplete()
     {
-        this.connection = connection;
+        int requestComplete = 0b0001;
+        return (complete.get() & requestComplete) == requestComplete;
     }
 
     public AtomicMarkableReference<Result> requestComplete(Throwable failure)
@@ -181,12 +199,12 @@ public class HttpExchange
         }
         else
         {
-            HttpConnection connection = this.connection;
-            // If there is no connection, this exchange is already completed
-            if (connection == null)
+            HttpChannel channel = this.channel;
+            // If there is no channel, this exchange is already completed
+            if (channel == null)
                 return false;
 
-            boolean aborted = connection.abort(cause);
+            boolean aborted = channel.abort(this, cause);
             LOG.debug("Aborted while active ({}) {}: {}", aborted, this, cause);
             return aborted;
         }
@@ -202,9 +220,9 @@ public class HttpExchange
 
     public void proceed(boolean proceed)
     {
-        HttpConnection connection = this.connection;
-        if (connection != null)
-            connection.proceed(proceed);
+        HttpChannel channel = this.channel;
+        if (channel != null)
+            channel.proceed(proceed);
     }
 
     public void terminateRequest()
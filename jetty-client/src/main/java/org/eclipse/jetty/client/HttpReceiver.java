@@ -41,6 +41,7 @@ import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -49,9 +50,12 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
     private static final Logger LOG = Log.getLogger(HttpReceiver.class);
 
     private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+    private final AtomicReference<Demand> demand = new AtomicReference<>(Demand.NONE);
+    private final Callback contentCallback = new ContentCallback();
     private final HttpParser parser = new HttpParser(this);
     private final HttpConnection connection;
     private ContentDecoder decoder;
+    private ByteBuffer buffer;
 
     public HttpReceiver(HttpConnection connection)
     {
@@ -63,26 +67,49 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
         EndPoint endPoint = connection.getEndPoint();
         HttpClient client = connection.getHttpClient();
         ByteBufferPool bufferPool = client.getByteBufferPool();
-        ByteBuffer buffer = bufferPool.acquire(client.getResponseBufferSize(), true);
+        // The buffer is retained when the receive loop is paused by asynchronous
+        // content listeners, since they may still be consuming its content
+        ByteBuffer buffer = this.buffer;
+        this.buffer = null;
+        // When resuming, the retained buffer is parsed before filling it again
+        boolean resumed = buffer != null;
+        if (buffer == null)
+            buffer = bufferPool.acquire(client.getResponseBufferSize(), true);
         try
         {
             while (true)
             {
-                int read = endPoint.fill(buffer);
-                LOG.debug("Read {} bytes from {}", read, connection);
-                if (read > 0)
+                if (!resumed)
                 {
-                    parse(buffer);
-                }
-                else if (read == 0)
-                {
-                    fillInterested();
-                    break;
+                    int read = endPoint.fill(buffer);
+                    LOG.debug("Read {} bytes from {}", read, connection);
+                    if (read == 0)
+                    {
+                        fillInterested();
+                        break;
+                    }
+                    else if (read < 0)
+                    {
+                        shutdown();
+                        break;
+                    }
                 }
-                else
+                resumed = false;
+
+                while (parse(buffer))
                 {
-                    shutdown();
-                    break;
+                    // Retain the buffer before pausing, since
+                    // receiving may be resumed by another thread
+                    this.buffer = buffer;
+                    if (demand.compareAndSet(Demand.PAUSING, Demand.PAUSED))
+                    {
+                        LOG.debug("Paused receiving from {}", connection);
+                        buffer = null;
+                        return;
+                    }
+                    // The content was consumed while pausing, continue parsing
+                    this.buffer = null;
+                    demand.set(Demand.NONE);
                 }
             }
         }
@@ -98,14 +125,29 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
         }
         finally
         {
-            bufferPool.release(buffer);
+            if (buffer != null)
+                bufferPool.release(buffer);
         }
     }
 
-    private void parse(ByteBuffer buffer)
+    /**
+     * Parses the given buffer until it is empty, or until content is consumed asynchronously.
+     *
+     * @param buffer the buffer to parse
+     * @return true if parsing has been paused waiting for the content to be consumed
+     */
+    private boolean parse(ByteBuffer buffer)
     {
         while (buffer.hasRemaining())
+        {
             parser.parseNext(buffer);
+            // Only the receive loop pauses the demand, while the content
+            // callback moves it from PAUSING to RESUMING, not to NONE
+            Demand current = demand.get();
+            if (current == Demand.PAUSING || current == Demand.RESUMING)
+                return true;
+        }
+        return false;
     }
 
     private void fillInterested()
@@ -281,8 +323,11 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
                     LOG.debug("{} {}: {} bytes", decoder, response, buffer.remaining());
                 }
 
+                demand.set(Demand.PENDING);
                 ResponseNotifier notifier = connection.getDestination().getResponseNotifier();
-                notifier.notifyContent(conversation.getResponseListeners(), response, buffer);
+                notifier.notifyContent(conversation.getResponseListeners(), response, buffer, contentCallback);
+                // If the content has not been consumed yet, stop parsing until it is
+                return demand.compareAndSet(Demand.PENDING, Demand.PAUSING);
             }
         }
         return false;
@@ -339,19 +384,28 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
         // or, the server could just have timed out the connection.
         if (exchange == null)
             return false;
+        return fail(exchange, failure);
+    }
 
+    private boolean fail(HttpExchange exchange, Throwable failure)
+    {
         AtomicMarkableReference<Result> completion = exchange.responseComplete(failure);
         if (!completion.isMarked())
             return false;
 
-        parser.close();
-        decoder = null;
-
-        while (true)
+        // The response of a pipelined exchange has not started yet,
+        // so the parser is only failed for the expected response
+        if (exchange == connection.getExchange())
         {
-            State current = state.get();
-            if (updateState(current, State.FAILURE))
-                break;
+            parser.close();
+            decoder = null;
+
+            while (true)
+            {
+                State current = state.get();
+                if (updateState(current, State.FAILURE))
+                    break;
+            }
         }
 
         exchange.terminateResponse();
@@ -401,9 +455,9 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
         fail(new TimeoutException());
     }
 
-    public boolean abort(Throwable cause)
+    public boolean abort(HttpExchange exchange, Throwable cause)
     {
-        return fail(cause);
+        return fail(exchange, cause);
     }
 
     private boolean updateState(State from, State to)
@@ -414,8 +468,95 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
         return updated;
     }
 
+    private void resume()
+    {
+        LOG.debug("Resuming receiving from {}", connection);
+        connection.getHttpClient().getExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                receive();
+            }
+        });
+    }
+
+    private void release()
+    {
+        ByteBuffer buffer = this.buffer;
+        this.buffer = null;
+        if (buffer != null)
+            connection.getHttpClient().getByteBufferPool().release(buffer);
+    }
+
     private enum State
     {
         IDLE, RECEIVE, FAILURE
     }
+
+    /**
+     * The demand for response content: content is {@code PENDING} while it is being notified;
+     * if it is not consumed by the time the notification returns, the receive loop is
+     * {@code PAUSING} and then {@code PAUSED}, unless the content is consumed concurrently,
+     * which moves the demand to {@code RESUMING} so that the receive loop continues.
+     */
+    private enum Demand
+    {
+        NONE, PENDING, PAUSING, PAUSED, RESUMING
+    }
+
+    private class ContentCallback implements Callback
+    {
+        @Override
+        public void succeeded()
+        {
+            if (consumed())
+                resume();
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            boolean paused = consumed();
+            failAndClose(x);
+            if (paused)
+                release();
+        }
+
+        /**
+         * @return whether the receive loop was paused and must be resumed by the caller
+         */
+        private boolean consumed()
+        {
+            while (true)
+            {
+                Demand current = demand.get();
+                switch (current)
+                {
+                    case PENDING:
+                    {
+                        if (demand.compareAndSet(current, Demand.NONE))
+                            return false;
+                        break;
+                    }
+                    case PAUSING:
+                    {
+                        if (demand.compareAndSet(current, Demand.RESUMING))
+                            return false;
+                        break;
+                    }
+                    case PAUSED:
+                    {
+                        if (demand.compareAndSet(current, Demand.NONE))
+                            return true;
+                        break;
+                    }
+                    default:
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+    }
 }
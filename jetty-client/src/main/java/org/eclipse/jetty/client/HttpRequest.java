@@ -356,6 +356,13 @@ public class HttpRequest implements Request
         return this;
     }
 
+    @Override
+    public Request onResponseContentAsync(Response.AsyncContentListener listener)
+    {
+        this.responseListeners.add(listener);
+        return this;
+    }
+
     @Override
     public Request onResponseSuccess(Response.SuccessListener listener)
     {
@@ -139,7 +139,7 @@ public class HttpSender implements AsyncContentProvider.Listener
         ByteBuffer chunk = null;
         try
         {
-            HttpExchange exchange = connection.getExchange();
+            HttpExchange exchange = connection.getLastExchange();
             // The exchange may be null if it failed concurrently
             if (exchange == null)
                 return;
@@ -360,19 +360,25 @@ public class HttpSender implements AsyncContentProvider.Listener
         if (!commit(request))
             return false;
 
-        if (content != null)
-        {
-            RequestNotifier notifier = connection.getDestination().getRequestNotifier();
-            notifier.notifyContent(request, content);
-        }
-
         if (expecting100ContinueResponse)
         {
+            // Only the headers have been written: the content is written, notified
+            // and its callback succeeded when the 100 Continue response arrives
             LOG.debug("Expecting 100 Continue for {}", request);
             continueContentChunk.signal();
             return false;
         }
 
+        if (content != null)
+        {
+            RequestNotifier notifier = connection.getDestination().getRequestNotifier();
+            notifier.notifyContent(request, content);
+
+            // Tell the content provider that its content has been written
+            if (contentIterator instanceof Callback)
+                ((Callback)contentIterator).succeeded();
+        }
+
         return true;
     }
 
@@ -389,13 +395,13 @@ public class HttpSender implements AsyncContentProvider.Listener
                 // which in turn invokes send(), with the risk of a concurrent invocation of send().
                 // Therefore we wait here on the ContinueContentChunk to send, and send() will signal
                 // when it is ok to proceed.
-                LOG.debug("Proceeding {}", connection.getExchange());
+                LOG.debug("Proceeding {}", connection.getLastExchange());
                 contentChunk.await();
                 send();
             }
             else
             {
-                HttpExchange exchange = connection.getExchange();
+                HttpExchange exchange = connection.getLastExchange();
                 if (exchange != null)
                     fail(new HttpRequestException("Expectation failed", exchange.getRequest()));
             }
@@ -470,9 +476,17 @@ public class HttpSender implements AsyncContentProvider.Listener
         }
     }
 
+    /**
+     * @return whether the previous request, if any, has been completely sent
+     */
+    public boolean isIdle()
+    {
+        return state.get() == State.IDLE && sendState.get() == SendState.IDLE;
+    }
+
     protected boolean success()
     {
-        HttpExchange exchange = connection.getExchange();
+        HttpExchange exchange = connection.getLastExchange();
         if (exchange == null)
             return false;
 
@@ -503,15 +517,25 @@ public class HttpSender implements AsyncContentProvider.Listener
             HttpConversation conversation = exchange.getConversation();
             destination.getResponseNotifier().notifyComplete(conversation.getResponseListeners(), result);
         }
+        else
+        {
+            // While waiting for the response, other requests may be pipelined
+            destination.pipeline(connection);
+        }
 
         return true;
     }
 
     protected boolean fail(Throwable failure)
     {
-        HttpExchange exchange = connection.getExchange();
+        HttpExchange exchange = connection.getLastExchange();
         if (exchange == null)
             return false;
+        return fail(exchange, failure);
+    }
+
+    private boolean fail(HttpExchange exchange, Throwable failure)
+    {
 
         AtomicMarkableReference<Result> completion = exchange.requestComplete(failure);
         if (!completion.isMarked())
@@ -529,6 +553,9 @@ public class HttpSender implements AsyncContentProvider.Listener
 
         shutdownOutput();
 
+        if (contentIterator instanceof Callback)
+            ((Callback)contentIterator).failed(failure);
+
         exchange.terminateRequest();
 
         HttpDestination destination = connection.getDestination();
@@ -561,12 +588,12 @@ public class HttpSender implements AsyncContentProvider.Listener
         connection.getEndPoint().shutdownOutput();
     }
 
-    public boolean abort(Throwable cause)
+    public boolean abort(HttpExchange exchange, Throwable cause)
     {
         State current = state.get();
         boolean abortable = isBeforeCommit(current) ||
                 current == State.COMMIT && contentIterator.hasNext();
-        return abortable && fail(cause);
+        return abortable && fail(exchange, cause);
     }
 
     private boolean isBeforeCommit(State state)
@@ -26,6 +26,7 @@ import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.util.Callback;
 
 /**
  * <p>{@link Response} represents a HTTP response and offers methods to retrieve status code, HTTP version
@@ -145,6 +146,26 @@ public interface Response
         public void onContent(Response response, ByteBuffer content);
     }
 
+    /**
+     * Listener for the response content events that consumes the content asynchronously.
+     */
+    public interface AsyncContentListener extends ResponseListener
+    {
+        /**
+         * Callback method invoked when the response content has been received.
+         * This method may be invoked multiple times; the {@code content} buffer may be consumed
+         * after returning from this method, and the {@code callback} must be completed when the
+         * {@code content} buffer has been consumed.
+         * No further content is read until the {@code callback} is completed, so that slow
+         * consumers apply backpressure to the server.
+         *
+         * @param response the response containing the response line data and the headers
+         * @param content the content bytes received
+         * @param callback the callback to complete when the content has been consumed
+         */
+        public void onContent(Response response, ByteBuffer content, Callback callback);
+    }
+
     /**
      * Listener for the response succeeded event.
      */
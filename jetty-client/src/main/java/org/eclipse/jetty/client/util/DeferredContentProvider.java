@@ -31,6 +31,8 @@ import org.eclipse.jetty.client.AsyncContentProvider;
 import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 
 /**
  * A {@link ContentProvider} that allows to add content after {@link Request#send(Response.CompleteListener)}
@@ -54,6 +56,8 @@ import org.eclipse.jetty.client.api.Response;
  * <p />
  * The deferred content must be provided through {@link #offer(ByteBuffer)}, which can be invoked multiple
  * times, and when all content has been provided it must be signaled with a call to {@link #close()}.
+ * Applications that need to limit the amount of content buffered by this class can use
+ * {@link #offer(ByteBuffer, Callback)} and offer more content only when the callback is succeeded.
  * <p />
  * Example usage:
  * <pre>
@@ -80,12 +84,13 @@ import org.eclipse.jetty.client.api.Response;
  */
 public class DeferredContentProvider implements AsyncContentProvider, Closeable
 {
-    private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+    private static final Chunk CLOSE = new Chunk(BufferUtil.EMPTY_BUFFER, new Callback.Adapter());
 
-    private final Queue<ByteBuffer> chunks = new ConcurrentLinkedQueue<>();
+    private final Queue<Chunk> chunks = new ConcurrentLinkedQueue<>();
     private final AtomicReference<Listener> listener = new AtomicReference<>();
     private final Iterator<ByteBuffer> iterator = new DeferredContentProviderIterator();
     private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile Throwable failure;
 
     /**
      * Creates a new {@link DeferredContentProvider} with the given initial content
@@ -95,7 +100,7 @@ public class DeferredContentProvider implements AsyncContentProvider, Closeable
     public DeferredContentProvider(ByteBuffer... buffers)
     {
         for (ByteBuffer buffer : buffers)
-            chunks.offer(buffer);
+            chunks.offer(new Chunk(buffer, new Callback.Adapter()));
     }
 
     @Override
@@ -120,7 +125,34 @@ public class DeferredContentProvider implements AsyncContentProvider, Closeable
      */
     public boolean offer(ByteBuffer buffer)
     {
-        boolean result = chunks.offer(buffer);
+        return offer(buffer, new Callback.Adapter());
+    }
+
+    /**
+     * Adds the given content buffer to this content provider
+     * and notifies the listener that content is available.
+     * <p />
+     * The given callback is succeeded when the content buffer has been written,
+     * so that applications can wait for it before offering more content, bounding
+     * the amount of content buffered, and can reuse the content buffer.
+     * The callback is failed if the request fails before the content buffer is written.
+     *
+     * @param buffer the content to add
+     * @param callback the callback to notify when the content has been written
+     * @return true if the content was added, false otherwise
+     */
+    public boolean offer(ByteBuffer buffer, Callback callback)
+    {
+        Throwable failure = this.failure;
+        if (failure != null)
+        {
+            callback.failed(failure);
+            return false;
+        }
+        boolean result = chunks.offer(new Chunk(buffer, callback));
+        // The request may have failed concurrently
+        if (this.failure != null)
+            failChunks();
         notifyListener();
         return result;
     }
@@ -145,14 +177,31 @@ public class DeferredContentProvider implements AsyncContentProvider, Closeable
             listener.onContent();
     }
 
+    private void failChunks()
+    {
+        Throwable failure = this.failure;
+        Chunk chunk;
+        while ((chunk = chunks.poll()) != null)
+        {
+            if (chunk != CLOSE)
+                chunk.callback.failed(failure);
+        }
+    }
+
     @Override
     public Iterator<ByteBuffer> iterator()
     {
         return iterator;
     }
 
-    private class DeferredContentProviderIterator implements Iterator<ByteBuffer>
+    /**
+     * The iterator is notified by the request sender when the content buffer
+     * returned by {@link #next()} has been written, or when the request failed.
+     */
+    private class DeferredContentProviderIterator implements Iterator<ByteBuffer>, Callback
     {
+        private volatile Chunk current;
+
         @Override
         public boolean hasNext()
         {
@@ -162,10 +211,11 @@ public class DeferredContentProvider implements AsyncContentProvider, Closeable
         @Override
         public ByteBuffer next()
         {
-            ByteBuffer element = chunks.poll();
+            Chunk element = chunks.poll();
             if (element == CLOSE)
                 throw new NoSuchElementException();
-            return element;
+            current = element;
+            return element == null ? null : element.buffer;
         }
 
         @Override
@@ -173,5 +223,37 @@ public class DeferredContentProvider implements AsyncContentProvider, Closeable
         {
             throw new UnsupportedOperationException();
         }
+
+        @Override
+        public void succeeded()
+        {
+            Chunk chunk = current;
+            current = null;
+            if (chunk != null)
+                chunk.callback.succeeded();
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            failure = x;
+            Chunk chunk = current;
+            current = null;
+            if (chunk != null)
+                chunk.callback.failed(x);
+            failChunks();
+        }
+    }
+
+    private static class Chunk
+    {
+        private final ByteBuffer buffer;
+        private final Callback callback;
+
+        private Chunk(ByteBuffer buffer, Callback callback)
+        {
+            this.buffer = buffer;
+            this.callback = callback;
+        }
     }
 }
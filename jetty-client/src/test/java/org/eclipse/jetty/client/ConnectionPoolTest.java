@@ -0,0 +1,125 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import org.eclipse.jetty.client.api.Connection;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConnectionPoolTest
+{
+    @Test
+    public void testIdleConnectionsAreReusedLIFO() throws Exception
+    {
+        ConnectionPool pool = new ConnectionPool(null, 4, 0, 0);
+        Connection connection1 = newConnection(pool);
+        Connection connection2 = newConnection(pool);
+        Assert.assertTrue(pool.idle(connection1));
+        Assert.assertTrue(pool.idle(connection2));
+
+        Assert.assertSame(connection2, pool.acquire());
+        Assert.assertTrue(pool.activate(connection2));
+        Assert.assertEquals(1, pool.getActiveConnectionCount());
+        Assert.assertEquals(1, pool.getIdleConnectionCount());
+
+        Assert.assertTrue(pool.release(connection2));
+        Assert.assertTrue(pool.idle(connection2));
+
+        // The most recently used connection is reused first
+        Assert.assertSame(connection2, pool.acquire());
+        Assert.assertSame(connection1, pool.acquire());
+        Assert.assertNull(pool.acquire());
+    }
+
+    @Test
+    public void testMaxConnections() throws Exception
+    {
+        ConnectionPool pool = new ConnectionPool(null, 2, 0, 0);
+        Assert.assertTrue(pool.tryCreate());
+        Assert.assertTrue(pool.tryCreate());
+        Assert.assertFalse(pool.tryCreate());
+        Assert.assertEquals(2, pool.getPendingConnectionCount());
+
+        pool.failed();
+        Assert.assertEquals(1, pool.getPendingConnectionCount());
+        Assert.assertEquals(1, pool.getConnectionCount());
+
+        Assert.assertTrue(pool.tryCreate());
+        Assert.assertFalse(pool.tryCreate());
+    }
+
+    @Test
+    public void testMaxUsage() throws Exception
+    {
+        ConnectionPool pool = new ConnectionPool(null, 2, 0, 2);
+        Connection connection = newConnection(pool);
+
+        pool.activate(connection);
+        Assert.assertFalse(pool.isExhausted(connection));
+        Assert.assertTrue(pool.release(connection));
+        Assert.assertTrue(pool.idle(connection));
+
+        Assert.assertSame(connection, pool.acquire());
+        pool.activate(connection);
+        Assert.assertTrue(pool.isExhausted(connection));
+
+        Assert.assertTrue(pool.remove(connection));
+        Assert.assertEquals(0, pool.getConnectionCount());
+        Assert.assertEquals(0, pool.getActiveConnectionCount());
+        Assert.assertFalse(pool.isExhausted(connection));
+    }
+
+    @Test
+    public void testRemoveIdleConnection() throws Exception
+    {
+        ConnectionPool pool = new ConnectionPool(null, 4, 0, 0);
+        Connection connection1 = newConnection(pool);
+        Connection connection2 = newConnection(pool);
+        Assert.assertTrue(pool.idle(connection1));
+        Assert.assertTrue(pool.idle(connection2));
+
+        Assert.assertTrue(pool.remove(connection1));
+        Assert.assertFalse(pool.remove(connection1));
+        Assert.assertEquals(1, pool.getConnectionCount());
+        Assert.assertEquals(1, pool.getIdleConnectionCount());
+        Assert.assertSame(connection2, pool.acquire());
+        Assert.assertNull(pool.acquire());
+    }
+
+    private Connection newConnection(ConnectionPool pool)
+    {
+        Assert.assertTrue(pool.tryCreate());
+        Connection connection = new Connection()
+        {
+            @Override
+            public void send(Request request, Response.CompleteListener listener)
+            {
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+        pool.created(connection);
+        return connection;
+    }
+}
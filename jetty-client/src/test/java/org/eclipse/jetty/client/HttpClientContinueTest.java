@@ -22,9 +22,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -43,6 +45,8 @@ import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.toolchain.test.annotation.Slow;
+import org.eclipse.jetty.util.BlockingCallback;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.StdErrLog;
@@ -690,4 +694,112 @@ public class HttpClientContinueTest extends AbstractHttpClientServerTest
 
         Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
     }
+
+    @Test
+    public void test_Expect100Continue_WithDeferredContentCallbacks_Respond100Continue() throws Exception
+    {
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                // Send 100-Continue and echo the content
+                IO.copy(request.getInputStream(), response.getOutputStream());
+            }
+        });
+
+        final byte[] data = new byte[]{0, 1, 2, 3, 4, 5, 6, 7};
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger notified = new AtomicInteger();
+        DeferredContentProvider content = new DeferredContentProvider();
+        // The first chunk is available when the headers are sent, but it is held until the 100 Continue
+        BlockingCallback callback = new BlockingCallback();
+        content.offer(ByteBuffer.wrap(data, 0, 2), callback);
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .header(HttpHeader.EXPECT, HttpHeaderValue.CONTINUE.asString())
+                .content(content)
+                .onRequestContent(new org.eclipse.jetty.client.api.Request.ContentListener()
+                {
+                    @Override
+                    public void onContent(org.eclipse.jetty.client.api.Request request, ByteBuffer buffer)
+                    {
+                        notified.addAndGet(buffer.remaining());
+                    }
+                })
+                .send(new BufferingResponseListener()
+                {
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        if (Arrays.equals(data, getContent()))
+                            latch.countDown();
+                    }
+                });
+
+        // Each chunk callback must be completed once the chunk is written
+        // after the 100 Continue, otherwise the producer waits forever
+        callback.block();
+        for (int i = 2; i < data.length; i += 2)
+        {
+            content.offer(ByteBuffer.wrap(data, i, 2), callback);
+            callback.block();
+        }
+        content.close();
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        // Content is notified only once it has been written
+        Assert.assertEquals(data.length, notified.get());
+    }
+
+    @Test
+    public void test_Expect100Continue_WithDeferredContentCallbacks_Respond417ExpectationFailed() throws Exception
+    {
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                // Reject the content without reading it
+                response.setStatus(HttpServletResponse.SC_EXPECTATION_FAILED);
+            }
+        });
+
+        DeferredContentProvider content = new DeferredContentProvider();
+        final CountDownLatch completeLatch = new CountDownLatch(1);
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .header(HttpHeader.EXPECT, HttpHeaderValue.CONTINUE.asString())
+                .content(content)
+                .send(new Response.CompleteListener()
+                {
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        completeLatch.countDown();
+                    }
+                });
+
+        // The chunk is never written, but its callback must be completed
+        final CountDownLatch callbackLatch = new CountDownLatch(1);
+        content.offer(ByteBuffer.allocate(16), new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                callbackLatch.countDown();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                callbackLatch.countDown();
+            }
+        });
+
+        Assert.assertTrue(completeLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(callbackLatch.await(5, TimeUnit.SECONDS));
+    }
 }
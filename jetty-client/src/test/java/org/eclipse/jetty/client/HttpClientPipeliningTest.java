@@ -0,0 +1,246 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpClientPipeliningTest extends AbstractHttpClientServerTest
+{
+    public HttpClientPipeliningTest(SslContextFactory sslContextFactory)
+    {
+        super(sslContextFactory);
+    }
+
+    @Test
+    public void test_IdempotentRequests_ArePipelined() throws Exception
+    {
+        int count = 3;
+        final CountDownLatch sentLatch = new CountDownLatch(count);
+        final AtomicBoolean pipelined = new AtomicBoolean();
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                if ("/0".equals(target))
+                    pipelined.set(await(sentLatch, 5));
+                response.getOutputStream().print(target);
+            }
+        });
+        client.setMaxConnectionsPerDestination(1);
+        HttpDestination destination = (HttpDestination)client.getDestination(scheme, "localhost", connector.getLocalPort());
+        destination.setPipelineDepth(count);
+
+        List<CountDownLatch> latches = new ArrayList<>();
+        List<AtomicReference<String>> contents = new ArrayList<>();
+        for (int i = 0; i < count; ++i)
+        {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicReference<String> content = new AtomicReference<>();
+            client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .path("/" + i)
+                    .onRequestSuccess(new Request.SuccessListener()
+                    {
+                        @Override
+                        public void onSuccess(Request request)
+                        {
+                            sentLatch.countDown();
+                        }
+                    })
+                    .send(new BufferingResponseListener()
+                    {
+                        @Override
+                        public void onComplete(Result result)
+                        {
+                            if (result.isSucceeded())
+                                content.set(getContentAsString());
+                            latch.countDown();
+                        }
+                    });
+            latches.add(latch);
+            contents.add(content);
+        }
+
+        for (int i = 0; i < count; ++i)
+        {
+            Assert.assertTrue(latches.get(i).await(5, TimeUnit.SECONDS));
+            Assert.assertEquals("/" + i, contents.get(i).get());
+        }
+        Assert.assertTrue(pipelined.get());
+        Assert.assertEquals(1, destination.getConnectionPool().getConnectionCount());
+        Assert.assertEquals(count, destination.getPipelineDepth());
+    }
+
+    @Test
+    public void test_NonIdempotentRequest_IsNotFollowedByPipelinedRequests() throws Exception
+    {
+        final CountDownLatch sentLatch = new CountDownLatch(1);
+        final AtomicBoolean pipelined = new AtomicBoolean();
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                if (HttpMethod.POST.is(request.getMethod()))
+                    pipelined.set(await(sentLatch, 1));
+            }
+        });
+        client.setMaxConnectionsPerDestination(1);
+        HttpDestination destination = (HttpDestination)client.getDestination(scheme, "localhost", connector.getLocalPort());
+        destination.setPipelineDepth(2);
+
+        final CountDownLatch postLatch = new CountDownLatch(1);
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .method(HttpMethod.POST)
+                .send(new Response.CompleteListener()
+                {
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        if (result.isSucceeded())
+                            postLatch.countDown();
+                    }
+                });
+
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .onRequestSuccess(new Request.SuccessListener()
+                {
+                    @Override
+                    public void onSuccess(Request request)
+                    {
+                        sentLatch.countDown();
+                    }
+                })
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertTrue(postLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(pipelined.get());
+    }
+
+    @Test
+    public void test_ConnectionClose_FailsPipelinedRequests_DisablesPipelining() throws Exception
+    {
+        final CountDownLatch sentLatch = new CountDownLatch(2);
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                if ("/close".equals(target))
+                {
+                    await(sentLatch, 5);
+                    response.setHeader(HttpHeader.CONNECTION.asString(), "close");
+                }
+            }
+        });
+        client.setMaxConnectionsPerDestination(1);
+        HttpDestination destination = (HttpDestination)client.getDestination(scheme, "localhost", connector.getLocalPort());
+        destination.setPipelineDepth(2);
+
+        Request.SuccessListener sentListener = new Request.SuccessListener()
+        {
+            @Override
+            public void onSuccess(Request request)
+            {
+                sentLatch.countDown();
+            }
+        };
+        final CountDownLatch closeLatch = new CountDownLatch(1);
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .path("/close")
+                .onRequestSuccess(sentListener)
+                .send(new Response.CompleteListener()
+                {
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        if (result.isSucceeded())
+                            closeLatch.countDown();
+                    }
+                });
+        final CountDownLatch failureLatch = new CountDownLatch(1);
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .path("/pipelined")
+                .onRequestSuccess(sentListener)
+                .send(new Response.CompleteListener()
+                {
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        if (result.isFailed())
+                            failureLatch.countDown();
+                    }
+                });
+
+        Assert.assertTrue(closeLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(failureLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, destination.getPipelineDepth());
+
+        // The destination falls back to non pipelined requests
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(200, response.getStatus());
+    }
+
+    private static boolean await(CountDownLatch latch, long seconds)
+    {
+        try
+        {
+            return latch.await(seconds, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException x)
+        {
+            return false;
+        }
+    }
+}
@@ -31,9 +31,13 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -55,7 +59,9 @@ import org.eclipse.jetty.client.util.OutputStreamContentProvider;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
 import org.eclipse.jetty.toolchain.test.annotation.Slow;
+import org.eclipse.jetty.util.BlockingCallback;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.junit.Assert;
@@ -836,4 +842,196 @@ public class HttpClientStreamTest extends AbstractHttpClientServerTest
 
         Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
     }
+
+    @Test
+    public void testUploadWithDeferredContentProviderWithCallback() throws Exception
+    {
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                IO.copy(request.getInputStream(), response.getOutputStream());
+            }
+        });
+
+        final byte[] data = new byte[64 * 1024];
+        new Random().nextBytes(data);
+        final CountDownLatch latch = new CountDownLatch(1);
+        DeferredContentProvider content = new DeferredContentProvider();
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .content(content)
+                .send(new BufferingResponseListener(2 * data.length)
+                {
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        if (result.isSucceeded() &&
+                                result.getResponse().getStatus() == 200 &&
+                                Arrays.equals(data, getContent()))
+                            latch.countDown();
+                    }
+                });
+
+        // The same buffer is reused for all the chunks, which is
+        // only possible if the callback waits for each chunk write
+        byte[] buffer = new byte[1024];
+        BlockingCallback callback = new BlockingCallback();
+        for (int offset = 0; offset < data.length; offset += buffer.length)
+        {
+            System.arraycopy(data, offset, buffer, 0, buffer.length);
+            content.offer(ByteBuffer.wrap(buffer), callback);
+            callback.block();
+        }
+        content.close();
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDeferredContentProviderCallbackFailedWhenRequestFails() throws Exception
+    {
+        start(new EmptyServerHandler());
+
+        DeferredContentProvider content = new DeferredContentProvider();
+        Request request = client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .content(content);
+        final CountDownLatch completeLatch = new CountDownLatch(1);
+        request.send(new Response.CompleteListener()
+        {
+            @Override
+            public void onComplete(Result result)
+            {
+                completeLatch.countDown();
+            }
+        });
+
+        final CountDownLatch failedLatch = new CountDownLatch(2);
+        Callback callback = new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                failedLatch.countDown();
+            }
+        };
+        content.offer(ByteBuffer.allocate(16), callback);
+        request.abort(new Exception("explicitly_thrown_by_test"));
+        Assert.assertTrue(completeLatch.await(5, TimeUnit.SECONDS));
+
+        // Content offered after the failure is failed immediately
+        content.offer(ByteBuffer.allocate(16), callback);
+        Assert.assertTrue(failedLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDownloadWithAsyncContentListener() throws Exception
+    {
+        final byte[] data = new byte[2 * 1024 * 1024];
+        new Random().nextBytes(data);
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.getOutputStream().write(data);
+            }
+        });
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final AtomicBoolean pending = new AtomicBoolean();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try
+        {
+            client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .onResponseContentAsync(new Response.AsyncContentListener()
+                    {
+                        @Override
+                        public void onContent(Response response, final ByteBuffer content, final Callback callback)
+                        {
+                            // No content must be notified until the previous content is consumed
+                            if (!pending.compareAndSet(false, true))
+                                overlaps.incrementAndGet();
+                            executor.execute(new Runnable()
+                            {
+                                @Override
+                                public void run()
+                                {
+                                    byte[] bytes = new byte[content.remaining()];
+                                    content.get(bytes);
+                                    received.write(bytes, 0, bytes.length);
+                                    pending.set(false);
+                                    callback.succeeded();
+                                }
+                            });
+                        }
+                    })
+                    .send(new Response.CompleteListener()
+                    {
+                        @Override
+                        public void onComplete(Result result)
+                        {
+                            if (result.isSucceeded() && result.getResponse().getStatus() == 200)
+                                latch.countDown();
+                        }
+                    });
+
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, overlaps.get());
+            Assert.assertArrayEquals(data, received.toByteArray());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncContentListenerFailureFailsResponse() throws Exception
+    {
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.getOutputStream().write(new byte[1024]);
+            }
+        });
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .onResponseContentAsync(new Response.AsyncContentListener()
+                {
+                    @Override
+                    public void onContent(Response response, ByteBuffer content, Callback callback)
+                    {
+                        callback.failed(new Exception("explicitly_thrown_by_test"));
+                    }
+                })
+                .send(new Response.CompleteListener()
+                {
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        if (result.isFailed())
+                            latch.countDown();
+                    }
+                });
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
 }
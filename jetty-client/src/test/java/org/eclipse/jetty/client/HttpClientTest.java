@@ -633,7 +633,7 @@ public class HttpClientTest extends AbstractHttpClientServerTest
                     public void onBegin(Request request)
                     {
                         HttpDestination destination = (HttpDestination)client.getDestination(scheme, host, port);
-                        destination.getActiveConnections().peek().close();
+                        destination.getActiveConnections().iterator().next().close();
                     }
                 })
                 .send(new Response.Listener.Empty()
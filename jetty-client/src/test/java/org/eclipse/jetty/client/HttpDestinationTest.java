@@ -18,9 +18,11 @@
 
 package org.eclipse.jetty.client;
 
+import java.net.ConnectException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.jetty.client.api.Connection;
 import org.eclipse.jetty.client.api.ContentResponse;
@@ -28,6 +30,7 @@ import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
 import org.eclipse.jetty.toolchain.test.annotation.Slow;
+import org.eclipse.jetty.util.Promise;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
@@ -213,4 +216,97 @@ public class HttpDestinationTest extends AbstractHttpClientServerTest
         Assert.assertTrue(failureLatch.await(5, TimeUnit.SECONDS));
         Assert.assertTrue(successLatch.await(5, TimeUnit.SECONDS));
     }
+
+    @Test
+    public void test_Prewarm_CreatesMinConnections() throws Exception
+    {
+        client.setMinConnectionsPerDestination(3);
+
+        HttpDestination destination = (HttpDestination)client.getDestination(scheme, "localhost", connector.getLocalPort());
+
+        long start = System.nanoTime();
+        while (destination.getIdleConnections().size() < 3 && TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5)
+            TimeUnit.MILLISECONDS.sleep(50);
+        Assert.assertEquals(3, destination.getIdleConnections().size());
+        Assert.assertEquals(3, destination.getConnectionPool().getConnectionCount());
+        Assert.assertEquals(0, destination.getConnectionPool().getPendingConnectionCount());
+    }
+
+    @Test
+    public void test_Prewarm_FailedConnection_DoesNotAbortQueuedRequests() throws Exception
+    {
+        client.stop();
+        final AtomicBoolean failFirst = new AtomicBoolean(true);
+        client = new HttpClient(sslContextFactory)
+        {
+            @Override
+            protected void newConnection(HttpDestination destination, final Promise<Connection> promise)
+            {
+                if (failFirst.compareAndSet(true, false))
+                {
+                    // Fail the prewarm connection after a request has been queued
+                    getScheduler().schedule(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            promise.failed(new ConnectException());
+                        }
+                    }, 500, TimeUnit.MILLISECONDS);
+                }
+                else
+                {
+                    super.newConnection(destination, promise);
+                }
+            }
+        };
+        client.setMaxConnectionsPerDestination(1);
+        client.setMinConnectionsPerDestination(1);
+        client.start();
+
+        // The destination is created and prewarmed, so the request is queued
+        // waiting for the prewarm connection that is going to fail
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertFalse(failFirst.get());
+    }
+
+    @Test
+    public void test_MaxRequestsPerConnection_RecyclesConnection() throws Exception
+    {
+        client.setMaxConnectionsPerDestination(1);
+        client.setMaxRequestsPerConnection(2);
+
+        HttpDestination destination = (HttpDestination)client.getDestination(scheme, "localhost", connector.getLocalPort());
+
+        Assert.assertEquals(200, client.newRequest("localhost", connector.getLocalPort()).scheme(scheme).send().getStatus());
+        Connection connection1 = awaitIdleConnection(destination);
+
+        // The second request exhausts the connection, that is closed
+        Assert.assertEquals(200, client.newRequest("localhost", connector.getLocalPort()).scheme(scheme).send().getStatus());
+        Assert.assertEquals(200, client.newRequest("localhost", connector.getLocalPort()).scheme(scheme).send().getStatus());
+        Connection connection2 = awaitIdleConnection(destination);
+
+        Assert.assertNotSame(connection1, connection2);
+        Assert.assertFalse(((HttpConnection)connection1).getEndPoint().isOpen());
+        Assert.assertEquals(1, destination.getConnectionPool().getConnectionCount());
+    }
+
+    private Connection awaitIdleConnection(HttpDestination destination) throws InterruptedException
+    {
+        Connection connection = null;
+        long start = System.nanoTime();
+        while (connection == null && TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5)
+        {
+            connection = destination.getIdleConnections().peek();
+            if (connection == null)
+                TimeUnit.MILLISECONDS.sleep(50);
+        }
+        Assert.assertNotNull(connection);
+        return connection;
+    }
 }
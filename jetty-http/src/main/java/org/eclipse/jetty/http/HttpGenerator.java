@@ -21,6 +21,7 @@ package org.eclipse.jetty.http;
 import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.EnumSet;
 
 import org.eclipse.jetty.http.HttpTokens.EndOfContent;
 import org.eclipse.jetty.util.BufferUtil;
@@ -70,9 +71,30 @@ public class HttpGenerator
                 serverVersion + "\015\012");
     }
 
+    /* ------------------------------------------------------------------------------- */
+    // Headers whose values usually change with every message, or are private to a client,
+    // are never cached by the generator.
+    private final static boolean[] __uncacheable = new boolean[HttpHeader.values().length];
+    static
+    {
+        for (HttpHeader header : EnumSet.of(
+            HttpHeader.DATE,HttpHeader.EXPIRES,HttpHeader.LAST_MODIFIED,HttpHeader.AGE,
+            HttpHeader.ETAG,HttpHeader.LOCATION,HttpHeader.CONTENT_LOCATION,
+            HttpHeader.CONTENT_LENGTH,HttpHeader.CONTENT_RANGE,HttpHeader.CONTENT_MD5,
+            HttpHeader.SET_COOKIE,HttpHeader.SET_COOKIE2,HttpHeader.COOKIE,
+            HttpHeader.AUTHORIZATION,HttpHeader.PROXY_AUTHORIZATION,
+            HttpHeader.WWW_AUTHENTICATE,HttpHeader.PROXY_AUTHENTICATE,
+            HttpHeader.IF_MATCH,HttpHeader.IF_NONE_MATCH,HttpHeader.IF_MODIFIED_SINCE,
+            HttpHeader.IF_UNMODIFIED_SINCE,HttpHeader.IF_RANGE,HttpHeader.RANGE,
+            HttpHeader.REFERER))
+            __uncacheable[header.ordinal()]=true;
+    }
+
     /* ------------------------------------------------------------------------------- */
     // data
     private boolean _needCRLF = false;
+    private String[] _fieldValues;
+    private HttpField.CachedHttpField[] _fieldCache;
 
     /* ------------------------------------------------------------------------------- */
     public HttpGenerator()
@@ -549,6 +571,51 @@ public class HttpGenerator
         return _bytes;
     }
 
+    /* ------------------------------------------------------------ */
+    /** Put a field to the header, using its pre-encoded form if possible.
+     * <p>{@link HttpField.CachedHttpField}s (eg. the shared Date field of the server) are
+     * already encoded. For other known headers, a value is cached by this generator once
+     * it has been seen twice in a row, so that fields repeated over the messages of a connection
+     * (eg. Content-Type, Cache-Control) are only encoded once, while a value seen once costs no
+     * more than encoding the field. Volatile and private headers (eg. Set-Cookie, ETag) are
+     * never cached.</p>
+     */
+    private void putTo(HttpField field,ByteBuffer header)
+    {
+        HttpHeader h=field.getHeader();
+        String value=field.getValue();
+        if (h==null || value==null || field instanceof HttpField.CachedHttpField || __uncacheable[h.ordinal()])
+        {
+            field.putTo(header);
+            return;
+        }
+
+        if (_fieldCache==null)
+        {
+            _fieldCache=new HttpField.CachedHttpField[__uncacheable.length];
+            _fieldValues=new String[__uncacheable.length];
+        }
+        int index=h.ordinal();
+
+        // Values are case sensitive, so compare them exactly
+        HttpField.CachedHttpField cached=_fieldCache[index];
+        if (cached!=null && value.equals(cached.getValue()))
+        {
+            cached.putTo(header);
+        }
+        else if (value.equals(_fieldValues[index]))
+        {
+            cached=new HttpField.CachedHttpField(h,value);
+            _fieldCache[index]=cached;
+            cached.putTo(header);
+        }
+        else
+        {
+            _fieldValues[index]=value;
+            field.putTo(header);
+        }
+    }
+
     /* ------------------------------------------------------------ */
     private void generateHeaders(Info _info,ByteBuffer header,ByteBuffer content,boolean last)
     {
@@ -585,7 +652,7 @@ public class HttpGenerator
 
                         // write the field to the header
                         content_type=true;
-                        field.putTo(header);
+                        putTo(field,header);
                         break;
                     }
 
@@ -672,12 +739,12 @@ public class HttpGenerator
                     case SERVER:
                     {
                         send=send&~SEND_SERVER;
-                        field.putTo(header);
+                        putTo(field,header);
                         break;
                     }
 
                     default:
-                        field.putTo(header);
+                        putTo(field,header);
                 }
             }
         }
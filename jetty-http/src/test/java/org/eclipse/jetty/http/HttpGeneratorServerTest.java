@@ -28,13 +28,17 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.eclipse.jetty.http.HttpGenerator.ResponseInfo;
 import org.eclipse.jetty.util.BufferUtil;
 import org.hamcrest.Matchers;
+import org.junit.Assume;
 import org.junit.Test;
 
 public class HttpGeneratorServerTest
@@ -311,6 +315,110 @@ public class HttpGeneratorServerTest
         }
     }
     
+    @Test
+    public void testFieldCache() throws Exception
+    {
+        ByteBuffer header = BufferUtil.allocate(8096);
+        HttpGenerator gen = new HttpGenerator();
+
+        String[] etags = {"\"abc\"", "\"abc\"", "\"ABC\"", "\"abc\""};
+        for (String etag : etags)
+        {
+            HttpFields fields = new HttpFields();
+            fields.add(HttpHeader.CONTENT_TYPE, "application/json");
+            fields.add(HttpHeader.CACHE_CONTROL, "no-cache");
+            fields.add(HttpHeader.ETAG, etag);
+            fields.add("X-Custom", "value");
+            ResponseInfo info = new ResponseInfo(HttpVersion.HTTP_1_1, fields, 0, 200, null, false);
+
+            gen.reset();
+            HttpGenerator.Result result = gen.generateResponse(info, header, null, null, true);
+            assertEquals(HttpGenerator.Result.FLUSH, result);
+            String head = BufferUtil.toString(header);
+            BufferUtil.clear(header);
+
+            assertThat(head, containsString("Content-Type: application/json\r\n"));
+            assertThat(head, containsString("Cache-Control: no-cache\r\n"));
+            // Values are case sensitive and must not be confused by the cache
+            assertThat(head, containsString("ETag: " + etag + "\r\n"));
+            assertThat(head, containsString("X-Custom: value\r\n"));
+        }
+    }
+
+    @Test
+    public void testFieldCacheAllocations() throws Exception
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)threads;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+
+        // Fields of unknown headers are always encoded as they are, which is the cost without a cache
+        String[] names = {"Set-Cookie", "Set-Cookie", "ETag", "Last-Modified", "Location"};
+        List<ResponseInfo> varying = new ArrayList<>();
+        List<ResponseInfo> varyingUncached = new ArrayList<>();
+        List<ResponseInfo> stable = new ArrayList<>();
+        List<ResponseInfo> stableUncached = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+        {
+            HttpFields fields = new HttpFields();
+            HttpFields uncached = new HttpFields();
+            for (String name : names)
+            {
+                fields.add(name, name + "-value-" + i);
+                uncached.add("X-" + name, name + "-value-" + i);
+            }
+            varying.add(new ResponseInfo(HttpVersion.HTTP_1_1, fields, 0, 200, null, false));
+            varyingUncached.add(new ResponseInfo(HttpVersion.HTTP_1_1, uncached, 0, 200, null, false));
+
+            fields = new HttpFields();
+            uncached = new HttpFields();
+            for (String name : new String[]{"Content-Type", "Cache-Control", "Vary", "Pragma", "Accept-Ranges"})
+            {
+                fields.add(name, name + "-value");
+                uncached.add("X-" + name, name + "-value");
+            }
+            stable.add(new ResponseInfo(HttpVersion.HTTP_1_1, fields, 0, 200, null, false));
+            stableUncached.add(new ResponseInfo(HttpVersion.HTTP_1_1, uncached, 0, 200, null, false));
+        }
+
+        HttpGenerator gen = new HttpGenerator();
+        ByteBuffer header = BufferUtil.allocate(8096);
+        for (int i = 0; i < 10; i++)
+        {
+            generate(gen, header, varying);
+            generate(gen, header, varyingUncached);
+            generate(gen, header, stable);
+            generate(gen, header, stableUncached);
+        }
+
+        long id = Thread.currentThread().getId();
+        long[] allocated = new long[4];
+        int i = 0;
+        for (List<ResponseInfo> infos : Arrays.asList(varying, varyingUncached, stable, stableUncached))
+        {
+            long start = bean.getThreadAllocatedBytes(id);
+            generate(gen, header, infos);
+            allocated[i++] = bean.getThreadAllocatedBytes(id) - start;
+        }
+
+        // Values that change with every response allocate no more than encoding them
+        assertThat(allocated[0], Matchers.lessThanOrEqualTo(allocated[1]));
+        // Values repeated across responses are encoded once
+        assertThat(allocated[2] * 2, Matchers.lessThan(allocated[3]));
+    }
+
+    private void generate(HttpGenerator gen, ByteBuffer header, List<ResponseInfo> infos) throws Exception
+    {
+        for (ResponseInfo info : infos)
+        {
+            gen.reset();
+            HttpGenerator.Result result = gen.generateResponse(info, header, null, null, true);
+            assertEquals(HttpGenerator.Result.FLUSH, result);
+            BufferUtil.clear(header);
+        }
+    }
+
     @Test
     public void testSendServerXPoweredBy() throws Exception
     {
@@ -50,6 +50,8 @@ public abstract class AbstractConnection implements Connection
     private final Callback _readCallback;
     private final boolean _executeOnfillable;
     private int _inputBufferSize=2048;
+    private volatile int _executeOnSelectorBudget;
+    private int _executedOnSelector;
 
     protected AbstractConnection(EndPoint endp, Executor executor)
     {
@@ -86,7 +88,42 @@ public abstract class AbstractConnection implements Connection
     {
         return _executor;
     }
-    
+
+    public int getExecuteOnSelectorBudget()
+    {
+        return _executeOnSelectorBudget;
+    }
+
+    /**
+     * <p>Sets the number of consecutive times {@link #onFillable()} may be invoked directly by the
+     * thread that detected the endpoint was fillable, typically the selector thread, rather than
+     * being dispatched to the executor.</p>
+     * <p>Reads are consecutive while the connection keeps re-registering its read interest from
+     * {@link #onFillable()}. The budget is renewed whenever a read is dispatched and whenever the
+     * connection stops reading, so that a busy connection cannot monopolize the selector thread.</p>
+     * <p>This avoids a thread handoff per read, and is only allowed for connections whose
+     * {@link #onFillable()} never blocks, see {@link #isNonBlocking()}.</p>
+     *
+     * @param budget the number of consecutive non dispatched calls, or 0 to always dispatch
+     * @throws IllegalStateException if the budget is positive and this connection may block
+     */
+    public void setExecuteOnSelectorBudget(int budget)
+    {
+        if (budget > 0 && !isNonBlocking())
+            throw new IllegalStateException("Blocking connection " + this + " cannot execute on the selector");
+        _executeOnSelectorBudget = budget;
+    }
+
+    /**
+     * @return true if {@link #onFillable()} never blocks, so that it can run in the selector thread.
+     * This implementation returns false.
+     * @see #setExecuteOnSelectorBudget(int)
+     */
+    protected boolean isNonBlocking()
+    {
+        return false;
+    }
+
     /**
      * <p>Utility method to be called to register read interest.</p>
      * <p>After a call to this method, {@link #onFillable()} or {@link #onFillInterestedFailed(Throwable)}
@@ -104,6 +141,7 @@ public abstract class AbstractConnection implements Connection
                 case IDLE:
                     if (_state.compareAndSet(State.IDLE,State.INTERESTED))
                     {
+                        _executedOnSelector = 0;
                         getEndPoint().fillInterested(_readCallback);
                         break loop;
                     }
@@ -403,10 +441,21 @@ public abstract class AbstractConnection implements Connection
         @Override
         public void succeeded()
         {
-            if (_executeOnfillable)
-                _executor.execute(this);
-            else
+            if (!_executeOnfillable)
+            {
                 run();
+            }
+            else if (_executedOnSelector < _executeOnSelectorBudget)
+            {
+                ++_executedOnSelector;
+                run();
+            }
+            else
+            {
+                // Dispatching ends the run of consecutive reads
+                _executedOnSelector = 0;
+                _executor.execute(this);
+            }
         }
 
         @Override
@@ -0,0 +1,453 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.annotation.Name;
+
+/**
+ * <p>A {@link ByteBufferPool} that bounds the memory it retains.</p>
+ * <p>Buffers are organized in buckets of increasing capacity, like {@link ArrayByteBufferPool},
+ * but each bucket retains at most a configured number of bytes (separately for heap and
+ * direct buffers); buffers released to a full bucket are discarded and left to the garbage
+ * collector, so that memory retained after a traffic spike is eventually given back.</p>
+ * <p>In front of the shared buckets, every thread (including selector threads) has a small
+ * cache of buffers, so that the common acquire/release cycle performed by the same thread
+ * (for example in {@link AbstractConnection} or {@link WriteFlusher}) does not touch
+ * the shared, contended, bucket queues.
+ * Each thread cache retains at most {@link #getMaxThreadCacheBytes()} bytes per buffer type.</p>
+ * <p>The distribution adds a shared instance as a server bean in {@code etc/jetty.xml}, which
+ * connectors use when they are not given a pool of their own.</p>
+ */
+@ManagedObject("A bounded ByteBufferPool with per-thread caches")
+public class BoundedByteBufferPool implements ByteBufferPool
+{
+    private final ThreadLocal<ThreadCache> _threadCache = new ThreadLocal<ThreadCache>()
+    {
+        @Override
+        protected ThreadCache initialValue()
+        {
+            ThreadCache cache = new ThreadCache();
+            synchronized (_threadCaches)
+            {
+                _threadCaches.put(cache, Boolean.TRUE);
+            }
+            return cache;
+        }
+    };
+    private final Map<ThreadCache, Boolean> _threadCaches = new WeakHashMap<>();
+    private final AtomicInteger _generation = new AtomicInteger();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _allocations = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final int _min;
+    private final int _inc;
+    private final Bucket[] _direct;
+    private final Bucket[] _indirect;
+    private final int _threadCacheSize;
+    private final int _maxThreadCacheBytes;
+
+    public BoundedByteBufferPool()
+    {
+        this(64, 2048, 64 * 1024, 1024 * 1024, 512 * 1024, 2, 64 * 1024);
+    }
+
+    /**
+     * @param minSize the size at or below which buffers are not pooled
+     * @param increment the capacity increment between buckets
+     * @param maxSize the size above which buffers are not pooled
+     * @param maxHeapBucketBytes the max number of bytes retained by each heap buffer bucket
+     * @param maxDirectBucketBytes the max number of bytes retained by each direct buffer bucket
+     * @param threadCacheSize the max number of buffers cached per thread for each bucket, or 0 to disable thread caches
+     * @param maxThreadCacheBytes the max number of bytes cached per thread for each buffer type
+     */
+    public BoundedByteBufferPool(@Name("minSize") int minSize,
+                                 @Name("increment") int increment,
+                                 @Name("maxSize") int maxSize,
+                                 @Name("maxHeapBucketBytes") int maxHeapBucketBytes,
+                                 @Name("maxDirectBucketBytes") int maxDirectBucketBytes,
+                                 @Name("threadCacheSize") int threadCacheSize,
+                                 @Name("maxThreadCacheBytes") int maxThreadCacheBytes)
+    {
+        if (minSize >= increment)
+            throw new IllegalArgumentException("minSize >= increment");
+        if ((maxSize % increment) != 0 || increment >= maxSize)
+            throw new IllegalArgumentException("increment must be a divisor of maxSize");
+        if (threadCacheSize < 0)
+            throw new IllegalArgumentException("threadCacheSize < 0");
+        _min = minSize;
+        _inc = increment;
+        _threadCacheSize = threadCacheSize;
+        _maxThreadCacheBytes = maxThreadCacheBytes;
+
+        _direct = new Bucket[maxSize / increment];
+        _indirect = new Bucket[maxSize / increment];
+
+        int size = 0;
+        for (int i = 0; i < _direct.length; i++)
+        {
+            size += _inc;
+            _direct[i] = new Bucket(size, maxDirectBucketBytes / size);
+            _indirect[i] = new Bucket(size, maxHeapBucketBytes / size);
+        }
+    }
+
+    @Override
+    public ByteBuffer acquire(int size, boolean direct)
+    {
+        int index = indexFor(size);
+        if (index < 0)
+        {
+            _allocations.incrementAndGet();
+            return direct ? BufferUtil.allocateDirect(size) : BufferUtil.allocate(size);
+        }
+
+        ByteBuffer buffer = null;
+        if (_threadCacheSize > 0)
+            buffer = _threadCache.get().poll(index, direct);
+
+        if (buffer == null)
+        {
+            Bucket bucket = direct ? _direct[index] : _indirect[index];
+            buffer = bucket.poll();
+            if (buffer == null)
+            {
+                _misses.incrementAndGet();
+                _allocations.incrementAndGet();
+                buffer = direct ? BufferUtil.allocateDirect(bucket._size) : BufferUtil.allocate(bucket._size);
+            }
+            else
+            {
+                _hits.incrementAndGet();
+            }
+        }
+
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer)
+    {
+        if (buffer == null)
+            return;
+
+        int capacity = buffer.capacity();
+        int index = indexFor(capacity);
+        if (index < 0)
+            return;
+
+        boolean direct = buffer.isDirect();
+        Bucket bucket = direct ? _direct[index] : _indirect[index];
+        // Only recycle buffers whose capacity matches the bucket exactly,
+        // otherwise the bucket accounting would be wrong.
+        if (bucket._size != capacity)
+            return;
+
+        BufferUtil.clear(buffer);
+        if (_threadCacheSize > 0 && _threadCache.get().offer(index, buffer))
+            return;
+
+        if (!bucket.offer(buffer))
+            _evictions.incrementAndGet();
+    }
+
+    /**
+     * <p>Discards all the buffers retained by this pool.</p>
+     * <p>Thread caches are discarded lazily, the next time their thread uses this pool.</p>
+     */
+    @ManagedOperation("Discards all pooled buffers")
+    public void clear()
+    {
+        _generation.incrementAndGet();
+        for (int i = 0; i < _direct.length; i++)
+        {
+            _direct[i].clear();
+            _indirect[i].clear();
+        }
+    }
+
+    @ManagedOperation("Resets the statistics")
+    public void resetStats()
+    {
+        _hits.set(0);
+        _misses.set(0);
+        _allocations.set(0);
+        _evictions.set(0);
+        synchronized (_threadCaches)
+        {
+            for (ThreadCache cache : _threadCaches.keySet())
+                cache._hits = 0;
+        }
+    }
+
+    @ManagedAttribute("The number of acquires satisfied by the shared buckets")
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    @ManagedAttribute("The number of acquires satisfied by the thread caches")
+    public long getThreadCacheHits()
+    {
+        long result = 0;
+        synchronized (_threadCaches)
+        {
+            for (ThreadCache cache : _threadCaches.keySet())
+                result += cache._hits;
+        }
+        return result;
+    }
+
+    @ManagedAttribute("The number of acquires that could not be satisfied by a pooled buffer")
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    @ManagedAttribute("The number of buffers allocated")
+    public long getAllocations()
+    {
+        return _allocations.get();
+    }
+
+    @ManagedAttribute("The number of released buffers discarded because their bucket was full")
+    public long getEvictions()
+    {
+        return _evictions.get();
+    }
+
+    @ManagedAttribute("The bytes retained in heap buffer buckets and thread caches")
+    public long getHeapMemory()
+    {
+        return memoryOf(_indirect, false);
+    }
+
+    @ManagedAttribute("The bytes retained in direct buffer buckets and thread caches")
+    public long getDirectMemory()
+    {
+        return memoryOf(_direct, true);
+    }
+
+    @ManagedAttribute("The max number of buffers cached per thread for each bucket")
+    public int getThreadCacheSize()
+    {
+        return _threadCacheSize;
+    }
+
+    @ManagedAttribute("The max bytes cached per thread for each buffer type")
+    public int getMaxThreadCacheBytes()
+    {
+        return _maxThreadCacheBytes;
+    }
+
+    private long memoryOf(Bucket[] buckets, boolean direct)
+    {
+        long result = 0;
+        for (Bucket bucket : buckets)
+            result += (long)bucket._size * bucket._count.get();
+        synchronized (_threadCaches)
+        {
+            for (ThreadCache cache : _threadCaches.keySet())
+                result += direct ? cache._directBytes : cache._indirectBytes;
+        }
+        return result;
+    }
+
+    private int indexFor(int size)
+    {
+        if (size <= _min)
+            return -1;
+        int index = (size - 1) / _inc;
+        if (index >= _direct.length)
+            return -1;
+        return index;
+    }
+
+    // Package local for testing
+    Bucket[] bucketsFor(boolean direct)
+    {
+        return direct ? _direct : _indirect;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{heap=%d,direct=%d,hits=%d,misses=%d,evictions=%d}",
+                getClass().getSimpleName(),
+                hashCode(),
+                getHeapMemory(),
+                getDirectMemory(),
+                getHits(),
+                getMisses(),
+                getEvictions());
+    }
+
+    public static class Bucket
+    {
+        private final int _size;
+        private final int _maxBuffers;
+        private final AtomicInteger _count = new AtomicInteger();
+        private final Queue<ByteBuffer> _queue = new ConcurrentLinkedQueue<>();
+
+        Bucket(int size, int maxBuffers)
+        {
+            _size = size;
+            _maxBuffers = maxBuffers;
+        }
+
+        private ByteBuffer poll()
+        {
+            ByteBuffer buffer = _queue.poll();
+            if (buffer != null)
+                _count.decrementAndGet();
+            return buffer;
+        }
+
+        private boolean offer(ByteBuffer buffer)
+        {
+            while (true)
+            {
+                int count = _count.get();
+                if (count >= _maxBuffers)
+                    return false;
+                if (_count.compareAndSet(count, count + 1))
+                    break;
+            }
+            _queue.offer(buffer);
+            return true;
+        }
+
+        private void clear()
+        {
+            while (poll() != null)
+            {
+                // Just drain the queue
+            }
+        }
+
+        public int size()
+        {
+            return _count.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Bucket@%x{%d,%d/%d}", hashCode(), _size, _count.get(), _maxBuffers);
+        }
+    }
+
+    /**
+     * <p>A per-thread cache of buffers, accessed only by the owning thread
+     * (except for the statistics, which are read by other threads).</p>
+     */
+    private class ThreadCache
+    {
+        private final ByteBuffer[][] _direct = new ByteBuffer[BoundedByteBufferPool.this._direct.length][];
+        private final ByteBuffer[][] _indirect = new ByteBuffer[BoundedByteBufferPool.this._indirect.length][];
+        private final int[] _directCount = new int[_direct.length];
+        private final int[] _indirectCount = new int[_indirect.length];
+        private volatile int _directBytes;
+        private volatile int _indirectBytes;
+        private int _generation = BoundedByteBufferPool.this._generation.get();
+        private long _hits;
+
+        private ByteBuffer poll(int index, boolean direct)
+        {
+            checkGeneration();
+            int[] counts = direct ? _directCount : _indirectCount;
+            int count = counts[index];
+            if (count == 0)
+                return null;
+            ByteBuffer[] buffers = (direct ? _direct : _indirect)[index];
+            ByteBuffer buffer = buffers[--count];
+            buffers[count] = null;
+            counts[index] = count;
+            if (direct)
+                _directBytes -= buffer.capacity();
+            else
+                _indirectBytes -= buffer.capacity();
+            ++_hits;
+            return buffer;
+        }
+
+        private boolean offer(int index, ByteBuffer buffer)
+        {
+            checkGeneration();
+            boolean direct = buffer.isDirect();
+            int capacity = buffer.capacity();
+            int bytes = direct ? _directBytes : _indirectBytes;
+            if (bytes + capacity > _maxThreadCacheBytes)
+                return false;
+
+            int[] counts = direct ? _directCount : _indirectCount;
+            int count = counts[index];
+            if (count == _threadCacheSize)
+                return false;
+
+            ByteBuffer[][] buckets = direct ? _direct : _indirect;
+            ByteBuffer[] buffers = buckets[index];
+            if (buffers == null)
+                buckets[index] = buffers = new ByteBuffer[_threadCacheSize];
+            buffers[count] = buffer;
+            counts[index] = count + 1;
+            if (direct)
+                _directBytes += capacity;
+            else
+                _indirectBytes += capacity;
+            return true;
+        }
+
+        private void checkGeneration()
+        {
+            int generation = BoundedByteBufferPool.this._generation.get();
+            if (generation != _generation)
+            {
+                _generation = generation;
+                clear(_direct, _directCount);
+                clear(_indirect, _indirectCount);
+                _directBytes = 0;
+                _indirectBytes = 0;
+            }
+        }
+
+        private void clear(ByteBuffer[][] buckets, int[] counts)
+        {
+            for (int i = 0; i < buckets.length; ++i)
+            {
+                if (buckets[i] != null)
+                    Arrays.fill(buckets[i], null);
+                counts[i] = 0;
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
 import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SocketChannel;
 
@@ -196,6 +197,37 @@ public class ChannelEndPoint extends AbstractEndPoint implements SocketBased
         return true;
     }
 
+    /**
+     * <p>Transfers bytes from the given file to the channel of this endpoint, using
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * so that the bytes may be moved by the kernel without being copied in user space.</p>
+     * <p>Like {@link #flush(ByteBuffer...)}, on non-blocking channels this method does not
+     * block and may transfer fewer bytes than requested, or none at all.</p>
+     *
+     * @param file the file to transfer bytes from
+     * @param position the position in the file of the first byte to transfer
+     * @param count the max number of bytes to transfer
+     * @return the number of bytes transferred
+     * @throws IOException if the transfer fails
+     */
+    public long transferFrom(FileChannel file, long position, long count) throws IOException
+    {
+        long transferred;
+        try
+        {
+            transferred=file.transferTo(position,count,_channel);
+            LOG.debug("transferred {} {}", transferred, this);
+        }
+        catch (IOException e)
+        {
+            throw new EofException(e);
+        }
+
+        if (transferred>0)
+            notIdle();
+        return transferred;
+    }
+
     public ByteChannel getChannel()
     {
         return _channel;
@@ -20,6 +20,7 @@ package org.eclipse.jetty.io;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.List;
@@ -67,6 +68,18 @@ public class NetworkTrafficSelectChannelEndPoint extends SelectChannelEndPoint
         return flushed;
     }
 
+    @Override
+    public long transferFrom(FileChannel file, long position, long count) throws IOException
+    {
+        if (listeners == null || listeners.isEmpty())
+            return super.transferFrom(file, position, count);
+
+        // The listeners must be notified of the outgoing bytes, so map the file region and flush it
+        ByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, position, Math.min(count, Integer.MAX_VALUE));
+        flush(buffer);
+        return buffer.position();
+    }
+
 
     public void notifyOpened()
     {
@@ -43,6 +43,9 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements SelectorMa
         {
             try
             {
+                // Clear the pending flag before reading the interests,
+                // so that concurrent interest changes are never lost
+                _updatePending.set(false);
                 if (getChannel().isOpen())
                 {
                     int oldInterestOps = _key.interestOps();
@@ -68,6 +71,10 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements SelectorMa
      * true if {@link ManagedSelector#destroyEndPoint(EndPoint)} has not been called
      */
     private final AtomicBoolean _open = new AtomicBoolean();
+    /**
+     * true if {@link #_updateTask} has been submitted in batch mode and has not run yet
+     */
+    private final AtomicBoolean _updatePending = new AtomicBoolean();
     private final SelectorManager.ManagedSelector _selector;
     private final SelectionKey _key;
     /**
@@ -133,7 +140,10 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements SelectorMa
                 if (_interestOps.compareAndSet(oldInterestOps, newInterestOps))
                 {
                     LOG.debug("Local interests updated {} -> {} for {}", oldInterestOps, newInterestOps, this);
-                    _selector.submit(_updateTask);
+                    if (!_selector.isBatchInterestUpdates())
+                        _selector.submit(_updateTask);
+                    else if (_updatePending.compareAndSet(false, true))
+                        _selector.submitUpdate(_updateTask);
                 }
                 else
                 {
@@ -39,9 +39,12 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jetty.util.ConcurrentArrayQueue;
 import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
@@ -54,7 +57,10 @@ import org.eclipse.jetty.util.thread.Scheduler;
  * simplify the non-blocking primitives provided by the JVM via the {@code java.nio} package.</p>
  * <p>{@link SelectorManager} subclasses implement methods to return protocol-specific
  * {@link EndPoint}s and {@link Connection}s.</p>
+ * <p>New channels are assigned to a {@link ManagedSelector} by a pluggable {@link SelectorChooser},
+ * which by default distributes them in round robin.</p>
  */
+@ManagedObject("Manager of the NIO selectors")
 public abstract class SelectorManager extends AbstractLifeCycle implements Dumpable
 {
     protected static final Logger LOG = Log.getLogger(SelectorManager.class);
@@ -62,12 +68,14 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
      * The default connect timeout, in milliseconds
      */
     public static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+    private static final long RATE_WINDOW = TimeUnit.SECONDS.toNanos(1);
 
     private final Executor executor;
     private final Scheduler scheduler;
     private final ManagedSelector[] _selectors;
     private long _connectTimeout = DEFAULT_CONNECT_TIMEOUT;
-    private long _selectorIndex;
+    private SelectorChooser _selectorChooser = new RoundRobinSelectorChooser();
+    private boolean _batchInterestUpdates;
 
     protected SelectorManager(Executor executor, Scheduler scheduler)
     {
@@ -124,19 +132,145 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
     /**
      * @return the number of selectors in use
      */
+    @ManagedAttribute("The number of selectors")
     public int getSelectorCount()
     {
         return _selectors.length;
     }
 
+    /**
+     * @return the strategy used to assign new channels to selectors
+     */
+    public SelectorChooser getSelectorChooser()
+    {
+        return _selectorChooser;
+    }
+
+    /**
+     * @param selectorChooser the strategy used to assign new channels to selectors
+     */
+    public void setSelectorChooser(SelectorChooser selectorChooser)
+    {
+        if (selectorChooser == null)
+            throw new IllegalArgumentException();
+        _selectorChooser = selectorChooser;
+    }
+
+    /**
+     * @return whether the interest updates of endpoints are coalesced and applied in batch before selecting
+     * @see #setBatchInterestUpdates(boolean)
+     */
+    @ManagedAttribute("Whether interest updates are coalesced and applied in batch")
+    public boolean isBatchInterestUpdates()
+    {
+        return _batchInterestUpdates;
+    }
+
+    /**
+     * <p>Sets whether the interest updates of endpoints are coalesced and applied in batch.</p>
+     * <p>When batching, an endpoint with several interest changes pending submits a single
+     * update, and updates submitted by the selector thread are deferred until just before
+     * the next {@link Selector#select()}, rather than being applied one by one.</p>
+     * <p>This method should be called before the manager is started.</p>
+     *
+     * @param batchInterestUpdates whether to batch interest updates
+     */
+    public void setBatchInterestUpdates(boolean batchInterestUpdates)
+    {
+        _batchInterestUpdates = batchInterestUpdates;
+    }
+
+    @ManagedAttribute("The number of selector wakeups")
+    public long getWakeups()
+    {
+        long result = 0;
+        for (ManagedSelector selector : _selectors)
+            if (selector != null)
+                result += selector.getWakeups();
+        return result;
+    }
+
+    @ManagedAttribute("The number of selector wakeups avoided because the selector was already woken up")
+    public long getWakeupsAvoided()
+    {
+        long result = 0;
+        for (ManagedSelector selector : _selectors)
+            if (selector != null)
+                result += selector.getWakeupsAvoided();
+        return result;
+    }
+
+    @ManagedAttribute("The strategy used to assign new channels to selectors")
+    public String getSelectorChooserName()
+    {
+        return String.valueOf(_selectorChooser);
+    }
+
+    @ManagedAttribute("The number of registered keys of each selector")
+    public int[] getRegisteredKeys()
+    {
+        int[] result = new int[_selectors.length];
+        for (int i = 0; i < result.length; ++i)
+        {
+            ManagedSelector selector = _selectors[i];
+            result[i] = selector == null ? 0 : selector.getRegisteredKeys();
+        }
+        return result;
+    }
+
+    @ManagedAttribute("The recent rate of selected keys per second of each selector")
+    public double[] getSelectedKeyRates()
+    {
+        double[] result = new double[_selectors.length];
+        for (int i = 0; i < result.length; ++i)
+        {
+            ManagedSelector selector = _selectors[i];
+            result[i] = selector == null ? 0 : selector.getSelectedKeyRate();
+        }
+        return result;
+    }
+
+    @ManagedAttribute("The total number of selected keys of each selector")
+    public long[] getSelectedKeys()
+    {
+        long[] result = new long[_selectors.length];
+        for (int i = 0; i < result.length; ++i)
+        {
+            ManagedSelector selector = _selectors[i];
+            result[i] = selector == null ? 0 : selector.getSelectedKeys();
+        }
+        return result;
+    }
+
+    @ManagedAttribute("The number of pending changes of each selector")
+    public int[] getPendingChanges()
+    {
+        int[] result = new int[_selectors.length];
+        for (int i = 0; i < result.length; ++i)
+        {
+            ManagedSelector selector = _selectors[i];
+            result[i] = selector == null ? 0 : selector.getPendingChanges();
+        }
+        return result;
+    }
+
+    @ManagedAttribute("The number of channels assigned to each selector")
+    public long[] getAssignedChannels()
+    {
+        long[] result = new long[_selectors.length];
+        for (int i = 0; i < result.length; ++i)
+        {
+            ManagedSelector selector = _selectors[i];
+            result[i] = selector == null ? 0 : selector.getAssignedChannels();
+        }
+        return result;
+    }
+
     private ManagedSelector chooseSelector()
     {
-        // The ++ increment here is not atomic, but it does not matter,
-        // so long as the value changes sometimes, then connections will
-        // be distributed over the available selectors.
-        long s = _selectorIndex++;
-        int index = (int)(s % getSelectorCount());
-        return _selectors[index];
+        ManagedSelector selector = _selectorChooser.choose(_selectors);
+        selector._assigned.incrementAndGet();
+        return selector;
     }
 
     /**
@@ -318,12 +452,23 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
     public class ManagedSelector extends AbstractLifeCycle implements Runnable, Dumpable
     {
         private final Queue<Runnable> _changes = new ConcurrentArrayQueue<>();
+        private final Queue<Runnable> _updates = new ConcurrentArrayQueue<>();
+        private final AtomicBoolean _wokenUp = new AtomicBoolean();
+        private final AtomicLong _assigned = new AtomicLong();
+        private final AtomicLong _wakeups = new AtomicLong();
+        private final AtomicLong _wakeupsAvoided = new AtomicLong();
 
         private final int _id;
         private Selector _selector;
         private volatile Thread _thread;
-        private boolean _needsWakeup = true;
+        private volatile boolean _needsWakeup = true;
         private boolean _runningChanges = false;
+        // The statistics below are only written by the selector thread
+        private volatile int _registeredKeys;
+        private volatile long _selectedKeys;
+        private volatile long _rateWindowStart = System.nanoTime();
+        private volatile long _rateWindowKeys;
+        private volatile double _selectedKeyRate;
 
         public ManagedSelector(int id)
         {
@@ -377,12 +522,58 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                 // otherwise we have to queue the change and wakeup the selector
                 _changes.offer(change);
                 LOG.debug("Queued change {}", change);
-                boolean wakeup = _needsWakeup;
-                if (wakeup)
-                    wakeup();
+                wakeupIfNeeded();
             }
         }
 
+        /**
+         * <p>Submits an interest update to be applied in the selector thread
+         * just before the next {@link Selector#select()}.</p>
+         * <p>Unlike {@link #submit(Runnable)}, updates submitted by the selector thread
+         * are not run immediately, so that they are applied in batch.</p>
+         *
+         * @param update the update to submit
+         * @see SelectorManager#setBatchInterestUpdates(boolean)
+         */
+        public void submitUpdate(Runnable update)
+        {
+            _updates.offer(update);
+            if (_thread != Thread.currentThread())
+                wakeupIfNeeded();
+        }
+
+        /**
+         * @return whether interest updates should be submitted via {@link #submitUpdate(Runnable)}
+         */
+        public boolean isBatchInterestUpdates()
+        {
+            return _batchInterestUpdates;
+        }
+
+        private void wakeupIfNeeded()
+        {
+            // A selector that is not selecting will run the submitted tasks anyway
+            if (!_needsWakeup)
+                return;
+            // Only the first submitter wakes up a selector blocked in select()
+            if (_wokenUp.compareAndSet(false, true))
+            {
+                _wakeups.incrementAndGet();
+                wakeup();
+            }
+            else
+            {
+                _wakeupsAvoided.incrementAndGet();
+            }
+        }
+
+        private void runUpdates()
+        {
+            Runnable update;
+            while ((update = _updates.poll()) != null)
+                runChange(update);
+        }
+
         private void runChanges()
         {
             try
@@ -438,14 +629,19 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
             try
             {
                 processChanges();
+                // Channels are registered by the changes
+                _registeredKeys = _selector.keys().size();
 
                 if (debug)
                     LOG.debug("Selector loop waiting on select");
                 int selected = _selector.select();
+                // Cancelled keys are deregistered by select()
+                _registeredKeys = _selector.keys().size();
                 if (debug)
-                    LOG.debug("Selector loop woken up from select, {}/{} selected", selected, _selector.keys().size());
+                    LOG.debug("Selector loop woken up from select, {}/{} selected", selected, _registeredKeys);
 
                 _needsWakeup = false;
+                updateSelectedKeys(selected);
 
                 Set<SelectionKey> selectedKeys = _selector.selectedKeys();
                 for (SelectionKey key : selectedKeys)
@@ -474,18 +670,105 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
             }
         }
 
+        private void updateSelectedKeys(int selected)
+        {
+            long now = System.nanoTime();
+            _selectedKeys += selected;
+            long keys = _rateWindowKeys + selected;
+            long elapsed = now - _rateWindowStart;
+            if (elapsed >= RATE_WINDOW)
+            {
+                // Smooth the rate over the previous windows
+                _selectedKeyRate = (_selectedKeyRate + keys * 1_000_000_000D / elapsed) / 2;
+                _rateWindowStart = now;
+                _rateWindowKeys = 0;
+            }
+            else
+            {
+                _rateWindowKeys = keys;
+            }
+        }
+
+        /**
+         * <p>The key set of a {@link Selector} is not thread safe, so the number of registered
+         * channels is sampled by the selector thread around each {@link Selector#select()}.</p>
+         *
+         * @return the number of channels registered with this selector
+         */
+        public int getRegisteredKeys()
+        {
+            return _registeredKeys;
+        }
+
+        /**
+         * @return the total number of keys selected by this selector
+         */
+        public long getSelectedKeys()
+        {
+            return _selectedKeys;
+        }
+
+        /**
+         * @return the recent rate of keys selected per second by this selector
+         */
+        public double getSelectedKeyRate()
+        {
+            long elapsed = System.nanoTime() - _rateWindowStart;
+            // A selector blocked in select() for longer than the window is not busy,
+            // so do not report the rate of the windows before it blocked
+            if (elapsed > 2 * RATE_WINDOW)
+                return _rateWindowKeys * 1_000_000_000D / elapsed;
+            return _selectedKeyRate;
+        }
+
+        /**
+         * @return the number of changes waiting to be run by the selector thread
+         */
+        public int getPendingChanges()
+        {
+            return _changes.size();
+        }
+
+        /**
+         * @return the number of times this selector has been woken up to run changes or updates
+         */
+        public long getWakeups()
+        {
+            return _wakeups.get();
+        }
+
+        /**
+         * @return the number of changes or updates submitted while this selector was blocked in
+         * {@link Selector#select()}, that did not wake it up because another submitter already did
+         */
+        public long getWakeupsAvoided()
+        {
+            return _wakeupsAvoided.get();
+        }
+
+        /**
+         * @return the number of channels assigned to this selector by the {@link SelectorChooser}
+         */
+        public long getAssignedChannels()
+        {
+            return _assigned.get();
+        }
+
         private void processChanges()
         {
             runChanges();
+            runUpdates();
 
             // If tasks are submitted between these 2 statements, they will not
             // wakeup the selector, therefore below we run again the tasks
 
+            _wokenUp.set(false);
             _needsWakeup = true;
 
             // Run again the tasks to avoid the race condition where a task is
             // submitted but will not wake up the selector
             runChanges();
+            runUpdates();
         }
 
         private void processKey(SelectionKey key)
@@ -597,7 +880,11 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         @Override
         public void dump(Appendable out, String indent) throws IOException
         {
-            out.append(String.valueOf(this)).append(" id=").append(String.valueOf(_id)).append("\n");
+            out.append(String.valueOf(this)).append(" id=").append(String.valueOf(_id))
+                    .append(String.format(" rate=%.1f/s selectedKeys=%d changes=%d assigned=%d wakeups=%d/%d",
+                            getSelectedKeyRate(), getSelectedKeys(), getPendingChanges(), getAssignedChannels(),
+                            getWakeups(), getWakeups() + getWakeupsAvoided()))
+                    .append("\n");
 
             Thread selecting = _thread;
 
@@ -616,7 +903,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
             Selector selector = _selector;
             if (selector != null && selector.isOpen())
             {
-                final ArrayList<Object> dump = new ArrayList<>(selector.keys().size() * 2);
+                final ArrayList<Object> dump = new ArrayList<>(getRegisteredKeys() * 2);
                 dump.add(where);
 
                 DumpKeys dumpKeys = new DumpKeys(dump);
@@ -647,7 +934,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
             Selector selector = _selector;
             return String.format("%s keys=%d selected=%d",
                     super.toString(),
-                    selector != null && selector.isOpen() ? selector.keys().size() : -1,
+                    selector != null && selector.isOpen() ? getRegisteredKeys() : -1,
                     selector != null && selector.isOpen() ? selector.selectedKeys().size() : -1);
         }
 
@@ -798,6 +1085,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                     }
 
                     closeNoExceptions(_selector);
+                    _registeredKeys = 0;
                 }
                 finally
                 {
@@ -867,4 +1155,115 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
          */
         void onSelected();
     }
+
+    /**
+     * <p>A {@link SelectorChooser} assigns new channels to one of the {@link ManagedSelector}s.</p>
+     *
+     * @see SelectorManager#setSelectorChooser(SelectorChooser)
+     */
+    public interface SelectorChooser
+    {
+        /**
+         * <p>Invoked concurrently by the threads that accept or connect channels.</p>
+         *
+         * @param selectors the started selectors
+         * @return the selector to register a new channel with
+         */
+        ManagedSelector choose(ManagedSelector[] selectors);
+    }
+
+    /**
+     * <p>A {@link SelectorChooser} that assigns channels to selectors in turn,
+     * regardless of the load of the selectors.</p>
+     */
+    public static class RoundRobinSelectorChooser implements SelectorChooser
+    {
+        private final AtomicLong _index = new AtomicLong();
+
+        @Override
+        public ManagedSelector choose(ManagedSelector[] selectors)
+        {
+            return selectors[(int)(_index.getAndIncrement() % selectors.length)];
+        }
+
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * <p>A {@link SelectorChooser} that assigns channels to the selector with the lowest load.</p>
+     * <p>The load of a selector is its number of registered keys, plus its recent rate of
+     * selected keys per second and its number of pending changes, weighted respectively by
+     * {@link #getSelectedKeyRateWeight()} and {@link #getPendingChangesWeight()}.
+     * This avoids that selectors owning few but very active connections are assigned as
+     * many new channels as idle selectors.
+     * Selectors with the same load are chosen in turn.</p>
+     */
+    public static class LeastLoadedSelectorChooser implements SelectorChooser
+    {
+        private final AtomicLong _index = new AtomicLong();
+        private final double _selectedKeyRateWeight;
+        private final double _pendingChangesWeight;
+
+        public LeastLoadedSelectorChooser()
+        {
+            this(1, 1);
+        }
+
+        /**
+         * @param selectedKeyRateWeight the weight of the selected keys per second in the load of a selector
+         * @param pendingChangesWeight the weight of the pending changes in the load of a selector
+         */
+        public LeastLoadedSelectorChooser(double selectedKeyRateWeight, double pendingChangesWeight)
+        {
+            _selectedKeyRateWeight = selectedKeyRateWeight;
+            _pendingChangesWeight = pendingChangesWeight;
+        }
+
+        public double getSelectedKeyRateWeight()
+        {
+            return _selectedKeyRateWeight;
+        }
+
+        public double getPendingChangesWeight()
+        {
+            return _pendingChangesWeight;
+        }
+
+        @Override
+        public ManagedSelector choose(ManagedSelector[] selectors)
+        {
+            int length = selectors.length;
+            int start = (int)(_index.getAndIncrement() % length);
+            ManagedSelector result = null;
+            double lowest = Double.MAX_VALUE;
+            for (int i = 0; i < length; ++i)
+            {
+                ManagedSelector selector = selectors[(start + i) % length];
+                double load = loadOf(selector);
+                if (load < lowest)
+                {
+                    lowest = load;
+                    result = selector;
+                }
+            }
+            return result;
+        }
+
+        protected double loadOf(ManagedSelector selector)
+        {
+            return selector.getRegisteredKeys() +
+                    _selectedKeyRateWeight * selector.getSelectedKeyRate() +
+                    _pendingChangesWeight * selector.getPendingChanges();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s{rate*%s,changes*%s}", getClass().getSimpleName(), _selectedKeyRateWeight, _pendingChangesWeight);
+        }
+    }
 }
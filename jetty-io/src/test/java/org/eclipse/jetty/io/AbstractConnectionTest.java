@@ -0,0 +1,157 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AbstractConnectionTest
+{
+    private final Queue<Runnable> dispatched = new ConcurrentLinkedQueue<>();
+    private final Executor executor = new Executor()
+    {
+        @Override
+        public void execute(Runnable task)
+        {
+            dispatched.offer(task);
+        }
+    };
+
+    @Test
+    public void testAlwaysDispatchByDefault() throws Exception
+    {
+        ByteArrayEndPoint endPoint = new ByteArrayEndPoint();
+        CountingConnection connection = new CountingConnection(endPoint);
+        connection.fillInterested();
+
+        endPoint.setInput("a");
+        assertEquals(0, connection.fillables.get());
+        assertEquals(1, dispatched.size());
+
+        dispatched.poll().run();
+        assertEquals(1, connection.fillables.get());
+    }
+
+    @Test
+    public void testExecuteOnSelectorBudget() throws Exception
+    {
+        ByteArrayEndPoint endPoint = new ByteArrayEndPoint();
+        CountingConnection connection = new CountingConnection(endPoint);
+        connection.setExecuteOnSelectorBudget(2);
+        connection.fillInterested();
+
+        // Within the budget, reads are not dispatched
+        endPoint.setInput("a");
+        endPoint.setInput("b");
+        assertEquals(2, connection.fillables.get());
+        assertEquals(0, dispatched.size());
+
+        // Budget exhausted, the read is dispatched
+        endPoint.setInput("c");
+        assertEquals(2, connection.fillables.get());
+        assertEquals(1, dispatched.size());
+        dispatched.poll().run();
+        assertEquals(3, connection.fillables.get());
+
+        // The budget has been renewed
+        endPoint.setInput("d");
+        assertEquals(4, connection.fillables.get());
+        assertEquals(0, dispatched.size());
+    }
+
+    @Test
+    public void testExecuteOnSelectorBudgetRenewedWhenReadingStops() throws Exception
+    {
+        ByteArrayEndPoint endPoint = new ByteArrayEndPoint();
+        CountingConnection connection = new CountingConnection(endPoint);
+        connection.setExecuteOnSelectorBudget(2);
+        connection.fillInterested();
+
+        endPoint.setInput("a");
+        assertEquals(1, connection.fillables.get());
+
+        // The connection stops reading, which ends the run of consecutive reads
+        connection.readMore = false;
+        endPoint.setInput("b");
+        assertEquals(2, connection.fillables.get());
+
+        // A new run starts with the whole budget
+        connection.readMore = true;
+        connection.fillInterested();
+        endPoint.setInput("c");
+        endPoint.setInput("d");
+        assertEquals(4, connection.fillables.get());
+        assertEquals(0, dispatched.size());
+
+        endPoint.setInput("e");
+        assertEquals(1, dispatched.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBlockingConnectionCannotExecuteOnSelector() throws Exception
+    {
+        CountingConnection connection = new CountingConnection(new ByteArrayEndPoint());
+        connection.nonBlocking = false;
+        connection.setExecuteOnSelectorBudget(1);
+    }
+
+    private class CountingConnection extends AbstractConnection
+    {
+        private final AtomicInteger fillables = new AtomicInteger();
+        private volatile boolean readMore = true;
+        private boolean nonBlocking = true;
+
+        private CountingConnection(EndPoint endPoint)
+        {
+            super(endPoint, executor);
+        }
+
+        @Override
+        public void onFillable()
+        {
+            try
+            {
+                ByteBuffer buffer = BufferUtil.allocate(16);
+                getEndPoint().fill(buffer);
+                fillables.incrementAndGet();
+                if (readMore)
+                    fillInterested();
+            }
+            catch (IOException x)
+            {
+                throw new RuntimeException(x);
+            }
+        }
+
+        @Override
+        protected boolean isNonBlocking()
+        {
+            return nonBlocking;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.io;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BoundedByteBufferPoolTest
+{
+    @Test
+    public void testMinimumRelease() throws Exception
+    {
+        BoundedByteBufferPool bufferPool = new BoundedByteBufferPool(10, 100, 1000, 1000, 1000, 0, 0);
+        BoundedByteBufferPool.Bucket[] buckets = bufferPool.bucketsFor(true);
+
+        for (int size = 1; size <= 9; size++)
+        {
+            ByteBuffer buffer = bufferPool.acquire(size, true);
+            assertTrue(buffer.isDirect());
+            assertEquals(size, buffer.capacity());
+
+            bufferPool.release(buffer);
+
+            for (BoundedByteBufferPool.Bucket bucket : buckets)
+                assertEquals(0, bucket.size());
+        }
+    }
+
+    @Test
+    public void testAcquireReleaseAcquire() throws Exception
+    {
+        BoundedByteBufferPool bufferPool = new BoundedByteBufferPool(10, 100, 1000, 1000, 1000, 0, 0);
+
+        ByteBuffer buffer1 = bufferPool.acquire(150, true);
+        assertThat(buffer1.capacity(), greaterThanOrEqualTo(150));
+        bufferPool.release(buffer1);
+        ByteBuffer buffer2 = bufferPool.acquire(150, true);
+        ByteBuffer buffer3 = bufferPool.acquire(150, false);
+
+        assertSame(buffer1, buffer2);
+        assertNotSame(buffer1, buffer3);
+        assertEquals(1, bufferPool.getHits());
+        assertEquals(2, bufferPool.getMisses());
+    }
+
+    @Test
+    public void testBucketIsBounded() throws Exception
+    {
+        // Each bucket of 200 bytes can retain at most 2 buffers.
+        BoundedByteBufferPool bufferPool = new BoundedByteBufferPool(10, 100, 1000, 400, 400, 0, 0);
+        BoundedByteBufferPool.Bucket bucket = bufferPool.bucketsFor(false)[1];
+
+        for (int i = 0; i < 5; ++i)
+            bufferPool.release(ByteBuffer.allocate(200));
+
+        assertEquals(2, bucket.size());
+        assertEquals(400, bufferPool.getHeapMemory());
+        assertEquals(0, bufferPool.getDirectMemory());
+        assertEquals(3, bufferPool.getEvictions());
+
+        bufferPool.clear();
+        assertEquals(0, bufferPool.getHeapMemory());
+    }
+
+    @Test
+    public void testThreadCache() throws Exception
+    {
+        BoundedByteBufferPool bufferPool = new BoundedByteBufferPool(10, 100, 1000, 1000, 1000, 1, 1000);
+        BoundedByteBufferPool.Bucket bucket = bufferPool.bucketsFor(true)[1];
+
+        ByteBuffer buffer1 = bufferPool.acquire(200, true);
+        ByteBuffer buffer2 = bufferPool.acquire(200, true);
+        bufferPool.release(buffer1);
+        bufferPool.release(buffer2);
+
+        // The first buffer stays in the thread cache, the second overflows to the bucket.
+        assertEquals(1, bucket.size());
+        // The memory retained by the thread cache is accounted.
+        assertEquals(400, bufferPool.getDirectMemory());
+
+        assertSame(buffer1, bufferPool.acquire(200, true));
+        assertEquals(1, bufferPool.getThreadCacheHits());
+        assertSame(buffer2, bufferPool.acquire(200, true));
+        assertEquals(1, bufferPool.getHits());
+        assertEquals(0, bucket.size());
+        assertEquals(0, bufferPool.getDirectMemory());
+    }
+}
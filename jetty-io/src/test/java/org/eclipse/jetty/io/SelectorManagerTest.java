@@ -24,14 +24,19 @@ import java.net.SocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.toolchain.test.annotation.Slow;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.TimerScheduler;
 import org.junit.After;
+import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -130,4 +135,321 @@ public class SelectorManagerTest
             selectorManager.stop();
         }
     }
+
+    @Test
+    public void testLeastLoadedSelectorChooser() throws Exception
+    {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", 0));
+        SocketAddress address = server.getLocalAddress();
+
+        SelectorManager selectorManager = new SelectorManager(executor, scheduler, 2)
+        {
+            @Override
+            protected EndPoint newEndPoint(SocketChannel channel, ManagedSelector selector, SelectionKey selectionKey) throws IOException
+            {
+                return new SelectChannelEndPoint(channel, selector, selectionKey, getScheduler(), 30000);
+            }
+
+            @Override
+            public Connection newConnection(SocketChannel channel, EndPoint endpoint, Object attachment) throws IOException
+            {
+                return new AbstractConnection(endpoint, executor)
+                {
+                    @Override
+                    public void onFillable()
+                    {
+                    }
+                };
+            }
+        };
+        // Load the first selector with 3 channels
+        selectorManager.setSelectorChooser(new SelectorManager.SelectorChooser()
+        {
+            @Override
+            public SelectorManager.ManagedSelector choose(SelectorManager.ManagedSelector[] selectors)
+            {
+                return selectors[0];
+            }
+        });
+        selectorManager.start();
+
+        List<SocketChannel> clients = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < 3; ++i)
+                accept(server, address, selectorManager, clients);
+            Assert.assertArrayEquals(new int[]{3, 0}, awaitRegisteredKeys(selectorManager, 3));
+
+            selectorManager.setSelectorChooser(new SelectorManager.LeastLoadedSelectorChooser());
+            for (int i = 0; i < 2; ++i)
+                accept(server, address, selectorManager, clients);
+            Assert.assertArrayEquals(new int[]{3, 2}, awaitRegisteredKeys(selectorManager, 5));
+            Assert.assertArrayEquals(new long[]{3, 2}, selectorManager.getAssignedChannels());
+            Assert.assertThat(selectorManager.dump(), Matchers.containsString("assigned=2"));
+        }
+        finally
+        {
+            for (SocketChannel client : clients)
+                client.close();
+            selectorManager.stop();
+            server.close();
+        }
+    }
+
+    private void accept(ServerSocketChannel server, SocketAddress address, SelectorManager selectorManager, List<SocketChannel> clients) throws Exception
+    {
+        clients.add(SocketChannel.open(address));
+        SocketChannel channel = server.accept();
+        channel.configureBlocking(false);
+        selectorManager.accept(channel);
+        // Wait for the registration so that the load of the selectors is stable
+        awaitRegisteredKeys(selectorManager, clients.size());
+    }
+
+    private int[] awaitRegisteredKeys(SelectorManager selectorManager, int expected) throws Exception
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < end)
+        {
+            int[] keys = selectorManager.getRegisteredKeys();
+            int total = 0;
+            for (int key : keys)
+                total += key;
+            if (total >= expected)
+                return keys;
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return selectorManager.getRegisteredKeys();
+    }
+
+    @Test
+    public void testSubmitWhileSelectorBusyAvoidsWakeups() throws Exception
+    {
+        final List<SelectorManager.ManagedSelector> selectors = new ArrayList<>();
+        SelectorManager selectorManager = new SelectorManager(executor, scheduler, 1)
+        {
+            @Override
+            protected ManagedSelector newSelector(int id)
+            {
+                ManagedSelector selector = super.newSelector(id);
+                selectors.add(selector);
+                return selector;
+            }
+
+            @Override
+            protected EndPoint newEndPoint(SocketChannel channel, ManagedSelector selector, SelectionKey selectionKey) throws IOException
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Connection newConnection(SocketChannel channel, EndPoint endpoint, Object attachment) throws IOException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        selectorManager.setBatchInterestUpdates(true);
+        selectorManager.start();
+
+        try
+        {
+            SelectorManager.ManagedSelector selector = selectors.get(0);
+            final CountDownLatch idle = new CountDownLatch(1);
+            selector.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    idle.countDown();
+                }
+            });
+            Assert.assertTrue(idle.await(5, TimeUnit.SECONDS));
+            // Let the selector block in select(), so that the next change wakes it up
+            Thread.sleep(100);
+
+            final CountDownLatch busy = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            selector.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    busy.countDown();
+                    try
+                    {
+                        release.await(5, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException x)
+                    {
+                        throw new RuntimeException(x);
+                    }
+                }
+            });
+            Assert.assertTrue(busy.await(5, TimeUnit.SECONDS));
+            long wakeups = selector.getWakeups();
+            long avoided = selector.getWakeupsAvoided();
+
+            final int updates = 10;
+            final CountDownLatch applied = new CountDownLatch(updates);
+            for (int i = 0; i < updates; ++i)
+            {
+                selector.submitUpdate(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        applied.countDown();
+                    }
+                });
+            }
+            release.countDown();
+
+            Assert.assertTrue(applied.await(5, TimeUnit.SECONDS));
+            // The busy selector was not selecting, so no wakeup was needed nor avoided
+            Assert.assertEquals(0, selector.getWakeups() - wakeups);
+            Assert.assertEquals(0, selector.getWakeupsAvoided() - avoided);
+        }
+        finally
+        {
+            selectorManager.stop();
+        }
+    }
+
+    @Test
+    public void testOnlySkippedWakeupsAreCounted() throws Exception
+    {
+        final AtomicBoolean swallowWakeups = new AtomicBoolean();
+        final List<SelectorManager.ManagedSelector> selectors = new ArrayList<>();
+        SelectorManager selectorManager = new SelectorManager(executor, scheduler, 1)
+        {
+            @Override
+            protected ManagedSelector newSelector(int id)
+            {
+                ManagedSelector selector = new ManagedSelector(id)
+                {
+                    @Override
+                    public void wakeup()
+                    {
+                        // Keep the selector blocked in select() with a wakeup pending
+                        if (!swallowWakeups.get())
+                            super.wakeup();
+                    }
+                };
+                selectors.add(selector);
+                return selector;
+            }
+
+            @Override
+            protected EndPoint newEndPoint(SocketChannel channel, ManagedSelector selector, SelectionKey selectionKey) throws IOException
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Connection newConnection(SocketChannel channel, EndPoint endpoint, Object attachment) throws IOException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        selectorManager.start();
+
+        try
+        {
+            SelectorManager.ManagedSelector selector = selectors.get(0);
+            final CountDownLatch idle = new CountDownLatch(1);
+            selector.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    idle.countDown();
+                }
+            });
+            Assert.assertTrue(idle.await(5, TimeUnit.SECONDS));
+            // Let the selector block in select()
+            Thread.sleep(100);
+
+            swallowWakeups.set(true);
+            long wakeups = selector.getWakeups();
+            long avoided = selector.getWakeupsAvoided();
+
+            final int changes = 10;
+            final CountDownLatch applied = new CountDownLatch(changes);
+            for (int i = 0; i < changes; ++i)
+            {
+                selector.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        applied.countDown();
+                    }
+                });
+            }
+
+            // The first change needed a wakeup, the others skipped it
+            Assert.assertEquals(1, selector.getWakeups() - wakeups);
+            Assert.assertEquals(changes - 1, selector.getWakeupsAvoided() - avoided);
+
+            swallowWakeups.set(false);
+            selector.wakeup();
+            Assert.assertTrue(applied.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            selectorManager.stop();
+        }
+    }
+
+    @Test
+    public void testRegisteredKeysWhileStopping() throws Exception
+    {
+        SelectorManager selectorManager = new SelectorManager(executor, scheduler, 2)
+        {
+            @Override
+            protected EndPoint newEndPoint(SocketChannel channel, ManagedSelector selector, SelectionKey selectionKey) throws IOException
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Connection newConnection(SocketChannel channel, EndPoint endpoint, Object attachment) throws IOException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        selectorManager.start();
+
+        // A JMX client may read the attribute while the selectors are closed
+        final SelectorManager manager = selectorManager;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    while (running.get())
+                        manager.getRegisteredKeys();
+                }
+                catch (Throwable x)
+                {
+                    failure.set(x);
+                }
+            }
+        };
+        reader.start();
+
+        Thread.sleep(50);
+        selectorManager.stop();
+        running.set(false);
+        reader.join(5000);
+
+        Assert.assertNull(failure.get());
+        for (int keys : selectorManager.getRegisteredKeys())
+            Assert.assertEquals(0, keys);
+    }
 }
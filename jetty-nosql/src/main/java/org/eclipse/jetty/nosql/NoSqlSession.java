@@ -18,8 +18,6 @@
 
 package org.eclipse.jetty.nosql;
 
-import java.util.HashSet;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
@@ -35,7 +33,6 @@ public class NoSqlSession extends AbstractSession
     private final static Logger __log = Log.getLogger("org.eclipse.jetty.server.session");
 
     private final NoSqlSessionManager _manager;
-    private Set<String> _dirty;
     private final AtomicInteger _active = new AtomicInteger();
     private Object _version;
     private long _lastSync;
@@ -63,9 +60,6 @@ public class NoSqlSession extends AbstractSession
     {
         synchronized (this)
         {
-            if (_dirty==null)
-                _dirty=new HashSet<String>();
-            _dirty.add(name);
             Object old = super.doPutOrRemove(name,value);
             if (_manager.getSavePeriod()==-2)
                 save(true);
@@ -151,29 +145,6 @@ public class NoSqlSession extends AbstractSession
         }
     }
 
-    /* ------------------------------------------------------------ */
-    public boolean isDirty()
-    {
-        synchronized (this)
-        {
-            return _dirty!=null && !_dirty.isEmpty();
-        }
-    }
-    
-    /* ------------------------------------------------------------ */
-    public Set<String> takeDirty()
-    {
-        synchronized (this)
-        {
-            Set<String> dirty=_dirty;
-            if (dirty==null)
-                dirty= new HashSet<String>();
-            else
-                _dirty=null;
-            return dirty;
-        }
-    }
-
     /* ------------------------------------------------------------ */
     public Object getVersion()
     {
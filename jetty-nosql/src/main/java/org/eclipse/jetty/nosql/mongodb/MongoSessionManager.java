@@ -481,6 +481,9 @@ public class MongoSessionManager extends NoSqlSessionManager
                 return o;
         }
         
+        if (getSessionDataCodec() != null)
+            return getSessionDataCodec().encode(value);
+
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
         ObjectOutputStream out = new ObjectOutputStream(bout);
         out.reset();
@@ -499,6 +502,9 @@ public class MongoSessionManager extends NoSqlSessionManager
         else if (valueToDecode instanceof byte[])
         {
             final byte[] decodeObject = (byte[])valueToDecode;
+            if (getSessionDataCodec() != null)
+                return getSessionDataCodec().decode(decodeObject);
+
             final ByteArrayInputStream bais = new ByteArrayInputStream(decodeObject);
             final ClassLoadingObjectInputStream objectInputStream = new ClassLoadingObjectInputStream(bais);
             return objectInputStream.readUnshared();
@@ -21,17 +21,52 @@ package org.eclipse.jetty.proxy;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletException;
 import javax.servlet.UnavailableException;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
-
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.util.Loader;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * <p>A {@link ProxyServlet} that balances requests among a set of members.</p>
+ * <p>Members are configured with the {@code balancerMember.<name>.proxyTo} init parameters, and
+ * optionally with a {@code balancerMember.<name>.weight}, and are selected by a {@link Strategy}
+ * configured with the {@code strategy} init parameter, one of {@code roundRobin} (the default),
+ * {@code weightedRoundRobin}, {@code leastRequests}, {@code powerOfTwoChoices} or the name of a
+ * class implementing {@link Strategy}.</p>
+ * <p>Members that fail {@code maxFailures} consecutive requests (default 5, 0 to disable), either
+ * because the member cannot be reached, times out or is unavailable, are ejected from the selection
+ * for {@code ejectionTime} milliseconds (default 30000).
+ * If {@code healthCheckPath} is configured, members are also probed every {@code healthCheckInterval}
+ * milliseconds (default 10000) with a GET request for that path, and members that do not respond
+ * successfully within {@code healthCheckTimeout} milliseconds (default 5000) are not selected until
+ * they do. When no member is available, requests are balanced among all members.</p>
+ * <p>Each {@link BalancerMember} keeps statistics about the requests it served, and is set as a
+ * servlet context attribute named {@code <servletName>.balancerMember.<name>}, so that it can be
+ * exported to JMX via {@code ContextHandler.MANAGED_ATTRIBUTES}.</p>
+ */
 public class BalancerServlet extends ProxyServlet
 {
     private static final String BALANCER_MEMBER_PREFIX = "balancerMember.";
@@ -59,11 +94,19 @@ public class BalancerServlet extends ProxyServlet
 
     private static final String JSESSIONID = "jsessionid";
     private static final String JSESSIONID_URL_PREFIX = JSESSIONID + "=";
+    private static final String BALANCER_MEMBER_ATTRIBUTE = BalancerServlet.class.getName() + ".balancerMember";
 
     private final List<BalancerMember> _balancerMembers = new ArrayList<>();
-    private final AtomicLong counter = new AtomicLong();
+    private Strategy _strategy;
     private boolean _stickySessions;
     private boolean _proxyPassReverse;
+    private int _maxFailures;
+    private long _ejectionTime;
+    private String _healthCheckPath;
+    private long _healthCheckInterval;
+    private long _healthCheckTimeout;
+    private volatile Scheduler.Task _healthCheckTask;
+    private volatile boolean _destroyed;
 
     @Override
     public void init() throws ServletException
@@ -73,6 +116,27 @@ public class BalancerServlet extends ProxyServlet
         initStickySessions();
         initBalancers();
         initProxyPassReverse();
+        initStrategy();
+        initEjection();
+        initHealthChecks();
+    }
+
+    @Override
+    public void destroy()
+    {
+        _destroyed = true;
+        Scheduler.Task task = _healthCheckTask;
+        if (task != null)
+            task.cancel();
+        super.destroy();
+    }
+
+    /**
+     * @return the balancer members
+     */
+    public List<BalancerMember> getBalancerMembers()
+    {
+        return Collections.unmodifiableList(_balancerMembers);
     }
 
     private void validateConfig() throws ServletException
@@ -100,9 +164,19 @@ public class BalancerServlet extends ProxyServlet
             String proxyTo = getServletConfig().getInitParameter(memberProxyToParam);
             if (proxyTo == null || proxyTo.trim().length() == 0)
                 throw new UnavailableException(memberProxyToParam + " parameter is empty.");
-            members.add(new BalancerMember(balancerName, proxyTo));
+            String memberWeightParam = BALANCER_MEMBER_PREFIX + balancerName + ".weight";
+            String weight = getServletConfig().getInitParameter(memberWeightParam);
+            int memberWeight = weight == null ? 1 : Integer.parseInt(weight);
+            if (memberWeight <= 0)
+                throw new UnavailableException(memberWeightParam + " parameter must be positive.");
+            members.add(new BalancerMember(balancerName, proxyTo, memberWeight));
         }
         _balancerMembers.addAll(members);
+
+        // Put the members in the context to leverage ContextHandler.MANAGED_ATTRIBUTES
+        String prefix = getServletConfig().getServletName() + ".balancerMember.";
+        for (BalancerMember balancerMember : _balancerMembers)
+            getServletContext().setAttribute(prefix + balancerMember.getName(), balancerMember);
     }
 
     private void initProxyPassReverse()
@@ -110,6 +184,111 @@ public class BalancerServlet extends ProxyServlet
         _proxyPassReverse = Boolean.parseBoolean(getServletConfig().getInitParameter("proxyPassReverse"));
     }
 
+    private void initStrategy() throws ServletException
+    {
+        String strategy = getServletConfig().getInitParameter("strategy");
+        _strategy = newStrategy(strategy == null ? "roundRobin" : strategy);
+    }
+
+    /**
+     * @param name the name of the strategy, or the name of a class implementing {@link Strategy}
+     * @return a new {@link Strategy} for the given name
+     * @throws ServletException if the strategy cannot be created
+     */
+    protected Strategy newStrategy(String name) throws ServletException
+    {
+        switch (name)
+        {
+            case "roundRobin":
+                return new RoundRobinStrategy();
+            case "weightedRoundRobin":
+                return new WeightedRoundRobinStrategy();
+            case "leastRequests":
+                return new LeastRequestsStrategy();
+            case "powerOfTwoChoices":
+                return new PowerOfTwoChoicesStrategy();
+            default:
+            {
+                try
+                {
+                    return (Strategy)Loader.loadClass(getClass(), name).newInstance();
+                }
+                catch (Exception x)
+                {
+                    throw new UnavailableException("Cannot create strategy " + name + ": " + x);
+                }
+            }
+        }
+    }
+
+    private void initEjection()
+    {
+        String value = getServletConfig().getInitParameter("maxFailures");
+        _maxFailures = value == null ? 5 : Integer.parseInt(value);
+
+        value = getServletConfig().getInitParameter("ejectionTime");
+        _ejectionTime = value == null ? 30000 : Long.parseLong(value);
+    }
+
+    private void initHealthChecks() throws ServletException
+    {
+        _healthCheckPath = getServletConfig().getInitParameter("healthCheckPath");
+        if (_healthCheckPath == null)
+            return;
+        if (!_healthCheckPath.startsWith("/"))
+            throw new UnavailableException("healthCheckPath parameter must start with /");
+
+        String value = getServletConfig().getInitParameter("healthCheckInterval");
+        _healthCheckInterval = value == null ? 10000 : Long.parseLong(value);
+
+        value = getServletConfig().getInitParameter("healthCheckTimeout");
+        _healthCheckTimeout = value == null ? 5000 : Long.parseLong(value);
+
+        scheduleHealthChecks();
+    }
+
+    private void scheduleHealthChecks()
+    {
+        if (_destroyed)
+            return;
+        _healthCheckTask = getHttpClient().getScheduler().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                checkHealth();
+                scheduleHealthChecks();
+            }
+        }, _healthCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkHealth()
+    {
+        for (final BalancerMember balancerMember : _balancerMembers)
+        {
+            try
+            {
+                getHttpClient().newRequest(balancerMember.getProxyTo() + _healthCheckPath)
+                        .timeout(_healthCheckTimeout, TimeUnit.MILLISECONDS)
+                        .send(new Response.CompleteListener()
+                        {
+                            @Override
+                            public void onComplete(Result result)
+                            {
+                                boolean healthy = result.isSucceeded() && result.getResponse().getStatus() < 400;
+                                if (balancerMember.setHealthy(healthy))
+                                    _log.info("{} is now {}", balancerMember, healthy ? "healthy" : "unhealthy");
+                            }
+                        });
+            }
+            catch (Exception x)
+            {
+                _log.debug("Could not check " + balancerMember, x);
+                balancerMember.setHealthy(false);
+            }
+        }
+    }
+
     private Set<String> getBalancerNames() throws ServletException
     {
         Set<String> names = new HashSet<>();
@@ -132,6 +311,7 @@ public class BalancerServlet extends ProxyServlet
     {
         BalancerMember balancerMember = selectBalancerMember(request);
         _log.debug("Selected {}", balancerMember);
+        request.setAttribute(BALANCER_MEMBER_ATTRIBUTE, balancerMember);
         String path = request.getRequestURI();
         String query = request.getQueryString();
         if (query != null)
@@ -148,11 +328,45 @@ public class BalancerServlet extends ProxyServlet
             {
                 BalancerMember balancerMember = findBalancerMemberByName(name);
                 if (balancerMember != null)
-                    return balancerMember;
+                {
+                    if (balancerMember.isAvailable())
+                        return balancerMember;
+                    _log.debug("Sticky {} not available", balancerMember);
+                }
             }
         }
-        int index = (int)(counter.getAndIncrement() % _balancerMembers.size());
-        return _balancerMembers.get(index);
+        return _strategy.select(getAvailableBalancerMembers(), request);
+    }
+
+    private List<BalancerMember> getAvailableBalancerMembers()
+    {
+        List<BalancerMember> result = new ArrayList<>(_balancerMembers.size());
+        for (BalancerMember balancerMember : _balancerMembers)
+        {
+            if (balancerMember.isAvailable())
+                result.add(balancerMember);
+        }
+        // Better to try an unavailable member than to reject the request
+        return result.isEmpty() ? _balancerMembers : result;
+    }
+
+    @Override
+    protected void sendProxyRequest(HttpServletRequest request, HttpServletResponse response, Request proxyRequest)
+    {
+        BalancerMember balancerMember = (BalancerMember)request.getAttribute(BALANCER_MEMBER_ATTRIBUTE);
+        // The request is active only from now on: failures before this point do not leak active requests
+        BalancerResponseListener listener = new BalancerResponseListener(request, response, balancerMember);
+        boolean sent = false;
+        try
+        {
+            proxyRequest.send(listener);
+            sent = true;
+        }
+        finally
+        {
+            if (!sent)
+                listener.requestComplete(true, false);
+        }
     }
 
     private BalancerMember findBalancerMemberByName(String name)
@@ -252,24 +466,199 @@ public class BalancerServlet extends ProxyServlet
         return true;
     }
 
-    private static class BalancerMember
+    /**
+     * <p>Tracks a request sent to a balancer member, completing it exactly once: when the
+     * response succeeds or fails, before the client is answered, or when the exchange
+     * completes, which also covers the failures that happen before a response arrives.</p>
+     */
+    private class BalancerResponseListener extends ProxyResponseListener
+    {
+        private final AtomicBoolean complete = new AtomicBoolean();
+        private final BalancerMember balancerMember;
+        private final long startTime;
+
+        private BalancerResponseListener(HttpServletRequest request, HttpServletResponse response, BalancerMember balancerMember)
+        {
+            super(request, response);
+            this.balancerMember = balancerMember;
+            this.startTime = System.nanoTime();
+            balancerMember.requestBegin();
+        }
+
+        @Override
+        public void onSuccess(Response proxyResponse)
+        {
+            requestComplete(proxyResponse.getStatus() == HttpServletResponse.SC_SERVICE_UNAVAILABLE, false);
+            super.onSuccess(proxyResponse);
+        }
+
+        @Override
+        public void onFailure(Response proxyResponse, Throwable failure)
+        {
+            requestComplete(true, failure instanceof TimeoutException);
+            super.onFailure(proxyResponse, failure);
+        }
+
+        @Override
+        public void onComplete(Result result)
+        {
+            requestComplete(result.isFailed(), result.getFailure() instanceof TimeoutException);
+            super.onComplete(result);
+        }
+
+        private void requestComplete(boolean failed, boolean timedOut)
+        {
+            if (!complete.compareAndSet(false, true))
+                return;
+
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            int consecutiveFailures = balancerMember.requestComplete(latency, failed, timedOut);
+            if (_maxFailures > 0 && consecutiveFailures >= _maxFailures)
+            {
+                balancerMember.eject(_ejectionTime);
+                _log.info("{} ejected for {} ms after {} consecutive failures", balancerMember, _ejectionTime, consecutiveFailures);
+            }
+        }
+    }
+
+    /**
+     * <p>The strategy used to select the {@link BalancerMember} a request is proxied to.</p>
+     */
+    public interface Strategy
     {
+        /**
+         * @param balancerMembers the balancer members to select from, never empty
+         * @param request the request to proxy
+         * @return the balancer member to proxy the request to
+         */
+        BalancerMember select(List<BalancerMember> balancerMembers, HttpServletRequest request);
+    }
+
+    /**
+     * <p>Selects the members in turn.</p>
+     */
+    public static class RoundRobinStrategy implements Strategy
+    {
+        private final AtomicLong counter = new AtomicLong();
+
+        @Override
+        public BalancerMember select(List<BalancerMember> balancerMembers, HttpServletRequest request)
+        {
+            int index = (int)(counter.getAndIncrement() % balancerMembers.size());
+            return balancerMembers.get(index);
+        }
+    }
+
+    /**
+     * <p>Selects the members in turn, proportionally to their weight, interleaving the selections
+     * so that a member with a large weight does not receive a burst of consecutive requests.</p>
+     */
+    public static class WeightedRoundRobinStrategy implements Strategy
+    {
+        private final Map<BalancerMember, Long> currentWeights = new HashMap<>();
+
+        @Override
+        public synchronized BalancerMember select(List<BalancerMember> balancerMembers, HttpServletRequest request)
+        {
+            BalancerMember result = null;
+            long resultWeight = 0;
+            long totalWeight = 0;
+            for (BalancerMember balancerMember : balancerMembers)
+            {
+                Long current = currentWeights.get(balancerMember);
+                long weight = (current == null ? 0 : current) + balancerMember.getWeight();
+                currentWeights.put(balancerMember, weight);
+                totalWeight += balancerMember.getWeight();
+                if (result == null || weight > resultWeight)
+                {
+                    result = balancerMember;
+                    resultWeight = weight;
+                }
+            }
+            currentWeights.put(result, resultWeight - totalWeight);
+            return result;
+        }
+    }
+
+    /**
+     * <p>Selects the member with the least active requests, so that a slow member
+     * receives less requests; ties are broken in turn.</p>
+     */
+    public static class LeastRequestsStrategy implements Strategy
+    {
+        private final AtomicLong counter = new AtomicLong();
+
+        @Override
+        public BalancerMember select(List<BalancerMember> balancerMembers, HttpServletRequest request)
+        {
+            int size = balancerMembers.size();
+            int offset = (int)(counter.getAndIncrement() % size);
+            BalancerMember result = null;
+            for (int i = 0; i < size; ++i)
+            {
+                BalancerMember balancerMember = balancerMembers.get((offset + i) % size);
+                if (result == null || balancerMember.getActiveRequests() < result.getActiveRequests())
+                    result = balancerMember;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * <p>Selects the member with the least active requests among two random members,
+     * which avoids both scanning all members and herding onto the least loaded one.</p>
+     */
+    public static class PowerOfTwoChoicesStrategy implements Strategy
+    {
+        @Override
+        public BalancerMember select(List<BalancerMember> balancerMembers, HttpServletRequest request)
+        {
+            int size = balancerMembers.size();
+            if (size == 1)
+                return balancerMembers.get(0);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first)
+                ++second;
+            BalancerMember balancerMember1 = balancerMembers.get(first);
+            BalancerMember balancerMember2 = balancerMembers.get(second);
+            return balancerMember2.getActiveRequests() < balancerMember1.getActiveRequests() ? balancerMember2 : balancerMember1;
+        }
+    }
+
+    @ManagedObject("A member of a balancer")
+    public static class BalancerMember
+    {
+        private final AtomicInteger _activeRequests = new AtomicInteger();
+        private final AtomicLong _requests = new AtomicLong();
+        private final AtomicLong _failures = new AtomicLong();
+        private final AtomicLong _timeouts = new AtomicLong();
+        private final AtomicInteger _consecutiveFailures = new AtomicInteger();
+        private final AtomicLong _ejections = new AtomicLong();
+        private final HistogramStatistic _latencyHistogram = new HistogramStatistic();
         private final String _name;
         private final String _proxyTo;
         private final URI _backendURI;
+        private final int _weight;
+        private volatile long _ejectedUntil = System.nanoTime();
+        private volatile boolean _healthy = true;
 
-        public BalancerMember(String name, String proxyTo)
+        public BalancerMember(String name, String proxyTo, int weight)
         {
             _name = name;
             _proxyTo = proxyTo;
             _backendURI = URI.create(_proxyTo).normalize();
+            _weight = weight;
         }
 
+        @ManagedAttribute("The name of the member")
         public String getName()
         {
             return _name;
         }
 
+        @ManagedAttribute("The URI requests are proxied to")
         public String getProxyTo()
         {
             return _proxyTo;
@@ -280,6 +669,128 @@ public class BalancerServlet extends ProxyServlet
             return _backendURI;
         }
 
+        @ManagedAttribute("The weight of the member")
+        public int getWeight()
+        {
+            return _weight;
+        }
+
+        @ManagedAttribute("The number of requests being proxied to the member")
+        public int getActiveRequests()
+        {
+            return _activeRequests.get();
+        }
+
+        @ManagedAttribute("The number of requests proxied to the member")
+        public long getRequests()
+        {
+            return _requests.get();
+        }
+
+        @ManagedAttribute("The number of requests that failed, timed out or were rejected with 503")
+        public long getFailures()
+        {
+            return _failures.get();
+        }
+
+        @ManagedAttribute("The number of requests that timed out")
+        public long getTimeouts()
+        {
+            return _timeouts.get();
+        }
+
+        @ManagedAttribute("The number of requests that failed since the last successful one")
+        public int getConsecutiveFailures()
+        {
+            return _consecutiveFailures.get();
+        }
+
+        @ManagedAttribute("The number of times the member has been ejected")
+        public long getEjections()
+        {
+            return _ejections.get();
+        }
+
+        @ManagedAttribute("50th percentile of the latency of the member over the last minute (in ms)")
+        public long getLatencyP50()
+        {
+            return _latencyHistogram.getWindowSnapshot().getPercentile(50);
+        }
+
+        @ManagedAttribute("99th percentile of the latency of the member over the last minute (in ms)")
+        public long getLatencyP99()
+        {
+            return _latencyHistogram.getWindowSnapshot().getPercentile(99);
+        }
+
+        @ManagedAttribute("Whether the member responds to health checks")
+        public boolean isHealthy()
+        {
+            return _healthy;
+        }
+
+        /**
+         * @param healthy whether the member responds to health checks
+         * @return whether the health of the member changed
+         */
+        protected boolean setHealthy(boolean healthy)
+        {
+            boolean changed = _healthy != healthy;
+            _healthy = healthy;
+            return changed;
+        }
+
+        @ManagedAttribute("Whether the member is ejected after consecutive failures")
+        public boolean isEjected()
+        {
+            return System.nanoTime() - _ejectedUntil < 0;
+        }
+
+        @ManagedAttribute("Whether requests may be proxied to the member")
+        public boolean isAvailable()
+        {
+            return isHealthy() && !isEjected();
+        }
+
+        protected void eject(long ejectionTime)
+        {
+            _ejectedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ejectionTime);
+            _consecutiveFailures.set(0);
+            _ejections.incrementAndGet();
+        }
+
+        protected void requestBegin()
+        {
+            _activeRequests.incrementAndGet();
+        }
+
+        /**
+         * @param latency the latency of the request in milliseconds
+         * @param failed whether the request failed
+         * @param timedOut whether the request timed out
+         * @return the number of consecutive failures
+         */
+        protected int requestComplete(long latency, boolean failed, boolean timedOut)
+        {
+            _requests.incrementAndGet();
+            _latencyHistogram.set(latency);
+            if (timedOut)
+                _timeouts.incrementAndGet();
+            int consecutiveFailures = 0;
+            if (failed)
+            {
+                _failures.incrementAndGet();
+                consecutiveFailures = _consecutiveFailures.incrementAndGet();
+            }
+            else
+            {
+                _consecutiveFailures.set(0);
+            }
+            // Updated last, so that the statistics are consistent once there are no active requests
+            _activeRequests.decrementAndGet();
+            return consecutiveFailures;
+        }
+
         @Override
         public String toString()
         {
@@ -33,6 +33,8 @@ import java.util.concurrent.TimeoutException;
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.UnavailableException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -42,12 +44,14 @@ import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
-import org.eclipse.jetty.client.util.InputStreamContentProvider;
+import org.eclipse.jetty.client.util.DeferredContentProvider;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.HttpCookieStore;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -59,6 +63,11 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
  * Forwards requests to another server either as a standard web reverse proxy
  * (as defined by RFC2616) or as a transparent reverse proxy.
  * <p/>
+ * Request and response content are streamed with backpressure: a request content buffer
+ * is read from the client only after the previous one has been written to the server, and
+ * response content is written asynchronously to the client and read from the server only
+ * after the previous one has been written, so that slow peers do not cause content to pile up.
+ * <p/>
  * To facilitate JMX monitoring, the {@link HttpClient} instance is set as context attribute,
  * prefixed with the servlet's name and exposed by the mechanism provided by
  * {@link ContextHandler#MANAGED_ATTRIBUTES}.
@@ -101,6 +110,7 @@ public class ProxyServlet extends HttpServlet
     private String _viaHost;
     private HttpClient _client;
     private long _timeout;
+    private final boolean _blockingResponseContent = isBlockingResponseContentOverridden();
 
     @Override
     public void init() throws ServletException
@@ -136,6 +146,14 @@ public class ProxyServlet extends HttpServlet
         }
     }
 
+    /**
+     * @return the {@link HttpClient} used to proxy requests
+     */
+    protected HttpClient getHttpClient()
+    {
+        return _client;
+    }
+
     public long getTimeout()
     {
         return _timeout;
@@ -407,21 +425,15 @@ public class ProxyServlet extends HttpServlet
         proxyRequest.header(HttpHeader.X_FORWARDED_HOST, request.getHeader(HttpHeader.HOST.asString()));
         proxyRequest.header(HttpHeader.X_FORWARDED_SERVER, request.getLocalName());
 
-        proxyRequest.content(new InputStreamContentProvider(request.getInputStream())
+        final DeferredContentProvider proxyRequestContent = new DeferredContentProvider()
         {
             @Override
             public long getLength()
             {
                 return request.getContentLength();
             }
-
-            @Override
-            protected ByteBuffer onRead(byte[] buffer, int offset, int length)
-            {
-                _log.debug("{} proxying content to upstream: {} bytes", requestId, length);
-                return super.onRead(buffer, offset, length);
-            }
-        });
+        };
+        proxyRequest.content(proxyRequestContent);
 
         final AsyncContext asyncContext = request.startAsync();
         // We do not timeout the continuation, but the proxy request
@@ -464,6 +476,22 @@ public class ProxyServlet extends HttpServlet
         }
 
         proxyRequest.timeout(getTimeout(), TimeUnit.MILLISECONDS);
+        sendProxyRequest(request, response, proxyRequest);
+
+        // Only the first chunk of the request content is read by this thread,
+        // further chunks are read by the container once the previous one is written
+        new ProxyRequestContent(request, proxyRequest, proxyRequestContent, asyncContext).run();
+    }
+
+    /**
+     * Sends the proxy request to the server, notifying the response events to a {@link ProxyResponseListener}.
+     *
+     * @param request the request to proxy
+     * @param response the response to the client
+     * @param proxyRequest the proxy request
+     */
+    protected void sendProxyRequest(HttpServletRequest request, HttpServletResponse response, Request proxyRequest)
+    {
         proxyRequest.send(new ProxyResponseListener(request, response));
     }
 
@@ -484,6 +512,62 @@ public class ProxyServlet extends HttpServlet
         }
     }
 
+    /**
+     * Writes the response content to the client.
+     * The callback must be completed when the content has been written,
+     * and only then further content is read from the server.
+     *
+     * @param request the request being proxied
+     * @param response the response to the client
+     * @param proxyResponse the response from the server
+     * @param content the response content
+     * @param callback the callback to complete when the content has been written
+     */
+    protected void onResponseContent(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, ByteBuffer content, Callback callback)
+    {
+        try
+        {
+            ServletOutputStream output = response.getOutputStream();
+            if (!_blockingResponseContent && output instanceof HttpOutput)
+            {
+                _log.debug("{} proxying content to downstream: {} bytes", getRequestId(request), content.remaining());
+                ((HttpOutput)output).write(content, callback);
+            }
+            else
+            {
+                // Wrapped responses can only be written with blocking writes,
+                // as well as the content of subclasses that still intercept it
+                byte[] buffer;
+                int offset;
+                int length = content.remaining();
+                if (content.hasArray())
+                {
+                    buffer = content.array();
+                    offset = content.arrayOffset() + content.position();
+                }
+                else
+                {
+                    buffer = new byte[length];
+                    content.get(buffer);
+                    offset = 0;
+                }
+                onResponseContent(request, response, proxyResponse, buffer, offset, length);
+                callback.succeeded();
+            }
+        }
+        catch (IOException x)
+        {
+            callback.failed(x);
+        }
+    }
+
+    /**
+     * Writes the response content to the client with a blocking write.
+     *
+     * @deprecated override {@link #onResponseContent(HttpServletRequest, HttpServletResponse, Response, ByteBuffer, Callback)}
+     * instead, since overriding this method makes every response content write blocking
+     */
+    @Deprecated
     protected void onResponseContent(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, byte[] buffer, int offset, int length) throws IOException
     {
         response.getOutputStream().write(buffer, offset, length);
@@ -511,6 +595,23 @@ public class ProxyServlet extends HttpServlet
         asyncContext.complete();
     }
 
+    private boolean isBlockingResponseContentOverridden()
+    {
+        for (Class<?> type = getClass(); type != ProxyServlet.class; type = type.getSuperclass())
+        {
+            try
+            {
+                type.getDeclaredMethod("onResponseContent", HttpServletRequest.class, HttpServletResponse.class, Response.class, byte[].class, int.class, int.class);
+                return true;
+            }
+            catch (NoSuchMethodException x)
+            {
+                // Look in the superclass
+            }
+        }
+        return false;
+    }
+
     protected int getRequestId(HttpServletRequest request)
     {
         return System.identityHashCode(request);
@@ -629,12 +730,91 @@ public class ProxyServlet extends HttpServlet
         }
     }
 
-    private class ProxyResponseListener extends Response.Listener.Empty
+    /**
+     * Reads the request content and offers it to the proxy request content provider, one buffer at a time.
+     * A buffer is read only after the previous one has been written to the server, so that the upload is
+     * paced by the server and only one buffer per request is held in memory.
+     * No thread waits for the writes: the next buffer is read by a task started on the container once the
+     * previous buffer has been written, and the {@link HttpClient} threads never block reading the content.
+     */
+    private class ProxyRequestContent implements Runnable, Callback
+    {
+        private final HttpServletRequest request;
+        private final Request proxyRequest;
+        private final DeferredContentProvider provider;
+        private final AsyncContext asyncContext;
+        private final byte[] buffer;
+
+        private ProxyRequestContent(HttpServletRequest request, Request proxyRequest, DeferredContentProvider provider, AsyncContext asyncContext)
+        {
+            this.request = request;
+            this.proxyRequest = proxyRequest;
+            this.provider = provider;
+            this.asyncContext = asyncContext;
+            this.buffer = new byte[_client.getRequestBufferSize()];
+        }
+
+        @Override
+        public void run()
+        {
+            int requestId = getRequestId(request);
+            try
+            {
+                ServletInputStream input = request.getInputStream();
+                while (true)
+                {
+                    int read = input.read(buffer);
+                    if (read < 0)
+                    {
+                        provider.close();
+                        return;
+                    }
+                    if (read > 0)
+                    {
+                        _log.debug("{} proxying content to upstream: {} bytes", requestId, read);
+                        provider.offer(ByteBuffer.wrap(buffer, 0, read), this);
+                        return;
+                    }
+                }
+            }
+            catch (IOException x)
+            {
+                _log.debug(requestId + " proxying content to upstream failed", x);
+                proxyRequest.abort(x);
+                provider.close();
+            }
+        }
+
+        @Override
+        public void succeeded()
+        {
+            try
+            {
+                asyncContext.start(this);
+            }
+            catch (IllegalStateException x)
+            {
+                // The exchange completed before all the request content was read
+                _log.debug(getRequestId(request) + " proxying content to upstream aborted", x);
+                proxyRequest.abort(x);
+                provider.close();
+            }
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            _log.debug(getRequestId(request) + " proxying content to upstream failed", x);
+            provider.close();
+        }
+    }
+
+    protected class ProxyResponseListener extends Response.Listener.Empty implements Response.AsyncContentListener
     {
         private final HttpServletRequest request;
         private final HttpServletResponse response;
 
-        public ProxyResponseListener(HttpServletRequest request, HttpServletResponse response)
+        protected ProxyResponseListener(HttpServletRequest request, HttpServletResponse response)
         {
             this.request = request;
             this.response = response;
@@ -680,31 +860,9 @@ public class ProxyServlet extends HttpServlet
         }
 
         @Override
-        public void onContent(Response proxyResponse, ByteBuffer content)
+        public void onContent(Response proxyResponse, ByteBuffer content, Callback callback)
         {
-            byte[] buffer;
-            int offset;
-            int length = content.remaining();
-            if (content.hasArray())
-            {
-                buffer = content.array();
-                offset = content.arrayOffset();
-            }
-            else
-            {
-                buffer = new byte[length];
-                content.get(buffer);
-                offset = 0;
-            }
-
-            try
-            {
-                onResponseContent(request, response, proxyResponse, buffer, offset, length);
-            }
-            catch (IOException x)
-            {
-                proxyResponse.abort(x);
-            }
+            onResponseContent(request, response, proxyResponse, content, callback);
         }
 
         @Override
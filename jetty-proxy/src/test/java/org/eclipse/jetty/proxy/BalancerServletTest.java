@@ -22,6 +22,9 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -48,10 +51,12 @@ public class BalancerServletTest
     private static final String CONTEXT_PATH = "/context";
     private static final String SERVLET_PATH = "/mapping";
 
+    private final Map<String, String> initParameters = new HashMap<>();
     private boolean stickySessions;
     private Server server1;
     private Server server2;
     private Server balancer;
+    private ServletHolder balancerServletHolder;
     private HttpClient client;
 
     @Before
@@ -71,6 +76,11 @@ public class BalancerServletTest
     }
 
     protected void startBalancer(Class<? extends HttpServlet> servletClass) throws Exception
+    {
+        startBalancer(servletClass, BalancerServlet.class);
+    }
+
+    protected void startBalancer(Class<? extends HttpServlet> servletClass, Class<? extends BalancerServlet> balancerServletClass) throws Exception
     {
         server1 = createServer(new ServletHolder(servletClass), "node1");
         server1.start();
@@ -78,7 +88,8 @@ public class BalancerServletTest
         server2 = createServer(new ServletHolder(servletClass), "node2");
         server2.start();
 
-        ServletHolder balancerServletHolder = new ServletHolder(BalancerServlet.class);
+        balancerServletHolder = new ServletHolder(balancerServletClass);
+        balancerServletHolder.setInitParameters(initParameters);
         balancerServletHolder.setInitParameter("stickySessions", String.valueOf(stickySessions));
         balancerServletHolder.setInitParameter("proxyPassReverse", "true");
         balancerServletHolder.setInitParameter("balancerMember." + "node1" + ".proxyTo", "http://localhost:" + getServerPort(server1));
@@ -114,11 +125,25 @@ public class BalancerServletTest
 
     protected byte[] sendRequestToBalancer(String path) throws Exception
     {
-        ContentResponse response = client.newRequest("localhost", getServerPort(balancer))
+        return sendRequest(path).getContent();
+    }
+
+    private ContentResponse sendRequest(String path) throws Exception
+    {
+        return client.newRequest("localhost", getServerPort(balancer))
                 .path(CONTEXT_PATH + SERVLET_PATH + path)
                 .timeout(5, TimeUnit.SECONDS)
                 .send();
-        return response.getContent();
+    }
+
+    private BalancerServlet.BalancerMember getBalancerMember(String name) throws Exception
+    {
+        for (BalancerServlet.BalancerMember balancerMember : ((BalancerServlet)balancerServletHolder.getServlet()).getBalancerMembers())
+        {
+            if (balancerMember.getName().equals(name))
+                return balancerMember;
+        }
+        return null;
     }
 
     @Test
@@ -161,6 +186,101 @@ public class BalancerServletTest
         Assert.assertEquals("success", msg);
     }
 
+    @Test
+    public void testWeightedRoundRobinBalancer() throws Exception
+    {
+        initParameters.put("strategy", "weightedRoundRobin");
+        initParameters.put("balancerMember.node1.weight", "3");
+        startBalancer(CounterServlet.class);
+        for (int i = 0; i < 8; i++)
+            Assert.assertEquals(200, sendRequest("/weighted").getStatus());
+        awaitNoActiveRequests();
+
+        Assert.assertEquals(6, getBalancerMember("node1").getRequests());
+        Assert.assertEquals(2, getBalancerMember("node2").getRequests());
+    }
+
+    @Test
+    public void testLeastRequestsBalancer() throws Exception
+    {
+        initParameters.put("strategy", "leastRequests");
+        startBalancer(CounterServlet.class);
+        for (int i = 0; i < 10; i++)
+        {
+            Assert.assertEquals(200, sendRequest("/leastRequests").getStatus());
+            // The response content may arrive before the proxy completes the request
+            awaitNoActiveRequests();
+        }
+
+        // Requests are sequential, so ties are broken in turn
+        Assert.assertEquals(5, getBalancerMember("node1").getRequests());
+        Assert.assertEquals(5, getBalancerMember("node2").getRequests());
+        Assert.assertEquals(0, getBalancerMember("node1").getActiveRequests());
+    }
+
+    @Test
+    public void testFailureBeforeSendDoesNotLeakActiveRequests() throws Exception
+    {
+        startBalancer(CounterServlet.class, FailingBalancerServlet.class);
+        for (int i = 0; i < 4; i++)
+            Assert.assertEquals(500, sendRequest("/failing").getStatus());
+
+        Assert.assertEquals(0, getBalancerMember("node1").getActiveRequests());
+        Assert.assertEquals(0, getBalancerMember("node2").getActiveRequests());
+    }
+
+    @Test
+    public void testFailingMemberIsEjected() throws Exception
+    {
+        initParameters.put("maxFailures", "2");
+        startBalancer(CounterServlet.class);
+        server2.stop();
+
+        int failures = 0;
+        for (int i = 0; i < 10; i++)
+        {
+            if (sendRequest("/ejection").getStatus() != 200)
+                ++failures;
+        }
+        awaitNoActiveRequests();
+
+        BalancerServlet.BalancerMember balancerMember = getBalancerMember("node2");
+        Assert.assertEquals(2, failures);
+        Assert.assertEquals(2, balancerMember.getFailures());
+        Assert.assertEquals(1, balancerMember.getEjections());
+        Assert.assertTrue(balancerMember.isEjected());
+        Assert.assertEquals(8, getBalancerMember("node1").getRequests());
+    }
+
+    @Test
+    public void testUnhealthyMemberIsNotSelected() throws Exception
+    {
+        initParameters.put("maxFailures", "0");
+        initParameters.put("healthCheckPath", CONTEXT_PATH + SERVLET_PATH + "/health");
+        initParameters.put("healthCheckInterval", "100");
+        startBalancer(CounterServlet.class);
+        server2.stop();
+
+        BalancerServlet.BalancerMember balancerMember = getBalancerMember("node2");
+        long start = System.nanoTime();
+        while (balancerMember.isHealthy() && TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5)
+            TimeUnit.MILLISECONDS.sleep(50);
+        Assert.assertFalse(balancerMember.isHealthy());
+        Assert.assertTrue(getBalancerMember("node1").isHealthy());
+
+        for (int i = 0; i < 10; i++)
+            Assert.assertEquals(200, sendRequest("/health").getStatus());
+        Assert.assertEquals(0, balancerMember.getRequests());
+    }
+
+    private void awaitNoActiveRequests() throws Exception
+    {
+        long start = System.nanoTime();
+        while (getBalancerMember("node1").getActiveRequests() + getBalancerMember("node2").getActiveRequests() > 0 &&
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5)
+            TimeUnit.MILLISECONDS.sleep(10);
+    }
+
     private String readFirstLine(byte[] responseBytes) throws IOException
     {
         BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(responseBytes)));
@@ -198,4 +318,15 @@ public class BalancerServletTest
             }
         }
     }
+
+    public static final class FailingBalancerServlet extends BalancerServlet
+    {
+        @Override
+        protected URI rewriteURI(HttpServletRequest request)
+        {
+            // Fail after the balancer member has been selected
+            super.rewriteURI(request);
+            throw new IllegalStateException("explicitly_thrown_by_test");
+        }
+    }
 }
@@ -21,6 +21,7 @@ package org.eclipse.jetty.proxy;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.ConnectException;
@@ -358,6 +359,50 @@ public class ProxyServletTest
         Assert.assertTrue(response.getHeaders().containsKey(PROXIED_HEADER));
     }
 
+    @Test
+    public void testProxyWithBigRequestContentDoesNotHoldServletThread() throws Exception
+    {
+        final CountDownLatch serviceLatch = new CountDownLatch(1);
+        prepareProxy(new ProxyServlet()
+        {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+            {
+                super.service(request, response);
+                serviceLatch.countDown();
+            }
+        });
+        prepareServer(new HttpServlet()
+        {
+            @Override
+            protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+            {
+                try
+                {
+                    // The proxy must not wait for the upload to complete before returning
+                    if (serviceLatch.await(5, TimeUnit.SECONDS))
+                        resp.addHeader(PROXIED_HEADER, "true");
+                }
+                catch (InterruptedException x)
+                {
+                    throw new InterruptedIOException();
+                }
+                IO.copy(req.getInputStream(), IO.getNullStream());
+            }
+        });
+
+        // Big enough to congest the connection between proxy and server
+        byte[] content = new byte[16 * 1024 * 1024];
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+                .method(HttpMethod.POST)
+                .content(new BytesContentProvider(content))
+                .timeout(30, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertTrue(response.getHeaders().containsKey(PROXIED_HEADER));
+    }
+
     @Slow
     @Test
     public void testProxyWithBigResponseContentWithSlowReader() throws Exception
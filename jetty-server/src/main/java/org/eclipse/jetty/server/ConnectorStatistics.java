@@ -31,6 +31,7 @@ import org.eclipse.jetty.util.component.Container;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 
@@ -47,6 +48,8 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
     private final SampleStatistic _messagesIn = new SampleStatistic();
     private final SampleStatistic _messagesOut = new SampleStatistic();
     private final SampleStatistic _connectionDurationStats = new SampleStatistic();
+    private final HistogramStatistic _connectionDurationHistogram = new HistogramStatistic();
+    private final HistogramStatistic _messagesInHistogram = new HistogramStatistic();
 
     @Override
     public void onOpened(Connection connection)
@@ -104,6 +107,29 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
         return _connectionDurationStats.getTotal();
     }
 
+    @ManagedAttribute("Connection duration 50th percentile in ms over the last minute")
+    public long getConnectionsDurationP50()
+    {
+        return _connectionDurationHistogram.getWindowSnapshot().getPercentile(50);
+    }
+
+    @ManagedAttribute("Connection duration 99th percentile in ms over the last minute")
+    public long getConnectionsDurationP99()
+    {
+        return _connectionDurationHistogram.getWindowSnapshot().getPercentile(99);
+    }
+
+    @ManagedAttribute("Connection duration 99.9th percentile in ms over the last minute")
+    public long getConnectionsDurationP999()
+    {
+        return _connectionDurationHistogram.getWindowSnapshot().getPercentile(99.9);
+    }
+
+    public HistogramStatistic getConnectionsDurationHistogram()
+    {
+        return _connectionDurationHistogram;
+    }
+
     @ManagedAttribute("Messages In for all connections")
     public int getMessagesIn()
     {
@@ -128,6 +154,29 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
         return _messagesIn.getStdDev();
     }
 
+    @ManagedAttribute("Messages In per connection 50th percentile over the last minute")
+    public long getConnectionsMessagesInP50()
+    {
+        return _messagesInHistogram.getWindowSnapshot().getPercentile(50);
+    }
+
+    @ManagedAttribute("Messages In per connection 99th percentile over the last minute")
+    public long getConnectionsMessagesInP99()
+    {
+        return _messagesInHistogram.getWindowSnapshot().getPercentile(99);
+    }
+
+    @ManagedAttribute("Messages In per connection 99.9th percentile over the last minute")
+    public long getConnectionsMessagesInP999()
+    {
+        return _messagesInHistogram.getWindowSnapshot().getPercentile(99.9);
+    }
+
+    public HistogramStatistic getConnectionsMessagesInHistogram()
+    {
+        return _messagesInHistogram;
+    }
+
     @ManagedAttribute("Connections open")
     public int getConnectionsOpen()
     {
@@ -172,6 +221,8 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
         _messagesOut.reset();
         _connectionStats.reset();
         _connectionDurationStats.reset();
+        _connectionDurationHistogram.reset();
+        _messagesInHistogram.reset();
     }
 
     public void connectionOpened()
@@ -187,6 +238,7 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
         if (isStarted())
         {
             _messagesIn.set(messagesIn);
+            _messagesInHistogram.set(messagesIn);
             _messagesOut.set(messagesOut);
         }
     }
@@ -196,9 +248,11 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
         if (isStarted())
         {
             _messagesIn.set(messagesIn);
+            _messagesInHistogram.set(messagesIn);
             _messagesOut.set(messagesOut);
             _connectionStats.decrement();
             _connectionDurationStats.set(duration);
+            _connectionDurationHistogram.set(duration);
         }
     }
 
@@ -213,7 +267,7 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
     public void dump(Appendable out, String indent) throws IOException
     {
         ContainerLifeCycle.dumpObject(out,this);
-        ContainerLifeCycle.dump(out,indent,Arrays.asList(new String[]{"connections="+_connectionStats,"duration="+_connectionDurationStats,"in="+_messagesIn,"out="+_messagesOut}));
+        ContainerLifeCycle.dump(out,indent,Arrays.asList(new String[]{"connections="+_connectionStats,"duration="+_connectionDurationStats,"duration="+_connectionDurationHistogram.getWindowSnapshot(),"in="+_messagesIn,"out="+_messagesOut}));
     }
     
     public static void addToAllConnectors(Server server)
@@ -90,6 +90,7 @@ public class HttpChannelState
     private boolean _expired;
     private volatile boolean _responseWrapped;
     private long _timeoutMs=DEFAULT_TIMEOUT;
+    private long _suspendedTimeStamp;
     private AsyncContextEvent _event;
 
     protected HttpChannelState(HttpChannel<?> channel)
@@ -133,6 +134,18 @@ public class HttpChannelState
         }
     }
 
+    /**
+     * @return the time in ms at which the request was last suspended waiting for an async
+     * dispatch or completion, or 0 if it did not wait since it was last dispatched.
+     */
+    public long getSuspendedTimeStamp()
+    {
+        synchronized(this)
+        {
+            return _suspendedTimeStamp;
+        }
+    }
+
     public AsyncContextEvent getAsyncContextEvent()
     {
         synchronized(this)
@@ -287,17 +300,20 @@ public class HttpChannelState
                 case ASYNCSTARTED:
                     _initial=false;
                     _state=State.ASYNCWAIT;
+                    _suspendedTimeStamp=System.currentTimeMillis();
                     scheduleTimeout();
                     return Next.WAIT;
 
                 case REDISPATCHING:
                     _initial=false;
                     _state=State.REDISPATCHED;
+                    _suspendedTimeStamp=0;
                     return Next.CONTINUE;
 
                 case COMPLETECALLED:
                     _initial=false;
                     _state=State.COMPLETING;
+                    _suspendedTimeStamp=0;
                     return Next.COMPLETE;
 
                 default:
@@ -498,6 +514,7 @@ public class HttpChannelState
             _responseWrapped=false;
             cancelTimeout();
             _timeoutMs=DEFAULT_TIMEOUT;
+            _suspendedTimeStamp=0;
             _event=null;
         }
     }
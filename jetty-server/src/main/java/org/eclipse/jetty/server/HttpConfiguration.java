@@ -53,6 +53,9 @@ public class HttpConfiguration
     private boolean _sendServerVersion = true; //send Server: header
     private boolean _sendXPoweredBy = false; //send X-Powered-By: header
     private boolean _sendDateHeader = false; //send Date: header
+    private boolean _useFileChannelTransfer = true; //send file content with FileChannel.transferTo
+    private int _responseAggregationSize = 0; //aggregate small pipelined responses, 0 to disable
+    private long _responseAggregationDelay = 10; //max ms a completed response is held for aggregation
 
     public interface Customizer
     {
@@ -83,6 +86,9 @@ public class HttpConfiguration
         _sendDateHeader=config._sendDateHeader;
         _sendServerVersion=config._sendServerVersion;
         _headerCacheSize=config._headerCacheSize;
+        _useFileChannelTransfer=config._useFileChannelTransfer;
+        _responseAggregationSize=config._responseAggregationSize;
+        _responseAggregationDelay=config._responseAggregationDelay;
     }
     
     /* ------------------------------------------------------------ */
@@ -181,6 +187,63 @@ public class HttpConfiguration
         return _sendDateHeader;
     }
     
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Set whether file content may be sent with {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.</p>
+     * <p>When true, static file content larger than the output buffer is moved by the kernel
+     * directly from the file to the socket, without being copied to user space buffers.
+     * This is only possible on plain (non SSL) connections.</p>
+     * @param useFileChannelTransfer true to send file content with zero-copy transfers
+     */
+    public void setUseFileChannelTransfer(boolean useFileChannelTransfer)
+    {
+        _useFileChannelTransfer = useFileChannelTransfer;
+    }
+
+    @ManagedAttribute("if true, file content is sent with zero-copy FileChannel transfers when possible")
+    public boolean isUseFileChannelTransfer()
+    {
+        return _useFileChannelTransfer;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Set the size of the buffer used to aggregate pipelined responses.
+     * <p>When greater than zero, the buffers of a completed response are not written if other
+     * pipelined requests have already been received on the connection, but are copied in an
+     * aggregation buffer of this size. The aggregated responses are written together with the
+     * first response that does not fit in the buffer, or as soon as there are no more pipelined
+     * requests to handle, so that many small responses need a single gathering write.
+     * A completed response is never held for longer than {@link #getResponseAggregationDelay()}.</p>
+     * @param responseAggregationSize The size in bytes of the aggregation buffer, or 0 to disable aggregation.
+     */
+    public void setResponseAggregationSize(int responseAggregationSize)
+    {
+        _responseAggregationSize = responseAggregationSize;
+    }
+
+    @ManagedAttribute("The size in bytes of the buffer used to aggregate pipelined responses, 0 if disabled")
+    public int getResponseAggregationSize()
+    {
+        return _responseAggregationSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Set the maximum time that completed responses are held in the aggregation buffer.
+     * <p>If the next pipelined request is slow to handle, is asynchronous or is still being
+     * read, the aggregated responses are written once this delay has expired.</p>
+     * @param responseAggregationDelay The delay in milliseconds
+     */
+    public void setResponseAggregationDelay(long responseAggregationDelay)
+    {
+        _responseAggregationDelay = responseAggregationDelay;
+    }
+
+    @ManagedAttribute("The max time in ms that a completed response is held to be aggregated")
+    public long getResponseAggregationDelay()
+    {
+        return _responseAggregationDelay;
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * <p>Set the {@link Customizer}s that are invoked for every 
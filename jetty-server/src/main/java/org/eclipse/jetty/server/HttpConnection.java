@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.http.HttpGenerator;
 import org.eclipse.jetty.http.HttpGenerator.ResponseInfo;
@@ -42,6 +43,7 @@ import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IteratingCallback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Scheduler;
 
 /**
  * <p>A {@link Connection} that handles the HTTP protocol.</p>
@@ -52,6 +54,7 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     private static final boolean REQUEST_BUFFER_DIRECT=false;
     private static final boolean HEADER_BUFFER_DIRECT=false;
     private static final boolean CHUNK_BUFFER_DIRECT=false;
+    private static final boolean AGGREGATE_BUFFER_DIRECT=false;
     private static final Logger LOG = Log.getLogger(HttpConnection.class);
     private static final ThreadLocal<HttpConnection> __currentConnection = new ThreadLocal<>();
 
@@ -63,6 +66,9 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     private final HttpParser _parser;
     private volatile ByteBuffer _requestBuffer = null;
     private volatile ByteBuffer _chunk = null;
+    private final Object _aggregateLock = new Object();
+    private final AggregateFlush _aggregateFlush = new AggregateFlush();
+    private ByteBuffer _aggregate = null;
     private BlockingCallback _readBlocker = new BlockingCallback();
     private BlockingCallback _writeBlocker = new BlockingCallback();
 
@@ -184,6 +190,236 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
         }
     }
 
+    private void releaseAggregate()
+    {
+        synchronized (_aggregateLock)
+        {
+            ByteBuffer aggregate=_aggregate;
+            if (aggregate != null && !aggregate.hasRemaining() && !_aggregateFlush._flushing)
+            {
+                _aggregate=null;
+                _bufferPool.release(aggregate);
+            }
+        }
+    }
+
+    /**
+     * <p>Writes the non empty response buffers with a single gathering write, preceded by
+     * the aggregated buffers of previous pipelined responses, if any.</p>
+     * <p>If the response is complete, the connection is persistent and another request
+     * has already been received, the buffers are copied in the aggregation buffer instead,
+     * provided they fit in the size configured by {@link HttpConfiguration#getResponseAggregationSize()}.
+     * They are written after {@link HttpConfiguration#getResponseAggregationDelay()} at the latest,
+     * in which case the write of the next response waits for that flush to complete.</p>
+     *
+     * @return true if there was nothing to write or if the buffers have been aggregated, false
+     * if a write has been scheduled that will complete the callback.
+     */
+    private boolean write(Callback callback, ByteBuffer... buffers)
+    {
+        int length=0;
+        int count=0;
+        for (ByteBuffer buffer : buffers)
+        {
+            if (BufferUtil.hasContent(buffer))
+            {
+                length+=buffer.remaining();
+                count++;
+            }
+        }
+        if (count==0)
+            return true;
+
+        ByteBuffer[] gather;
+        synchronized (_aggregateLock)
+        {
+            if (_aggregateFlush._flushing)
+            {
+                // The aggregated responses are being flushed, write after them
+                _aggregateFlush._callback=callback;
+                _aggregateFlush._buffers=gather(null,count,buffers);
+                return false;
+            }
+
+            if (isAggregating(length))
+            {
+                if (_aggregate==null)
+                    _aggregate=_bufferPool.acquire(_config.getResponseAggregationSize(),AGGREGATE_BUFFER_DIRECT);
+                for (ByteBuffer buffer : buffers)
+                    if (BufferUtil.hasContent(buffer))
+                        BufferUtil.flipPutFlip(buffer,_aggregate);
+                LOG.debug("{} aggregated {}",this,BufferUtil.toSummaryString(_aggregate));
+                _aggregateFlush.schedule();
+                return true;
+            }
+
+            _aggregateFlush.cancel();
+            gather=gather(BufferUtil.hasContent(_aggregate)?_aggregate:null,count,buffers);
+        }
+        getEndPoint().write(callback,gather);
+        return false;
+    }
+
+    private static ByteBuffer[] gather(ByteBuffer aggregate, int count, ByteBuffer... buffers)
+    {
+        ByteBuffer[] gather=new ByteBuffer[aggregate==null?count:count+1];
+        int i=0;
+        if (aggregate!=null)
+            gather[i++]=aggregate;
+        for (ByteBuffer buffer : buffers)
+            if (BufferUtil.hasContent(buffer))
+                gather[i++]=buffer;
+        return gather;
+    }
+
+    private boolean isAggregating(int length)
+    {
+        int size=_config.getResponseAggregationSize();
+        return size>0 &&
+            length+BufferUtil.length(_aggregate)<=size &&
+            _generator.isState(HttpGenerator.State.COMPLETING) &&
+            _generator.isPersistent() &&
+            BufferUtil.hasContent(_requestBuffer) &&
+            _channel.getResponse().getStatus()!=HttpStatus.SWITCHING_PROTOCOLS_101;
+    }
+
+    /**
+     * <p>Flushes the aggregated responses before waiting for more requests.</p>
+     *
+     * @return true if there was nothing to flush or if the flush completed, false
+     * if a write has been scheduled that will declare fill interest once complete.
+     */
+    private boolean flushAggregate()
+    {
+        ByteBuffer aggregate;
+        synchronized (_aggregateLock)
+        {
+            if (_aggregateFlush._flushing)
+            {
+                // A delayed flush is in progress, fill once it completes
+                _aggregateFlush._fill=true;
+                return false;
+            }
+            _aggregateFlush.cancel();
+            if (BufferUtil.isEmpty(_aggregate))
+                return true;
+            aggregate=_aggregate;
+        }
+
+        try
+        {
+            if (getEndPoint().flush(aggregate))
+            {
+                releaseAggregate();
+                return true;
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.debug(e);
+            close();
+            return false;
+        }
+
+        synchronized (_aggregateLock)
+        {
+            _aggregateFlush._flushing=true;
+            _aggregateFlush._fill=true;
+        }
+        getEndPoint().write(_aggregateFlush,aggregate);
+        return false;
+    }
+
+    /**
+     * <p>Flushes the aggregated responses when they have been held for the aggregation delay,
+     * or before waiting for more requests.</p>
+     * <p>While the flush is in progress, the write of the next response is deferred until the
+     * flush completes, and so is the fill interest if the connection needs to read.</p>
+     */
+    private class AggregateFlush implements Runnable, Callback
+    {
+        // All fields are guarded by _aggregateLock
+        private Scheduler.Task _task;
+        private boolean _flushing;
+        private boolean _fill;
+        private Callback _callback;
+        private ByteBuffer[] _buffers;
+
+        private void schedule()
+        {
+            if (_task==null)
+                _task=_connector.getScheduler().schedule(this,_config.getResponseAggregationDelay(),TimeUnit.MILLISECONDS);
+        }
+
+        private void cancel()
+        {
+            if (_task!=null)
+            {
+                _task.cancel();
+                _task=null;
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            ByteBuffer aggregate;
+            synchronized (_aggregateLock)
+            {
+                // Do nothing if the aggregate was written since the task was scheduled
+                if (_task==null || _flushing || BufferUtil.isEmpty(_aggregate))
+                    return;
+                _task=null;
+                _flushing=true;
+                aggregate=_aggregate;
+            }
+            LOG.debug("{} aggregation delay expired {}",HttpConnection.this,BufferUtil.toSummaryString(aggregate));
+            getEndPoint().write(this,aggregate);
+        }
+
+        @Override
+        public void succeeded()
+        {
+            Callback callback;
+            ByteBuffer[] buffers;
+            boolean fill;
+            synchronized (_aggregateLock)
+            {
+                _flushing=false;
+                callback=_callback;
+                buffers=_buffers;
+                fill=_fill;
+                _callback=null;
+                _buffers=null;
+                _fill=false;
+            }
+            releaseAggregate();
+
+            if (callback!=null)
+                getEndPoint().write(callback,buffers);
+            if (fill)
+                fillInterested();
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            Callback callback;
+            synchronized (_aggregateLock)
+            {
+                _flushing=false;
+                callback=_callback;
+                _callback=null;
+                _buffers=null;
+                _fill=false;
+            }
+            LOG.debug(x);
+            if (callback!=null)
+                callback.failed(x);
+            close();
+        }
+    }
+
     /**
      * <p>Parses and handles HTTP messages.</p>
      * <p>This method is called when this {@link Connection} is ready to read bytes from the {@link EndPoint}.
@@ -228,6 +464,13 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                 }
                 else if (BufferUtil.isEmpty(_requestBuffer))
                 {
+                    // Flush the aggregated responses before we may wait for more requests
+                    if (!flushAggregate())
+                    {
+                        releaseRequestBuffer();
+                        return;
+                    }
+
                     if (_requestBuffer == null)
                         _requestBuffer = _bufferPool.acquire(getInputBufferSize(), REQUEST_BUFFER_DIRECT);
 
@@ -383,7 +626,8 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                 // it wants to eat more
                 if (_requestBuffer == null)
                 {
-                    fillInterested();
+                    if (flushAggregate())
+                        fillInterested();
                 }
                 else if (getConnector().isStarted())
                 {
@@ -671,31 +915,8 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                             BufferUtil.clear(_content);
                         }
 
-                        // If we have a header
-                        if (BufferUtil.hasContent(_header))
-                        {
-                            if (BufferUtil.hasContent(_content))
-                            {
-                                if (BufferUtil.hasContent(chunk))
-                                    getEndPoint().write(this, _header, chunk, _content);
-                                else
-                                    getEndPoint().write(this, _header, _content);
-                            }
-                            else
-                                getEndPoint().write(this, _header);
-                        }
-                        else if (BufferUtil.hasContent(chunk))
-                        {
-                            if (BufferUtil.hasContent(_content))
-                                getEndPoint().write(this, chunk, _content);
-                            else
-                                getEndPoint().write(this, chunk);
-                        }
-                        else if (BufferUtil.hasContent(_content))
-                        {
-                            getEndPoint().write(this, _content);
-                        }
-                        else
+                        // Write the header, chunk and content (or aggregate them)
+                        if (write(this, _header, chunk, _content))
                             continue;
                         return false;
                     }
@@ -706,6 +927,7 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                     }
                     case DONE:
                     {
+                        releaseAggregate();
                         if (_header!=null)
                         {
                             // don't release header in spare content buffer
@@ -772,18 +994,7 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                             BufferUtil.clear(_content);
                             continue;
                         }
-                        else if (BufferUtil.hasContent(chunk))
-                        {
-                            if (BufferUtil.hasContent(_content))
-                                getEndPoint().write(this, chunk, _content);
-                            else
-                                getEndPoint().write(this, chunk);
-                        }
-                        else if (BufferUtil.hasContent(_content))
-                        {
-                            getEndPoint().write(this, _content);
-                        }
-                        else
+                        else if (write(this, chunk, _content))
                             continue;
                         return false;
                     }
@@ -794,6 +1005,7 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                     }
                     case DONE:
                     {
+                        releaseAggregate();
                         return true;
                     }
                     case CONTINUE:
@@ -19,10 +19,13 @@
 package org.eclipse.jetty.server;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
@@ -30,6 +33,8 @@ import javax.servlet.ServletResponse;
 
 import org.eclipse.jetty.http.HttpContent;
 import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.io.ChannelEndPoint;
+import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.util.BlockingCallback;
 import org.eclipse.jetty.util.BufferUtil;
@@ -334,6 +339,21 @@ public class HttpOutput extends ServletOutputStream
     }
     
 
+    /* ------------------------------------------------------------ */
+    /** Blocking send of a region of a file.
+     * @param file The file to send content from
+     * @param position The position in the file of the first byte to send
+     * @param length The number of bytes to send
+     * @throws IOException
+     * @see #sendContent(FileChannel, long, long, Callback)
+     */
+    public void sendContent(FileChannel file, long position, long length) throws IOException
+    {
+        final BlockingCallback callback =_channel.getWriteBlockingCallback();
+        sendContent(file,position,length,callback);
+        callback.block();
+    }
+
     /* ------------------------------------------------------------ */
     /** Blocking send of content.
      * @param content The content to send
@@ -371,6 +391,64 @@ public class HttpOutput extends ServletOutputStream
         });
     }
 
+    /* ------------------------------------------------------------ */
+    /** Asynchronous write of content.
+     * <p>Unlike {@link #sendContent(ByteBuffer, Callback)}, the output is not closed,
+     * unless the content completes the content length of the response, so that this
+     * method may be called again once the callback is succeeded.</p>
+     * @param content The content to write
+     * @param callback The callback to use to notify success or failure
+     */
+    public void write(final ByteBuffer content, final Callback callback)
+    {
+        if (isClosed())
+        {
+            callback.failed(new EofException("Closed"));
+            return;
+        }
+
+        _written+=content.remaining();
+        final boolean complete=_channel.getResponse().isAllContentWritten(_written);
+        final Callback written = !complete ? callback : new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                closed();
+                callback.succeeded();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                callback.failed(x);
+            }
+        };
+
+        // Content aggregated by previous writes must be written first
+        if (BufferUtil.hasContent(_aggregate))
+        {
+            _channel.write(_aggregate,false,new Callback()
+            {
+                @Override
+                public void succeeded()
+                {
+                    _channel.write(content,complete,written);
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    written.failed(x);
+                }
+            });
+        }
+        else
+        {
+            _channel.write(content,complete,written);
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /** Asynchronous send of content.
      * @param in The content to send
@@ -391,12 +469,60 @@ public class HttpOutput extends ServletOutputStream
         new ReadableByteChannelWritingCB(in,callback).iterate();
     }
 
+    /* ------------------------------------------------------------ */
+    /** Asynchronous send of a region of a file.
+     * <p>The response must not be committed and must have a content length equal
+     * to the length of the region. If {@link HttpConfiguration#isUseFileChannelTransfer()}
+     * is true and the connection is a plain HTTP/1 {@link HttpConnection} over a {@link ChannelEndPoint}, the region is transferred
+     * to the socket without copies with {@link ChannelEndPoint#transferFrom(FileChannel, long, long)},
+     * otherwise it is read into a buffer and written normally.</p>
+     * <p>The file is not closed by this method.</p>
+     * @param file The file to send content from
+     * @param position The position in the file of the first byte to send
+     * @param length The number of bytes to send
+     * @param callback The callback to use to notify success or failure
+     */
+    public void sendContent(FileChannel file, long position, long length, Callback callback) throws IOException
+    {
+        if (isClosed())
+            throw new IOException("Closed");
+        if (BufferUtil.hasContent(_aggregate))
+            throw new IOException("written");
+        if (_channel.isCommitted())
+            throw new IOException("committed");
+
+        new FileChannelWritingCB(file,position,length,callback).iterate();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param length the length of the content to send
+     * @return true if content of the given length can be sent with zero-copy file transfers
+     */
+    public boolean isFileChannelTransferable(long length)
+    {
+        if (!_channel.getHttpConfiguration().isUseFileChannelTransfer())
+            return false;
+        // SSL does not write directly to a channel
+        EndPoint endPoint=_channel.getEndPoint();
+        if (!(endPoint instanceof ChannelEndPoint))
+            return false;
+        // Only HTTP/1 writes the content unframed, multiplexed protocols like SPDY
+        // may run over the same plain channel but must frame every byte
+        if (!(endPoint.getConnection() instanceof HttpConnection))
+            return false;
+        // HEAD responses have no body, and chunking would need framing of the content
+        if (_channel.getRequest().isHead())
+            return false;
+        return length>0 && _channel.getResponse().getLongContentLength()==length;
+    }
+
     /* ------------------------------------------------------------ */
     /** Asynchronous send of content.
      * @param httpContent The content to send
      * @param callback The callback to use to notify success or failure
      */
-    public void sendContent(HttpContent httpContent, Callback callback) throws IOException
+    public void sendContent(HttpContent httpContent, final Callback callback) throws IOException
     {
         if (isClosed())
             throw new IOException("Closed");
@@ -404,7 +530,36 @@ public class HttpOutput extends ServletOutputStream
             throw new IOException("written");
         if (_channel.isCommitted())
             throw new IOException("committed");
-            
+
+        // Large file contents are transferred by the kernel, small ones are sent from the cached buffers
+        long length=httpContent.getContentLength();
+        if (length>=getBufferSize() && isFileChannelTransferable(length))
+        {
+            Resource resource=httpContent.getResource();
+            File file=resource==null?null:resource.getFile();
+            if (file!=null && file.isFile())
+            {
+                final FileChannel channel=FileChannel.open(file.toPath(),StandardOpenOption.READ);
+                new FileChannelWritingCB(channel,0,length,new Callback()
+                {
+                    @Override
+                    public void succeeded()
+                    {
+                        close(channel);
+                        callback.succeeded();
+                    }
+
+                    @Override
+                    public void failed(Throwable x)
+                    {
+                        close(channel);
+                        callback.failed(x);
+                    }
+                }).iterate();
+                return;
+            }
+        }
+
         ByteBuffer buffer= _channel.useDirectBuffers()?httpContent.getDirectBuffer():null;
         if (buffer == null)
             buffer = httpContent.getIndirectBuffer();
@@ -564,4 +719,121 @@ public class HttpOutput extends ServletOutputStream
             _channel.getByteBufferPool().release(_buffer);
         }
     }
+
+    /* ------------------------------------------------------------ */
+    /** An iterating callback that will send a region of a file to the {@link HttpChannel}.
+     * The response is first committed, then, if {@link #isFileChannelTransferable(long)}, the
+     * bytes are transferred by the kernel with {@link ChannelEndPoint#transferFrom(FileChannel, long, long)}.
+     * When the socket cannot accept more bytes, a single byte is written via the {@link HttpChannel}
+     * so that the callback is notified once the endpoint is writable again.
+     * Otherwise the bytes are read into a buffer of size {@link HttpOutput#getBufferSize()} and
+     * written to the {@link HttpChannel}.
+     */
+    private class FileChannelWritingCB extends IteratingCallback
+    {
+        final FileChannel _file;
+        final boolean _transfer;
+        final ByteBuffer _buffer;
+        long _position;
+        long _remaining;
+        boolean _committed;
+        boolean _completed;
+
+        public FileChannelWritingCB(FileChannel file, long position, long length, Callback callback)
+        {
+            super(callback);
+            _file=file;
+            _position=position;
+            _remaining=length;
+            _transfer=isFileChannelTransferable(length);
+            _buffer = _transfer?BufferUtil.allocate(1):_channel.getByteBufferPool().acquire(getBufferSize(), _channel.useDirectBuffers());
+        }
+
+        @Override
+        protected boolean process() throws Exception
+        {
+            // Commit the response, so that the header is flushed before any transferred byte
+            if (!_committed)
+            {
+                _committed=true;
+                _channel.write(BufferUtil.EMPTY_BUFFER,false,this);
+                return false;
+            }
+
+            if (_remaining==0)
+            {
+                if (!_completed)
+                {
+                    _completed=true;
+                    _channel.write(BufferUtil.EMPTY_BUFFER,true,this);
+                    return false;
+                }
+                closed();
+                release();
+                return true;
+            }
+
+            if (_transfer)
+            {
+                EndPoint endPoint=_channel.getEndPoint();
+                long transferred;
+                while (_remaining>0 && (transferred=((ChannelEndPoint)endPoint).transferFrom(_file,_position,_remaining))>0)
+                {
+                    _position+=transferred;
+                    _remaining-=transferred;
+                    _written+=transferred;
+                }
+                if (_remaining==0)
+                {
+                    _completed=true;
+                    _channel.write(BufferUtil.EMPTY_BUFFER,true,this);
+                    return false;
+                }
+                // The socket is congested, write one byte to be called back when it is writable
+                _buffer.clear().limit(1);
+            }
+            else
+            {
+                _buffer.clear();
+                if (_buffer.remaining()>_remaining)
+                    _buffer.limit((int)_remaining);
+            }
+
+            int len=_file.read(_buffer,_position);
+            if (len<0)
+                throw new EOFException();
+            _buffer.flip();
+            _position+=len;
+            _remaining-=len;
+            _written+=len;
+            _completed=_remaining==0;
+            _channel.write(_buffer,_completed,this);
+            return false;
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            super.failed(x);
+            release();
+        }
+
+        private void release()
+        {
+            if (!_transfer)
+                _channel.getByteBufferPool().release(_buffer);
+        }
+    }
+
+    private static void close(FileChannel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException x)
+        {
+            LOG.ignore(x);
+        }
+    }
 }
@@ -22,20 +22,24 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.ReadableByteChannel;
-import java.util.Comparator;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.jetty.http.HttpContent;
 import org.eclipse.jetty.http.HttpContent.ResourceAsHttpContent;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.resource.Resource;
@@ -44,15 +48,46 @@ import org.eclipse.jetty.util.resource.ResourceFactory;
 
 /* ------------------------------------------------------------ */
 /** 
- * 
+ * A cache of {@link HttpContent} for the resources of a {@link ResourceFactory}.
+ * <p>
+ * Eviction is segmented LRU: newly loaded contents enter a probation segment and
+ * are promoted to a protected segment (limited to {@link #PROTECTED_PERCENT} of the
+ * cache limits) when they are looked up again while cached. Contents are evicted
+ * from the least recently used end of the probation segment first, so that a scan
+ * of many resources that are accessed only once cannot flush the frequently used ones.
+ * The victim is the content with the fewest hits per byte among the {@link #EVICTION_SAMPLE}
+ * least recently used contents of the segment, and the hits of the sampled contents that
+ * survive are halved, so that contents that were hit long ago are eventually evicted.
+ * A new content is not admitted when there is not enough room for it even after
+ * evicting all the probation contents.
+ * All the segment operations are constant time; the cache hit path only reorders the
+ * segments if the segment lock is not contended, so recency is approximate under load.
+ * </p>
  */
+@ManagedObject("Resource cache")
 public class ResourceCache
 {
     private static final Logger LOG = Log.getLogger(ResourceCache.class);
 
+    /** The percentage of the cache size and files limits that the protected segment may use */
+    public static final int PROTECTED_PERCENT = 80;
+
+    /** The number of least recently used contents of a segment that are compared to select a victim */
+    public static final int EVICTION_SAMPLE = 4;
+
     private final ConcurrentMap<String,Content> _cache;
     private final AtomicInteger _cachedSize;
     private final AtomicInteger _cachedFiles;
+    private final AtomicLong _heapSize = new AtomicLong();
+    private final AtomicLong _directSize = new AtomicLong();
+    private final AtomicLong _mappedSize = new AtomicLong();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _rejections = new AtomicLong();
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Segment _probation = new Segment();
+    private final Segment _protected = new Segment();
     private final ResourceFactory _factory;
     private final ResourceCache _parent;
     private final MimeTypes _mimeTypes;
@@ -80,18 +115,80 @@ public class ResourceCache
     }
 
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("The size in bytes of the cached contents")
     public int getCachedSize()
     {
         return _cachedSize.get();
     }
     
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("The number of cached contents")
     public int getCachedFiles()
     {
         return _cachedFiles.get();
     }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("The bytes of heap buffers held by the cached contents")
+    public long getCachedHeapSize()
+    {
+        return _heapSize.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("The bytes of direct buffers held by the cached contents")
+    public long getCachedDirectSize()
+    {
+        return _directSize.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("The bytes of file mapped buffers held by the cached contents")
+    public long getCachedMappedSize()
+    {
+        return _mappedSize.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("The number of lookups that found a valid cached content")
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("The number of lookups that did not find a valid cached content")
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("The number of contents evicted to respect the cache limits")
+    public long getEvictions()
+    {
+        return _evictions.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("The number of cacheable contents that were not admitted in the cache")
+    public long getRejections()
+    {
+        return _rejections.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation("Resets the statistics")
+    public void resetStats()
+    {
+        _hits.set(0);
+        _misses.set(0);
+        _evictions.set(0);
+        _rejections.set(0);
+    }
     
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("The maximum size in bytes of a cached content")
     public int getMaxCachedFileSize()
     {
         return _maxCachedFileSize;
@@ -105,6 +202,7 @@ public class ResourceCache
     }
 
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("The maximum size in bytes of all the cached contents")
     public int getMaxCacheSize()
     {
         return _maxCacheSize;
@@ -121,6 +219,7 @@ public class ResourceCache
     /**
      * @return Returns the maxCachedFiles.
      */
+    @ManagedAttribute("The maximum number of cached contents")
     public int getMaxCachedFiles()
     {
         return _maxCachedFiles;
@@ -143,6 +242,7 @@ public class ResourceCache
     }
 
     /* ------------------------------------------------------------ */
+    @ManagedOperation("Removes all the cached contents")
     public void flushCache()
     {
         if (_cache!=null)
@@ -176,7 +276,13 @@ public class ResourceCache
         // Is the content in this cache?
         Content content =_cache.get(pathInContext);
         if (content!=null && (content).isValid())
+        {
+            _hits.incrementAndGet();
+            content._hitCount.incrementAndGet();
+            touch(content);
             return content;
+        }
+        _misses.incrementAndGet();
        
         // try loading the content from our factory.
         Resource resource=_factory.getResource(pathInContext);
@@ -223,18 +329,26 @@ public class ResourceCache
             // Create the Content (to increment the cache sizes before adding the content 
             content = new Content(pathInContext,resource);
 
-            // reduce the cache to an acceptable size.
-            shrinkCache();
-
-            // Add it to the cache.
-            Content added = _cache.putIfAbsent(pathInContext,content);
-            if (added!=null)
+            // reduce the cache to an acceptable size, unless the content is not worth it
+            if (!shrinkCache(content))
             {
-                content.invalidate();
-                content=added;
+                _rejections.incrementAndGet();
+                content.reject();
             }
+            else
+            {
+                // Add it to the cache.
+                Content added = _cache.putIfAbsent(pathInContext,content);
+                if (added!=null)
+                {
+                    content.invalidate();
+                    content=added;
+                }
+                else
+                    link(content);
 
-            return content;
+                return content;
+            }
         }
         
         return new HttpContent.ResourceAsHttpContent(resource,_mimeTypes.getMimeByExtension(resource.toString()),getMaxCachedFileSize(),_etagSupported);
@@ -244,38 +358,140 @@ public class ResourceCache
     /* ------------------------------------------------------------ */
     private void shrinkCache()
     {
-        // While we need to shrink
-        while (_cache.size()>0 && (_cachedFiles.get()>_maxCachedFiles || _cachedSize.get()>_maxCacheSize))
-        {
-            // Scan the entire cache and generate an ordered list by last accessed time.
-            SortedSet<Content> sorted= new TreeSet<Content>(
-                    new Comparator<Content>()
-                    {
-                        public int compare(Content c1, Content c2)
-                        {
-                            if (c1._lastAccessed<c2._lastAccessed)
-                                return -1;
-                            
-                            if (c1._lastAccessed>c2._lastAccessed)
-                                return 1;
-
-                            if (c1._length<c2._length)
-                                return -1;
-                            
-                            return c1._key.compareTo(c2._key);
-                        }
-                    });
-            for (Content content : _cache.values())
-                sorted.add(content);
-            
-            // Invalidate least recently used first
-            for (Content content : sorted)
+        shrinkCache(null);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Evict least recently used contents until the cache limits are respected.
+     * @param candidate A content about to be added to the cache (and already counted in the cache sizes) or null
+     * @return false if the candidate should not be added because it would evict protected contents
+     */
+    private boolean shrinkCache(Content candidate)
+    {
+        _lock.lock();
+        try
+        {
+            if (candidate!=null && 
+                (_cachedFiles.get()-_probation._files>_maxCachedFiles || _cachedSize.get()-_probation._size>_maxCacheSize))
+                return false;
+
+            // While we need to shrink, evict the least recently used, probation first
+            while (_cachedFiles.get()>_maxCachedFiles || _cachedSize.get()>_maxCacheSize)
             {
-                if (_cachedFiles.get()<=_maxCachedFiles && _cachedSize.get()<=_maxCacheSize)
+                Content victim=selectVictim(_probation.last()!=null?_probation:_protected);
+                if (victim==null)
                     break;
-                if (content==_cache.remove(content.getKey()))
-                    content.invalidate();
+                unlink(victim);
+                if (_cache.remove(victim.getKey(),victim))
+                {
+                    _evictions.incrementAndGet();
+                    victim.invalidate();
+                }
+            }
+            return true;
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Select the content with the fewest hits per byte among the least recently used 
+     * contents of a segment, ageing the hits of the others. Called with the lock held.
+     * @param segment The segment to evict from
+     * @return The content to evict or null if the segment is empty
+     */
+    private Content selectVictim(Segment segment)
+    {
+        Content victim=segment.last();
+        Content sampled=victim;
+        for (int i=1;sampled!=null && i<EVICTION_SAMPLE;i++)
+        {
+            sampled=sampled._prev;
+            if (sampled!=null && (long)sampled._hitCount.get()*victim._length<(long)victim._hitCount.get()*sampled._length)
+                victim=sampled;
+        }
+
+        sampled=segment.last();
+        for (int i=0;sampled!=null && i<EVICTION_SAMPLE;i++)
+        {
+            if (sampled!=victim)
+            {
+                int hits=sampled._hitCount.get();
+                sampled._hitCount.compareAndSet(hits,hits/2);
             }
+            sampled=sampled._prev;
+        }
+        return victim;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Link a content newly added to the cache at the head of the probation segment.
+     */
+    private void link(Content content)
+    {
+        _lock.lock();
+        try
+        {
+            // The content may have been invalidated by another thread before being linked
+            if (!content._invalidated.get())
+                _probation.addFirst(content);
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void unlink(Content content)
+    {
+        _lock.lock();
+        try
+        {
+            if (content._segment!=null)
+                content._segment.remove(content);
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Record a cache hit of a content.
+     * <p>A content hit in the probation segment is promoted to the protected
+     * segment, a content hit in the protected segment is moved to its head.
+     * The reordering is skipped if the lock is contended.</p>
+     */
+    private void touch(Content content)
+    {
+        if (!_lock.tryLock())
+            return;
+        try
+        {
+            Segment segment=content._segment;
+            if (segment==null)
+                return;
+            segment.remove(content);
+            _protected.addFirst(content);
+
+            // Demote the least recently used protected contents if the protected segment is too big
+            long maxSize=(long)_maxCacheSize*PROTECTED_PERCENT/100;
+            long maxFiles=(long)_maxCachedFiles*PROTECTED_PERCENT/100;
+            while (_protected._files>1 && (_protected._size>maxSize || _protected._files>maxFiles))
+            {
+                Content demoted=_protected.last();
+                _protected.remove(demoted);
+                _probation.addFirst(demoted);
+            }
+        }
+        finally
+        {
+            _lock.unlock();
         }
     }
     
@@ -370,6 +586,14 @@ public class ResourceCache
         volatile long _lastAccessed;
         AtomicReference<ByteBuffer> _indirectBuffer=new AtomicReference<ByteBuffer>();
         AtomicReference<ByteBuffer> _directBuffer=new AtomicReference<ByteBuffer>();
+        final AtomicBoolean _invalidated=new AtomicBoolean();
+        // The hits of this content, counted even when the segments are not reordered
+        final AtomicInteger _hitCount=new AtomicInteger();
+
+        // The segment linkage, guarded by the cache lock
+        Segment _segment;
+        Content _prev;
+        Content _next;
 
         /* ------------------------------------------------------------ */
         Content(String pathInContext,Resource resource)
@@ -441,12 +665,55 @@ public class ResourceCache
         /* ------------------------------------------------------------ */
         protected void invalidate()
         {
+            if (!_invalidated.compareAndSet(false,true))
+                return;
+
             // Invalidate it
+            unlink(this);
             _cachedSize.addAndGet(-_length);
             _cachedFiles.decrementAndGet();
+            release(_indirectBuffer,_indirectBuffer.get());
+            release(_directBuffer,_directBuffer.get());
             _resource.close(); 
         }
 
+        /* ------------------------------------------------------------ */
+        /** Undo the accounting of a content that was not added to the cache,
+         * without closing its resource that is still used to serve the request.
+         */
+        private void reject()
+        {
+            if (_invalidated.compareAndSet(false,true))
+            {
+                _cachedSize.addAndGet(-_length);
+                _cachedFiles.decrementAndGet();
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        private void loaded(AtomicReference<ByteBuffer> reference, ByteBuffer buffer)
+        {
+            counterFor(buffer).addAndGet(buffer.capacity());
+            // Handle a race with invalidate()
+            if (_invalidated.get())
+                release(reference,buffer);
+        }
+
+        /* ------------------------------------------------------------ */
+        private void release(AtomicReference<ByteBuffer> reference, ByteBuffer buffer)
+        {
+            if (buffer!=null && reference.compareAndSet(buffer,null))
+                counterFor(buffer).addAndGet(-buffer.capacity());
+        }
+
+        /* ------------------------------------------------------------ */
+        private AtomicLong counterFor(ByteBuffer buffer)
+        {
+            if (buffer instanceof MappedByteBuffer)
+                return _mappedSize;
+            return buffer.isDirect()?_directSize:_heapSize;
+        }
+
         /* ------------------------------------------------------------ */
         @Override
         public String getLastModified()
@@ -480,7 +747,10 @@ public class ResourceCache
                 if (buffer2==null)
                     LOG.warn("Could not load "+this);
                 else if (_indirectBuffer.compareAndSet(null,buffer2))
+                {
                     buffer=buffer2;
+                    loaded(_indirectBuffer,buffer2);
+                }
                 else
                     buffer=_indirectBuffer.get();
             }
@@ -502,7 +772,10 @@ public class ResourceCache
                 if (buffer2==null)
                     LOG.warn("Could not load "+this);
                 else if (_directBuffer.compareAndSet(null,buffer2))
+                {
                     buffer=buffer2;
+                    loaded(_directBuffer,buffer2);
+                }
                 else
                     buffer=_directBuffer.get();
             }
@@ -544,4 +817,52 @@ public class ResourceCache
             return String.format("%s %s %d %s %s",_resource,_resource.exists(),_resource.lastModified(),_contentType,_lastModifiedBytes);
         }   
     }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A doubly linked list of contents, most recently used first, guarded by the cache lock.
+     */
+    private static class Segment
+    {
+        private Content _first;
+        private Content _last;
+        private long _size;
+        private int _files;
+
+        private void addFirst(Content content)
+        {
+            content._segment=this;
+            content._prev=null;
+            content._next=_first;
+            if (_first==null)
+                _last=content;
+            else
+                _first._prev=content;
+            _first=content;
+            _size+=content._length;
+            _files++;
+        }
+
+        private void remove(Content content)
+        {
+            if (content._prev==null)
+                _first=content._next;
+            else
+                content._prev._next=content._next;
+            if (content._next==null)
+                _last=content._prev;
+            else
+                content._next._prev=content._prev;
+            content._segment=null;
+            content._prev=null;
+            content._next=null;
+            _size-=content._length;
+            _files--;
+        }
+
+        private Content last()
+        {
+            return _last;
+        }
+    }
 }
@@ -138,7 +138,7 @@ public class Response implements HttpServletResponse
             response.getHttpFields().put(HttpHeader.CONTENT_TYPE, contentType);
 
         if (httpContent.getContentLength() > 0)
-            response.getHttpFields().putLongField(HttpHeader.CONTENT_LENGTH, httpContent.getContentLength());
+            response.setLongContentLength(httpContent.getContentLength());
 
         String lm = httpContent.getLastModified();
         if (lm != null)
@@ -36,6 +36,7 @@ import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 @ManagedObject("Request Statistics Gathering")
@@ -48,6 +49,9 @@ public class StatisticsHandler extends HandlerWrapper
     private final CounterStatistic _dispatchedStats = new CounterStatistic();
     private final SampleStatistic _dispatchedTimeStats = new SampleStatistic();
     private final CounterStatistic _asyncWaitStats = new CounterStatistic();
+    private final HistogramStatistic _requestTimeHistogram = new HistogramStatistic();
+    private final HistogramStatistic _dispatchedTimeHistogram = new HistogramStatistic();
+    private final HistogramStatistic _asyncWaitTimeHistogram = new HistogramStatistic();
 
     private final AtomicInteger _asyncDispatches = new AtomicInteger();
     private final AtomicInteger _expires = new AtomicInteger();
@@ -85,15 +89,20 @@ public class StatisticsHandler extends HandlerWrapper
             HttpChannelState state = ((AsyncContextEvent)event).getHttpChannelState();
 
             Request request = state.getBaseRequest();
-            final long elapsed = System.currentTimeMillis()-request.getTimeStamp();
+            final long now = System.currentTimeMillis();
+            final long elapsed = now-request.getTimeStamp();
 
             _requestStats.decrement();
             _requestTimeStats.set(elapsed);
+            _requestTimeHistogram.set(elapsed);
 
             updateResponse(request);
 
             if (!state.isDispatched())
+            {
                 _asyncWaitStats.decrement();
+                updateAsyncWaitTime(state, now);
+            }
         }
 
     };
@@ -111,6 +120,9 @@ public class StatisticsHandler extends HandlerWrapper
         _dispatchedStats.reset();
         _dispatchedTimeStats.reset();
         _asyncWaitStats.reset();
+        _requestTimeHistogram.reset();
+        _dispatchedTimeHistogram.reset();
+        _asyncWaitTimeHistogram.reset();
 
         _asyncDispatches.set(0);
         _expires.set(0);
@@ -140,6 +152,7 @@ public class StatisticsHandler extends HandlerWrapper
             // resumed request
             start = System.currentTimeMillis();
             _asyncWaitStats.decrement();
+            updateAsyncWaitTime(state, start);
             if (state.isDispatched())
                 _asyncDispatches.incrementAndGet();
         }
@@ -155,6 +168,7 @@ public class StatisticsHandler extends HandlerWrapper
 
             _dispatchedStats.decrement();
             _dispatchedTimeStats.set(dispatched);
+            _dispatchedTimeHistogram.set(dispatched);
 
             if (state.isSuspended())
             {
@@ -166,12 +180,21 @@ public class StatisticsHandler extends HandlerWrapper
             {
                 _requestStats.decrement();
                 _requestTimeStats.set(dispatched);
+                _requestTimeHistogram.set(dispatched);
                 updateResponse(request);
             }
             // else onCompletion will handle it.
         }
     }
 
+    private void updateAsyncWaitTime(HttpChannelState state, long now)
+    {
+        // The request did not wait if it was dispatched or completed before it was suspended
+        long suspended = state.getSuspendedTimeStamp();
+        if (suspended > 0)
+            _asyncWaitTimeHistogram.set(Math.max(0, now - suspended));
+    }
+
     private void updateResponse(Request request)
     {
         Response response = request.getResponse();
@@ -287,6 +310,45 @@ public class StatisticsHandler extends HandlerWrapper
         return _requestTimeStats.getStdDev();
     }
 
+    /**
+     * @return the histogram of the time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    public HistogramStatistic getRequestTimeHistogram()
+    {
+        return _requestTimeHistogram;
+    }
+
+    /**
+     * @return the median time (in milliseconds) of request handling
+     * over the last minute.
+     */
+    @ManagedAttribute("50th percentile of the time spent handling requests over the last minute (in ms)")
+    public long getRequestTimeP50()
+    {
+        return _requestTimeHistogram.getWindowSnapshot().getPercentile(50);
+    }
+
+    /**
+     * @return the 99th percentile of the time (in milliseconds) of request handling
+     * over the last minute.
+     */
+    @ManagedAttribute("99th percentile of the time spent handling requests over the last minute (in ms)")
+    public long getRequestTimeP99()
+    {
+        return _requestTimeHistogram.getWindowSnapshot().getPercentile(99);
+    }
+
+    /**
+     * @return the 99.9th percentile of the time (in milliseconds) of request handling
+     * over the last minute.
+     */
+    @ManagedAttribute("99.9th percentile of the time spent handling requests over the last minute (in ms)")
+    public long getRequestTimeP999()
+    {
+        return _requestTimeHistogram.getWindowSnapshot().getPercentile(99.9);
+    }
+
     /**
      * @return the number of dispatches seen by this handler
      * since {@link #statsReset()} was last called, excluding
@@ -364,6 +426,45 @@ public class StatisticsHandler extends HandlerWrapper
         return _dispatchedTimeStats.getStdDev();
     }
 
+    /**
+     * @return the histogram of the time (in milliseconds) of dispatch handling
+     * since {@link #statsReset()} was last called.
+     */
+    public HistogramStatistic getDispatchedTimeHistogram()
+    {
+        return _dispatchedTimeHistogram;
+    }
+
+    /**
+     * @return the median time (in milliseconds) of dispatch handling
+     * over the last minute.
+     */
+    @ManagedAttribute("50th percentile of the time spent in dispatch handling over the last minute (in ms)")
+    public long getDispatchedTimeP50()
+    {
+        return _dispatchedTimeHistogram.getWindowSnapshot().getPercentile(50);
+    }
+
+    /**
+     * @return the 99th percentile of the time (in milliseconds) of dispatch handling
+     * over the last minute.
+     */
+    @ManagedAttribute("99th percentile of the time spent in dispatch handling over the last minute (in ms)")
+    public long getDispatchedTimeP99()
+    {
+        return _dispatchedTimeHistogram.getWindowSnapshot().getPercentile(99);
+    }
+
+    /**
+     * @return the 99.9th percentile of the time (in milliseconds) of dispatch handling
+     * over the last minute.
+     */
+    @ManagedAttribute("99.9th percentile of the time spent in dispatch handling over the last minute (in ms)")
+    public long getDispatchedTimeP999()
+    {
+        return _dispatchedTimeHistogram.getWindowSnapshot().getPercentile(99.9);
+    }
+
     /**
      * @return the number of requests handled by this handler
      * since {@link #statsReset()} was last called, including
@@ -396,6 +497,46 @@ public class StatisticsHandler extends HandlerWrapper
         return (int)_asyncWaitStats.getMax();
     }
 
+    /**
+     * @return the histogram of the time (in milliseconds) requests waited
+     * suspended before being resumed or completed,
+     * since {@link #statsReset()} was last called.
+     */
+    public HistogramStatistic getAsyncWaitTimeHistogram()
+    {
+        return _asyncWaitTimeHistogram;
+    }
+
+    /**
+     * @return the median time (in milliseconds) requests waited suspended
+     * over the last minute.
+     */
+    @ManagedAttribute("50th percentile of the time async requests waited over the last minute (in ms)")
+    public long getAsyncWaitTimeP50()
+    {
+        return _asyncWaitTimeHistogram.getWindowSnapshot().getPercentile(50);
+    }
+
+    /**
+     * @return the 99th percentile of the time (in milliseconds) requests waited
+     * suspended over the last minute.
+     */
+    @ManagedAttribute("99th percentile of the time async requests waited over the last minute (in ms)")
+    public long getAsyncWaitTimeP99()
+    {
+        return _asyncWaitTimeHistogram.getWindowSnapshot().getPercentile(99);
+    }
+
+    /**
+     * @return the 99.9th percentile of the time (in milliseconds) requests waited
+     * suspended over the last minute.
+     */
+    @ManagedAttribute("99.9th percentile of the time async requests waited over the last minute (in ms)")
+    public long getAsyncWaitTimeP999()
+    {
+        return _asyncWaitTimeHistogram.getWindowSnapshot().getPercentile(99.9);
+    }
+
     /**
      * @return the number of requests that have been asynchronously dispatched
      */
@@ -498,6 +639,7 @@ public class StatisticsHandler extends HandlerWrapper
         sb.append("Mean request time: ").append(getRequestTimeMean()).append("<br />\n");
         sb.append("Max request time: ").append(getRequestTimeMax()).append("<br />\n");
         sb.append("Request time standard deviation: ").append(getRequestTimeStdDev()).append("<br />\n");
+        sb.append("Request time percentiles (last minute): ").append(toPercentilesHTML(_requestTimeHistogram)).append("<br />\n");
 
 
         sb.append("<h2>Dispatches:</h2>\n");
@@ -508,11 +650,13 @@ public class StatisticsHandler extends HandlerWrapper
         sb.append("Mean dispatched time: ").append(getDispatchedTimeMean()).append("<br />\n");
         sb.append("Max dispatched time: ").append(getDispatchedTimeMax()).append("<br />\n");
         sb.append("Dispatched time standard deviation: ").append(getDispatchedTimeStdDev()).append("<br />\n");
+        sb.append("Dispatched time percentiles (last minute): ").append(toPercentilesHTML(_dispatchedTimeHistogram)).append("<br />\n");
 
 
         sb.append("Total requests suspended: ").append(getAsyncRequests()).append("<br />\n");
         sb.append("Total requests expired: ").append(getExpires()).append("<br />\n");
         sb.append("Total requests resumed: ").append(getAsyncDispatches()).append("<br />\n");
+        sb.append("Async wait time percentiles (last minute): ").append(toPercentilesHTML(_asyncWaitTimeHistogram)).append("<br />\n");
 
         sb.append("<h2>Responses:</h2>\n");
         sb.append("1xx responses: ").append(getResponses1xx()).append("<br />\n");
@@ -525,4 +669,10 @@ public class StatisticsHandler extends HandlerWrapper
         return sb.toString();
 
     }
+
+    private String toPercentilesHTML(HistogramStatistic histogram)
+    {
+        HistogramStatistic.Snapshot snapshot = histogram.getWindowSnapshot();
+        return String.format("p50=%d p99=%d p999=%d",snapshot.getPercentile(50),snapshot.getPercentile(99),snapshot.getPercentile(99.9));
+    }
 }
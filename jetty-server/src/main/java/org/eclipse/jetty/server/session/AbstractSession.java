@@ -18,6 +18,11 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -51,10 +56,13 @@ public abstract class AbstractSession implements AbstractSessionManager.SessionI
 {
     final static Logger LOG = SessionHandler.LOG;
     public final static String SESSION_KNOWN_ONLY_TO_AUTHENTICATED="org.eclipse.jetty.security.sessionKnownOnlytoAuthenticated";
+    private final static int ENCODED_ATTRIBUTES=0x4A534101; // first int of the attributes encoded with a SessionDataCodec
     private  String _clusterId; // ID unique within cluster
     private  String _nodeId;    // ID unique within node
     private final AbstractSessionManager _manager;
     private final Map<String,Object> _attributes=new HashMap<String, Object>();
+    private Set<String> _dirty;                   // the names of the attributes set or removed since last saved
+    private Map<String,byte[]> _encodedAttributes; // the values of the attributes, as encoded when last saved
     private boolean _idChanged;
     private final long _created;
     private long _cookieSet;
@@ -467,9 +475,128 @@ public abstract class AbstractSession implements AbstractSessionManager.SessionI
     /* ------------------------------------------------------------ */
     protected Object doPutOrRemove(String name, Object value)
     {
+        if (_dirty==null)
+            _dirty=new HashSet<String>();
+        _dirty.add(name);
+        if (_encodedAttributes!=null)
+            _encodedAttributes.remove(name);
         return value==null?_attributes.remove(name):_attributes.put(name,value);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if attributes were set or removed since the session was last saved
+     */
+    public boolean isDirty()
+    {
+        synchronized (this)
+        {
+            return _dirty!=null && !_dirty.isEmpty();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the names of the attributes set or removed since the last call, 
+     * which are no longer dirty.
+     */
+    public Set<String> takeDirty()
+    {
+        synchronized (this)
+        {
+            Set<String> dirty=_dirty;
+            if (dirty==null)
+                dirty= new HashSet<String>();
+            else
+                _dirty=null;
+            return dirty;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Encode the attributes of the session. The encoded value of each attribute
+     * is kept, so only the attributes set since they were last encoded or decoded
+     * are encoded again; the others reuse their encoded value. Once encoded, the
+     * attributes are no longer dirty.
+     *
+     * @param codec the codec of the attribute values
+     * @return the encoded attributes
+     * @throws IOException if an attribute cannot be encoded
+     * @see #decodeAttributes(SessionDataCodec, byte[])
+     */
+    public byte[] encodeAttributes(SessionDataCodec codec) throws IOException
+    {
+        synchronized (this)
+        {
+            if (_encodedAttributes==null)
+                _encodedAttributes=new HashMap<String, byte[]>();
+
+            ByteArrayOutputStream bout=new ByteArrayOutputStream();
+            DataOutputStream out=new DataOutputStream(bout);
+            out.writeInt(ENCODED_ATTRIBUTES);
+            out.writeInt(_attributes.size());
+            for (Map.Entry<String,Object> entry : _attributes.entrySet())
+            {
+                byte[] value=_encodedAttributes.get(entry.getKey());
+                if (value==null)
+                {
+                    value=codec.encode(entry.getValue());
+                    _encodedAttributes.put(entry.getKey(),value);
+                }
+                out.writeUTF(entry.getKey());
+                out.writeInt(value.length);
+                out.write(value);
+            }
+            out.flush();
+            _dirty=null;
+            return bout.toByteArray();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Add the attributes encoded by {@link #encodeAttributes(SessionDataCodec)}
+     * to the session, without calling the attribute listeners.
+     *
+     * @param codec the codec of the attribute values
+     * @param data the encoded attributes
+     * @throws IOException if the attributes cannot be decoded
+     * @throws ClassNotFoundException if the class of an attribute cannot be loaded
+     */
+    public void decodeAttributes(SessionDataCodec codec, byte[] data) throws IOException, ClassNotFoundException
+    {
+        DataInputStream in=new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt()!=ENCODED_ATTRIBUTES)
+            throw new IOException("Not encoded attributes");
+
+        synchronized (this)
+        {
+            if (_encodedAttributes==null)
+                _encodedAttributes=new HashMap<String, byte[]>();
+
+            int size=in.readInt();
+            for (int i=0;i<size;i++)
+            {
+                String name=in.readUTF();
+                byte[] value=new byte[in.readInt()];
+                in.readFully(value);
+                _attributes.put(name,codec.decode(value));
+                _encodedAttributes.put(name,value);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param data the persisted attributes of a session
+     * @return true if the attributes were encoded by {@link #encodeAttributes(SessionDataCodec)}
+     */
+    public static boolean isEncodedAttributes(byte[] data)
+    {
+        return data.length>=4 && ((data[0]&0xff)<<24|(data[1]&0xff)<<16|(data[2]&0xff)<<8|(data[3]&0xff))==ENCODED_ATTRIBUTES;
+    }
+
     /* ------------------------------------------------------------ */
     protected Object doGet(String name)
     {
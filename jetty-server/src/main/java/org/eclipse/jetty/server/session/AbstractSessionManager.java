@@ -120,6 +120,7 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
     protected boolean _nodeIdInSessionId;
     protected boolean _checkingRemoteSessionIdEncoding;
     protected String _sessionComment;
+    protected SessionDataCodec _sessionDataCodec;
 
     public Set<SessionTrackingMode> _sessionTrackingModes;
 
@@ -659,6 +660,30 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
         _refreshCookieAge=ageInSeconds;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the codec of the session attributes, or null if the attributes are
+     * saved with java serialization of the whole attribute map.
+     */
+    public SessionDataCodec getSessionDataCodec()
+    {
+        return _sessionDataCodec;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the codec of the session attributes, for the session managers that
+     * persist sessions. With a codec, only the attributes that were set since the
+     * session was last saved are encoded again when the session is saved.
+     * Sessions saved with a codec can only be restored by a session manager with 
+     * a codec.
+     * @param codec the codec, or null to save the attributes with java serialization
+     */
+    public void setSessionDataCodec(SessionDataCodec codec)
+    {
+        _sessionDataCodec=codec;
+    }
+
 
 
     public void setSessionCookie(String cookieName)
@@ -0,0 +1,177 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
+import org.eclipse.jetty.util.StringUtil;
+
+/* ------------------------------------------------------------ */
+/**
+ * BinarySessionDataCodec
+ *
+ * A {@link SessionDataCodec} that encodes strings, boxed primitives and byte arrays
+ * as a type byte followed by their binary representation, without the overhead of
+ * java serialization. Other values are encoded with java serialization.
+ * <p>
+ * A value that was encoded with java serialization only, without a type byte, is also
+ * decoded, so that the values saved before the codec was used can still be read.
+ */
+public class BinarySessionDataCodec implements SessionDataCodec
+{
+    private static final byte STRING=1;
+    private static final byte INTEGER=2;
+    private static final byte LONG=3;
+    private static final byte BOOLEAN=4;
+    private static final byte BYTE=5;
+    private static final byte SHORT=6;
+    private static final byte CHARACTER=7;
+    private static final byte FLOAT=8;
+    private static final byte DOUBLE=9;
+    private static final byte BYTES=10;
+    private static final byte SERIALIZED=11;
+    private static final byte STREAM_MAGIC=(byte)0xAC; // first byte of a java serialization stream
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public byte[] encode(Object value) throws IOException
+    {
+        if (value instanceof String)
+        {
+            byte[] bytes=((String)value).getBytes(StringUtil.__UTF8_CHARSET);
+            byte[] data=new byte[bytes.length+1];
+            data[0]=STRING;
+            System.arraycopy(bytes,0,data,1,bytes.length);
+            return data;
+        }
+
+        if (value instanceof byte[])
+        {
+            byte[] bytes=(byte[])value;
+            byte[] data=new byte[bytes.length+1];
+            data[0]=BYTES;
+            System.arraycopy(bytes,0,data,1,bytes.length);
+            return data;
+        }
+
+        ByteArrayOutputStream bout=new ByteArrayOutputStream(16);
+        DataOutputStream out=new DataOutputStream(bout);
+        if (value instanceof Integer)
+        {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer)value);
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(LONG);
+            out.writeLong((Long)value);
+        }
+        else if (value instanceof Boolean)
+        {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean)value);
+        }
+        else if (value instanceof Byte)
+        {
+            out.writeByte(BYTE);
+            out.writeByte((Byte)value);
+        }
+        else if (value instanceof Short)
+        {
+            out.writeByte(SHORT);
+            out.writeShort((Short)value);
+        }
+        else if (value instanceof Character)
+        {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character)value);
+        }
+        else if (value instanceof Float)
+        {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float)value);
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double)value);
+        }
+        else
+        {
+            out.writeByte(SERIALIZED);
+            ObjectOutputStream oos=new ObjectOutputStream(out);
+            oos.writeObject(value);
+            oos.flush();
+        }
+        out.flush();
+        return bout.toByteArray();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public Object decode(byte[] data) throws IOException, ClassNotFoundException
+    {
+        if (data.length==0)
+            throw new IOException("No data");
+
+        switch (data[0])
+        {
+            case STRING:
+                return new String(data,1,data.length-1,StringUtil.__UTF8_CHARSET);
+            case BYTES:
+                return Arrays.copyOfRange(data,1,data.length);
+            case STREAM_MAGIC:
+                return new ClassLoadingObjectInputStream(new ByteArrayInputStream(data)).readObject();
+            case SERIALIZED:
+                return new ClassLoadingObjectInputStream(new ByteArrayInputStream(data,1,data.length-1)).readObject();
+            default:
+                break;
+        }
+
+        DataInputStream in=new DataInputStream(new ByteArrayInputStream(data,1,data.length-1));
+        switch (data[0])
+        {
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTE:
+                return in.readByte();
+            case SHORT:
+                return in.readShort();
+            case CHARACTER:
+                return in.readChar();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            default:
+                throw new IOException("Unknown type "+data[0]);
+        }
+    }
+}
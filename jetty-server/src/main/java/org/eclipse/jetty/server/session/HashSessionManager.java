@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -25,8 +26,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
@@ -52,6 +55,12 @@ import org.eclipse.jetty.util.log.Logger;
  * <p>
  * This manager will create it's own Timer instance to scavenge threads, unless it discovers a shared Timer instance
  * set as the "org.eclipse.jetty.server.session.timer" attribute of the ContextHandler.
+ * <p>
+ * By default each saved session is written to its own file in the store directory. If
+ * {@link #setUseSegmentStore(boolean)} is set, sessions are instead appended to the memory mapped
+ * segments of a {@link SessionSegmentStore}, which is compacted in the background. This avoids
+ * creating, listing and deleting a file per session, which dominates idle saving and restarts
+ * with large numbers of sessions. Session files left by the per file store are still restored.
  *
  */
 public class HashSessionManager extends AbstractSessionManager
@@ -71,6 +80,11 @@ public class HashSessionManager extends AbstractSessionManager
     private boolean _lazyLoad=false;
     private volatile boolean _sessionsLoaded=false;
     private boolean _deleteUnrestorableSessions=false;
+    private boolean _useSegmentStore=false;
+    private int _segmentSize=32*1024*1024;
+    private long _compactPeriodMs=60000;
+    private TimerTask _compactTask;
+    SessionSegmentStore _segmentStore;
 
 
 
@@ -107,6 +121,13 @@ public class HashSessionManager extends AbstractSessionManager
             if (!_storeDir.exists())
                 _storeDir.mkdirs();
 
+            if (_useSegmentStore)
+            {
+                _segmentStore=new SessionSegmentStore(_storeDir,_segmentSize);
+                _segmentStore.open();
+                setCompactPeriod(getCompactPeriod());
+            }
+
             if (!_lazyLoad)
                 restoreSessions();
         }
@@ -130,6 +151,9 @@ public class HashSessionManager extends AbstractSessionManager
             if (_task!=null)
                 _task.cancel();
             _task=null;
+            if (_compactTask!=null)
+                _compactTask.cancel();
+            _compactTask=null;
             if (_timer!=null && _timerStop)
                 _timer.cancel();
             _timer=null;
@@ -140,6 +164,12 @@ public class HashSessionManager extends AbstractSessionManager
 
         _sessions.clear();
 
+        if (_segmentStore!=null)
+        {
+            _segmentStore.close();
+            _segmentStore=null;
+        }
+
     }
 
     /* ------------------------------------------------------------ */
@@ -252,6 +282,108 @@ public class HashSessionManager extends AbstractSessionManager
         return (int)(_savePeriodMs/1000);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if saved sessions are appended to a {@link SessionSegmentStore} rather than
+     * written to a file per session.
+     */
+    public boolean isUseSegmentStore()
+    {
+        return _useSegmentStore;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param useSegmentStore true if saved sessions are appended to a {@link SessionSegmentStore}
+     * in the store directory rather than written to a file per session.
+     */
+    public void setUseSegmentStore(boolean useSegmentStore)
+    {
+        _useSegmentStore=useSegmentStore;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the size in bytes of the segment files of the segment store
+     */
+    public int getSegmentSize()
+    {
+        return _segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param bytes the size in bytes of the segment files of the segment store
+     */
+    public void setSegmentSize(int bytes)
+    {
+        _segmentSize=bytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the segment store, or null if the manager is not started or not using a segment store
+     */
+    public SessionSegmentStore getSegmentStore()
+    {
+        return _segmentStore;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the period in seconds at which the segment store is compacted
+     */
+    public int getCompactPeriod()
+    {
+        if (_compactPeriodMs<=0)
+            return 0;
+
+        return (int)(_compactPeriodMs/1000);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param seconds the period in seconds at which the segment store is compacted, or 0 to never compact
+     */
+    public void setCompactPeriod(int seconds)
+    {
+        long period = (seconds * 1000L);
+        if (period < 0)
+            period=0;
+        _compactPeriodMs=period;
+
+        if (_timer!=null)
+        {
+            synchronized (this)
+            {
+                if (_compactTask!=null)
+                    _compactTask.cancel();
+                _compactTask=null;
+                if (_compactPeriodMs > 0 && _segmentStore!=null)
+                {
+                    _compactTask = new TimerTask()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            try
+                            {
+                                SessionSegmentStore store=_segmentStore;
+                                if (store!=null)
+                                    store.compact();
+                            }
+                            catch (Exception e)
+                            {
+                                LOG.warn(e);
+                            }
+                        }
+                    };
+                    _timer.schedule(_compactTask,_compactPeriodMs,_compactPeriodMs);
+                }
+            }
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @param seconds the period in seconds at which a check is made for sessions to be invalidated.
@@ -521,16 +653,55 @@ public class HashSessionManager extends AbstractSessionManager
             return;
         }
 
+        if (_segmentStore!=null)
+        {
+            Set<String> ids=_segmentStore.getIds();
+            Set<String> restored=new HashSet<String>();
+            for (String id : ids)
+            {
+                if (restoreStoredSession(id)!=null)
+                    restored.add(id);
+            }
+
+            // Dropping the whole store is much cheaper than a tombstone per restored session
+            if (restored.size()==ids.size() || isDeleteUnrestorableSessions())
+                _segmentStore.clear();
+            else
+            {
+                for (String id : restored)
+                    _segmentStore.remove(id);
+            }
+        }
+
         String[] files = _storeDir.list();
         for (int i=0;files!=null&&i<files.length;i++)
         {
-            restoreSession(files[i]);
+            if (!SessionSegmentStore.isSegmentFile(files[i]))
+                restoreSession(files[i]);
         }
     }
 
     /* ------------------------------------------------------------ */
     protected synchronized HashedSession restoreSession(String idInCuster)
     {        
+        SessionSegmentStore store=_segmentStore;
+        if (store!=null && store.contains(idInCuster))
+        {
+            HashedSession session=restoreStoredSession(idInCuster);
+            if (session!=null || isDeleteUnrestorableSessions())
+            {
+                try
+                {
+                    store.remove(idInCuster);
+                }
+                catch (IOException e)
+                {
+                    LOG.warn(e);
+                }
+            }
+            return session;
+        }
+
         File file = new File(_storeDir,idInCuster);
 
         FileInputStream in = null;
@@ -572,6 +743,34 @@ public class HashSessionManager extends AbstractSessionManager
         return null;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Restore a session from the segment store, leaving its data in the store.
+     * @param idInCluster the session id
+     * @return the restored session or null
+     */
+    private HashedSession restoreStoredSession(String idInCluster)
+    {
+        try
+        {
+            byte[] data=_segmentStore.get(idInCluster);
+            if (data==null)
+                return null;
+            HashedSession session = restoreSession(new ByteArrayInputStream(data), null);
+            addSession(session, false);
+            session.didActivate();
+            return session;
+        }
+        catch (Exception e)
+        {
+            if (isDeleteUnrestorableSessions())
+                LOG.warn("Deleting unrestorable session "+idInCluster, e);
+            else
+                __log.warn("Problem restoring session "+idInCluster, e);
+        }
+        return null;
+    }
+
     /* ------------------------------------------------------------ */
     public void saveSessions(boolean reactivate) throws Exception
     {
@@ -588,6 +787,9 @@ public class HashSessionManager extends AbstractSessionManager
 
         for (HashedSession session : _sessions.values())
             session.save(reactivate);
+
+        if (_segmentStore!=null)
+            _segmentStore.flush();
     }
     
 
@@ -609,7 +811,16 @@ public class HashSessionManager extends AbstractSessionManager
 
         int size = di.readInt();
 
-        restoreSessionAttributes(di, size, session);
+        if (size == HashedSession.ENCODED_ATTRIBUTES)
+        {
+            if (getSessionDataCodec() == null)
+                throw new IllegalStateException("No session data codec to restore session "+clusterId);
+            byte[] attributes = new byte[di.readInt()];
+            di.readFully(attributes);
+            session.decodeAttributes(getSessionDataCodec(), attributes);
+        }
+        else
+            restoreSessionAttributes(di, size, session);
 
         try
         {
@@ -18,6 +18,8 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -38,6 +40,9 @@ public class HashedSession extends AbstractSession
 {
     private static final Logger LOG = Log.getLogger(HashedSession.class);
 
+    /** Written instead of the number of attributes when they are encoded with a {@link SessionDataCodec} */
+    static final int ENCODED_ATTRIBUTES = -1;
+
     private final HashSessionManager _hashSessionManager;
 
     /** Whether the session has been saved because it has been deemed idle;
@@ -98,7 +103,19 @@ public class HashedSession extends AbstractSession
      */
     synchronized void remove ()
     {
-        if (_hashSessionManager._storeDir!=null && getId()!=null)
+        SessionSegmentStore store = _hashSessionManager._segmentStore;
+        if (store != null && getId()!=null)
+        {
+            try
+            {
+                store.remove(getId());
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Problem removing session " + getId(), e);
+            }
+        }
+        else if (_hashSessionManager._storeDir!=null && getId()!=null)
         {
             String id=getId();
             File f = new File(_hashSessionManager._storeDir, id);
@@ -140,7 +157,22 @@ public class HashedSession extends AbstractSession
     {   
         File file = null;
         FileOutputStream fos = null;
-        if (!_saveFailed && _hashSessionManager._storeDir != null)
+        SessionSegmentStore store = _hashSessionManager._segmentStore;
+        if (!_saveFailed && store != null)
+        {
+            try
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                save(out);
+                store.put(super.getId(),out.toByteArray());
+            }
+            catch (Exception e)
+            {
+                saveFailed(); // We won't try again for this session
+                throw e;
+            }
+        }
+        else if (!_saveFailed && _hashSessionManager._storeDir != null)
         {
             try
             {
@@ -180,14 +212,27 @@ public class HashedSession extends AbstractSession
         //out.writeBoolean(_doInvalidate);
         //out.writeBoolean( _newSession);
         out.writeInt(getRequests());
-        out.writeInt(getAttributes());
-        ObjectOutputStream oos = new ObjectOutputStream(out);
-        Enumeration<String> e=getAttributeNames();
-        while(e.hasMoreElements())
+
+        SessionDataCodec codec = _hashSessionManager.getSessionDataCodec();
+        if (codec != null)
         {
-            String key=e.nextElement();
-            oos.writeUTF(key);
-            oos.writeObject(doGet(key));
+            // only the attributes changed since the last save are encoded again
+            byte[] attributes = encodeAttributes(codec);
+            out.writeInt(ENCODED_ATTRIBUTES);
+            out.writeInt(attributes.length);
+            out.write(attributes);
+        }
+        else
+        {
+            out.writeInt(getAttributes());
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            Enumeration<String> e=getAttributeNames();
+            while(e.hasMoreElements())
+            {
+                String key=e.nextElement();
+                oos.writeUTF(key);
+                oos.writeObject(doGet(key));
+            }
         }
         
         out.writeInt(getMaxInactiveInterval());
@@ -204,6 +249,31 @@ public class HashedSession extends AbstractSession
             if (LOG.isDebugEnabled())
                 LOG.debug("De-idling " + super.getId());
 
+            SessionSegmentStore store = _hashSessionManager._segmentStore;
+            if (store != null)
+            {
+                try
+                {
+                    byte[] data = store.get(super.getId());
+                    if (data == null)
+                        throw new FileNotFoundException(super.getId());
+
+                    _idled = false;
+                    _hashSessionManager.restoreSession(new ByteArrayInputStream(data), this);
+                    didActivate();
+
+                    // If we are doing period saves, then there is no point removing at this point
+                    if (_hashSessionManager._savePeriodMs == 0)
+                        store.remove(super.getId());
+                }
+                catch (Exception e)
+                {
+                    LOG.warn("Problem de-idling session " + super.getId(), e);
+                    invalidate();
+                }
+                return;
+            }
+
             FileInputStream fis = null;
 
             try
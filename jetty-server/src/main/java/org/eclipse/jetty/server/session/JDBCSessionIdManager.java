@@ -427,7 +427,18 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
         if (session == null)
             return;
 
-        removeSession(((JDBCSessionManager.Session)session).getClusterId());
+        JDBCSessionManager.Session jdbcSession = (JDBCSessionManager.Session)session;
+        if (jdbcSession.isExpiring())
+        {
+            //the ids of the expired sessions are deleted from the database in a batch by scavengeSessions
+            synchronized (_sessionIds)
+            {
+                _sessionIds.remove(jdbcSession.getClusterId());
+            }
+            return;
+        }
+
+        removeSession(jdbcSession.getClusterId());
     }
 
 
@@ -819,6 +830,109 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
     }
 
 
+    /**
+     * Remove session ids from the table in a batch.
+     *
+     * @param ids
+     * @throws SQLException
+     */
+    private void delete (Collection<String> ids)
+    throws SQLException
+    {
+        if (ids.isEmpty())
+            return;
+
+        Connection connection = getConnection();
+        PreparedStatement statement = null;
+        try
+        {
+            connection.setAutoCommit(false);
+            statement = connection.prepareStatement(_deleteId);
+            for (String id : ids)
+            {
+                statement.setString(1, id);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+        }
+        catch (SQLException e)
+        {
+            rollback(connection);
+            throw e;
+        }
+        finally
+        {
+            close(statement);
+            release(connection);
+        }
+    }
+
+
+    /**
+     * Roll back a transaction that failed, ignoring any further failure
+     * so that the original one is reported.
+     *
+     * @param connection the connection of the transaction
+     */
+    static void rollback (Connection connection)
+    {
+        try
+        {
+            connection.rollback();
+        }
+        catch (SQLException e)
+        {
+            LOG.ignore(e);
+        }
+    }
+
+
+    /**
+     * Close a statement, if any.
+     *
+     * @param statement the statement, or null
+     */
+    static void close (Statement statement)
+    {
+        if (statement == null)
+            return;
+        try
+        {
+            statement.close();
+        }
+        catch (SQLException e)
+        {
+            LOG.ignore(e);
+        }
+    }
+
+
+    /**
+     * Close a connection used for a transaction, restoring its auto commit
+     * first so that a pooled connection is handed out again as it was obtained.
+     *
+     * @param connection the connection
+     * @throws SQLException if the connection cannot be closed
+     */
+    static void release (Connection connection)
+    throws SQLException
+    {
+        try
+        {
+            connection.setAutoCommit(true);
+        }
+        catch (SQLException e)
+        {
+            LOG.ignore(e);
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+
     /**
      * Check if a session id exists.
      *
@@ -968,18 +1082,50 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
     private void scavengeSessions (Set<String> expiredSessionIds, boolean forceDelete)
     {       
         Set<String> remainingIds = new HashSet<String>(expiredSessionIds);
-        Handler[] contexts = _server.getChildHandlersByClass(ContextHandler.class);
-        for (int i=0; contexts!=null && i<contexts.length; i++)
+
+        //the ids of the expired sessions are deleted in one batch once they are all expired
+        Set<String> deletedIds = new HashSet<String>();
+        try
         {
-            SessionHandler sessionHandler = (SessionHandler)((ContextHandler)contexts[i]).getChildHandlerByClass(SessionHandler.class);
-            if (sessionHandler != null)
+            Handler[] contexts = _server.getChildHandlersByClass(ContextHandler.class);
+            for (int i=0; contexts!=null && i<contexts.length; i++)
+            {
+                SessionHandler sessionHandler = (SessionHandler)((ContextHandler)contexts[i]).getChildHandlerByClass(SessionHandler.class);
+                if (sessionHandler != null)
+                {
+                    SessionManager manager = sessionHandler.getSessionManager();
+                    if (manager != null && manager instanceof JDBCSessionManager)
+                    {
+                        Set<String> successfullyExpiredIds = ((JDBCSessionManager)manager).expire(expiredSessionIds);
+                        if (successfullyExpiredIds != null)
+                        {
+                            remainingIds.removeAll(successfullyExpiredIds);
+                            deletedIds.addAll(successfullyExpiredIds);
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            try
+            {
+                delete(deletedIds);
+            }
+            catch (Exception e)
             {
-                SessionManager manager = sessionHandler.getSessionManager();
-                if (manager != null && manager instanceof JDBCSessionManager)
+                //the sessions are already invalidated, retry their ids one at a time
+                LOG.warn("Problem removing expired session ids in a batch, removing them one at a time", e);
+                for (String id : deletedIds)
                 {
-                    Set<String> successfullyExpiredIds = ((JDBCSessionManager)manager).expire(expiredSessionIds);
-                    if (successfullyExpiredIds != null)
-                        remainingIds.removeAll(successfullyExpiredIds);
+                    try
+                    {
+                        delete(id);
+                    }
+                    catch (Exception x)
+                    {
+                        LOG.warn("Unable to remove expired session id "+id, x);
+                    }
                 }
             }
         }
@@ -29,13 +29,20 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.servlet.ServletContext;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSessionEvent;
 import javax.servlet.http.HttpSessionListener;
@@ -43,6 +50,7 @@ import javax.servlet.http.HttpSessionListener;
 import org.eclipse.jetty.server.SessionIdManager;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
+import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -69,16 +77,39 @@ import org.eclipse.jetty.util.log.Logger;
  * the accessTime and lastAccessTime every time the session is accessed. Rather,
  * we write it out every so often. The frequency is controlled by the saveIntervalSec
  * field.
+ *
+ * If a write behind interval is set, the changes to the sessions are not written to the
+ * database on exit from the request. Instead the changed sessions are remembered, and they
+ * are written in batches by a timer thread, at most writeBehindIntervalMs after the
+ * request. A session changed by several requests in the interval is written only once.
  */
 public class JDBCSessionManager extends AbstractSessionManager
 {
     private static final Logger LOG = Log.getLogger(JDBCSessionManager.class);
+    private static int __id;
 
     private ConcurrentHashMap<String, AbstractSession> _sessions;
     protected JDBCSessionIdManager _jdbcSessionIdMgr = null;
     protected long _saveIntervalSec = 60; //only persist changes to session access times every 60 secs
+    protected long _writeBehindIntervalMs = 0; //if >0, write changed sessions asynchronously in batches
+    protected int _writeBehindBatchSize = 100;
 
-   
+    /**
+     * Sessions waiting to be written, mapped to true if their attributes changed
+     * or false if only their access times need to be written.
+     */
+    private final ConcurrentHashMap<Session, Boolean> _writeBehind = new ConcurrentHashMap<Session, Boolean>();
+
+    /**
+     * Sessions taken from the write behind sessions that are being written,
+     * until their transaction is committed or they are waiting again.
+     */
+    private final ConcurrentHashMap<Session, Boolean> _writing = new ConcurrentHashMap<Session, Boolean>();
+    private final AtomicBoolean _writeBehindScheduled = new AtomicBoolean();
+    private final Object _writeBehindLock = new Object();
+    private volatile Timer _timer;
+    private boolean _timerStop;
+    private TimerTask _writeBehindTask;
 
 
     /**
@@ -90,12 +121,6 @@ public class JDBCSessionManager extends AbstractSessionManager
     {
         private static final long serialVersionUID = 5208464051134226143L;
         
-        /**
-         * If dirty, session needs to be (re)persisted
-         */
-        private boolean _dirty=false;
-        
-        
         /**
          * Time in msec since the epoch that a session cookie was set for this session
          */
@@ -136,6 +161,13 @@ public class JDBCSessionManager extends AbstractSessionManager
          * Mangled context name (used to help distinguish 2 sessions with same id on different contexts)
          */
         private String _canonicalContext;
+
+
+        /**
+         * True while the session is expired by the scavenger, which deletes it from the
+         * database in a batch with the other expired sessions
+         */
+        private boolean _expiring;
         
    
         /**
@@ -241,17 +273,14 @@ public class JDBCSessionManager extends AbstractSessionManager
             return _lastNode;
         }
 
-        @Override
-        public void setAttribute (String name, Object value)
+        protected synchronized void setExpiring (boolean expiring)
         {
-            _dirty=updateAttribute(name, value);
+            _expiring=expiring;
         }
 
-        @Override
-        public void removeAttribute (String name)
+        protected synchronized boolean isExpiring ()
         {
-            super.removeAttribute(name);
-            _dirty=true;
+            return _expiring;
         }
 
         @Override
@@ -324,17 +353,28 @@ public class JDBCSessionManager extends AbstractSessionManager
                 {
                     if (isValid())
                     {
-                        if (_dirty)
+                        if (isDirty())
                         {
-                            //The session attributes have changed, write to the db, ensuring
-                            //http passivation/activation listeners called
-                            willPassivate();                      
-                            updateSession(this);
-                            didActivate();
+                            if (isWriteBehind())
+                            {
+                                //The session attributes have changed, write them to the db later
+                                writeBehind(this, true);
+                            }
+                            else
+                            {
+                                //The session attributes have changed, write to the db, ensuring
+                                //http passivation/activation listeners called
+                                willPassivate();                      
+                                updateSession(this);
+                                didActivate();
+                            }
                         }
                         else if ((getAccessed() - _lastSaved) >= (getSaveInterval() * 1000L))
                         {
-                            updateSessionAccessTime(this);
+                            if (isWriteBehind())
+                                writeBehind(this, false);
+                            else
+                                updateSessionAccessTime(this);
                         }
                     }
                 }
@@ -344,7 +384,7 @@ public class JDBCSessionManager extends AbstractSessionManager
                 }
                 finally
                 {
-                    _dirty=false;
+                    takeDirty();
                 }
             }
         }
@@ -359,7 +399,7 @@ public class JDBCSessionManager extends AbstractSessionManager
                 }
                 finally
                 {
-                    _dirty = false;
+                    takeDirty();
                 }
             }
         }
@@ -415,6 +455,187 @@ public class JDBCSessionManager extends AbstractSessionManager
     }
 
 
+    /**
+     * Set the maximum time in milliseconds that the changes to a session
+     * may wait before being written to the database.
+     *
+     * If greater than 0, the changed sessions are written asynchronously
+     * by a timer thread, in batches, rather than on exit from each request.
+     * Until then, the database holds the previous state of the session, so
+     * another node may see stale session data for that long.
+     *
+     * @param ms the write behind interval in milliseconds, or 0 to write the sessions on exit from the request
+     */
+    public void setWriteBehindInterval (long ms)
+    {
+        _writeBehindIntervalMs=ms;
+        if (isStarted())
+        {
+            scheduleWriteBehind();
+            if (!isWriteBehind())
+                flushSessions();
+        }
+    }
+
+    public long getWriteBehindInterval ()
+    {
+        return _writeBehindIntervalMs;
+    }
+
+    public boolean isWriteBehind ()
+    {
+        return _writeBehindIntervalMs > 0;
+    }
+
+
+    /**
+     * @param size the maximum number of sessions written in one JDBC batch. When that
+     * many sessions are waiting to be written, they are written without waiting for the
+     * end of the write behind interval.
+     */
+    public void setWriteBehindBatchSize (int size)
+    {
+        _writeBehindBatchSize=size;
+    }
+
+    public int getWriteBehindBatchSize ()
+    {
+        return _writeBehindBatchSize;
+    }
+
+
+    /**
+     * Write all the sessions waiting to be written to the database.
+     *
+     * Sessions that cannot be written are kept to be written again by the next flush.
+     */
+    public void flushSessions ()
+    {
+        synchronized (_writeBehindLock)
+        {
+            if (_writeBehind.isEmpty())
+                return;
+
+            final AtomicReference<Exception> _exception = new AtomicReference<Exception>();
+            Runnable write = new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        writeSessions();
+                    }
+                    catch (Exception e)
+                    {
+                        _exception.set(e);
+                    }
+                }
+            };
+
+            //write within the context, as passivation listeners may be called
+            if (_context==null)
+                write.run();
+            else
+                _context.getContextHandler().handle(write);
+
+            if (_exception.get()!=null)
+                LOG.warn("Problem writing sessions, "+_writeBehind.size()+" pending", _exception.get());
+        }
+    }
+
+
+    /**
+     * Remember that a session needs to be written to the database.
+     *
+     * @param session the session
+     * @param attributes true if the attributes of the session changed, false if only its access times need writing
+     */
+    protected void writeBehind (Session session, boolean attributes)
+    {
+        if (attributes)
+            _writeBehind.put(session, Boolean.TRUE);
+        else
+            _writeBehind.putIfAbsent(session, Boolean.FALSE);
+
+        if (_writeBehind.size() >= _writeBehindBatchSize)
+        {
+            //a full batch is waiting, write it now rather than at the end of the interval
+            Timer timer=_timer;
+            if (timer!=null && _writeBehindScheduled.compareAndSet(false, true))
+            {
+                try
+                {
+                    timer.schedule(new TimerTask()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            _writeBehindScheduled.set(false);
+                            flushSessions();
+                        }
+                    }, 0);
+                }
+                catch (IllegalStateException e)
+                {
+                    _writeBehindScheduled.set(false);
+                    LOG.ignore(e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @param session the session
+     * @return true if changes to the session are waiting to be written or are being written,
+     * so the database does not hold its latest state yet
+     */
+    private boolean isWritePending (Session session)
+    {
+        return _writeBehind.containsKey(session) || _writing.containsKey(session);
+    }
+
+
+    /**
+     * (Re)schedule the periodic writing of the changed sessions.
+     */
+    private void scheduleWriteBehind ()
+    {
+        synchronized (this)
+        {
+            if (_writeBehindTask!=null)
+                _writeBehindTask.cancel();
+            _writeBehindTask=null;
+
+            if (isWriteBehind())
+            {
+                if (_timer==null)
+                {
+                    _timerStop=false;
+                    ServletContext context = ContextHandler.getCurrentContext();
+                    if (context!=null)
+                        _timer=(Timer)context.getAttribute("org.eclipse.jetty.server.session.timer");
+                    if (_timer==null)
+                    {
+                        _timerStop=true;
+                        _timer=new Timer("JDBCSessionWriteBehind-"+__id++, true);
+                    }
+                }
+
+                _writeBehindTask = new TimerTask()
+                {
+                    @Override
+                    public void run()
+                    {
+                        flushSessions();
+                    }
+                };
+                _timer.schedule(_writeBehindTask,_writeBehindIntervalMs,_writeBehindIntervalMs);
+            }
+        }
+    }
+
+
 
     /**
      * A method that can be implemented in subclasses to support
@@ -491,7 +712,7 @@ public class JDBCSessionManager extends AbstractSessionManager
                         LOG.debug("getSession("+idInCluster+"): no session in session map. Reloading session data from db.");
                         session = loadSession(idInCluster, canonicalize(_context.getContextPath()), getVirtualHost(_context));
                     }
-                    else if ((now - memSession._lastSaved) >= (_saveIntervalSec * 1000L))
+                    else if ((now - memSession._lastSaved) >= (_saveIntervalSec * 1000L) && !isWritePending(memSession))
                     {
                         LOG.debug("getSession("+idInCluster+"): stale session. Reloading session data from db.");
                         session = loadSession(idInCluster, canonicalize(_context.getContextPath()), getVirtualHost(_context));
@@ -593,6 +814,8 @@ public class JDBCSessionManager extends AbstractSessionManager
         _sessions = new ConcurrentHashMap<String, AbstractSession>();
 
         super.doStart();
+
+        scheduleWriteBehind();
     }
 
 
@@ -604,6 +827,27 @@ public class JDBCSessionManager extends AbstractSessionManager
     @Override
     public void doStop() throws Exception
     {
+        synchronized (this)
+        {
+            if (_writeBehindTask!=null)
+                _writeBehindTask.cancel();
+            _writeBehindTask=null;
+            if (_timer!=null && _timerStop)
+                _timer.cancel();
+            _timer=null;
+        }
+
+        //write the sessions that changed since the last write
+        flushSessions();
+        if (!_writeBehind.isEmpty())
+        {
+            List<String> ids = new ArrayList<String>();
+            for (Session session : _writeBehind.keySet())
+                ids.add(session.getClusterId());
+            LOG.warn("Unable to write the changes of sessions {} before stopping", ids);
+            _writeBehind.clear();
+        }
+
         _sessions.clear();
         _sessions = null;
 
@@ -802,6 +1046,7 @@ public class JDBCSessionManager extends AbstractSessionManager
         ClassLoader old_loader=thread.getContextClassLoader();
         
         Set<String> successfullyExpiredIds = new HashSet<String>();
+        List<String> expiredRowIds = new ArrayList<String>();
         try
         {
             Iterator<?> itor = sessionIds.iterator();
@@ -837,7 +1082,10 @@ public class JDBCSessionManager extends AbstractSessionManager
                
                 if (session != null)
                 {
+                    //the expired sessions are deleted from the database in one batch below
+                    session.setExpiring(true);
                     session.timeout();
+                    expiredRowIds.add(session.getRowId());
                     successfullyExpiredIds.add(session.getClusterId());
                 }
             }
@@ -850,6 +1098,26 @@ public class JDBCSessionManager extends AbstractSessionManager
         }
         finally
         {
+            try
+            {
+                deleteSessions(expiredRowIds);
+            }
+            catch (Exception e)
+            {
+                //the sessions are already invalidated, retry their rows one at a time
+                LOG.warn("Problem deleting expired sessions in a batch, deleting them one at a time", e);
+                for (String rowId : expiredRowIds)
+                {
+                    try
+                    {
+                        deleteSession(rowId);
+                    }
+                    catch (Exception x)
+                    {
+                        LOG.warn("Unable to delete expired session "+rowId, x);
+                    }
+                }
+            }
             thread.setContextClassLoader(old_loader);
         }
     }
@@ -902,10 +1170,30 @@ public class JDBCSessionManager extends AbstractSessionManager
                         session.setVirtualHost(result.getString("virtualHost"));
                                            
                         InputStream is = ((JDBCSessionIdManager)getSessionIdManager())._dbAdaptor.getBlobInputStream(result, "map");
-                        ClassLoadingObjectInputStream ois = new ClassLoadingObjectInputStream (is);
-                        Object o = ois.readObject();
-                        session.addAttributes((Map<String,Object>)o);
-                        ois.close();
+                        SessionDataCodec codec = getSessionDataCodec();
+                        byte[] bytes = null;
+                        if (codec != null)
+                        {
+                            //the attributes may have been saved before the codec was set
+                            bytes = IO.readBytes(is);
+                            is = new ByteArrayInputStream(bytes);
+                        }
+
+                        if (bytes != null && AbstractSession.isEncodedAttributes(bytes))
+                            session.decodeAttributes(codec, bytes);
+                        else
+                        {
+                            ClassLoadingObjectInputStream ois = new ClassLoadingObjectInputStream (is);
+                            try
+                            {
+                                Object o = ois.readObject();
+                                session.addAttributes((Map<String,Object>)o);
+                            }
+                            finally
+                            {
+                                ois.close();
+                            }
+                        }
 
                         if (LOG.isDebugEnabled())
                             LOG.debug("LOADED session "+session);
@@ -981,14 +1269,8 @@ public class JDBCSessionManager extends AbstractSessionManager
             statement.setLong(11, session.getExpiryTime());
             statement.setLong(12, session.getMaxInactiveInterval());
 
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(baos);
-            oos.writeObject(session.getAttributeMap());
-            byte[] bytes = baos.toByteArray();
-
-            ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-            statement.setBinaryStream(13, bais, bytes.length);//attribute map as blob
-           
+            byte[] bytes = serializeAttributes(session);
+            statement.setBinaryStream(13, new ByteArrayInputStream(bytes), bytes.length);//attribute map as blob
 
             statement.executeUpdate();
             session.setRowId(rowId); //set it on the in-memory data as well as in db
@@ -1025,22 +1307,7 @@ public class JDBCSessionManager extends AbstractSessionManager
             long now = System.currentTimeMillis();
             connection.setAutoCommit(true);
             statement = connection.prepareStatement(_jdbcSessionIdMgr._updateSession);
-            statement.setString(1, data.getId());
-            statement.setString(2, getSessionIdManager().getWorkerName());//my node id
-            statement.setLong(3, data.getAccessed());//accessTime
-            statement.setLong(4, data.getLastAccessedTime()); //lastAccessTime
-            statement.setLong(5, now); //last saved time
-            statement.setLong(6, data.getExpiryTime());
-            statement.setLong(7, data.getMaxInactiveInterval());
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(baos);
-            oos.writeObject(data.getAttributeMap());
-            byte[] bytes = baos.toByteArray();
-            ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-
-            statement.setBinaryStream(8, bais, bytes.length);//attribute map as blob
-            statement.setString(9, data.getRowId()); //rowId
+            setUpdateSessionParameters(statement, data, now);
             statement.executeUpdate();
 
             data.setLastSaved(now);
@@ -1055,6 +1322,159 @@ public class JDBCSessionManager extends AbstractSessionManager
     }
 
 
+    /**
+     * Write the sessions waiting to be written, in JDBC batches in one transaction.
+     *
+     * If the transaction fails, the sessions are kept to be written again.
+     *
+     * @throws Exception
+     */
+    private void writeSessions ()
+    throws Exception
+    {
+        Connection connection = getConnection();
+        PreparedStatement update = null;
+        PreparedStatement accessTime = null;
+        try
+        {
+            long now = System.currentTimeMillis();
+            connection.setAutoCommit(false);
+            update = connection.prepareStatement(_jdbcSessionIdMgr._updateSession);
+            accessTime = connection.prepareStatement(_jdbcSessionIdMgr._updateSessionAccessTime);
+            int updates = 0;
+            int accessTimes = 0;
+
+            for (Session session : _writeBehind.keySet())
+            {
+                //the session is in the writing sessions before it leaves the write behind sessions,
+                //so that it is not reloaded from the database until it is written
+                Boolean attributes = _writeBehind.get(session);
+                if (attributes == null)
+                    continue;
+                _writing.put(session, attributes);
+                attributes = _writeBehind.remove(session);
+                if (attributes == null)
+                {
+                    _writing.remove(session);
+                    continue;
+                }
+                _writing.put(session, attributes);
+
+                synchronized (session)
+                {
+                    if (!session.isValid())
+                        continue;
+
+                    if (attributes)
+                    {
+                        //ensure http passivation/activation listeners called
+                        session.willPassivate();
+                        try
+                        {
+                            setUpdateSessionParameters(update, session, now);
+                        }
+                        finally
+                        {
+                            session.didActivate();
+                        }
+                        update.addBatch();
+                        updates++;
+                    }
+                    else
+                    {
+                        setUpdateSessionAccessTimeParameters(accessTime, session, now);
+                        accessTime.addBatch();
+                        accessTimes++;
+                    }
+                }
+
+                if (updates >= _writeBehindBatchSize)
+                {
+                    update.executeBatch();
+                    updates = 0;
+                }
+                if (accessTimes >= _writeBehindBatchSize)
+                {
+                    accessTime.executeBatch();
+                    accessTimes = 0;
+                }
+            }
+
+            if (updates > 0)
+                update.executeBatch();
+            if (accessTimes > 0)
+                accessTime.executeBatch();
+            connection.commit();
+
+            for (Session session : _writing.keySet())
+                session.setLastSaved(now);
+            if (LOG.isDebugEnabled())
+                LOG.debug("Wrote "+_writing.size()+" sessions");
+        }
+        catch (Exception e)
+        {
+            JDBCSessionIdManager.rollback(connection);
+
+            //keep the sessions to write them again
+            for (Map.Entry<Session, Boolean> entry : _writing.entrySet())
+            {
+                if (entry.getValue())
+                    _writeBehind.put(entry.getKey(), Boolean.TRUE);
+                else
+                    _writeBehind.putIfAbsent(entry.getKey(), Boolean.FALSE);
+            }
+            throw e;
+        }
+        finally
+        {
+            _writing.clear();
+            JDBCSessionIdManager.close(update);
+            JDBCSessionIdManager.close(accessTime);
+            JDBCSessionIdManager.release(connection);
+        }
+    }
+
+
+    /**
+     * Set the parameters of the update session statement.
+     */
+    private void setUpdateSessionParameters (PreparedStatement statement, Session data, long now)
+    throws Exception
+    {
+        statement.setString(1, data.getId());
+        statement.setString(2, getSessionIdManager().getWorkerName());//my node id
+        statement.setLong(3, data.getAccessed());//accessTime
+        statement.setLong(4, data.getLastAccessedTime()); //lastAccessTime
+        statement.setLong(5, now); //last saved time
+        statement.setLong(6, data.getExpiryTime());
+        statement.setLong(7, data.getMaxInactiveInterval());
+
+        byte[] bytes = serializeAttributes(data);
+        statement.setBinaryStream(8, new ByteArrayInputStream(bytes), bytes.length);//attribute map as blob
+        statement.setString(9, data.getRowId()); //rowId
+    }
+
+
+    /**
+     * Serialize the attributes of a session, with the session data codec if there is one,
+     * in which case only the attributes that changed since the session was last saved 
+     * are encoded again.
+     */
+    private byte[] serializeAttributes (Session data)
+    throws IOException
+    {
+        SessionDataCodec codec = getSessionDataCodec();
+        if (codec != null)
+            return data.encodeAttributes(codec);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(data.getAttributeMap());
+        oos.flush();
+        return baos.toByteArray();
+    }
+
+
     /**
      * Update the node on which the session was last seen to be my node.
      *
@@ -1101,14 +1521,7 @@ public class JDBCSessionManager extends AbstractSessionManager
             long now = System.currentTimeMillis();
             connection.setAutoCommit(true);
             statement = connection.prepareStatement(_jdbcSessionIdMgr._updateSessionAccessTime);
-            statement.setString(1, getSessionIdManager().getWorkerName());
-            statement.setLong(2, data.getAccessed());
-            statement.setLong(3, data.getLastAccessedTime());
-            statement.setLong(4, now);
-            statement.setLong(5, data.getExpiryTime());
-            statement.setLong(6, data.getMaxInactiveInterval());
-            statement.setString(7, data.getRowId());
-          
+            setUpdateSessionAccessTimeParameters(statement, data, now);
             statement.executeUpdate();
             data.setLastSaved(now);
             statement.close();
@@ -1123,38 +1536,119 @@ public class JDBCSessionManager extends AbstractSessionManager
     }
 
 
+    /**
+     * Set the parameters of the update session access time statement.
+     */
+    private void setUpdateSessionAccessTimeParameters (PreparedStatement statement, Session data, long now)
+    throws SQLException
+    {
+        statement.setString(1, getSessionIdManager().getWorkerName());
+        statement.setLong(2, data.getAccessed());
+        statement.setLong(3, data.getLastAccessedTime());
+        statement.setLong(4, now);
+        statement.setLong(5, data.getExpiryTime());
+        statement.setLong(6, data.getMaxInactiveInterval());
+        statement.setString(7, data.getRowId());
+    }
 
 
     /**
      * Delete a session from the database. Should only be called
      * when the session has been invalidated.
      *
+     * A session expired by the scavenger is not deleted here, but in a batch
+     * with the other expired sessions by {@link #expire(Set)}.
+     *
      * @param data
      * @throws Exception
      */
     protected void deleteSession (Session data)
     throws Exception
+    {
+        _writeBehind.remove(data);
+
+        if (data.isExpiring())
+            return;
+
+        deleteSession(data.getRowId());
+        if (LOG.isDebugEnabled())
+            LOG.debug("Deleted Session "+data);
+    }
+
+
+    /**
+     * Delete a session from the database.
+     *
+     * @param rowId the row id of the session
+     * @throws Exception
+     */
+    private void deleteSession (String rowId)
+    throws Exception
     {
         Connection connection = getConnection();
-        PreparedStatement statement = null;
         try
         {
             connection.setAutoCommit(true);
+            PreparedStatement statement = connection.prepareStatement(_jdbcSessionIdMgr._deleteSession);
+            try
+            {
+                statement.setString(1, rowId);
+                statement.executeUpdate();
+            }
+            finally
+            {
+                statement.close();
+            }
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+
+
+    /**
+     * Delete sessions from the database in a batch.
+     *
+     * @param rowIds the row ids of the sessions
+     * @throws Exception
+     */
+    private void deleteSessions (List<String> rowIds)
+    throws Exception
+    {
+        if (rowIds.isEmpty())
+            return;
+
+        Connection connection = getConnection();
+        PreparedStatement statement = null;
+        try
+        {
+            connection.setAutoCommit(false);
             statement = connection.prepareStatement(_jdbcSessionIdMgr._deleteSession);
-            statement.setString(1, data.getRowId());
-            statement.executeUpdate();
+            for (String rowId : rowIds)
+            {
+                statement.setString(1, rowId);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
             if (LOG.isDebugEnabled())
-                LOG.debug("Deleted Session "+data);
+                LOG.debug("Deleted expired sessions "+rowIds);
+        }
+        catch (Exception e)
+        {
+            JDBCSessionIdManager.rollback(connection);
+            throw e;
         }
         finally
         {
-            if (connection!=null)
-                connection.close();
+            JDBCSessionIdManager.close(statement);
+            JDBCSessionIdManager.release(connection);
         }
     }
 
 
-
     /**
      * Get a connection from the driver.
      * @return
@@ -0,0 +1,57 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.IOException;
+
+/* ------------------------------------------------------------ */
+/**
+ * SessionDataCodec
+ *
+ * Encodes and decodes the values of session attributes, so that session managers
+ * that persist sessions can store each attribute separately.
+ * <p>
+ * When a codec is set on a session manager with
+ * {@link AbstractSessionManager#setSessionDataCodec(SessionDataCodec)}, the sessions keep
+ * the encoded value of each attribute, and only the attributes that were set or removed 
+ * since the session was last saved are encoded again. An attribute value that is modified 
+ * without being set again on the session is therefore not saved, as is the case for 
+ * distributable webapps.
+ *
+ * @see BinarySessionDataCodec
+ */
+public interface SessionDataCodec
+{
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value the value of an attribute, never null
+     * @return the encoded value
+     * @throws IOException if the value cannot be encoded
+     */
+    public byte[] encode(Object value) throws IOException;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param data a value encoded by {@link #encode(Object)}
+     * @return the decoded value
+     * @throws IOException if the value cannot be decoded
+     * @throws ClassNotFoundException if the class of the value cannot be loaded
+     */
+    public Object decode(byte[] data) throws IOException, ClassNotFoundException;
+}
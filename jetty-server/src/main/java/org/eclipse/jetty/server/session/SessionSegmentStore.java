@@ -0,0 +1,631 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/**
+ * SessionSegmentStore
+ *
+ * An append only, log structured store of saved session data, used by the
+ * {@link HashSessionManager} instead of one file per session.
+ * <p>
+ * Records are appended to memory mapped segment files in the store directory and
+ * an in memory index maps each session id to its latest record. Removing a session
+ * appends a tombstone. When a segment is full a new one is started, and segments
+ * whose live data has dropped below the compact ratio are compacted by copying
+ * their live records to the head segment and deleting the segment file.
+ * <p>
+ * On {@link #open()} the segments are replayed in order to rebuild the index. Each
+ * record carries a CRC32 checksum, so a record torn by a crash ends the replay of
+ * its segment rather than restoring corrupt data.
+ * <p>
+ * Record format: int body length, int CRC32 of the body, then the body: a type byte,
+ * the UTF-8 session id preceded by its length as a short, then the session data.
+ * <p>
+ * The mapping of a segment is explicitly released when the segment is deleted or the
+ * store is closed, rather than when the garbage collector finds the buffer, so that
+ * retired segments do not hold on to address space and file handles. The buffers of
+ * the segments are only accessed while holding the lock of the store, and never
+ * escape it, so no access can follow the release.
+ */
+public class SessionSegmentStore
+{
+    private static final Logger LOG = Log.getLogger(SessionSegmentStore.class);
+
+    private static final Pattern __segmentName = Pattern.compile("segment-(\\d+)\\.sessions");
+    private static final int HEADER = 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final Object __unsafe;
+    private static final Method __invokeCleaner;
+
+    static
+    {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try
+        {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner",ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        }
+        catch (Exception e)
+        {
+            invokeCleaner = null;
+            LOG.ignore(e);
+        }
+        __unsafe = unsafe;
+        __invokeCleaner = invokeCleaner;
+    }
+
+    private final File _dir;
+    private final int _segmentSize;
+    private final Map<String,Location> _index = new HashMap<String,Location>();
+    private final List<Segment> _segments = new ArrayList<Segment>();
+    private double _compactRatio = 0.5;
+    private Segment _head;
+    private long _nextSequence;
+    private boolean _open;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param dir the directory holding the segment files
+     * @param segmentSize the size in bytes of each segment file. Records larger than
+     * this are written to a segment of their own.
+     */
+    public SessionSegmentStore(File dir, int segmentSize)
+    {
+        if (segmentSize <= HEADER)
+            throw new IllegalArgumentException("Segment size "+segmentSize);
+        _dir = dir;
+        _segmentSize = segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param name a file name
+     * @return true if the name is that of a segment file of a store
+     */
+    public static boolean isSegmentFile(String name)
+    {
+        return __segmentName.matcher(name).matches();
+    }
+
+    /* ------------------------------------------------------------ */
+    public File getDirectory()
+    {
+        return _dir;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getSegmentSize()
+    {
+        return _segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    public double getCompactRatio()
+    {
+        return _compactRatio;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param compactRatio the ratio of live data to written data below which a
+     * segment is compacted by {@link #compact()}.
+     */
+    public void setCompactRatio(double compactRatio)
+    {
+        _compactRatio = compactRatio;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Open the store, replaying any existing segments to rebuild the index.
+     * @throws IOException if a segment cannot be read
+     */
+    public synchronized void open() throws IOException
+    {
+        if (_open)
+            return;
+
+        if (!_dir.exists())
+            _dir.mkdirs();
+
+        Map<Long,File> files = new HashMap<Long,File>();
+        String[] names = _dir.list();
+        for (int i=0;names!=null&&i<names.length;i++)
+        {
+            Matcher matcher = __segmentName.matcher(names[i]);
+            if (matcher.matches())
+                files.put(Long.valueOf(matcher.group(1)),new File(_dir,names[i]));
+        }
+
+        List<Long> sequences = new ArrayList<Long>(files.keySet());
+        Collections.sort(sequences);
+        for (Long sequence : sequences)
+        {
+            File file = files.get(sequence);
+            Segment segment = new Segment(file,(int)file.length());
+            _segments.add(segment);
+            replay(segment);
+            _nextSequence = sequence+1;
+        }
+
+        // Always append to a new segment, so that a torn tail is never overwritten
+        _head = null;
+        _open = true;
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Opened {} with {} sessions in {} segments",_dir,_index.size(),_segments.size());
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Close the store, forcing any appended records to disk.
+     * @throws IOException if the head segment cannot be forced
+     */
+    public synchronized void close() throws IOException
+    {
+        if (!_open)
+            return;
+        try
+        {
+            if (_head != null)
+                _head._buffer.force();
+        }
+        finally
+        {
+            _open = false;
+            _head = null;
+            _index.clear();
+            for (Segment segment : _segments)
+                unmap(segment._buffer);
+            _segments.clear();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Force the records appended to the head segment to disk.
+     */
+    public synchronized void flush()
+    {
+        if (_head != null)
+            _head._buffer.force();
+    }
+
+    /* ------------------------------------------------------------ */
+    public synchronized boolean isOpen()
+    {
+        return _open;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of sessions in the store
+     */
+    public synchronized int size()
+    {
+        return _index.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of segment files of the store
+     */
+    public synchronized int getSegmentCount()
+    {
+        return _segments.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return a copy of the ids of the sessions in the store
+     */
+    public synchronized Set<String> getIds()
+    {
+        return new HashSet<String>(_index.keySet());
+    }
+
+    /* ------------------------------------------------------------ */
+    public synchronized boolean contains(String id)
+    {
+        return _index.containsKey(id);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param id the session id
+     * @return a copy of the data last put for the session, or null
+     */
+    public synchronized byte[] get(String id)
+    {
+        Location location = _index.get(id);
+        if (location == null)
+            return null;
+
+        ByteBuffer buffer = location._segment._buffer.duplicate();
+        buffer.position(location._offset+HEADER+1);
+        int idLength = buffer.getShort()&0xffff;
+        byte[] data = new byte[location._length-HEADER-3-idLength];
+        buffer.position(buffer.position()+idLength);
+        buffer.get(data);
+        return data;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Append the data of a session, replacing any data previously put for it.
+     * @param id the session id
+     * @param data the session data
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized void put(String id, byte[] data) throws IOException
+    {
+        checkOpen();
+        Location location = append(PUT,id,data);
+        Location old = _index.put(id,location);
+        if (old != null)
+            old._segment._live -= old._length;
+        location._segment._live += location._length;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Remove the data of a session by appending a tombstone for it.
+     * @param id the session id
+     * @return true if the store held data for the session
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized boolean remove(String id) throws IOException
+    {
+        checkOpen();
+        Location old = _index.remove(id);
+        if (old == null)
+            return false;
+        old._segment._live -= old._length;
+        append(REMOVE,id,null);
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Remove all sessions, deleting every segment file.
+     */
+    public synchronized void clear()
+    {
+        checkOpen();
+        for (Segment segment : new ArrayList<Segment>(_segments))
+            retire(segment);
+        _index.clear();
+        _head = null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Compact the sealed segments whose ratio of live data has dropped below the
+     * compact ratio, oldest first. Each segment is compacted while holding the lock
+     * of the store, so puts and gets are only held up for one segment at a time.
+     * @return the number of segments compacted
+     * @throws IOException if a new segment cannot be created
+     */
+    public int compact() throws IOException
+    {
+        List<Segment> segments;
+        synchronized (this)
+        {
+            if (!_open)
+                return 0;
+            segments = new ArrayList<Segment>(_segments);
+        }
+
+        int compacted = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (this)
+            {
+                if (!_open || segment == _head || !_segments.contains(segment))
+                    continue;
+                if (segment._live > 0 && segment._live >= segment._position*_compactRatio)
+                    continue;
+                compact(segment);
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void compact(Segment segment) throws IOException
+    {
+        // Tombstones only need to be kept while an older segment may hold data they remove
+        boolean oldest = _segments.get(0) == segment;
+        ByteBuffer buffer = segment._buffer.duplicate();
+        int offset = 0;
+        while (offset < segment._position)
+        {
+            buffer.limit(segment._position);
+            buffer.position(offset);
+            int length = HEADER+buffer.getInt();
+            buffer.getInt(); // crc
+            byte type = buffer.get();
+            byte[] idBytes = new byte[buffer.getShort()&0xffff];
+            buffer.get(idBytes);
+            String id = new String(idBytes,StringUtil.__UTF8_CHARSET);
+
+            if (type == PUT)
+            {
+                Location location = _index.get(id);
+                if (location != null && location._segment == segment && location._offset == offset)
+                {
+                    buffer.limit(offset+length);
+                    buffer.position(offset);
+                    Location copy = appendRecord(buffer);
+                    _index.put(id,copy);
+                    segment._live -= length;
+                    copy._segment._live += length;
+                }
+            }
+            else if (!oldest && !_index.containsKey(id))
+            {
+                buffer.limit(offset+length);
+                buffer.position(offset);
+                appendRecord(buffer);
+            }
+            offset += length;
+        }
+
+        if (_head != null)
+            _head._buffer.force();
+        retire(segment);
+    }
+
+    /* ------------------------------------------------------------ */
+    private void replay(Segment segment)
+    {
+        ByteBuffer buffer = segment._buffer.duplicate();
+        CRC32 crc = new CRC32();
+        int offset = 0;
+        while (offset+HEADER <= buffer.capacity())
+        {
+            buffer.position(offset);
+            int bodyLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (bodyLength < 3 || bodyLength > buffer.remaining())
+                break;
+
+            byte[] body = new byte[bodyLength];
+            buffer.get(body);
+            crc.reset();
+            crc.update(body,0,bodyLength);
+            int idLength = ((body[1]&0xff)<<8)|(body[2]&0xff);
+            if ((int)crc.getValue() != checksum || 3+idLength > bodyLength)
+            {
+                LOG.warn("Ignoring corrupt session record at {} in {}",offset,segment._file);
+                break;
+            }
+
+            String id = new String(body,3,idLength,StringUtil.__UTF8_CHARSET);
+            int length = HEADER+bodyLength;
+            Location old;
+            if (body[0] == PUT)
+            {
+                old = _index.put(id,new Location(segment,offset,length));
+                segment._live += length;
+            }
+            else
+                old = _index.remove(id);
+            if (old != null)
+                old._segment._live -= old._length;
+
+            offset += length;
+        }
+        segment._position = offset;
+    }
+
+    /* ------------------------------------------------------------ */
+    private Location append(byte type, String id, byte[] data) throws IOException
+    {
+        byte[] idBytes = id.getBytes(StringUtil.__UTF8_CHARSET);
+        if (idBytes.length > 0xffff)
+            throw new IllegalArgumentException("Session id too long");
+        int dataLength = data == null?0:data.length;
+        int bodyLength = 3+idBytes.length+dataLength;
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(idBytes.length>>>8);
+        crc.update(idBytes.length);
+        crc.update(idBytes,0,idBytes.length);
+        if (data != null)
+            crc.update(data,0,dataLength);
+
+        Segment segment = ensureHead(HEADER+bodyLength);
+        int offset = segment._position;
+        ByteBuffer buffer = segment._buffer.duplicate();
+        buffer.position(offset);
+        buffer.putInt(bodyLength);
+        buffer.putInt((int)crc.getValue());
+        buffer.put(type);
+        buffer.putShort((short)idBytes.length);
+        buffer.put(idBytes);
+        if (data != null)
+            buffer.put(data);
+        segment._position = buffer.position();
+        return new Location(segment,offset,HEADER+bodyLength);
+    }
+
+    /* ------------------------------------------------------------ */
+    private Location appendRecord(ByteBuffer record) throws IOException
+    {
+        int length = record.remaining();
+        Segment segment = ensureHead(length);
+        int offset = segment._position;
+        ByteBuffer buffer = segment._buffer.duplicate();
+        buffer.position(offset);
+        buffer.put(record);
+        segment._position = buffer.position();
+        return new Location(segment,offset,length);
+    }
+
+    /* ------------------------------------------------------------ */
+    private Segment ensureHead(int length) throws IOException
+    {
+        if (_head == null || _head._buffer.capacity()-_head._position < length)
+        {
+            if (_head != null)
+                _head._buffer.force();
+            long sequence = _nextSequence++;
+            File file = new File(_dir,"segment-"+sequence+".sessions");
+            _head = new Segment(file,Math.max(_segmentSize,length));
+            _segments.add(_head);
+        }
+        return _head;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void retire(Segment segment)
+    {
+        // Mark the segment empty first, in case it cannot be unmapped and then deleted
+        if (segment._buffer.capacity() >= HEADER)
+        {
+            segment._buffer.putInt(0,0);
+            segment._buffer.force();
+        }
+        _segments.remove(segment);
+        if (segment == _head)
+            _head = null;
+        unmap(segment._buffer);
+        if (!segment._file.delete())
+            LOG.debug("Could not delete {}",segment._file);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Release the mapping of a buffer that is no longer used. If the JVM does not allow
+     * it, the mapping is released when the buffer is garbage collected.
+     * @param buffer the mapped buffer, which must not be accessed afterwards
+     */
+    private static void unmap(MappedByteBuffer buffer)
+    {
+        if (buffer.capacity() == 0)
+            return;
+        try
+        {
+            if (__invokeCleaner != null)
+                __invokeCleaner.invoke(__unsafe,buffer);
+            else
+            {
+                // Java 7 and 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.debug("Could not unmap segment",e);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void checkOpen()
+    {
+        if (!_open)
+            throw new IllegalStateException("Session store not open "+_dir);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,sessions=%d,segments=%d}",getClass().getSimpleName(),hashCode(),_dir,_index.size(),_segments.size());
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static class Segment
+    {
+        private final File _file;
+        private final MappedByteBuffer _buffer;
+        private int _position;
+        private int _live;
+
+        private Segment(File file, int size) throws IOException
+        {
+            _file = file;
+            RandomAccessFile raf = new RandomAccessFile(file,"rw");
+            try
+            {
+                // the mapping remains valid once the file is closed
+                _buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,0,size);
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static class Location
+    {
+        private final Segment _segment;
+        private final int _offset;
+        private final int _length;
+
+        private Location(Segment segment, int offset, int length)
+        {
+            _segment = segment;
+            _offset = offset;
+            _length = length;
+        }
+    }
+}
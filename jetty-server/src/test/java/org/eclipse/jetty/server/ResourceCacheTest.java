@@ -229,6 +229,125 @@ public class ResourceCacheTest
         cache.flushCache();
     }
 
+    @Test
+    public void testScanResistance() throws Exception
+    {
+        String[] names=createFiles(10,10);
+        Resource directory=Resource.newResource(new File(System.getProperty("java.io.tmpdir")).getAbsolutePath());
+
+        ResourceCache cache=new ResourceCache(null,directory,new MimeTypes(),false,false);
+        cache.setMaxCacheSize(1000);
+        cache.setMaxCachedFileSize(100);
+        cache.setMaxCachedFiles(5);
+
+        // Two contents are used twice and are promoted to the protected segment
+        HttpContent hot0=cache.lookup(names[0]);
+        HttpContent hot1=cache.lookup(names[1]);
+        assertTrue(hot0==cache.lookup(names[0]));
+        assertTrue(hot1==cache.lookup(names[1]));
+        assertEquals(2,cache.getHits());
+        assertEquals(2,cache.getMisses());
+
+        // A scan of contents used once does not evict them
+        for (int i=2;i<names.length;i++)
+            cache.lookup(names[i]);
+
+        assertEquals(5,cache.getCachedFiles());
+        assertEquals(5,cache.getEvictions());
+        assertTrue(hot0==cache.lookup(names[0]));
+        assertTrue(hot1==cache.lookup(names[1]));
+        assertTrue(hot0!=cache.lookup(names[2]));
+
+        cache.flushCache();
+        assertEquals(0,cache.getCachedSize());
+        assertEquals(0,cache.getCachedFiles());
+    }
+
+    @Test
+    public void testAdmission() throws Exception
+    {
+        String[] hot=createFiles(8,10);
+        String[] big=createFiles(1,30);
+        String[] small=createFiles(1,20);
+        Resource directory=Resource.newResource(new File(System.getProperty("java.io.tmpdir")).getAbsolutePath());
+
+        ResourceCache cache=new ResourceCache(null,directory,new MimeTypes(),false,false);
+        cache.setMaxCacheSize(100);
+        cache.setMaxCachedFileSize(50);
+        cache.setMaxCachedFiles(100);
+
+        for (String name : hot)
+        {
+            cache.lookup(name);
+            cache.lookup(name);
+        }
+        assertEquals(80,cache.getCachedSize());
+
+        // Would need to evict protected contents, so it is not admitted
+        assertTrue(cache.lookup(big[0]) instanceof HttpContent.ResourceAsHttpContent);
+        assertEquals(1,cache.getRejections());
+        assertEquals(80,cache.getCachedSize());
+
+        // Fits in the space not used by the protected segment
+        assertTrue(cache.lookup(small[0]) instanceof ResourceCache.Content);
+        assertEquals(100,cache.getCachedSize());
+        assertEquals(0,cache.getEvictions());
+
+        // Memory accounting of the loaded buffers
+        assertEquals(10,cache.lookup(hot[0]).getIndirectBuffer().remaining());
+        assertEquals(10,cache.getCachedHeapSize());
+        cache.flushCache();
+        assertEquals(0,cache.getCachedHeapSize());
+    }
+
+    @Test
+    public void testEvictionWeightedByHits() throws Exception
+    {
+        String[] names=createFiles(7,10);
+        Resource directory=Resource.newResource(new File(System.getProperty("java.io.tmpdir")).getAbsolutePath());
+
+        ResourceCache cache=new ResourceCache(null,directory,new MimeTypes(),false,false);
+        cache.setMaxCacheSize(1000);
+        cache.setMaxCachedFileSize(100);
+        cache.setMaxCachedFiles(6);
+
+        // Five contents are hit, the protected segment holds four of them so the first is demoted
+        HttpContent demoted=cache.lookup(names[0]);
+        for (int i=0;i<5;i++)
+        {
+            cache.lookup(names[i]);
+            cache.lookup(names[i]);
+        }
+
+        // A content that is never hit is more recently used than the demoted one
+        HttpContent cold=cache.lookup(names[5]);
+        assertEquals(6,cache.getCachedFiles());
+
+        // The content with fewer hits is evicted, not the least recently used one
+        cache.lookup(names[6]);
+        assertEquals(1,cache.getEvictions());
+        assertTrue(demoted==cache.lookup(names[0]));
+        assertTrue(cold!=cache.lookup(names[5]));
+
+        cache.flushCache();
+    }
+
+    private static String[] createFiles(int count, int length) throws Exception
+    {
+        String[] names=new String[count];
+        for (int i=0;i<count;i++)
+        {
+            File file=File.createTempFile("RC-"+i+"-",".txt");
+            file.deleteOnExit();
+            names[i]=file.getName();
+            FileOutputStream out = new FileOutputStream(file);
+            for (int j=0;j<length;j++)
+                out.write('x');
+            out.close();
+        }
+        return names;
+    }
+
     @Test
     public void testNoextension() throws Exception
     {
@@ -0,0 +1,208 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * HttpServer Tester with the aggregation of pipelined responses enabled.
+ */
+public class SelectChannelServerAggregationTest extends HttpServerTestBase
+{
+    @Before
+    public void init() throws Exception
+    {
+        ServerConnector connector = new ServerConnector(_server);
+        connector.getConnectionFactory(HttpConnectionFactory.class).getHttpConfiguration().setResponseAggregationSize(4096);
+        startServer(connector);
+    }
+
+    @Test
+    public void testAggregatedResponsesFlushedBeforePartialRequest() throws Exception
+    {
+        configureServer(new HelloWorldHandler());
+
+        try (Socket client = newSocket(_serverURI.getHost(), _serverURI.getPort()))
+        {
+            client.setSoTimeout(5000);
+            OutputStream os = client.getOutputStream();
+
+            String request = "GET / HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "\r\n";
+            String pipelined = "";
+            for (int i = 0; i < 10; i++)
+                pipelined += request;
+
+            // The last request is incomplete, so the aggregated responses
+            // must be written before the server waits for the rest of it
+            os.write((pipelined + "GET / HTTP/1.1\r\n").getBytes());
+            os.flush();
+
+            LineNumberReader in = new LineNumberReader(new InputStreamReader(client.getInputStream()));
+            for (int i = 0; i < 10; i++)
+                assertResponse(in);
+
+            os.write(("Host: localhost\r\n" +
+                    "Connection: close\r\n" +
+                    "\r\n").getBytes());
+            os.flush();
+            assertResponse(in);
+        }
+    }
+
+    @Test
+    public void testAggregatedResponseFlushedBeforeSlowRequest() throws Exception
+    {
+        SlowHandler handler = new SlowHandler(false);
+        configureServer(handler);
+        testAggregatedResponseFlushedBeforeSlowRequest(false);
+        assertNull(handler._failure.get());
+    }
+
+    @Test
+    public void testAggregatedResponseFlushedBeforeAsyncRequest() throws Exception
+    {
+        SlowHandler handler = new SlowHandler(true);
+        configureServer(handler);
+        testAggregatedResponseFlushedBeforeSlowRequest(true);
+        assertNull(handler._failure.get());
+    }
+
+    private void testAggregatedResponseFlushedBeforeSlowRequest(boolean async) throws Exception
+    {
+        try (Socket client = newSocket(_serverURI.getHost(), _serverURI.getPort()))
+        {
+            client.setSoTimeout(5000);
+            OutputStream os = client.getOutputStream();
+
+            // The second request takes 2s, the first response must not wait for it
+            os.write(("GET / HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "\r\n" +
+                    "GET /slow HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Connection: close\r\n" +
+                    "\r\n").getBytes());
+            os.flush();
+
+            long start = System.nanoTime();
+            LineNumberReader in = new LineNumberReader(new InputStreamReader(client.getInputStream()));
+            assertResponse(in);
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), Matchers.lessThan(1000L));
+            assertResponse(in);
+        }
+    }
+
+    private static class SlowHandler extends AbstractHandler
+    {
+        private final AtomicReference<Throwable> _failure = new AtomicReference<>();
+        private final boolean _async;
+
+        private SlowHandler(boolean async)
+        {
+            _async = async;
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException
+        {
+            baseRequest.setHandled(true);
+            if (!"/slow".equals(target))
+            {
+                respond(response);
+            }
+            else if (_async)
+            {
+                final AsyncContext async = request.startAsync();
+                new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            Thread.sleep(2000);
+                            respond(response);
+                        }
+                        catch (Throwable x)
+                        {
+                            _failure.set(x);
+                        }
+                        finally
+                        {
+                            async.complete();
+                        }
+                    }
+                }.start();
+            }
+            else
+            {
+                try
+                {
+                    Thread.sleep(2000);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new ServletException(e);
+                }
+                respond(response);
+            }
+        }
+
+        private void respond(HttpServletResponse response) throws IOException
+        {
+            response.setStatus(200);
+            response.getOutputStream().print("Hello world\r\n");
+        }
+    }
+
+    private void assertResponse(LineNumberReader in) throws Exception
+    {
+        assertEquals("HTTP/1.1 200 OK", in.readLine());
+        String line = in.readLine();
+        while (line.length() > 0)
+            line = in.readLine();
+        char[] content = new char[13];
+        int length = 0;
+        while (length < content.length)
+            length += in.read(content, length, content.length - length);
+        assertEquals("Hello world\r\n", new String(content));
+    }
+}
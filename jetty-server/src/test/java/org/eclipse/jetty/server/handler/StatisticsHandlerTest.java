@@ -19,8 +19,11 @@
 package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.servlet.AsyncContext;
@@ -40,6 +43,7 @@ import org.junit.Test;
 
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -214,6 +218,7 @@ public class StatisticsHandlerTest
         final long dispatchTime = 10;
         final long requestTime = 50;
         final AtomicReference<AsyncContext> asyncHolder = new AtomicReference<>();
+        final List<String> attributes = new CopyOnWriteArrayList<>();
         final CyclicBarrier barrier[] = {new CyclicBarrier(2), new CyclicBarrier(2), new CyclicBarrier(2)};
         _statsHandler.setHandler(new AbstractHandler()
         {
@@ -227,6 +232,7 @@ public class StatisticsHandlerTest
 
                     Thread.sleep(dispatchTime);
 
+                    attributes.addAll(Collections.list(request.getAttributeNames()));
                     if (asyncHolder.get() == null)
                         asyncHolder.set(request.startAsync());
                 }
@@ -276,6 +282,7 @@ public class StatisticsHandlerTest
 
         Thread.sleep(requestTime);
 
+        attributes.addAll(Collections.list(asyncHolder.get().getRequest().getAttributeNames()));
         asyncHolder.get().addListener(new AsyncListener()
         {
             @Override
@@ -336,6 +343,17 @@ public class StatisticsHandlerTest
         assertThat(_statsHandler.getDispatchedTimeTotal(), greaterThanOrEqualTo(dispatchTime * 2 * 3 / 4));
         assertTrue(_statsHandler.getDispatchedTimeMean() + dispatchTime <= _statsHandler.getDispatchedTimeTotal());
         assertTrue(_statsHandler.getDispatchedTimeMax() + dispatchTime <= _statsHandler.getDispatchedTimeTotal());
+
+        assertEquals(1, _statsHandler.getRequestTimeHistogram().getCount());
+        assertThat(_statsHandler.getRequestTimeP99(), greaterThanOrEqualTo(_statsHandler.getRequestTimeMax()));
+        assertEquals(2, _statsHandler.getDispatchedTimeHistogram().getCount());
+        assertThat(_statsHandler.getDispatchedTimeP999(), greaterThanOrEqualTo(_statsHandler.getDispatchedTimeMax()));
+        assertEquals(1, _statsHandler.getAsyncWaitTimeHistogram().getCount());
+        assertThat(_statsHandler.getAsyncWaitTimeP50(), greaterThanOrEqualTo(requestTime * 3 / 4));
+
+        // The statistics are not kept in attributes visible to the application
+        for (String attribute : attributes)
+            assertFalse(attribute, attribute.startsWith(StatisticsHandler.class.getName()));
     }
 
     @Test
@@ -0,0 +1,73 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BinarySessionDataCodecTest
+{
+    private final BinarySessionDataCodec _codec = new BinarySessionDataCodec();
+
+    @Test
+    public void testEncodeDecode() throws Exception
+    {
+        List<Object> values = Arrays.<Object>asList("value", "", "\u00e9t\u00e9", Integer.MIN_VALUE, Long.MAX_VALUE, Boolean.TRUE,
+                (byte)-1, (short)12345, 'c', 1.5f, Math.PI, new Date(0), Arrays.asList("a","b"));
+        for (Object value : values)
+            assertEquals(value, _codec.decode(_codec.encode(value)));
+
+        byte[] bytes = new byte[]{0,1,2,3};
+        assertArrayEquals(bytes, (byte[])_codec.decode(_codec.encode(bytes)));
+    }
+
+    @Test
+    public void testCompact() throws Exception
+    {
+        assertEquals(5, _codec.encode(42).length);
+        assertEquals(6, _codec.encode("value").length);
+        assertTrue(_codec.encode(42).length < serialize(42).length);
+    }
+
+    @Test
+    public void testDecodeSerialized() throws Exception
+    {
+        // values saved with java serialization, before the codec was used
+        assertEquals(42, _codec.decode(serialize(42)));
+        assertEquals("value", _codec.decode(serialize("value")));
+    }
+
+    private byte[] serialize(Object value) throws Exception
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(value);
+        out.flush();
+        return bout.toByteArray();
+    }
+}
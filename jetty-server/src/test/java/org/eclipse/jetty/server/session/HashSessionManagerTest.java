@@ -18,7 +18,13 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.Assert;
 
@@ -135,4 +141,132 @@ public class HashSessionManagerTest
         Assert.assertEquals(1, ((Integer)o).intValue());
         Assert.assertEquals(5, restoredSession.getMaxInactiveInterval());     
     }
+
+    @Test
+    public void testHashSessionWithCodec() throws Exception
+    {
+        final List<Object> encoded = new ArrayList<Object>();
+        HashSessionManager manager = new HashSessionManager();
+        manager.setSessionDataCodec(new BinarySessionDataCodec()
+        {
+            @Override
+            public byte[] encode(Object value) throws IOException
+            {
+                encoded.add(value);
+                return super.encode(value);
+            }
+        });
+        HashSessionIdManager idManager = new HashSessionIdManager();
+        idManager.setWorkerName("foo");
+        manager.setSessionIdManager(idManager);
+
+        idManager.start();
+        manager.start();
+        try
+        {
+            HashedSession session = (HashedSession)manager.newHttpSession(new Request(null, null));
+            ArrayList<String> cart = new ArrayList<String>(Arrays.asList("a","b","c"));
+            session.setAttribute("cart", cart);
+            session.setAttribute("count", 1);
+            Assert.assertTrue(session.isDirty());
+
+            session.save(new ByteArrayOutputStream());
+            Assert.assertEquals(2, encoded.size());
+            Assert.assertFalse(session.isDirty());
+
+            //only the changed attribute is encoded again
+            encoded.clear();
+            session.setAttribute("count", 2);
+            session.setAttribute("bytes", new byte[]{1,2,3});
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            session.save(out);
+            Assert.assertEquals(2, encoded.size());
+            Assert.assertTrue(encoded.contains(2));
+            Assert.assertFalse(encoded.contains(cart));
+
+            HashedSession restoredSession = manager.restoreSession(new ByteArrayInputStream(out.toByteArray()), null);
+            Assert.assertEquals(session.getId(), restoredSession.getId());
+            Assert.assertEquals(cart, restoredSession.getAttribute("cart"));
+            Assert.assertEquals(2, restoredSession.getAttribute("count"));
+            Assert.assertTrue(Arrays.equals(new byte[]{1,2,3}, (byte[])restoredSession.getAttribute("bytes")));
+            Assert.assertFalse(restoredSession.isDirty());
+
+            //a restored session does not encode its attributes again
+            encoded.clear();
+            restoredSession.save(new ByteArrayOutputStream());
+            Assert.assertEquals(0, encoded.size());
+        }
+        finally
+        {
+            manager.stop();
+            idManager.stop();
+        }
+    }
+
+    @Test
+    public void testHashSessionWithSegmentStore() throws Exception
+    {
+        File testDir = MavenTestingUtils.getTargetTestingDir("segments");
+        testDir.mkdirs();
+        HashSessionManager manager = new HashSessionManager();
+        manager.setStoreDirectory(testDir);
+        manager.setUseSegmentStore(true);
+        manager.setSegmentSize(4096);
+
+        HashSessionIdManager idManager = new HashSessionIdManager();
+        idManager.setWorkerName("foo");
+        manager.setSessionIdManager(idManager);
+
+        idManager.start();
+        manager.start();
+
+        List<String> ids = new ArrayList<String>();
+        for (int i=0;i<100;i++)
+        {
+            HashedSession session = (HashedSession)manager.newHttpSession(new Request(null, null));
+            session.setAttribute("index", i);
+            ids.add(session.getId());
+        }
+
+        //idle a session and bring it back from the store
+        HashedSession idled = (HashedSession)manager.getSession(ids.get(0));
+        idled.idle();
+        Assert.assertTrue(idled.isIdled());
+        Assert.assertTrue(manager.getSegmentStore().contains(ids.get(0)));
+        idled.deIdle();
+        Assert.assertEquals(0, idled.getAttribute("index"));
+        Assert.assertFalse(manager.getSegmentStore().contains(ids.get(0)));
+
+        //an invalidated session is not restored
+        manager.getSession(ids.get(1)).invalidate();
+
+        //stop will persist sessions
+        manager.stop();
+        idManager.stop();
+
+        String[] files = testDir.list();
+        Assert.assertTrue(files.length > 0);
+        for (String file : files)
+            Assert.assertTrue(file, SessionSegmentStore.isSegmentFile(file));
+
+        //start will restore sessions
+        idManager.start();
+        manager.start();
+        try
+        {
+            Assert.assertNull(manager.getSession(ids.get(1)));
+            for (int i=2;i<ids.size();i++)
+            {
+                HashedSession restoredSession = (HashedSession)manager.getSession(ids.get(i));
+                Assert.assertNotNull(restoredSession);
+                Assert.assertEquals(i, restoredSession.getAttribute("index"));
+            }
+            Assert.assertEquals(0, manager.getSegmentStore().size());
+        }
+        finally
+        {
+            manager.stop();
+            idManager.stop();
+        }
+    }
 }
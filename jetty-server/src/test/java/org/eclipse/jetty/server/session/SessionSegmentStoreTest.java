@@ -0,0 +1,210 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.eclipse.jetty.toolchain.test.FS;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionSegmentStoreTest
+{
+    private File _dir;
+
+    @Before
+    public void init()
+    {
+        _dir = MavenTestingUtils.getTargetTestingDir(SessionSegmentStoreTest.class.getSimpleName());
+        FS.ensureEmpty(_dir);
+    }
+
+    private static byte[] data(int i, int length)
+    {
+        byte[] data = new byte[length];
+        Arrays.fill(data,(byte)i);
+        return data;
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception
+    {
+        SessionSegmentStore store = new SessionSegmentStore(_dir,1024);
+        store.open();
+        assertNull(store.get("one"));
+
+        store.put("one",data(1,10));
+        store.put("two",data(2,20));
+        store.put("one",data(3,30));
+        assertEquals(2,store.size());
+        assertArrayEquals(data(3,30),store.get("one"));
+        assertArrayEquals(data(2,20),store.get("two"));
+
+        assertTrue(store.remove("two"));
+        assertFalse(store.remove("two"));
+        assertNull(store.get("two"));
+
+        //a record larger than the segment size gets a segment of its own
+        store.put("big",data(4,4000));
+        assertArrayEquals(data(4,4000),store.get("big"));
+        assertEquals(2,store.getSegmentCount());
+        store.close();
+    }
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        SessionSegmentStore store = new SessionSegmentStore(_dir,256);
+        store.open();
+        for (int i=0;i<50;i++)
+            store.put("s"+i,data(i,i));
+        for (int i=0;i<50;i+=2)
+            store.remove("s"+i);
+        store.put("s1",data(99,5));
+        store.close();
+
+        store = new SessionSegmentStore(_dir,256);
+        store.open();
+        assertEquals(25,store.size());
+        assertNull(store.get("s0"));
+        assertArrayEquals(data(99,5),store.get("s1"));
+        assertArrayEquals(data(49,49),store.get("s49"));
+        store.close();
+    }
+
+    @Test
+    public void testCompact() throws Exception
+    {
+        SessionSegmentStore store = new SessionSegmentStore(_dir,256);
+        store.open();
+        for (int i=0;i<100;i++)
+            store.put("s"+i,data(i,20));
+        int segments = store.getSegmentCount();
+        assertTrue(segments > 5);
+
+        for (int i=0;i<100;i++)
+        {
+            if (i%10!=0)
+                store.remove("s"+i);
+        }
+
+        assertTrue(store.compact() > 0);
+        assertTrue(store.getSegmentCount() < segments);
+        assertEquals(store.getSegmentCount(),_dir.list().length);
+        assertEquals(10,store.size());
+        for (int i=0;i<100;i+=10)
+            assertArrayEquals(data(i,20),store.get("s"+i));
+        store.close();
+
+        //removed sessions stay removed after compaction dropped their tombstones
+        store = new SessionSegmentStore(_dir,256);
+        store.open();
+        assertEquals(10,store.size());
+        assertNull(store.get("s1"));
+        assertArrayEquals(data(90,20),store.get("s90"));
+
+        store.clear();
+        assertEquals(0,store.size());
+        assertEquals(0,_dir.list().length);
+        store.close();
+    }
+
+    @Test
+    public void testRetiredSegmentsAreUnmapped() throws Exception
+    {
+        // the mappings of the process are only listed on linux
+        File maps = new File("/proc/self/maps");
+        Assume.assumeTrue(maps.exists());
+
+        SessionSegmentStore store = new SessionSegmentStore(_dir,256);
+        store.open();
+        for (int i=0;i<100;i++)
+            store.put("s"+i,data(i,20));
+        assertTrue(mappedSegments(maps) > 5);
+
+        for (int i=0;i<100;i++)
+            store.remove("s"+i);
+        assertTrue(store.compact() > 0);
+        assertEquals(store.getSegmentCount(),mappedSegments(maps));
+
+        store.close();
+        assertEquals(0,mappedSegments(maps));
+    }
+
+    private int mappedSegments(File maps) throws Exception
+    {
+        int count = 0;
+        for (String line : Files.readAllLines(maps.toPath(),StandardCharsets.UTF_8))
+        {
+            if (line.contains(_dir.getAbsolutePath()+File.separator+"segment-"))
+                count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testTornRecord() throws Exception
+    {
+        SessionSegmentStore store = new SessionSegmentStore(_dir,1024);
+        store.open();
+        store.put("one",data(1,10));
+        store.put("two",data(2,10));
+        store.close();
+
+        //corrupt the data of the last record
+        File segment = new File(_dir,_dir.list()[0]);
+        RandomAccessFile raf = new RandomAccessFile(segment,"rw");
+        try
+        {
+            raf.seek(2*(8+3+3+10)-1);
+            raf.write(0x7F);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        store = new SessionSegmentStore(_dir,1024);
+        store.open();
+        assertArrayEquals(data(1,10),store.get("one"));
+        assertNull(store.get("two"));
+
+        //new records are appended to a new segment
+        store.put("three",data(3,10));
+        store.close();
+        store = new SessionSegmentStore(_dir,1024);
+        store.open();
+        assertEquals(2,store.size());
+        assertArrayEquals(data(3,10),store.get("three"));
+        store.close();
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.servlet;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -25,6 +26,8 @@ import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Enumeration;
 import java.util.List;
 
@@ -150,6 +153,7 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
 
     private Resource _resourceBase;
     private ResourceCache _cache;
+    private boolean _cacheCreated;
 
     private MimeTypes _mimeTypes;
     private String[] _welcomes;
@@ -259,6 +263,10 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                     _cache.setMaxCachedFileSize(max_cached_file_size);
                 if (max_cached_files>=-1)
                     _cache.setMaxCachedFiles(max_cached_files);
+
+                // make the cache statistics available via JMX
+                _contextHandler.addBean(_cache);
+                _cacheCreated=true;
             }
         }
         catch (Exception e)
@@ -914,7 +922,18 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                 response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
                 response.setHeader(HttpHeader.CONTENT_RANGE.asString(),
                         singleSatisfiableRange.toHeaderRangeString(content_length));
-                resource.writeTo(out,singleSatisfiableRange.getFirst(content_length),singleLength);
+                long first=singleSatisfiableRange.getFirst(content_length);
+                File file=resource.getFile();
+                // if possible, bypass the output buffer so that the range can be transferred without copies
+                if (!include && !written && out instanceof HttpOutput && file!=null && file.isFile())
+                {
+                    try (FileChannel channel=FileChannel.open(file.toPath(),StandardOpenOption.READ))
+                    {
+                        ((HttpOutput)out).sendContent(channel,first,singleLength);
+                    }
+                }
+                else
+                    resource.writeTo(out,first,singleLength);
                 return;
             }
 
@@ -1074,7 +1093,12 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
     public void destroy()
     {
         if (_cache!=null)
+        {
             _cache.flushCache();
+            // a shared resourceCache is not a bean of this servlet
+            if (_cacheCreated)
+                _contextHandler.removeBean(_cache);
+        }
         super.destroy();
     }
 
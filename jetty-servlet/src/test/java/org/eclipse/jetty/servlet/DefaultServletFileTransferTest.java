@@ -0,0 +1,162 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.toolchain.test.FS;
+import org.eclipse.jetty.toolchain.test.TestingDir;
+import org.eclipse.jetty.util.IO;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests the zero-copy transfer of files over a plain network connector.
+ */
+public class DefaultServletFileTransferTest
+{
+    @Rule
+    public TestingDir testdir = new TestingDir();
+
+    private Server server;
+    private ServerConnector connector;
+    private StatisticsHandler statistics;
+    private byte[] data;
+
+    @Before
+    public void init() throws Exception
+    {
+        server = new Server();
+        connector = new ServerConnector(server);
+        server.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/context");
+        statistics = new StatisticsHandler();
+        statistics.setHandler(context);
+        server.setHandler(statistics);
+
+        testdir.ensureEmpty();
+        File resBase = testdir.getFile("docroot");
+        FS.ensureDirExists(resBase);
+
+        // Large enough to be bigger than the output buffer and to congest the socket
+        data = new byte[4 * 1024 * 1024];
+        for (int i = 0; i < data.length; ++i)
+            data[i] = (byte)('a' + i % 26);
+        try (OutputStream out = new FileOutputStream(new File(resBase, "data.bin")))
+        {
+            out.write(data);
+        }
+
+        ServletHolder defholder = context.addServlet(DefaultServlet.class, "/");
+        defholder.setInitParameter("acceptRanges", "true");
+        defholder.setInitParameter("resourceBase", resBase.getAbsolutePath());
+
+        server.start();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        server.stop();
+        server.join();
+    }
+
+    @Test
+    public void testFullContent() throws Exception
+    {
+        byte[] response = request("GET /context/data.bin HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Connection: close\r\n" +
+                "\r\n");
+        assertContent(response, "200 OK", data);
+
+        // The transferred bytes are counted as response content
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (statistics.getResponsesBytesTotal() < data.length && System.nanoTime() < end)
+            Thread.sleep(10);
+        assertEquals(data.length, statistics.getResponsesBytesTotal());
+    }
+
+    @Test
+    public void testSingleRange() throws Exception
+    {
+        byte[] response = request("GET /context/data.bin HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Connection: close\r\n" +
+                "Range: bytes=100-2000099\r\n" +
+                "\r\n");
+        assertContent(response, "206 Partial", Arrays.copyOfRange(data, 100, 2000100));
+    }
+
+    @Test
+    public void testHead() throws Exception
+    {
+        byte[] response = request("HEAD /context/data.bin HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Connection: close\r\n" +
+                "\r\n");
+        assertContent(response, "200 OK", new byte[0]);
+    }
+
+    private byte[] request(String request) throws Exception
+    {
+        try (Socket socket = new Socket("localhost", connector.getLocalPort()))
+        {
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+            // Read slowly at first, so that the server socket becomes congested
+            Thread.sleep(500);
+            InputStream input = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            IO.copy(input, response);
+            return response.toByteArray();
+        }
+    }
+
+    private void assertContent(byte[] response, String status, byte[] content)
+    {
+        String text = new String(response, StandardCharsets.ISO_8859_1);
+        int headerEnd = text.indexOf("\r\n\r\n") + 4;
+        String header = text.substring(0, headerEnd);
+        assertThat(header, Matchers.containsString(status));
+        assertThat(header, Matchers.containsString("Content-Length: " + (content.length > 0 ? content.length : data.length)));
+        assertEquals(content.length, response.length - headerEnd);
+        assertArrayEquals(content, Arrays.copyOfRange(response, headerEnd, response.length));
+    }
+}
@@ -30,6 +30,7 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.net.ssl.SSLEngine;
 
 import org.eclipse.jetty.io.ByteBufferPool;
@@ -40,12 +41,15 @@ import org.eclipse.jetty.io.SelectChannelEndPoint;
 import org.eclipse.jetty.io.SelectorManager;
 import org.eclipse.jetty.io.ssl.SslConnection;
 import org.eclipse.jetty.io.ssl.SslConnection.DecryptedEndPoint;
+import org.eclipse.jetty.spdy.CompressionFactory;
 import org.eclipse.jetty.spdy.FlowControlStrategy;
+import org.eclipse.jetty.spdy.StandardCompressionFactory;
 import org.eclipse.jetty.spdy.api.GoAwayInfo;
 import org.eclipse.jetty.spdy.api.Session;
 import org.eclipse.jetty.spdy.api.SessionFrameListener;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.FuturePromise;
+import org.eclipse.jetty.util.Promise;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
@@ -88,6 +92,21 @@ public class SPDYClient
     }
 
     public Future<Session> connect(InetSocketAddress address, SessionFrameListener listener) throws IOException
+    {
+        return connect(address, listener, null);
+    }
+
+    /**
+     * <p>Connects asynchronously to the given address, notifying the given promise
+     * when the {@link Session} is established or when the connection fails.</p>
+     *
+     * @param address the address to connect to
+     * @param listener the listener of session events
+     * @param promise the promise notified of the session, or null
+     * @return a future for the session
+     * @throws IOException if the socket channel cannot be opened
+     */
+    public Future<Session> connect(InetSocketAddress address, SessionFrameListener listener, Promise<Session> promise) throws IOException
     {
         if (!factory.isStarted())
             throw new IllegalStateException(Factory.class.getSimpleName() + " is not started");
@@ -98,7 +117,7 @@ public class SPDYClient
         channel.socket().setTcpNoDelay(true);
         channel.configureBlocking(false);
 
-        SessionPromise result = new SessionPromise(channel, this, listener);
+        SessionPromise result = new SessionPromise(channel, this, listener, promise);
 
         channel.connect(address);
         factory.selector.connect(channel, result);
@@ -176,6 +195,7 @@ public class SPDYClient
         private final SelectorManager selector;
         private final long idleTimeout;
         private long connectTimeout = 15000;
+        private CompressionFactory compressionFactory;
 
         public Factory()
         {
@@ -223,6 +243,8 @@ public class SPDYClient
             selector = new ClientSelectorManager(executor, scheduler);
             selector.setConnectTimeout(getConnectTimeout());
             addBean(selector);
+
+            setCompressionFactory(new StandardCompressionFactory());
         }
 
         public ByteBufferPool getByteBufferPool()
@@ -250,6 +272,20 @@ public class SPDYClient
             this.connectTimeout = connectTimeout;
         }
 
+        public CompressionFactory getCompressionFactory()
+        {
+            return compressionFactory;
+        }
+
+        /**
+         * @param compressionFactory the factory of the headers compression contexts, shared by all the sessions
+         */
+        public void setCompressionFactory(CompressionFactory compressionFactory)
+        {
+            updateBean(this.compressionFactory, compressionFactory);
+            this.compressionFactory = compressionFactory;
+        }
+
         public SPDYClient newSPDYClient(short version)
         {
             return new SPDYClient(version, this);
@@ -306,6 +342,13 @@ public class SPDYClient
                 return new SelectChannelEndPoint(channel, selectSet, key, getScheduler(), clientIdleTimeout);
             }
 
+            @Override
+            protected void connectionFailed(SocketChannel channel, Throwable ex, Object attachment)
+            {
+                SessionPromise sessionPromise = (SessionPromise)attachment;
+                sessionPromise.failed(ex);
+            }
+
             @Override
             public Connection newConnection(final SocketChannel channel, EndPoint endPoint, final Object attachment)
             {
@@ -340,14 +383,33 @@ public class SPDYClient
     static class SessionPromise extends FuturePromise<Session>
     {
         private final SocketChannel channel;
+        private final Promise<Session> promise;
+        private final AtomicBoolean notified = new AtomicBoolean();
         final SPDYClient client;
         final SessionFrameListener listener;
 
-        private SessionPromise(SocketChannel channel, SPDYClient client, SessionFrameListener listener)
+        private SessionPromise(SocketChannel channel, SPDYClient client, SessionFrameListener listener, Promise<Session> promise)
         {
             this.channel = channel;
             this.client = client;
             this.listener = listener;
+            this.promise = promise;
+        }
+
+        @Override
+        public void succeeded(Session session)
+        {
+            super.succeeded(session);
+            if (promise != null && notified.compareAndSet(false, true))
+                promise.succeeded(session);
+        }
+
+        @Override
+        public void failed(Throwable cause)
+        {
+            super.failed(cause);
+            if (promise != null && notified.compareAndSet(false, true))
+                promise.failed(cause);
         }
 
         @Override
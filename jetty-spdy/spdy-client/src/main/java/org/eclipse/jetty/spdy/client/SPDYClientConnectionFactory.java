@@ -25,7 +25,6 @@ import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.spdy.CompressionFactory;
 import org.eclipse.jetty.spdy.FlowControlStrategy;
-import org.eclipse.jetty.spdy.StandardCompressionFactory;
 import org.eclipse.jetty.spdy.StandardSession;
 import org.eclipse.jetty.spdy.client.SPDYClient.Factory;
 import org.eclipse.jetty.spdy.client.SPDYClient.SessionPromise;
@@ -41,11 +40,14 @@ public class SPDYClientConnectionFactory
         Factory factory = client.factory;
         ByteBufferPool bufferPool = factory.getByteBufferPool();
 
-        CompressionFactory compressionFactory = new StandardCompressionFactory();
-        Parser parser = new Parser(compressionFactory.newDecompressor());
-        Generator generator = new Generator(bufferPool, compressionFactory.newCompressor());
+        CompressionFactory compressionFactory = factory.getCompressionFactory();
+        CompressionFactory.Compressor compressor = compressionFactory.newCompressor();
+        CompressionFactory.Decompressor decompressor = compressionFactory.newDecompressor();
+        Parser parser = new Parser(decompressor);
+        Generator generator = new Generator(bufferPool, compressor);
 
-        SPDYConnection connection = new ClientSPDYConnection(endPoint, bufferPool, parser, factory, client.isExecuteOnFillable());
+        SPDYConnection connection = new ClientSPDYConnection(endPoint, bufferPool, parser, factory,
+                client.isExecuteOnFillable(), compressor, decompressor);
 
         FlowControlStrategy flowControlStrategy = client.newFlowControlStrategy();
 
@@ -65,12 +67,17 @@ public class SPDYClientConnectionFactory
     private class ClientSPDYConnection extends SPDYConnection
     {
         private final Factory factory;
+        private final CompressionFactory.Compressor compressor;
+        private final CompressionFactory.Decompressor decompressor;
 
         public ClientSPDYConnection(EndPoint endPoint, ByteBufferPool bufferPool, Parser parser, Factory factory,
-                                    boolean executeOnFillable)
+                                    boolean executeOnFillable, CompressionFactory.Compressor compressor,
+                                    CompressionFactory.Decompressor decompressor)
         {
             super(endPoint, bufferPool, parser, factory.getExecutor(), executeOnFillable);
             this.factory = factory;
+            this.compressor = compressor;
+            this.decompressor = decompressor;
         }
 
         @Override
@@ -78,6 +85,9 @@ public class SPDYClientConnectionFactory
         {
             super.onClose();
             factory.sessionClosed(getSession());
+            // Release the compression contexts of the session
+            compressor.end();
+            decompressor.end();
         }
     }
 }
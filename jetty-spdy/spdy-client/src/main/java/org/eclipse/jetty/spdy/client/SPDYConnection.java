@@ -77,6 +77,13 @@ public class SPDYConnection extends AbstractConnection implements Controller, Id
         fillInterested();
     }
 
+    @Override
+    protected boolean isNonBlocking()
+    {
+        // Application code is always dispatched, so reading never blocks
+        return true;
+    }
+
     @Override
     public void onFillable()
     {
@@ -126,10 +133,10 @@ public class SPDYConnection extends AbstractConnection implements Controller, Id
     }
 
     @Override
-    public void write(ByteBuffer buffer, final Callback callback)
+    public void write(final Callback callback, ByteBuffer... buffers)
     {
         EndPoint endPoint = getEndPoint();
-        endPoint.write(callback, buffer);
+        endPoint.write(callback, buffers);
     }
 
     @Override
@@ -0,0 +1,611 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+
+/**
+ * <p>A {@link CompressionFactory} that bounds the number of zlib contexts alive across all
+ * the sessions that share it.</p>
+ * <p>Each SPDY session has its own compression and decompression contexts, that live as long
+ * as the session. Native zlib memory (about 256 KiB for a compressor and 40 KiB for a
+ * decompressor) is therefore retained by every session, even if idle.</p>
+ * <p>This factory keeps at most {@link #getMaxCompressors()} compressors alive, and releases
+ * those that have not been used for {@link #getMaxIdleTime()} milliseconds; the least recently
+ * used are released first. A released compressor is recreated on demand as a raw deflate stream
+ * that continues the original one. This works because SPDY flushes header blocks with
+ * {@link Deflater#SYNC_FLUSH}, so that every header block ends on a deflate block boundary.
+ * The recreated compressor is primed with the previous header block only, which it keeps by
+ * reference rather than copying it, since the header blocks are not reused once compressed;
+ * it does not refer back to the bytes compressed before that block.</p>
+ * <p>Decompressors are not bounded by default. A released decompressor must be primed with the
+ * bytes the remote peer may still refer back to, up to the window size it announced, and the
+ * window of a live {@link Inflater} cannot be read back, so a bounded decompressor retains a
+ * copy of it on heap, which costs about as much as the native context it replaces. Set
+ * {@link #setMaxDecompressors(int)} only when native memory is scarcer than heap.</p>
+ * <p>Contexts are released when their session is closed, via {@link Compressor#end()} and
+ * {@link Decompressor#end()}.</p>
+ */
+@ManagedObject("Bounded SPDY headers compression")
+public class BoundedCompressionFactory implements CompressionFactory
+{
+    private static final Logger LOG = Log.getLogger(BoundedCompressionFactory.class);
+
+    private final Map<Context, Boolean> compressors = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Context, Boolean> decompressors = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong inflatedBytes = new AtomicLong();
+    private final AtomicLong deflatedBytes = new AtomicLong();
+    private final AtomicLong releasedContexts = new AtomicLong();
+    private final AtomicLong resumedContexts = new AtomicLong();
+    private final SampleStatistic compressionTime = new SampleStatistic();
+    private final SampleStatistic decompressionTime = new SampleStatistic();
+    private int maxCompressors = 128;
+    private int maxDecompressors = -1;
+    private long maxIdleTime = 30000;
+
+    @Override
+    public Compressor newCompressor()
+    {
+        return new BoundedCompressor();
+    }
+
+    @Override
+    public Decompressor newDecompressor()
+    {
+        return new BoundedDecompressor();
+    }
+
+    @ManagedAttribute("The max number of compressors alive, or -1 for no limit")
+    public int getMaxCompressors()
+    {
+        return maxCompressors;
+    }
+
+    public void setMaxCompressors(int maxCompressors)
+    {
+        this.maxCompressors = maxCompressors;
+    }
+
+    @ManagedAttribute("The max number of decompressors alive, or -1 for no limit and no decompression history")
+    public int getMaxDecompressors()
+    {
+        return maxDecompressors;
+    }
+
+    public void setMaxDecompressors(int maxDecompressors)
+    {
+        this.maxDecompressors = maxDecompressors;
+    }
+
+    @ManagedAttribute("The idle time in ms after which a bounded compression context is released, or -1 to never release it")
+    public long getMaxIdleTime()
+    {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(long maxIdleTime)
+    {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    @ManagedAttribute("The number of compressors alive")
+    public int getCompressors()
+    {
+        synchronized (compressors)
+        {
+            return compressors.size();
+        }
+    }
+
+    @ManagedAttribute("The number of decompressors alive")
+    public int getDecompressors()
+    {
+        synchronized (decompressors)
+        {
+            return decompressors.size();
+        }
+    }
+
+    @ManagedAttribute("The number of compression contexts released")
+    public long getReleasedContexts()
+    {
+        return releasedContexts.get();
+    }
+
+    @ManagedAttribute("The number of compression contexts recreated after having been released")
+    public long getResumedContexts()
+    {
+        return resumedContexts.get();
+    }
+
+    @ManagedAttribute("The ratio between compressed and uncompressed bytes of the generated headers")
+    public double getCompressionRatio()
+    {
+        return ratio(compressedBytes.get(), uncompressedBytes.get());
+    }
+
+    @ManagedAttribute("The ratio between compressed and uncompressed bytes of the parsed headers")
+    public double getDecompressionRatio()
+    {
+        return ratio(deflatedBytes.get(), inflatedBytes.get());
+    }
+
+    private double ratio(long compressed, long uncompressed)
+    {
+        return uncompressed == 0 ? 0 : (double)compressed / uncompressed;
+    }
+
+    @ManagedAttribute("The number of headers blocks compressed")
+    public long getCompressions()
+    {
+        return compressionTime.getCount();
+    }
+
+    @ManagedAttribute("The mean time in microseconds to compress a headers block")
+    public double getCompressionTimeMean()
+    {
+        return compressionTime.getMean();
+    }
+
+    @ManagedAttribute("The max time in microseconds to compress a headers block")
+    public long getCompressionTimeMax()
+    {
+        return compressionTime.getMax();
+    }
+
+    @ManagedAttribute("The number of headers blocks decompressed")
+    public long getDecompressions()
+    {
+        return decompressionTime.getCount();
+    }
+
+    @ManagedAttribute("The mean time in microseconds to decompress a headers block")
+    public double getDecompressionTimeMean()
+    {
+        return decompressionTime.getMean();
+    }
+
+    @ManagedAttribute("The max time in microseconds to decompress a headers block")
+    public long getDecompressionTimeMax()
+    {
+        return decompressionTime.getMax();
+    }
+
+    @ManagedOperation("Resets the statistics")
+    public void resetStatistics()
+    {
+        uncompressedBytes.set(0);
+        compressedBytes.set(0);
+        inflatedBytes.set(0);
+        deflatedBytes.set(0);
+        releasedContexts.set(0);
+        resumedContexts.set(0);
+        compressionTime.reset();
+        decompressionTime.reset();
+    }
+
+    /**
+     * <p>Records that the given context is in use, and collects the contexts
+     * that must be released because in excess or idle.</p>
+     */
+    private void acquired(Context context, Map<Context, Boolean> contexts, int maxContexts)
+    {
+        List<Context> candidates = null;
+        synchronized (contexts)
+        {
+            contexts.put(context, Boolean.TRUE);
+
+            long now = System.nanoTime();
+            long maxIdleTime = TimeUnit.MILLISECONDS.toNanos(getMaxIdleTime());
+            Iterator<Context> iterator = contexts.keySet().iterator();
+            while (iterator.hasNext())
+            {
+                Context candidate = iterator.next();
+                if (candidate == context)
+                    break;
+                boolean excess = maxContexts >= 0 && contexts.size() > maxContexts;
+                boolean idle = maxIdleTime >= 0 && now - candidate.lastUsed > maxIdleTime;
+                if (!excess && !idle)
+                    break;
+                iterator.remove();
+                if (candidates == null)
+                    candidates = new ArrayList<>();
+                candidates.add(candidate);
+            }
+        }
+
+        if (candidates == null)
+            return;
+
+        // Release the candidates outside the lock, skipping those that are in use
+        List<Context> busy = null;
+        for (Context candidate : candidates)
+        {
+            if (candidate.release())
+            {
+                releasedContexts.incrementAndGet();
+                LOG.debug("Released {}", candidate);
+            }
+            else
+            {
+                if (busy == null)
+                    busy = new ArrayList<>();
+                busy.add(candidate);
+            }
+        }
+
+        if (busy != null)
+        {
+            synchronized (contexts)
+            {
+                for (Context candidate : busy)
+                    contexts.put(candidate, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * <p>The state shared by compression and decompression contexts.</p>
+     * <p>A context is in use from the moment it receives the input of a headers block until
+     * it has produced all the output for it. While in use, the zlib context cannot be released;
+     * a context that is not in use may be released by other sessions that acquire a context.</p>
+     */
+    private abstract class Context
+    {
+        private final AtomicBoolean busy = new AtomicBoolean();
+        private final Map<Context, Boolean> contexts;
+        private volatile long lastUsed;
+        protected boolean started;
+        private long startTime;
+        protected int input;
+        protected int output;
+
+        protected Context(Map<Context, Boolean> contexts)
+        {
+            this.contexts = contexts;
+        }
+
+        protected void begin()
+        {
+            while (!busy.compareAndSet(false, true))
+            {
+                // Another session is releasing this context
+                Thread.yield();
+            }
+            startTime = System.nanoTime();
+            input = 0;
+            output = 0;
+        }
+
+        protected void end(SampleStatistic time)
+        {
+            started = true;
+            long now = System.nanoTime();
+            time.set(TimeUnit.NANOSECONDS.toMicros(now - startTime));
+            lastUsed = now;
+            busy.set(false);
+        }
+
+        private boolean release()
+        {
+            if (!busy.compareAndSet(false, true))
+                return false;
+            try
+            {
+                destroy();
+                return true;
+            }
+            finally
+            {
+                busy.set(false);
+            }
+        }
+
+        public void end()
+        {
+            synchronized (contexts)
+            {
+                contexts.remove(this);
+            }
+            begin();
+            try
+            {
+                destroy();
+                ended();
+            }
+            finally
+            {
+                busy.set(false);
+            }
+        }
+
+        protected abstract void destroy();
+
+        protected void ended()
+        {
+        }
+    }
+
+    private class BoundedCompressor extends Context implements Compressor
+    {
+        private Deflater deflater;
+        private byte[] dictionary;
+        private byte[] previous;
+
+        private BoundedCompressor()
+        {
+            super(compressors);
+        }
+
+        @Override
+        public void setDictionary(byte[] dictionary)
+        {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public void setInput(byte[] bytes)
+        {
+            if (started && deflater == null && previous == null)
+                throw new IllegalStateException(this + " ended");
+            begin();
+            if (deflater == null)
+            {
+                if (started)
+                {
+                    // Continue the compressed stream with a raw deflater, that only refers back
+                    // to the previous header block, which ends the sliding window of the remote
+                    // decompressor, and to the bytes it compresses itself
+                    deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                    int length = Math.min(previous.length, 32768);
+                    deflater.setDictionary(previous, previous.length - length, length);
+                    resumedContexts.incrementAndGet();
+                }
+                else
+                {
+                    deflater = new Deflater();
+                    if (dictionary != null)
+                        deflater.setDictionary(dictionary);
+                    dictionary = null;
+                }
+                acquired(this, compressors, getMaxCompressors());
+            }
+            deflater.setInput(bytes);
+            previous = bytes;
+            input = bytes.length;
+        }
+
+        @Override
+        public int compress(byte[] bytes)
+        {
+            int result = deflater.deflate(bytes, 0, bytes.length, Deflater.SYNC_FLUSH);
+            output += result;
+            if (result < bytes.length)
+            {
+                uncompressedBytes.addAndGet(input);
+                compressedBytes.addAndGet(output);
+                end(compressionTime);
+            }
+            return result;
+        }
+
+        @Override
+        protected void destroy()
+        {
+            Deflater deflater = this.deflater;
+            this.deflater = null;
+            if (deflater != null)
+                deflater.end();
+        }
+
+        @Override
+        protected void ended()
+        {
+            previous = null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[alive=%b]", getClass().getSimpleName(), hashCode(), deflater != null);
+        }
+    }
+
+    private class BoundedDecompressor extends Context implements Decompressor
+    {
+        private Inflater inflater;
+        private History history;
+
+        private BoundedDecompressor()
+        {
+            super(decompressors);
+        }
+
+        @Override
+        public void setDictionary(byte[] dictionary)
+        {
+            inflater.setDictionary(dictionary);
+            if (history != null)
+                history.append(dictionary, 0, dictionary.length);
+        }
+
+        @Override
+        public void setInput(byte[] bytes)
+        {
+            if (started && inflater == null && history == null)
+                throw new IllegalStateException(this + " ended");
+            begin();
+            if (inflater == null)
+            {
+                if (started)
+                {
+                    inflater = new Inflater(true);
+                    inflater.setDictionary(history.toArray());
+                    resumedContexts.incrementAndGet();
+                }
+                else
+                {
+                    inflater = new Inflater();
+                    // Only a decompressor that may be released needs the history to be primed
+                    // again; the zlib header announces the window size used by the remote
+                    // compressor, which is the history we need to retain
+                    if (getMaxDecompressors() >= 0)
+                    {
+                        int windowBits = bytes.length > 0 ? ((bytes[0] >>> 4) & 0x0F) + 8 : 15;
+                        history = new History(1 << Math.min(windowBits, 15));
+                    }
+                }
+                if (history != null)
+                    acquired(this, decompressors, getMaxDecompressors());
+            }
+            inflater.setInput(bytes);
+            input = bytes.length;
+        }
+
+        @Override
+        public int decompress(byte[] bytes) throws ZipException
+        {
+            try
+            {
+                int result = inflater.inflate(bytes);
+                if (history != null)
+                    history.append(bytes, 0, result);
+                output += result;
+                if (result < bytes.length && !inflater.needsDictionary())
+                {
+                    deflatedBytes.addAndGet(input);
+                    inflatedBytes.addAndGet(output);
+                    end(decompressionTime);
+                }
+                return result;
+            }
+            catch (DataFormatException x)
+            {
+                // The compression context is not usable anymore
+                destroy();
+                end(decompressionTime);
+                throw (ZipException)new ZipException().initCause(x);
+            }
+        }
+
+        @Override
+        protected void destroy()
+        {
+            Inflater inflater = this.inflater;
+            this.inflater = null;
+            if (inflater != null)
+                inflater.end();
+        }
+
+        @Override
+        protected void ended()
+        {
+            history = null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[alive=%b]", getClass().getSimpleName(), hashCode(), inflater != null);
+        }
+    }
+
+    /**
+     * <p>The tail of the uncompressed bytes of a compressed stream, which grows up to the given capacity.</p>
+     */
+    private static class History
+    {
+        private final int capacity;
+        private byte[] bytes;
+        private int position;
+        private boolean full;
+
+        private History(int capacity)
+        {
+            this.capacity = capacity;
+            this.bytes = new byte[Math.min(capacity, 1024)];
+        }
+
+        private void append(byte[] input, int offset, int length)
+        {
+            if (length >= capacity)
+            {
+                if (bytes.length < capacity)
+                    bytes = new byte[capacity];
+                System.arraycopy(input, offset + length - capacity, bytes, 0, capacity);
+                position = 0;
+                full = true;
+                return;
+            }
+
+            if (!full && position + length > bytes.length && bytes.length < capacity)
+                bytes = Arrays.copyOf(bytes, Math.min(capacity, Math.max(2 * bytes.length, position + length)));
+
+            int first = Math.min(length, bytes.length - position);
+            System.arraycopy(input, offset, bytes, position, first);
+            int rest = length - first;
+            if (rest > 0)
+            {
+                System.arraycopy(input, offset + first, bytes, 0, rest);
+                position = rest;
+                full = true;
+            }
+            else
+            {
+                position += first;
+                if (position == capacity)
+                {
+                    position = 0;
+                    full = true;
+                }
+            }
+        }
+
+        private byte[] toArray()
+        {
+            if (!full)
+                return Arrays.copyOf(bytes, position);
+            byte[] result = new byte[capacity];
+            System.arraycopy(bytes, position, result, 0, capacity - position);
+            System.arraycopy(bytes, 0, result, capacity - position, position);
+            return result;
+        }
+    }
+}
@@ -33,6 +33,11 @@ public interface CompressionFactory
         public void setDictionary(byte[] dictionary);
 
         public int compress(byte[] output);
+
+        /**
+         * <p>Releases the resources of this compressor, when the session that uses it is closed.</p>
+         */
+        public void end();
     }
 
     public interface Decompressor
@@ -42,5 +47,10 @@ public interface CompressionFactory
         public void setInput(byte[] input);
 
         public int decompress(byte[] output) throws ZipException;
+
+        /**
+         * <p>Releases the resources of this decompressor, when the session that uses it is closed.</p>
+         */
+        public void end();
     }
 }
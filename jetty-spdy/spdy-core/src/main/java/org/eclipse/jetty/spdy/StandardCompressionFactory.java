@@ -58,6 +58,12 @@ public class StandardCompressionFactory implements CompressionFactory
         {
             return deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
         }
+
+        @Override
+        public void end()
+        {
+            deflater.end();
+        }
     }
 
     public static class StandardDecompressor implements CompressionFactory.Decompressor
@@ -88,5 +94,11 @@ public class StandardCompressionFactory implements CompressionFactory
                 throw (ZipException)new ZipException().initCause(x);
             }
         }
+
+        @Override
+        public void end()
+        {
+            inflater.end();
+        }
     }
 }
@@ -22,10 +22,13 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.InterruptedByTimeoutException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -95,7 +98,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     private final Map<String, Object> attributes = new ConcurrentHashMap<>();
     private final List<Listener> listeners = new CopyOnWriteArrayList<>();
     private final ConcurrentMap<Integer, IStream> streams = new ConcurrentHashMap<>();
-    private final LinkedList<FrameBytes> queue = new LinkedList<>();
+    private final FrameQueue queue = new FrameQueue();
     private final ByteBufferPool bufferPool;
     private final Executor threadPool;
     private final Scheduler scheduler;
@@ -220,18 +223,21 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
                 stream.process(frame);
                 removeFrameBytesFromQueue(stream);
                 removeStream(stream);
+                // The RST_STREAM frame may have been queued after the removed data
+                flush();
             }
         }
     }
 
-    private void removeFrameBytesFromQueue(Stream stream)
+    private void removeFrameBytesFromQueue(IStream stream)
     {
+        List<FrameBytes> removed;
         synchronized (queue)
         {
-            for (FrameBytes frameBytes : queue)
-                if (frameBytes.getStream() == stream)
-                    queue.remove(frameBytes);
+            removed = queue.removeData(stream);
         }
+        for (FrameBytes frameBytes : removed)
+            frameBytes.fail(new StreamException(stream.getId(), StreamStatus.INVALID_STREAM, "Stream: " + stream + " is reset!"));
     }
 
     @Override
@@ -779,6 +785,13 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         int streamId = frame.getStreamId();
         IStream stream = streams.get(streamId);
         flowControlStrategy.onWindowUpdate(this, stream, frame.getWindowDelta());
+        if (stream != null)
+        {
+            synchronized (queue)
+            {
+                queue.unstall(stream);
+            }
+        }
         flush();
     }
 
@@ -965,11 +978,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
                 if (timeout > 0)
                     frameBytes.task = scheduler.schedule(frameBytes, timeout, unit);
 
-                // Special handling for PING frames, they must be sent as soon as possible
-                if (ControlFrameType.PING == frame.getType())
-                    prepend(frameBytes);
-                else
-                    append(frameBytes);
+                append(frameBytes);
             }
         }
         catch (Exception x)
@@ -1012,121 +1021,58 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     @Override
     public void flush()
     {
-        FrameBytes frameBytes = null;
-        ByteBuffer buffer = null;
-        boolean failFrameBytes = false;
+        List<FrameBytes> frameBytes = new ArrayList<>();
+        List<ByteBuffer> buffers = new ArrayList<>();
+        Map<FrameBytes, Throwable> failed = new LinkedHashMap<>();
         synchronized (queue)
         {
             if (flushing || queue.isEmpty())
                 return;
 
-            Set<IStream> stalledStreams = null;
-            for (int i = 0; i < queue.size(); ++i)
-            {
-                frameBytes = queue.get(i);
-
-                IStream stream = frameBytes.getStream();
-                if (stream != null && stalledStreams != null && stalledStreams.contains(stream))
-                    continue;
-
-                buffer = frameBytes.getByteBuffer();
-                if (buffer != null)
-                {
-                    queue.remove(i);
-                    if (stream != null && stream.isReset() && !(frameBytes instanceof ControlFrameBytes))
-                        failFrameBytes = true;
-                    break;
-                }
-
-                if (stalledStreams == null)
-                    stalledStreams = new HashSet<>();
-                if (stream != null)
-                    stalledStreams.add(stream);
+            queue.poll(frameBytes, buffers, failed);
 
-                LOG.debug("Flush stalled for {}, {} frame(s) in queue", frameBytes, queue.size());
-            }
-
-            if (buffer == null)
-                return;
-
-            if (!failFrameBytes)
+            if (!frameBytes.isEmpty())
             {
                 flushing = true;
                 LOG.debug("Flushing {}, {} frame(s) in queue", frameBytes, queue.size());
             }
         }
-        if (failFrameBytes)
-        {
-            frameBytes.fail(new StreamException(frameBytes.getStream().getId(), StreamStatus.INVALID_STREAM,
-                    "Stream: " + frameBytes.getStream() + " is reset!"));
-        }
-        else
-        {
-            write(buffer, frameBytes);
-        }
-    }
 
-    void append(FrameBytes frameBytes)
-    {
-        Throwable failure;
-        synchronized (queue)
-        {
-            failure = this.failure;
-            if (failure == null)
-            {
-                // Frames containing headers must be send in the order the headers have been generated. We don't need
-                // to do this check in StandardSession.prepend() as no frames containing headers will be prepended.
-                if (frameBytes instanceof ControlFrameBytes)
-                    queue.addLast(frameBytes);
-                else
-                {
-                    int index = queue.size();
-                    while (index > 0)
-                    {
-                        FrameBytes element = queue.get(index - 1);
-                        if (element.compareTo(frameBytes) >= 0)
-                            break;
-                        --index;
-                    }
-                    queue.add(index, frameBytes);
-                }
-            }
-        }
+        for (Map.Entry<FrameBytes, Throwable> entry : failed.entrySet())
+            entry.getKey().fail(entry.getValue());
 
-        if (failure != null)
-            frameBytes.fail(new SPDYException(failure));
+        if (frameBytes.size() == 1)
+            write(frameBytes.get(0), buffers.get(0));
+        else if (frameBytes.size() > 1)
+            write(new FlushCallback(frameBytes), buffers.toArray(new ByteBuffer[buffers.size()]));
     }
 
-    private void prepend(FrameBytes frameBytes)
+    void append(FrameBytes frameBytes)
     {
         Throwable failure;
         synchronized (queue)
         {
             failure = this.failure;
             if (failure == null)
-            {
-                int index = 0;
-                while (index < queue.size())
-                {
-                    FrameBytes element = queue.get(index);
-                    if (element.compareTo(frameBytes) <= 0)
-                        break;
-                    ++index;
-                }
-                queue.add(index, frameBytes);
-            }
+                queue.append(frameBytes);
         }
 
         if (failure != null)
             frameBytes.fail(new SPDYException(failure));
     }
 
-    protected void write(ByteBuffer buffer, Callback callback)
+    protected void write(Callback callback, ByteBuffer... buffers)
     {
         if (controller != null)
         {
-            LOG.debug("Writing {} frame bytes of {}", buffer.remaining(), buffer.limit());
-            controller.write(buffer, callback);
+            if (LOG.isDebugEnabled())
+            {
+                long length = 0;
+                for (ByteBuffer buffer : buffers)
+                    length += buffer.remaining();
+                LOG.debug("Writing {} frame bytes in {} buffer(s)", length, buffers.length);
+            }
+            controller.write(callback, buffers);
         }
     }
 
@@ -1165,6 +1111,10 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     public void setWindowSize(int initialWindowSize)
     {
         flowControlStrategy.setWindowSize(this, initialWindowSize);
+        synchronized (queue)
+        {
+            queue.unstallAll();
+        }
     }
 
     @Override
@@ -1216,6 +1166,327 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         }
     }
 
+    /**
+     * <p>The queue of frames waiting to be written, also used as the lock that guards
+     * the flushing state of the session.</p>
+     * <p>Frames that do not carry headers (PING, SETTINGS, WINDOW_UPDATE, etc.) are written first.
+     * Frames that carry headers are written in the order they have been generated, to maintain
+     * a correct compression context; the same order applies to frames that close a stream or
+     * the session. DATA frames are queued per stream, after the headers of their stream, and
+     * streams with DATA frames ready to be written are kept in per-priority lists, so that
+     * streams stalled by flow control are parked until their window is updated.</p>
+     * <p>Every flush gathers the frames ready to be written, taking at most one DATA frame
+     * per stream, so that streams with the same priority are interleaved.</p>
+     */
+    private class FrameQueue
+    {
+        private static final int MAX_GATHERED_FRAMES = 32;
+        private static final int PRIORITIES = 8;
+
+        private final ArrayDeque<FrameBytes> urgent = new ArrayDeque<>();
+        private final ArrayDeque<FrameBytes> ordered = new ArrayDeque<>();
+        private final Map<IStream, StreamFrames> streams = new HashMap<>();
+        private final List<ArrayDeque<StreamFrames>> ready = new ArrayList<>(PRIORITIES);
+        private int size;
+        private int readyStreams;
+        private int flushingStreams;
+
+        private FrameQueue()
+        {
+            for (int i = 0; i < PRIORITIES; ++i)
+                ready.add(new ArrayDeque<StreamFrames>());
+        }
+
+        private int size()
+        {
+            return size;
+        }
+
+        private boolean isEmpty()
+        {
+            return size == 0;
+        }
+
+        private void append(FrameBytes frameBytes)
+        {
+            IStream stream = frameBytes.getStream();
+            if (frameBytes instanceof ControlFrameBytes)
+            {
+                ControlFrameType type = ((ControlFrameBytes)frameBytes).getType();
+                switch (type)
+                {
+                    case SYN_STREAM:
+                    case SYN_REPLY:
+                    case HEADERS:
+                    case RST_STREAM:
+                    case GO_AWAY:
+                    {
+                        if (stream == null && type == ControlFrameType.RST_STREAM)
+                        {
+                            urgent.addLast(frameBytes);
+                        }
+                        else
+                        {
+                            ordered.addLast(frameBytes);
+                            if (stream != null)
+                                getStreamFrames(stream).frames.addLast(frameBytes);
+                        }
+                        break;
+                    }
+                    case PING:
+                    {
+                        // PING frames must be sent as soon as possible
+                        urgent.addFirst(frameBytes);
+                        break;
+                    }
+                    default:
+                    {
+                        urgent.addLast(frameBytes);
+                        break;
+                    }
+                }
+            }
+            else if (stream == null)
+            {
+                ordered.addLast(frameBytes);
+            }
+            else
+            {
+                StreamFrames streamFrames = getStreamFrames(stream);
+                streamFrames.frames.addLast(frameBytes);
+                activate(streamFrames);
+            }
+            ++size;
+        }
+
+        private void poll(List<FrameBytes> frameBytes, List<ByteBuffer> buffers, Map<FrameBytes, Throwable> failed)
+        {
+            while (frameBytes.size() < MAX_GATHERED_FRAMES && !urgent.isEmpty())
+            {
+                FrameBytes urgentFrameBytes = urgent.pollFirst();
+                --size;
+                frameBytes.add(urgentFrameBytes);
+                buffers.add(urgentFrameBytes.getByteBuffer());
+            }
+
+            while (frameBytes.size() < MAX_GATHERED_FRAMES && !ordered.isEmpty())
+            {
+                FrameBytes orderedFrameBytes = ordered.peekFirst();
+                IStream stream = orderedFrameBytes.getStream();
+                if (stream == null)
+                {
+                    // Session wide frames wait for the DATA frames that can be written
+                    if (readyStreams > 0 || flushingStreams > 0)
+                        break;
+                }
+                else
+                {
+                    // Stream frames wait for the DATA frames queued before them
+                    StreamFrames streamFrames = streams.get(stream);
+                    if (streamFrames.flushing || streamFrames.frames.peekFirst() != orderedFrameBytes)
+                        break;
+                    streamFrames.frames.pollFirst();
+                    activate(streamFrames);
+                }
+                ordered.pollFirst();
+                --size;
+                frameBytes.add(orderedFrameBytes);
+                buffers.add(orderedFrameBytes.getByteBuffer());
+            }
+
+            for (int priority = 0; priority < PRIORITIES && frameBytes.size() < MAX_GATHERED_FRAMES; ++priority)
+            {
+                ArrayDeque<StreamFrames> streamsFrames = ready.get(priority);
+                int count = streamsFrames.size();
+                while (count-- > 0 && frameBytes.size() < MAX_GATHERED_FRAMES)
+                {
+                    StreamFrames streamFrames = streamsFrames.pollFirst();
+                    streamFrames.ready = false;
+                    --readyStreams;
+
+                    IStream stream = streamFrames.stream;
+                    FrameBytes dataFrameBytes = streamFrames.frames.peekFirst();
+                    if (stream.isReset())
+                    {
+                        streamFrames.frames.pollFirst();
+                        --size;
+                        failed.put(dataFrameBytes, new StreamException(stream.getId(), StreamStatus.INVALID_STREAM,
+                                "Stream: " + stream + " is reset!"));
+                        activate(streamFrames);
+                        continue;
+                    }
+
+                    ByteBuffer buffer;
+                    try
+                    {
+                        buffer = dataFrameBytes.getByteBuffer();
+                    }
+                    catch (Throwable x)
+                    {
+                        streamFrames.frames.pollFirst();
+                        --size;
+                        failed.put(dataFrameBytes, x);
+                        activate(streamFrames);
+                        continue;
+                    }
+
+                    if (buffer == null)
+                    {
+                        streamFrames.stalled = true;
+                        LOG.debug("Flush stalled for {}, {} frame(s) in queue", dataFrameBytes, size);
+                        continue;
+                    }
+
+                    streamFrames.frames.pollFirst();
+                    --size;
+                    streamFrames.flushing = true;
+                    ++flushingStreams;
+                    frameBytes.add(dataFrameBytes);
+                    buffers.add(buffer);
+                }
+            }
+        }
+
+        private void written(FrameBytes frameBytes, boolean more)
+        {
+            StreamFrames streamFrames = getStreamFrames(frameBytes.getStream());
+            if (streamFrames.flushing)
+            {
+                streamFrames.flushing = false;
+                --flushingStreams;
+            }
+            if (more)
+            {
+                streamFrames.frames.addFirst(frameBytes);
+                ++size;
+            }
+            activate(streamFrames);
+        }
+
+        private void unstall(IStream stream)
+        {
+            StreamFrames streamFrames = streams.get(stream);
+            if (streamFrames != null && streamFrames.stalled)
+            {
+                streamFrames.stalled = false;
+                activate(streamFrames);
+            }
+        }
+
+        private void unstallAll()
+        {
+            for (StreamFrames streamFrames : new ArrayList<>(streams.values()))
+            {
+                if (streamFrames.stalled)
+                {
+                    streamFrames.stalled = false;
+                    activate(streamFrames);
+                }
+            }
+        }
+
+        private List<FrameBytes> removeData(IStream stream)
+        {
+            StreamFrames streamFrames = streams.get(stream);
+            if (streamFrames == null)
+                return Collections.emptyList();
+
+            List<FrameBytes> result = new ArrayList<>();
+            for (Iterator<FrameBytes> iterator = streamFrames.frames.iterator(); iterator.hasNext();)
+            {
+                FrameBytes frameBytes = iterator.next();
+                if (!(frameBytes instanceof ControlFrameBytes))
+                {
+                    iterator.remove();
+                    --size;
+                    result.add(frameBytes);
+                }
+            }
+            if (streamFrames.ready)
+            {
+                ready.get(priorityOf(stream)).remove(streamFrames);
+                streamFrames.ready = false;
+                --readyStreams;
+            }
+            streamFrames.stalled = false;
+            activate(streamFrames);
+            return result;
+        }
+
+        private void drainTo(List<FrameBytes> frameBytes)
+        {
+            frameBytes.addAll(urgent);
+            frameBytes.addAll(ordered);
+            for (StreamFrames streamFrames : streams.values())
+            {
+                for (FrameBytes streamFrameBytes : streamFrames.frames)
+                {
+                    if (!(streamFrameBytes instanceof ControlFrameBytes))
+                        frameBytes.add(streamFrameBytes);
+                }
+            }
+            urgent.clear();
+            ordered.clear();
+            streams.clear();
+            for (ArrayDeque<StreamFrames> streamsFrames : ready)
+                streamsFrames.clear();
+            size = 0;
+            readyStreams = 0;
+            flushingStreams = 0;
+        }
+
+        private StreamFrames getStreamFrames(IStream stream)
+        {
+            StreamFrames streamFrames = streams.get(stream);
+            if (streamFrames == null)
+            {
+                streamFrames = new StreamFrames(stream);
+                streams.put(stream, streamFrames);
+            }
+            return streamFrames;
+        }
+
+        /**
+         * <p>Makes the given stream ready to be flushed if its next frame is a DATA frame,
+         * or forgets it if it has no more frames.</p>
+         */
+        private void activate(StreamFrames streamFrames)
+        {
+            if (streamFrames.ready || streamFrames.stalled || streamFrames.flushing)
+                return;
+            FrameBytes frameBytes = streamFrames.frames.peekFirst();
+            if (frameBytes == null)
+            {
+                streams.remove(streamFrames.stream);
+            }
+            else if (!(frameBytes instanceof ControlFrameBytes))
+            {
+                ready.get(priorityOf(streamFrames.stream)).addLast(streamFrames);
+                streamFrames.ready = true;
+                ++readyStreams;
+            }
+        }
+
+        private int priorityOf(IStream stream)
+        {
+            return Math.max(0, Math.min(PRIORITIES - 1, stream.getPriority()));
+        }
+    }
+
+    private static class StreamFrames
+    {
+        private final ArrayDeque<FrameBytes> frames = new ArrayDeque<>();
+        private final IStream stream;
+        private boolean ready;
+        private boolean stalled;
+        private boolean flushing;
+
+        private StreamFrames(IStream stream)
+        {
+            this.stream = stream;
+        }
+    }
+
     public interface FrameBytes extends Comparable<FrameBytes>, Callback
     {
         public IStream getStream();
@@ -1292,36 +1563,70 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         @Override
         public void succeeded()
         {
-            synchronized (queue)
-            {
-                if (LOG.isDebugEnabled())
-                    LOG.debug("Completed write of {}, {} frame(s) in queue", this, queue.size());
-                flushing = false;
-            }
-            complete();
+            flushed(Collections.<FrameBytes>singletonList(this));
         }
 
         @Override
         public void failed(Throwable x)
         {
-            List<FrameBytes> frameBytesToFail = new ArrayList<>();
-            frameBytesToFail.add(this);
+            flushFailed(Collections.<FrameBytes>singletonList(this), x);
+        }
+    }
 
-            synchronized (queue)
+    private void flushed(List<FrameBytes> frameBytes)
+    {
+        synchronized (queue)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Completed write of {}, {} frame(s) in queue", frameBytes, queue.size());
+            flushing = false;
+        }
+        for (FrameBytes fb : frameBytes)
+            fb.complete();
+    }
+
+    private void flushFailed(List<FrameBytes> frameBytes, Throwable x)
+    {
+        List<FrameBytes> frameBytesToFail = new ArrayList<>(frameBytes);
+
+        synchronized (queue)
+        {
+            failure = x;
+            if (LOG.isDebugEnabled())
             {
-                failure = x;
-                if (LOG.isDebugEnabled())
-                {
-                    String logMessage = String.format("Failed write of %s, failing all %d frame(s) in queue", this, queue.size());
-                    LOG.debug(logMessage, x);
-                }
-                frameBytesToFail.addAll(queue);
-                queue.clear();
-                flushing = false;
+                String logMessage = String.format("Failed write of %s, failing all %d frame(s) in queue", frameBytes, queue.size());
+                LOG.debug(logMessage, x);
             }
+            queue.drainTo(frameBytesToFail);
+            flushing = false;
+        }
 
-            for (FrameBytes fb : frameBytesToFail)
-                fb.fail(x);
+        for (FrameBytes fb : frameBytesToFail)
+            fb.fail(x);
+    }
+
+    /**
+     * <p>The callback of a write that gathers multiple frames.</p>
+     */
+    private class FlushCallback implements Callback
+    {
+        private final List<FrameBytes> frameBytes;
+
+        private FlushCallback(List<FrameBytes> frameBytes)
+        {
+            this.frameBytes = frameBytes;
+        }
+
+        @Override
+        public void succeeded()
+        {
+            flushed(frameBytes);
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            flushFailed(frameBytes, x);
         }
     }
 
@@ -1343,6 +1648,11 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
             return buffer;
         }
 
+        private ControlFrameType getType()
+        {
+            return frame.getType();
+        }
+
         @Override
         public void complete()
         {
@@ -1380,28 +1690,23 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
             this.dataInfo = dataInfo;
         }
 
+        /**
+         * @return the next data frame, or null if the stream is stalled by flow control
+         */
         @Override
         public ByteBuffer getByteBuffer()
         {
-            try
-            {
-                IStream stream = getStream();
-                int windowSize = stream.getWindowSize();
-                if (windowSize <= 0)
-                    return null;
+            IStream stream = getStream();
+            int windowSize = stream.getWindowSize();
+            if (windowSize <= 0)
+                return null;
 
-                size = dataInfo.available();
-                if (size > windowSize)
-                    size = windowSize;
+            size = dataInfo.available();
+            if (size > windowSize)
+                size = windowSize;
 
-                buffer = generator.data(stream.getId(), size, dataInfo);
-                return buffer;
-            }
-            catch (Throwable x)
-            {
-                fail(x);
-                return null;
-            }
+            buffer = generator.data(stream.getId(), size, dataInfo);
+            return buffer;
         }
 
         @Override
@@ -1411,12 +1716,15 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
             IStream stream = getStream();
             dataInfo.consume(size);
             flowControlStrategy.updateWindow(StandardSession.this, stream, -size);
-            if (dataInfo.available() > 0)
+            boolean more = dataInfo.available() > 0;
+            synchronized (queue)
+            {
+                // If there is more to write, this DataInfo is written before
+                // any other DataInfo queued afterwards for the same stream.
+                queue.written(this, more);
+            }
+            if (more)
             {
-                // We have written a frame out of this DataInfo, but there is more to write.
-                // We need to keep the correct ordering of frames, to avoid that another
-                // DataInfo for the same stream is written before this one is finished.
-                prepend(this);
                 flush();
             }
             else
@@ -1425,6 +1733,8 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
                 stream.updateCloseState(dataInfo.isClose(), true);
                 if (stream.isClosed())
                     removeStream(stream);
+                // Frames may be waiting for this DataInfo to be written
+                flush();
             }
         }
 
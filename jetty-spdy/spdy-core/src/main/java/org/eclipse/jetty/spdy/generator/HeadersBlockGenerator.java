@@ -21,7 +21,13 @@ package org.eclipse.jetty.spdy.generator;
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jetty.spdy.CompressionDictionary;
 import org.eclipse.jetty.spdy.CompressionFactory;
@@ -30,6 +36,20 @@ import org.eclipse.jetty.util.Fields;
 
 public class HeadersBlockGenerator
 {
+    private static final int MAX_CACHED_VALUE_LENGTH = 128;
+    private static final Set<String> UNCACHEABLE_NAMES = new HashSet<>(Arrays.asList(
+            // Credentials, that must not outlive the session that carried them
+            "authorization", "proxy-authorization", "www-authenticate", "proxy-authenticate",
+            "cookie", "set-cookie", "set-cookie2",
+            // Values that change at every request or response
+            "url", ":path", "referer", "location", "content-location", "content-length", "content-range",
+            "content-md5", "date", "expires", "last-modified", "age", "etag", "range", "if-range",
+            "if-match", "if-none-match", "if-modified-since", "if-unmodified-since"));
+
+    // Shared by all the sessions, so that the cache does not grow with the number
+    // of sessions; the headers that carry credentials are never cached
+    private static final FieldCache V2_FIELDS = new FieldCache(512);
+    private static final FieldCache V3_FIELDS = new FieldCache(512);
     private final CompressionFactory.Compressor compressor;
     private boolean needsDictionary = true;
 
@@ -46,35 +66,81 @@ public class HeadersBlockGenerator
         writeCount(version, buffer, headers.size());
         for (Fields.Field header : headers)
         {
-            String name = header.name().toLowerCase(Locale.ENGLISH);
-            byte[] nameBytes = name.getBytes(iso1);
-            writeNameLength(version, buffer, nameBytes.length);
-            buffer.write(nameBytes, 0, nameBytes.length);
-
-            // Most common path first
-            String value = header.value();
-            byte[] valueBytes = value.getBytes(iso1);
-            if (header.hasMultipleValues())
+            // Most headers have a single, short, value that repeats across
+            // requests, so their encoded form is cached
+            if (isCacheable(header))
             {
-                String[] values = header.values();
-                for (int i = 1; i < values.length; ++i)
+                FieldCache fields = fields(version);
+                byte[] bytes = fields.get(header.name(), header.value());
+                if (bytes == null)
                 {
-                    byte[] moreValueBytes = values[i].getBytes(iso1);
-                    byte[] newValueBytes = new byte[valueBytes.length + 1 + moreValueBytes.length];
-                    System.arraycopy(valueBytes, 0, newValueBytes, 0, valueBytes.length);
-                    newValueBytes[valueBytes.length] = 0;
-                    System.arraycopy(moreValueBytes, 0, newValueBytes, valueBytes.length + 1, moreValueBytes.length);
-                    valueBytes = newValueBytes;
+                    ByteArrayOutputStream fieldBuffer = new ByteArrayOutputStream(64);
+                    writeField(version, fieldBuffer, header, iso1);
+                    bytes = fieldBuffer.toByteArray();
+                    fields.put(header.name(), header.value(), bytes);
                 }
+                buffer.write(bytes, 0, bytes.length);
+            }
+            else
+            {
+                writeField(version, buffer, header, iso1);
             }
-
-            writeValueLength(version, buffer, valueBytes.length);
-            buffer.write(valueBytes, 0, valueBytes.length);
         }
 
         return compress(version, buffer.toByteArray());
     }
 
+    private boolean isCacheable(Fields.Field header)
+    {
+        return !header.hasMultipleValues() &&
+                header.value().length() <= MAX_CACHED_VALUE_LENGTH &&
+                !UNCACHEABLE_NAMES.contains(header.name().toLowerCase(Locale.ENGLISH));
+    }
+
+    private static FieldCache fields(short version)
+    {
+        return version == SPDY.V2 ? V2_FIELDS : V3_FIELDS;
+    }
+
+    /**
+     * @param version the SPDY version
+     * @param name the header name
+     * @param value the header value
+     * @return the cached encoded form of the given header, or null if it is not cached
+     */
+    static byte[] getCachedField(short version, String name, String value)
+    {
+        return fields(version).get(name, value);
+    }
+
+    private void writeField(short version, ByteArrayOutputStream buffer, Fields.Field header, Charset iso1)
+    {
+        String name = header.name().toLowerCase(Locale.ENGLISH);
+        byte[] nameBytes = name.getBytes(iso1);
+        writeNameLength(version, buffer, nameBytes.length);
+        buffer.write(nameBytes, 0, nameBytes.length);
+
+        // Most common path first
+        String value = header.value();
+        byte[] valueBytes = value.getBytes(iso1);
+        if (header.hasMultipleValues())
+        {
+            String[] values = header.values();
+            for (int i = 1; i < values.length; ++i)
+            {
+                byte[] moreValueBytes = values[i].getBytes(iso1);
+                byte[] newValueBytes = new byte[valueBytes.length + 1 + moreValueBytes.length];
+                System.arraycopy(valueBytes, 0, newValueBytes, 0, valueBytes.length);
+                newValueBytes[valueBytes.length] = 0;
+                System.arraycopy(moreValueBytes, 0, newValueBytes, valueBytes.length + 1, moreValueBytes.length);
+                valueBytes = newValueBytes;
+            }
+        }
+
+        writeValueLength(version, buffer, valueBytes.length);
+        buffer.write(valueBytes, 0, valueBytes.length);
+    }
+
     private ByteBuffer compress(short version, byte[] bytes)
     {
         ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length);
@@ -145,4 +211,45 @@ public class HeadersBlockGenerator
     {
         writeCount(version, buffer, length);
     }
+
+    /**
+     * <p>A bounded cache of encoded header name/value pairs.</p>
+     * <p>When full, the cache is cleared, so that pairs that do not repeat
+     * (for example those carrying dates) do not fill it forever.</p>
+     */
+    private static class FieldCache
+    {
+        private final ConcurrentMap<String, ConcurrentMap<String, byte[]>> fields = new ConcurrentHashMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final int capacity;
+
+        private FieldCache(int capacity)
+        {
+            this.capacity = capacity;
+        }
+
+        private byte[] get(String name, String value)
+        {
+            ConcurrentMap<String, byte[]> values = fields.get(name);
+            return values == null ? null : values.get(value);
+        }
+
+        private void put(String name, String value, byte[] bytes)
+        {
+            if (size.incrementAndGet() > capacity)
+            {
+                fields.clear();
+                size.set(1);
+            }
+            ConcurrentMap<String, byte[]> values = fields.get(name);
+            if (values == null)
+            {
+                values = new ConcurrentHashMap<>();
+                ConcurrentMap<String, byte[]> existing = fields.putIfAbsent(name, values);
+                if (existing != null)
+                    values = existing;
+            }
+            values.put(value, bytes);
+        }
+    }
 }
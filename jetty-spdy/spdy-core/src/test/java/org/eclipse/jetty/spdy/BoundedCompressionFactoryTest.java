@@ -0,0 +1,163 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.spdy.api.SPDY;
+import org.eclipse.jetty.spdy.frames.ControlFrame;
+import org.eclipse.jetty.spdy.frames.SynReplyFrame;
+import org.eclipse.jetty.spdy.generator.Generator;
+import org.eclipse.jetty.spdy.parser.Parser;
+import org.eclipse.jetty.util.Fields;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BoundedCompressionFactoryTest
+{
+    @Test
+    public void testReleasedCompressorsContinueTheCompressedStream() throws Exception
+    {
+        BoundedCompressionFactory factory = new BoundedCompressionFactory();
+        factory.setMaxCompressors(1);
+        StandardCompressionFactory peerFactory = new StandardCompressionFactory();
+
+        for (short version : new short[]{SPDY.V2, SPDY.V3})
+        {
+            Peer peer1 = new Peer(factory.newCompressor(), peerFactory.newDecompressor());
+            Peer peer2 = new Peer(factory.newCompressor(), peerFactory.newDecompressor());
+            // Each peer releases the compressor of the other
+            for (int i = 0; i < 64; ++i)
+            {
+                peer1.test(version, i);
+                peer2.test(version, i);
+            }
+        }
+
+        Assert.assertEquals(1, factory.getCompressors());
+        Assert.assertTrue(factory.getReleasedContexts() > 0);
+        Assert.assertTrue(factory.getResumedContexts() > 0);
+        Assert.assertTrue(factory.getCompressionRatio() > 0);
+        Assert.assertTrue(factory.getCompressionRatio() < 1);
+    }
+
+    @Test
+    public void testReleasedDecompressorsContinueTheCompressedStream() throws Exception
+    {
+        BoundedCompressionFactory factory = new BoundedCompressionFactory();
+        factory.setMaxDecompressors(1);
+        StandardCompressionFactory peerFactory = new StandardCompressionFactory();
+
+        for (short version : new short[]{SPDY.V2, SPDY.V3})
+        {
+            Peer peer1 = new Peer(peerFactory.newCompressor(), factory.newDecompressor());
+            Peer peer2 = new Peer(peerFactory.newCompressor(), factory.newDecompressor());
+            for (int i = 0; i < 64; ++i)
+            {
+                peer1.test(version, i);
+                peer2.test(version, i);
+            }
+        }
+
+        Assert.assertEquals(1, factory.getDecompressors());
+        Assert.assertTrue(factory.getReleasedContexts() > 0);
+        Assert.assertTrue(factory.getResumedContexts() > 0);
+        Assert.assertEquals(4 * 64, factory.getDecompressions());
+    }
+
+    @Test
+    public void testIdleContextsAreReleased() throws Exception
+    {
+        BoundedCompressionFactory factory = new BoundedCompressionFactory();
+        factory.setMaxIdleTime(0);
+        StandardCompressionFactory peerFactory = new StandardCompressionFactory();
+
+        Peer peer1 = new Peer(factory.newCompressor(), peerFactory.newDecompressor());
+        Peer peer2 = new Peer(factory.newCompressor(), peerFactory.newDecompressor());
+        peer1.test(SPDY.V3, 0);
+        Thread.sleep(10);
+        peer2.test(SPDY.V3, 0);
+
+        Assert.assertEquals(1, factory.getCompressors());
+        Assert.assertEquals(1, factory.getReleasedContexts());
+
+        Thread.sleep(10);
+        peer1.test(SPDY.V3, 1);
+
+        Assert.assertEquals(1, factory.getCompressors());
+        Assert.assertEquals(2, factory.getReleasedContexts());
+        Assert.assertEquals(1, factory.getResumedContexts());
+    }
+
+    @Test
+    public void testEndReleasesContexts() throws Exception
+    {
+        BoundedCompressionFactory factory = new BoundedCompressionFactory();
+        CompressionFactory.Compressor compressor = factory.newCompressor();
+        CompressionFactory.Decompressor decompressor = factory.newDecompressor();
+        Peer peer = new Peer(compressor, decompressor);
+        peer.test(SPDY.V3, 0);
+
+        // Decompressors are not bounded by default, so they are not tracked
+        Assert.assertEquals(1, factory.getCompressors());
+        Assert.assertEquals(0, factory.getDecompressors());
+
+        compressor.end();
+        decompressor.end();
+        Assert.assertEquals(0, factory.getCompressors());
+    }
+
+    private static class Peer extends Parser.Listener.Adapter
+    {
+        private final Generator generator;
+        private final Parser parser;
+        private ControlFrame frame;
+
+        private Peer(CompressionFactory.Compressor compressor, CompressionFactory.Decompressor decompressor)
+        {
+            generator = new Generator(new MappedByteBufferPool(), compressor);
+            parser = new Parser(decompressor);
+            parser.addListener(this);
+        }
+
+        @Override
+        public void onControlFrame(ControlFrame frame)
+        {
+            this.frame = frame;
+        }
+
+        private void test(short version, int index)
+        {
+            Fields headers = new Fields();
+            headers.put("content-type", "text/html;charset=UTF-8");
+            headers.put("x-index", String.valueOf(index));
+            headers.add("x-values", "a" + index);
+            headers.add("x-values", "b" + index);
+            SynReplyFrame synReply = new SynReplyFrame(version, (byte)0, 2 * index + 1, headers);
+            ByteBuffer buffer = generator.control(synReply);
+
+            frame = null;
+            parser.parse(buffer);
+
+            Assert.assertNotNull(frame);
+            Assert.assertEquals(headers, ((SynReplyFrame)frame).getHeaders());
+        }
+    }
+}
@@ -62,6 +62,7 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -117,7 +118,7 @@ public class StandardSessionTest
             public Object answer(InvocationOnMock invocation)
             {
                 Object[] args = invocation.getArguments();
-                Callback callback = (Callback)args[1];
+                Callback callback = (Callback)args[0];
                 if (fail)
                     callback.failed(new ClosedChannelException());
                 else
@@ -125,7 +126,7 @@ public class StandardSessionTest
                 return null;
             }
         })
-                .when(controller).write(any(ByteBuffer.class), any(Callback.class));
+                .when(controller).write(any(Callback.class), Matchers.<ByteBuffer>anyVararg());
     }
 
     @Test
@@ -444,7 +445,7 @@ public class StandardSessionTest
         // second data frame should fail without controller.write() as the connection is expected to be broken after first controller.write() call failed.
         stream.data(new StringDataInfo(5, TimeUnit.SECONDS, "data", false), callback);
 
-        verify(controller, times(1)).write(any(ByteBuffer.class), any(Callback.class));
+        verify(controller, times(1)).write(any(Callback.class), Matchers.<ByteBuffer>anyVararg());
         assertThat("Callback.failed has been called twice", failedCalledLatch.await(5, TimeUnit.SECONDS), is(true));
     }
 
@@ -458,7 +459,7 @@ public class StandardSessionTest
         session.rst(new RstInfo(stream.getId(), StreamStatus.INVALID_STREAM));
         stream.headers(new HeadersInfo(headers, true));
 
-        verify(controller, times(3)).write(any(ByteBuffer.class), any(Callback.class));
+        verify(controller, times(3)).write(any(Callback.class), Matchers.<ByteBuffer>anyVararg());
     }
 
     @Test
@@ -541,18 +542,20 @@ public class StandardSessionTest
         long lastStreamId = 0;
 
         @Override
-        public void write(ByteBuffer buffer, Callback callback)
+        public void write(Callback callback, ByteBuffer... buffers)
         {
-            StandardSession.FrameBytes frameBytes = (StandardSession.FrameBytes)callback;
-
-            int streamId = frameBytes.getStream().getId();
-            LOG.debug("last: {}, current: {}", lastStreamId, streamId);
-            if (lastStreamId < streamId)
-                lastStreamId = streamId;
-            else
-                throw new IllegalStateException("Last streamId: " + lastStreamId + " is not smaller than current StreamId: " +
-                        streamId);
-            frameBytes.succeeded();
+            for (ByteBuffer buffer : buffers)
+            {
+                // The stream id of a SYN_STREAM frame follows the 8 bytes of the control frame header
+                int streamId = buffer.getInt(buffer.position() + 8) & 0x7F_FF_FF_FF;
+                LOG.debug("last: {}, current: {}", lastStreamId, streamId);
+                if (lastStreamId < streamId)
+                    lastStreamId = streamId;
+                else
+                    throw new IllegalStateException("Last streamId: " + lastStreamId + " is not smaller than current StreamId: " +
+                            streamId);
+            }
+            callback.succeeded();
         }
 
         @Override
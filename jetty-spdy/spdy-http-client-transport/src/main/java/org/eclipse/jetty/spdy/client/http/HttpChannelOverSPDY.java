@@ -0,0 +1,590 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy.client.http;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+
+import org.eclipse.jetty.client.AsyncContentProvider;
+import org.eclipse.jetty.client.ContentDecoder;
+import org.eclipse.jetty.client.HttpChannel;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpConversation;
+import org.eclipse.jetty.client.HttpExchange;
+import org.eclipse.jetty.client.HttpResponse;
+import org.eclipse.jetty.client.HttpResponseException;
+import org.eclipse.jetty.client.ProtocolHandler;
+import org.eclipse.jetty.client.RequestNotifier;
+import org.eclipse.jetty.client.ResponseNotifier;
+import org.eclipse.jetty.client.api.ContentProvider;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.spdy.api.ByteBufferDataInfo;
+import org.eclipse.jetty.spdy.api.DataInfo;
+import org.eclipse.jetty.spdy.api.HeadersInfo;
+import org.eclipse.jetty.spdy.api.ReplyInfo;
+import org.eclipse.jetty.spdy.api.RstInfo;
+import org.eclipse.jetty.spdy.api.SPDY;
+import org.eclipse.jetty.spdy.api.Session;
+import org.eclipse.jetty.spdy.api.Stream;
+import org.eclipse.jetty.spdy.api.StreamFrameListener;
+import org.eclipse.jetty.spdy.api.StreamStatus;
+import org.eclipse.jetty.spdy.api.SynInfo;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Fields;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>The {@link HttpChannel} of a single {@link HttpExchange} sent over a SPDY {@link Stream}.</p>
+ * <p>The request headers are sent in a SYN_STREAM frame, and the request content in DATA frames,
+ * one at a time, so that the content is written only as fast as the stream send window allows.
+ * The response content of each DATA frame is consumed only after the response listeners have
+ * consumed it, possibly asynchronously, so that the receive window is updated as fast as the
+ * application reads.</p>
+ */
+public class HttpChannelOverSPDY extends StreamFrameListener.Adapter implements HttpChannel, AsyncContentProvider.Listener
+{
+    private static final Logger LOG = Log.getLogger(HttpChannelOverSPDY.class);
+
+    private final HttpDestinationOverSPDY destination;
+    private final Session session;
+    private final HttpExchange exchange;
+    private final Queue<DataChunk> dataChunks = new ArrayDeque<>();
+    private volatile Stream stream;
+    private volatile boolean failed;
+    private volatile ContentDecoder decoder;
+    private Iterator<ByteBuffer> contentIterator;
+    private boolean writing;
+    private boolean notifying;
+
+    public HttpChannelOverSPDY(HttpDestinationOverSPDY destination, Session session, HttpExchange exchange)
+    {
+        this.destination = destination;
+        this.session = session;
+        this.exchange = exchange;
+    }
+
+    public Session getSession()
+    {
+        return session;
+    }
+
+    /**
+     * @return the id of the stream of this channel, or {@link Integer#MAX_VALUE} if the stream is not open yet
+     */
+    public int getStreamId()
+    {
+        Stream stream = this.stream;
+        return stream == null ? Integer.MAX_VALUE : stream.getId();
+    }
+
+    public void send()
+    {
+        exchange.setChannel(this);
+
+        Request request = exchange.getRequest();
+        RequestNotifier requestNotifier = destination.getRequestNotifier();
+        requestNotifier.notifyBegin(request);
+
+        ContentProvider content = request.getContent();
+        if (content != null)
+        {
+            contentIterator = content.iterator();
+            if (content instanceof AsyncContentProvider)
+                ((AsyncContentProvider)content).setListener(this);
+        }
+
+        Fields headers = newSynHeaders(request);
+        requestNotifier.notifyHeaders(request);
+        LOG.debug("Sending {} {}", request, headers);
+
+        SynInfo synInfo = new SynInfo(headers, content == null);
+        session.syn(synInfo, this, new Promise<Stream>()
+        {
+            @Override
+            public void succeeded(Stream stream)
+            {
+                HttpChannelOverSPDY.this.stream = stream;
+                if (failed)
+                {
+                    // The exchange failed while the stream was being opened
+                    reset(stream);
+                    return;
+                }
+
+                Request request = exchange.getRequest();
+                destination.getRequestNotifier().notifyCommit(request);
+                if (contentIterator == null)
+                    requestSuccess();
+                else
+                    sendContent();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                destination.sessionFailed(session, x);
+                fail(x);
+            }
+        });
+    }
+
+    private Fields newSynHeaders(Request request)
+    {
+        short version = session.getVersion();
+        Fields headers = new Fields();
+
+        String path = request.getPath();
+        String query = request.getQuery();
+        if (query != null)
+            path += "?" + query;
+
+        headers.put(version == SPDY.V2 ? "method" : ":method", request.getMethod().asString());
+        headers.put(version == SPDY.V2 ? "url" : ":path", path);
+        headers.put(version == SPDY.V2 ? "version" : ":version", request.getVersion().asString());
+        headers.put(version == SPDY.V2 ? "scheme" : ":scheme", request.getScheme());
+
+        String host = request.getHeaders().getStringField(HttpHeader.HOST);
+        headers.put(version == SPDY.V2 ? "host" : ":host", host != null ? host : destination.getHostField().getValue());
+
+        for (HttpField field : request.getHeaders())
+        {
+            HttpHeader header = field.getHeader();
+            if (header == null)
+                header = HttpHeader.CACHE.get(field.getName());
+            if (header != null)
+            {
+                switch (header)
+                {
+                    // Connection specific headers are not allowed in SPDY
+                    case HOST:
+                    case CONNECTION:
+                    case KEEP_ALIVE:
+                    case PROXY_CONNECTION:
+                    case TRANSFER_ENCODING:
+                    // SPDY has no interim responses
+                    case EXPECT:
+                        continue;
+                    default:
+                        break;
+                }
+            }
+            // SPDY header names must be lowercase
+            headers.add(field.getName().toLowerCase(Locale.ENGLISH), field.getValue());
+        }
+        return headers;
+    }
+
+    @Override
+    public void onContent()
+    {
+        // Content may be available before the stream is open
+        if (stream != null)
+            sendContent();
+    }
+
+    private void sendContent()
+    {
+        final ByteBuffer buffer;
+        final boolean last;
+        synchronized (this)
+        {
+            // Only one DATA frame is written at a time: the next one is
+            // written when the previous one completes, honoring flow control
+            if (writing || failed)
+                return;
+            if (contentIterator.hasNext())
+            {
+                buffer = contentIterator.next();
+                // Deferred content will be signalled via onContent()
+                if (buffer == null)
+                    return;
+                last = !contentIterator.hasNext();
+            }
+            else
+            {
+                buffer = BufferUtil.EMPTY_BUFFER;
+                last = true;
+            }
+            writing = true;
+        }
+
+        final ByteBuffer notified = buffer.slice();
+        stream.data(new ByteBufferDataInfo(buffer, last), new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                if (notified.hasRemaining())
+                    destination.getRequestNotifier().notifyContent(exchange.getRequest(), notified);
+                // Tell the content provider that its content has been written
+                if (contentIterator instanceof Callback)
+                    ((Callback)contentIterator).succeeded();
+                synchronized (HttpChannelOverSPDY.this)
+                {
+                    writing = false;
+                }
+                if (last)
+                    requestSuccess();
+                else
+                    sendContent();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                fail(x);
+            }
+        });
+    }
+
+    private void requestSuccess()
+    {
+        AtomicMarkableReference<Result> completion = exchange.requestComplete(null);
+        if (!completion.isMarked())
+            return;
+
+        exchange.terminateRequest();
+
+        Request request = exchange.getRequest();
+        destination.getRequestNotifier().notifySuccess(request);
+        LOG.debug("Sent {}", request);
+
+        Result result = completion.getReference();
+        if (result != null)
+            complete(result);
+    }
+
+    @Override
+    public void onReply(Stream stream, ReplyInfo replyInfo)
+    {
+        HttpConversation conversation = exchange.getConversation();
+        HttpResponse response = exchange.getResponse();
+        HttpClient client = destination.getHttpClient();
+        ResponseNotifier notifier = destination.getResponseNotifier();
+
+        short version = session.getVersion();
+        Fields headers = replyInfo.getHeaders();
+        Fields.Field versionField = headers.get(version == SPDY.V2 ? "version" : ":version");
+        Fields.Field statusField = headers.get(version == SPDY.V2 ? "status" : ":status");
+        if (statusField == null)
+        {
+            fail(new HttpResponseException("Missing status in " + replyInfo, response));
+            return;
+        }
+        if (versionField != null)
+        {
+            HttpVersion httpVersion = HttpVersion.fromString(versionField.value());
+            if (httpVersion != null)
+                response.version(httpVersion);
+        }
+        // The status is made of the code and an optional reason, for example "200 OK"
+        String status = statusField.value().trim();
+        int space = status.indexOf(' ');
+        try
+        {
+            response.status(Integer.parseInt(space < 0 ? status : status.substring(0, space)));
+        }
+        catch (NumberFormatException x)
+        {
+            fail(new HttpResponseException("Invalid status in " + replyInfo, response));
+            return;
+        }
+        if (space > 0)
+            response.reason(status.substring(space + 1).trim());
+
+        // Probe the protocol handlers
+        ProtocolHandler protocolHandler = client.findProtocolHandler(exchange.getRequest(), response);
+        Response.Listener handlerListener = null;
+        if (protocolHandler != null)
+        {
+            handlerListener = protocolHandler.getResponseListener();
+            LOG.debug("Found protocol handler {}", protocolHandler);
+        }
+        conversation.updateResponseListeners(handlerListener);
+
+        LOG.debug("Receiving {}", response);
+        notifier.notifyBegin(conversation.getResponseListeners(), response);
+
+        for (Fields.Field field : headers)
+        {
+            String name = field.name();
+            if (name.startsWith(":") || (version == SPDY.V2 && (field == versionField || field == statusField)))
+                continue;
+            for (String value : field.values())
+            {
+                HttpField httpField = new HttpField(name, value);
+                if (notifier.notifyHeader(conversation.getResponseListeners(), response, httpField))
+                {
+                    response.getHeaders().add(httpField);
+                    if (HttpHeader.SET_COOKIE.is(name) || HttpHeader.SET_COOKIE2.is(name))
+                        storeCookies(exchange.getRequest().getURI(), value);
+                }
+            }
+        }
+
+        LOG.debug("Headers {}", response);
+        notifier.notifyHeaders(conversation.getResponseListeners(), response);
+
+        Enumeration<String> contentEncodings = response.getHeaders().getValues(HttpHeader.CONTENT_ENCODING.asString(), ",");
+        if (contentEncodings != null)
+        {
+            for (ContentDecoder.Factory factory : client.getContentDecoderFactories())
+            {
+                while (contentEncodings.hasMoreElements())
+                {
+                    if (factory.getEncoding().equalsIgnoreCase(contentEncodings.nextElement()))
+                    {
+                        this.decoder = factory.newContentDecoder();
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (replyInfo.isClose())
+            responseSuccess();
+    }
+
+    private void storeCookies(URI uri, String value)
+    {
+        try
+        {
+            List<HttpCookie> cookies = HttpCookie.parse(value);
+            for (HttpCookie cookie : cookies)
+            {
+                if (cookie.getDomain() == null)
+                    cookie.setDomain(uri.getHost());
+                if (cookie.getPath() == null)
+                    cookie.setPath("/");
+                destination.getHttpClient().getCookieStore().add(uri, cookie);
+            }
+        }
+        catch (IllegalArgumentException x)
+        {
+            LOG.debug(x);
+        }
+    }
+
+    @Override
+    public void onHeaders(Stream stream, HeadersInfo headersInfo)
+    {
+        // Trailers are not exposed by the response API
+        if (headersInfo.isClose())
+            responseSuccess();
+    }
+
+    @Override
+    public void onData(Stream stream, DataInfo dataInfo)
+    {
+        // The content is copied, since the frame bytes are only valid during this method
+        DataChunk chunk = new DataChunk(dataInfo, dataInfo.available(), dataInfo.asByteBuffer(false));
+        synchronized (this)
+        {
+            dataChunks.offer(chunk);
+            // Content is notified one chunk at a time, so frames arriving
+            // while a listener is still consuming content are queued
+            if (notifying)
+                return;
+            notifying = true;
+        }
+        notifyContent();
+    }
+
+    private void notifyContent()
+    {
+        final DataChunk chunk;
+        synchronized (this)
+        {
+            chunk = dataChunks.poll();
+            if (chunk == null)
+            {
+                notifying = false;
+                return;
+            }
+        }
+
+        Callback callback = new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                // Consuming the data after the listeners have consumed
+                // it updates the receive window at the pace of the application
+                chunk.dataInfo.consume(chunk.length);
+                if (chunk.dataInfo.isClose())
+                    responseSuccess();
+                notifyContent();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                fail(x);
+            }
+        };
+
+        ByteBuffer buffer = chunk.buffer;
+        if (buffer.hasRemaining())
+        {
+            HttpConversation conversation = exchange.getConversation();
+            HttpResponse response = exchange.getResponse();
+            LOG.debug("Content {}: {} bytes", response, buffer.remaining());
+
+            ContentDecoder decoder = this.decoder;
+            if (decoder != null)
+            {
+                buffer = decoder.decode(buffer);
+                LOG.debug("{} {}: {} bytes", decoder, response, buffer.remaining());
+            }
+
+            ResponseNotifier notifier = destination.getResponseNotifier();
+            notifier.notifyContent(conversation.getResponseListeners(), response, buffer, callback);
+        }
+        else
+        {
+            callback.succeeded();
+        }
+    }
+
+    private void responseSuccess()
+    {
+        AtomicMarkableReference<Result> completion = exchange.responseComplete(null);
+        if (!completion.isMarked())
+            return;
+
+        decoder = null;
+        exchange.terminateResponse();
+
+        HttpResponse response = exchange.getResponse();
+        List<Response.ResponseListener> listeners = exchange.getConversation().getResponseListeners();
+        ResponseNotifier notifier = destination.getResponseNotifier();
+        notifier.notifySuccess(listeners, response);
+        LOG.debug("Received {}", response);
+
+        Result result = completion.getReference();
+        if (result != null)
+            complete(result);
+    }
+
+    /**
+     * <p>Fails both the request and the response of the exchange of this channel, and resets its stream.</p>
+     *
+     * @param failure the failure
+     * @return whether the response has been failed
+     */
+    public boolean fail(Throwable failure)
+    {
+        failed = true;
+
+        Stream stream = this.stream;
+        if (stream != null && !stream.isClosed())
+            reset(stream);
+
+        Result result = null;
+        AtomicMarkableReference<Result> requestCompletion = exchange.requestComplete(failure);
+        if (requestCompletion.isMarked())
+        {
+            if (contentIterator instanceof Callback)
+                ((Callback)contentIterator).failed(failure);
+            exchange.terminateRequest();
+            destination.getRequestNotifier().notifyFailure(exchange.getRequest(), failure);
+            LOG.debug("Failed {} {}", exchange.getRequest(), failure);
+            result = requestCompletion.getReference();
+        }
+
+        boolean failedResponse = false;
+        AtomicMarkableReference<Result> responseCompletion = exchange.responseComplete(failure);
+        if (responseCompletion.isMarked())
+        {
+            failedResponse = true;
+            decoder = null;
+            exchange.terminateResponse();
+            HttpConversation conversation = exchange.getConversation();
+            destination.getResponseNotifier().notifyFailure(conversation.getResponseListeners(), exchange.getResponse(), failure);
+            LOG.debug("Failed {} {}", exchange.getResponse(), failure);
+            result = responseCompletion.getReference();
+        }
+
+        if (result != null)
+            complete(result);
+
+        return failedResponse;
+    }
+
+    private void reset(Stream stream)
+    {
+        session.rst(new RstInfo(stream.getId(), StreamStatus.CANCEL_STREAM), new Callback.Adapter());
+    }
+
+    private void complete(Result result)
+    {
+        exchange.setChannel(null);
+        destination.complete(this);
+        HttpConversation conversation = exchange.getConversation();
+        destination.getResponseNotifier().notifyComplete(conversation.getResponseListeners(), result);
+    }
+
+    @Override
+    public boolean abort(HttpExchange exchange, Throwable cause)
+    {
+        return fail(cause);
+    }
+
+    @Override
+    public void proceed(boolean proceed)
+    {
+        // SPDY has no interim responses, so the content is never held back
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x(%s)", HttpChannelOverSPDY.class.getSimpleName(), hashCode(), stream);
+    }
+
+    private static class DataChunk
+    {
+        private final DataInfo dataInfo;
+        private final int length;
+        private final ByteBuffer buffer;
+
+        private DataChunk(DataInfo dataInfo, int length, ByteBuffer buffer)
+        {
+            this.dataInfo = dataInfo;
+            this.length = length;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy.client.http;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpClientTransport;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.spdy.client.SPDYClient;
+
+/**
+ * <p>A {@link HttpClientTransport} that sends the requests of a {@link HttpClient} over SPDY.</p>
+ * <p>Each destination opens a single SPDY session, and multiplexes its exchanges over it, one
+ * SPDY stream per exchange, honoring the max number of concurrent streams advertised by the
+ * server and the SPDY flow control windows.</p>
+ * <p>Typical usage:</p>
+ * <pre>
+ * SPDYClient.Factory factory = new SPDYClient.Factory();
+ * factory.start();
+ * SPDYClient spdyClient = factory.newSPDYClient(SPDY.V3);
+ * HttpClient httpClient = new HttpClient(new HttpClientTransportOverSPDY(spdyClient), null);
+ * httpClient.start();
+ * </pre>
+ */
+public class HttpClientTransportOverSPDY implements HttpClientTransport
+{
+    private final SPDYClient spdyClient;
+    private volatile HttpClient client;
+
+    public HttpClientTransportOverSPDY(SPDYClient spdyClient)
+    {
+        this.spdyClient = spdyClient;
+    }
+
+    public SPDYClient getSPDYClient()
+    {
+        return spdyClient;
+    }
+
+    @Override
+    public void setHttpClient(HttpClient client)
+    {
+        this.client = client;
+    }
+
+    @Override
+    public HttpDestination newHttpDestination(String scheme, String host, int port)
+    {
+        return new HttpDestinationOverSPDY(client, spdyClient, scheme, host, port);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x", getClass().getSimpleName(), hashCode());
+    }
+}
@@ -0,0 +1,350 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy.client.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.HttpExchange;
+import org.eclipse.jetty.client.api.Connection;
+import org.eclipse.jetty.spdy.StreamException;
+import org.eclipse.jetty.spdy.api.GoAwayInfo;
+import org.eclipse.jetty.spdy.api.GoAwayResultInfo;
+import org.eclipse.jetty.spdy.api.RstInfo;
+import org.eclipse.jetty.spdy.api.Session;
+import org.eclipse.jetty.spdy.api.SessionFrameListener;
+import org.eclipse.jetty.spdy.api.Settings;
+import org.eclipse.jetty.spdy.api.SettingsInfo;
+import org.eclipse.jetty.spdy.client.SPDYClient;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>A {@link HttpDestination} that multiplexes its exchanges over a single SPDY {@link Session}.</p>
+ * <p>The session is opened when the first request is queued, and it is opened again if it is
+ * closed by the server. Queued exchanges are sent as soon as the number of active streams is
+ * below the max number of concurrent streams advertised by the server via SETTINGS; when a stream
+ * completes, the next queued exchange is sent.</p>
+ * <p>This destination does not pool connections: {@link #newConnection(Promise)} is not supported.</p>
+ */
+public class HttpDestinationOverSPDY extends HttpDestination
+{
+    private static final Logger LOG = Log.getLogger(HttpDestinationOverSPDY.class);
+
+    private final Set<HttpChannelOverSPDY> channels = Collections.newSetFromMap(new ConcurrentHashMap<HttpChannelOverSPDY, Boolean>());
+    private final HttpClient client;
+    private final SPDYClient spdyClient;
+    private Session session;
+    private boolean connecting;
+    private int maxConcurrentStreams = Integer.MAX_VALUE;
+
+    public HttpDestinationOverSPDY(HttpClient client, SPDYClient spdyClient, String scheme, String host, int port)
+    {
+        super(client, scheme, host, port);
+        this.client = client;
+        this.spdyClient = spdyClient;
+    }
+
+    public HttpClient getHttpClient()
+    {
+        return client;
+    }
+
+    /**
+     * @return the max number of concurrent streams advertised by the server
+     */
+    public synchronized int getMaxConcurrentStreams()
+    {
+        return maxConcurrentStreams;
+    }
+
+    /**
+     * @return the number of exchanges being sent or received
+     */
+    public int getActiveStreams()
+    {
+        return channels.size();
+    }
+
+    @Override
+    protected void send()
+    {
+        boolean connect = false;
+        Session session;
+        synchronized (this)
+        {
+            session = this.session;
+            if (session == null && !connecting)
+                connecting = connect = true;
+        }
+
+        if (session == null)
+        {
+            if (connect)
+                connect();
+            return;
+        }
+
+        while (true)
+        {
+            HttpExchange exchange;
+            HttpChannelOverSPDY channel = null;
+            synchronized (this)
+            {
+                if (this.session != session || channels.size() >= maxConcurrentStreams)
+                    return;
+                exchange = getHttpExchanges().poll();
+                if (exchange == null)
+                    return;
+                if (exchange.getRequest().getAbortCause() == null)
+                {
+                    channel = new HttpChannelOverSPDY(this, session, exchange);
+                    channels.add(channel);
+                }
+            }
+
+            if (channel == null)
+            {
+                Throwable cause = exchange.getRequest().getAbortCause();
+                LOG.debug("Aborted before processing {}: {}", exchange, cause);
+                abort(exchange, cause);
+            }
+            else
+            {
+                normalizeRequest(exchange.getRequest());
+                channel.send();
+            }
+        }
+    }
+
+    private void connect()
+    {
+        try
+        {
+            InetSocketAddress address = new InetSocketAddress(getHost(), getPort());
+            LOG.debug("Connecting to {} for {}", address, this);
+            final SessionListener listener = new SessionListener();
+            spdyClient.connect(address, listener, new Promise<Session>()
+            {
+                @Override
+                public void succeeded(Session session)
+                {
+                    LOG.debug("Opened {} for {}", session, HttpDestinationOverSPDY.this);
+                    listener.session = session;
+                    synchronized (HttpDestinationOverSPDY.this)
+                    {
+                        HttpDestinationOverSPDY.this.session = session;
+                        connecting = false;
+                    }
+                    send();
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    connectFailed(x);
+                }
+            });
+        }
+        catch (IOException x)
+        {
+            connectFailed(x);
+        }
+    }
+
+    private void connectFailed(Throwable failure)
+    {
+        LOG.debug("Connection failed {} for {}", failure, this);
+        synchronized (this)
+        {
+            connecting = false;
+        }
+        // Fail the exchanges that were waiting for this session
+        HttpExchange exchange;
+        while ((exchange = getHttpExchanges().poll()) != null)
+            abort(exchange, failure);
+    }
+
+    /**
+     * <p>Called by a channel when its exchange has completed, to send the next queued exchange.</p>
+     *
+     * @param channel the channel whose exchange has completed
+     */
+    protected void complete(HttpChannelOverSPDY channel)
+    {
+        if (channels.remove(channel))
+        {
+            LOG.debug("{} completed, {} active streams", channel, channels.size());
+            if (!getHttpExchanges().isEmpty())
+                send();
+        }
+    }
+
+    /**
+     * <p>Called by a channel when its stream cannot be opened, for example because the session
+     * has been closed, so that a new session is opened for the queued exchanges.</p>
+     *
+     * @param session the session that failed
+     * @param failure the failure
+     */
+    protected void sessionFailed(Session session, Throwable failure)
+    {
+        LOG.debug("{} failed {} for {}", session, failure, this);
+        // Only the exchanges whose streams could not be opened fail
+        sessionClosed(session, Integer.MAX_VALUE, failure);
+    }
+
+    /**
+     * <p>Forgets the given session, so that a new one is opened for the queued exchanges,
+     * and fails the exchanges active on that session whose stream id is greater than the given one.</p>
+     *
+     * @param session the session that cannot be used anymore
+     * @param lastStreamId the id of the last stream processed by the server
+     * @param failure the failure of the exchanges whose streams have not been processed
+     */
+    private void sessionClosed(Session session, int lastStreamId, Throwable failure)
+    {
+        synchronized (this)
+        {
+            if (this.session == session)
+                this.session = null;
+        }
+
+        List<HttpChannelOverSPDY> failed = new ArrayList<>();
+        for (HttpChannelOverSPDY channel : channels)
+        {
+            if (channel.getSession() == session && channel.getStreamId() > lastStreamId)
+                failed.add(channel);
+        }
+        for (HttpChannelOverSPDY channel : failed)
+            channel.fail(failure);
+
+        if (!getHttpExchanges().isEmpty())
+            send();
+    }
+
+    private HttpChannelOverSPDY findChannel(Session session, int streamId)
+    {
+        for (HttpChannelOverSPDY channel : channels)
+        {
+            if (channel.getSession() == session && channel.getStreamId() == streamId)
+                return channel;
+        }
+        return null;
+    }
+
+    @Override
+    public void newConnection(Promise<Connection> promise)
+    {
+        promise.failed(new UnsupportedOperationException("Connections cannot be created for " + this));
+    }
+
+    @Override
+    public void close()
+    {
+        super.close();
+
+        Session session;
+        synchronized (this)
+        {
+            session = this.session;
+            this.session = null;
+        }
+
+        AsynchronousCloseException failure = new AsynchronousCloseException();
+        for (HttpChannelOverSPDY channel : new ArrayList<>(channels))
+            channel.fail(failure);
+
+        if (session != null)
+            session.goAway(new GoAwayInfo(), new Callback.Adapter());
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s(%s://%s:%d)",
+                HttpDestinationOverSPDY.class.getSimpleName(),
+                getScheme(),
+                getHost(),
+                getPort());
+    }
+
+    private class SessionListener extends SessionFrameListener.Adapter
+    {
+        private volatile Session session;
+
+        @Override
+        public void onSettings(Session session, SettingsInfo settingsInfo)
+        {
+            Settings.Setting setting = settingsInfo.getSettings().get(Settings.ID.MAX_CONCURRENT_STREAMS);
+            if (setting != null)
+            {
+                synchronized (HttpDestinationOverSPDY.this)
+                {
+                    maxConcurrentStreams = setting.value();
+                }
+                LOG.debug("Max concurrent streams {} for {}", setting.value(), HttpDestinationOverSPDY.this);
+                // The limit may have been raised
+                send();
+            }
+        }
+
+        @Override
+        public void onRst(Session session, RstInfo rstInfo)
+        {
+            HttpChannelOverSPDY channel = findChannel(session, rstInfo.getStreamId());
+            if (channel != null)
+                channel.fail(new EOFException("Stream reset: " + rstInfo.getStreamStatus()));
+        }
+
+        @Override
+        public void onGoAway(Session session, GoAwayResultInfo goAwayResultInfo)
+        {
+            LOG.debug("Received {} on {} for {}", goAwayResultInfo, session, HttpDestinationOverSPDY.this);
+            sessionClosed(session, goAwayResultInfo.getLastStreamId(), new EOFException("Session closed: " + goAwayResultInfo.getSessionStatus()));
+        }
+
+        @Override
+        public void onException(Throwable x)
+        {
+            if (x instanceof StreamException)
+            {
+                // The session resets the stream, but does not tell the stream listener
+                HttpChannelOverSPDY channel = findChannel(session, ((StreamException)x).getStreamId());
+                if (channel != null)
+                    channel.fail(x);
+            }
+            else
+            {
+                LOG.debug(x);
+            }
+        }
+    }
+}
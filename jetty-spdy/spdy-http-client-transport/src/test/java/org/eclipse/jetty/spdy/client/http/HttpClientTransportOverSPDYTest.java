@@ -0,0 +1,237 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy.client.http;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.spdy.api.SPDY;
+import org.eclipse.jetty.spdy.client.SPDYClient;
+import org.eclipse.jetty.spdy.server.http.HTTPSPDYServerConnector;
+import org.eclipse.jetty.spdy.server.http.PushStrategy;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class HttpClientTransportOverSPDYTest
+{
+    @Parameterized.Parameters
+    public static Collection<Short[]> parameters()
+    {
+        return Arrays.asList(new Short[]{SPDY.V2}, new Short[]{SPDY.V3});
+    }
+
+    private final short version;
+    private Server server;
+    private HTTPSPDYServerConnector connector;
+    private SPDYClient.Factory clientFactory;
+    private HttpClient client;
+
+    public HttpClientTransportOverSPDYTest(short version)
+    {
+        this.version = version;
+    }
+
+    private void start(AbstractHandler handler) throws Exception
+    {
+        server = new Server();
+        connector = new HTTPSPDYServerConnector(server, version, new HttpConfiguration(), new PushStrategy.None());
+        server.addConnector(connector);
+        server.setHandler(handler);
+        server.start();
+
+        QueuedThreadPool clientThreads = new QueuedThreadPool();
+        clientThreads.setName("client");
+        clientFactory = new SPDYClient.Factory(clientThreads);
+        clientFactory.start();
+        client = new HttpClient(new HttpClientTransportOverSPDY(clientFactory.newSPDYClient(version)), null);
+        client.start();
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        if (client != null)
+            client.stop();
+        if (clientFactory != null)
+            clientFactory.stop();
+        if (server != null)
+            server.stop();
+    }
+
+    @Test
+    public void testGET() throws Exception
+    {
+        final String content = "0123456789";
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setHeader("X-Query", request.getQueryString());
+                response.getOutputStream().print(content);
+            }
+        });
+
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .path("/path")
+                .param("a", "b")
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("a=b", response.getHeaders().get("X-Query"));
+        Assert.assertEquals(content, response.getContentAsString());
+    }
+
+    @Test
+    public void testPOSTWithContent() throws Exception
+    {
+        start(new EchoHandler());
+
+        byte[] content = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .method(HttpMethod.POST)
+                .content(new BytesContentProvider(content, content))
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        byte[] expected = new byte[2 * content.length];
+        System.arraycopy(content, 0, expected, 0, content.length);
+        System.arraycopy(content, 0, expected, content.length, content.length);
+        Assert.assertArrayEquals(expected, response.getContent());
+    }
+
+    @Test
+    public void testConcurrentRequestsAreMultiplexedOnOneSession() throws Exception
+    {
+        final int count = 8;
+        final CountDownLatch arrivedLatch = new CountDownLatch(count);
+        final Set<Integer> remotePorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                remotePorts.add(request.getRemotePort());
+                arrivedLatch.countDown();
+                try
+                {
+                    // All the requests must be in progress at the same time
+                    if (!arrivedLatch.await(5, TimeUnit.SECONDS))
+                        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+                catch (InterruptedException x)
+                {
+                    throw new ServletException(x);
+                }
+            }
+        });
+
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicInteger successes = new AtomicInteger();
+        for (int i = 0; i < count; ++i)
+        {
+            client.newRequest("localhost", connector.getLocalPort())
+                    .path("/" + i)
+                    .send(new BufferingResponseListener()
+                    {
+                        @Override
+                        public void onComplete(Result result)
+                        {
+                            if (result.isSucceeded() && result.getResponse().getStatus() == 200)
+                                successes.incrementAndGet();
+                            latch.countDown();
+                        }
+                    });
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(count, successes.get());
+        Assert.assertEquals(1, remotePorts.size());
+    }
+
+    @Test
+    public void testResponseLargerThanFlowControlWindow() throws Exception
+    {
+        final byte[] content = new byte[4 * 65536 + 1];
+        Arrays.fill(content, (byte)'x');
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.getOutputStream().write(content);
+            }
+        });
+
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .timeout(10, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertArrayEquals(content, response.getContent());
+    }
+
+    private static class EchoHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+        {
+            baseRequest.setHandled(true);
+            ServletInputStream input = request.getInputStream();
+            ServletOutputStream output = response.getOutputStream();
+            byte[] buffer = new byte[512];
+            int read;
+            while ((read = input.read(buffer)) >= 0)
+                output.write(buffer, 0, read);
+        }
+    }
+}
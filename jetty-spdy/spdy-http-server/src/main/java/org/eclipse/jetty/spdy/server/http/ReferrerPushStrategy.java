@@ -22,18 +22,24 @@ package org.eclipse.jetty.spdy.server.http;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
+import org.eclipse.jetty.spdy.api.Session;
 import org.eclipse.jetty.spdy.api.Stream;
 import org.eclipse.jetty.util.Fields;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -53,17 +59,43 @@ import org.eclipse.jetty.util.log.Logger;
  * number of pages of the application itself, and by the {@link #setMaxAssociatedResources(int)} max associated resources}
  * parameter. This parameter limits the number of associated resources per each main resource, so that if a main
  * resource has hundreds of associated resources, only up to the number specified by this parameter will be pushed.
+ * The number of main resources is limited by the {@link #setMaxMainResources(int) max main resources} parameter;
+ * when it is exceeded, the least recently requested main resources are forgotten.</p>
+ * <p>Resources are pushed at most once per SPDY session: a resource already pushed, or that the client requested
+ * with conditional headers such as {@code If-Modified-Since} or {@code If-None-Match} (and therefore has in cache),
+ * is not pushed again on the same session. Main resources requested with conditional headers do not trigger pushes,
+ * since the client most likely has in cache also their associated resources.</p>
  */
+@ManagedObject("SPDY push strategy based on referrer URLs")
 public class ReferrerPushStrategy implements PushStrategy
 {
     private static final Logger logger = Log.getLogger(ReferrerPushStrategy.class);
-    private final ConcurrentMap<String, MainResource> mainResources = new ConcurrentHashMap<>();
+    private static final String PUSHED_RESOURCES_ATTRIBUTE = ReferrerPushStrategy.class.getName() + ".pushedResources";
+    private final Map<String, MainResource> mainResources = new LinkedHashMap<String, MainResource>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MainResource> eldest)
+        {
+            boolean evict = size() > maxMainResources;
+            if (evict)
+            {
+                evictedMainResources.incrementAndGet();
+                logger.debug("Evicting {}", eldest.getValue());
+            }
+            return evict;
+        }
+    };
     private final Set<Pattern> pushRegexps = new HashSet<>();
     private final Set<String> pushContentTypes = new HashSet<>();
     private final Set<Pattern> allowedPushOrigins = new HashSet<>();
     private final Set<Pattern> userAgentBlacklist = new HashSet<>();
     private volatile int maxAssociatedResources = 32;
     private volatile int referrerPushPeriod = 5000;
+    private volatile int maxMainResources = 1024;
+    private final AtomicLong pushes = new AtomicLong();
+    private final AtomicLong avoidedPushes = new AtomicLong();
+    private final AtomicLong wastedPushes = new AtomicLong();
+    private final AtomicLong evictedMainResources = new AtomicLong();
 
     public ReferrerPushStrategy()
     {
@@ -143,23 +175,85 @@ public class ReferrerPushStrategy implements PushStrategy
         return userAgentBlacklist;
     }
 
+    @ManagedAttribute("The max number of associated resources of a main resource")
     public int getMaxAssociatedResources()
     {
         return maxAssociatedResources;
     }
 
+    @ManagedAttribute("The period in ms after the first associated resource request during which associated resources are learned")
     public int getReferrerPushPeriod()
     {
         return referrerPushPeriod;
     }
 
+    @ManagedAttribute("The max number of main resources")
+    public int getMaxMainResources()
+    {
+        return maxMainResources;
+    }
+
+    public void setMaxMainResources(int maxMainResources)
+    {
+        this.maxMainResources = maxMainResources;
+    }
+
+    @ManagedAttribute("The number of main resources")
+    public int getMainResources()
+    {
+        synchronized (mainResources)
+        {
+            return mainResources.size();
+        }
+    }
+
+    @ManagedAttribute("The number of main resources forgotten because in excess")
+    public long getEvictedMainResources()
+    {
+        return evictedMainResources.get();
+    }
+
+    @ManagedAttribute("The number of resources pushed")
+    public long getPushes()
+    {
+        return pushes.get();
+    }
+
+    @ManagedAttribute("The number of pushes avoided because the resource was already pushed or cached on the client")
+    public long getAvoidedPushes()
+    {
+        return avoidedPushes.get();
+    }
+
+    @ManagedAttribute("The number of pushed resources that the client requested anyway on the same session")
+    public long getWastedPushes()
+    {
+        return wastedPushes.get();
+    }
+
+    @ManagedAttribute("The ratio of pushed resources that the client did not request again")
+    public double getPushHitRatio()
+    {
+        long pushes = getPushes();
+        return pushes == 0 ? 0 : 1 - (double)getWastedPushes() / pushes;
+    }
+
+    @ManagedOperation("Resets the statistics")
+    public void resetStatistics()
+    {
+        pushes.set(0);
+        avoidedPushes.set(0);
+        wastedPushes.set(0);
+        evictedMainResources.set(0);
+    }
+
     @Override
     public Set<String> apply(Stream stream, Fields requestHeaders, Fields responseHeaders)
     {
         Set<String> result = Collections.<String>emptySet();
         short version = stream.getSession().getVersion();
-        if (!isIfModifiedSinceHeaderPresent(requestHeaders) && isValidMethod(requestHeaders.get(HTTPSPDYHeader.METHOD
-                .name(version)).value()) && !isUserAgentBlacklisted(requestHeaders))
+        if (isValidMethod(requestHeaders.get(HTTPSPDYHeader.METHOD.name(version)).value()) &&
+                !isUserAgentBlacklisted(requestHeaders))
         {
             String scheme = requestHeaders.get(HTTPSPDYHeader.SCHEME.name(version)).value();
             String host = requestHeaders.get(HTTPSPDYHeader.HOST.name(version)).value();
@@ -167,26 +261,45 @@ public class ReferrerPushStrategy implements PushStrategy
             String url = requestHeaders.get(HTTPSPDYHeader.URI.name(version)).value();
             String absoluteURL = origin + url;
             logger.debug("Applying push strategy for {}", absoluteURL);
+            boolean conditional = isConditionalRequest(requestHeaders);
             if (isMainResource(url, responseHeaders))
             {
-                MainResource mainResource = getOrCreateMainResource(absoluteURL);
-                result = mainResource.getResources();
+                // A conditional request for the main resource means that the
+                // client is likely to have in cache the associated resources too
+                if (!conditional)
+                {
+                    MainResource mainResource = getOrCreateMainResource(absoluteURL);
+                    result = getPushableResources(stream.getSession(), origin, mainResource.getResources());
+                }
             }
             else if (isPushResource(url, responseHeaders))
             {
-                Fields.Field referrerHeader = requestHeaders.get("referer");
-                if (referrerHeader != null)
+                if (conditional)
+                {
+                    // The client has this resource in cache, do not push it on this session
+                    getPushedResources(stream.getSession(), true).add(absoluteURL);
+                }
+                else
                 {
-                    String referrer = referrerHeader.value();
-                    MainResource mainResource = mainResources.get(referrer);
-                    if (mainResource == null)
-                        mainResource = getOrCreateMainResource(referrer);
-
-                    Set<String> pushResources = mainResource.getResources();
-                    if (!pushResources.contains(url))
-                        mainResource.addResource(url, origin, referrer);
-                    else
-                        result = getPushResources(absoluteURL);
+                    Set<String> pushedResources = getPushedResources(stream.getSession(), false);
+                    if (!stream.isUnidirectional() && pushedResources != null && pushedResources.contains(absoluteURL))
+                    {
+                        logger.debug("Requested already pushed resource {}", absoluteURL);
+                        wastedPushes.incrementAndGet();
+                    }
+
+                    Fields.Field referrerHeader = requestHeaders.get("referer");
+                    if (referrerHeader != null)
+                    {
+                        String referrer = referrerHeader.value();
+                        MainResource mainResource = getOrCreateMainResource(referrer);
+
+                        Set<String> pushResources = mainResource.getResources();
+                        if (!pushResources.contains(url))
+                            mainResource.addResource(url, origin, referrer);
+                        else
+                            result = getPushableResources(stream.getSession(), origin, getPushResources(absoluteURL));
+                    }
                 }
             }
             logger.debug("Pushing {} resources for {}: {}", result.size(), absoluteURL, result);
@@ -194,31 +307,73 @@ public class ReferrerPushStrategy implements PushStrategy
         return result;
     }
 
+    /**
+     * @return the given resources that have not been pushed yet on the given session, marking them as pushed
+     */
+    private Set<String> getPushableResources(Session session, String origin, Set<String> resources)
+    {
+        if (resources.isEmpty())
+            return resources;
+
+        Set<String> pushedResources = getPushedResources(session, true);
+        Set<String> result = new LinkedHashSet<>();
+        for (String resource : resources)
+        {
+            if (pushedResources.add(origin + resource))
+                result.add(resource);
+            else
+                avoidedPushes.incrementAndGet();
+        }
+        pushes.addAndGet(result.size());
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> getPushedResources(Session session, boolean create)
+    {
+        synchronized (session)
+        {
+            Set<String> result = (Set<String>)session.getAttribute(PUSHED_RESOURCES_ATTRIBUTE);
+            if (result == null && create)
+            {
+                result = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                session.setAttribute(PUSHED_RESOURCES_ATTRIBUTE, result);
+            }
+            return result;
+        }
+    }
+
     private Set<String> getPushResources(String absoluteURL)
     {
         Set<String> result = Collections.emptySet();
-        if (mainResources.get(absoluteURL) != null)
-            result = mainResources.get(absoluteURL).getResources();
+        MainResource mainResource;
+        synchronized (mainResources)
+        {
+            mainResource = mainResources.get(absoluteURL);
+        }
+        if (mainResource != null)
+            result = mainResource.getResources();
         return result;
     }
 
     private MainResource getOrCreateMainResource(String absoluteURL)
     {
-        MainResource mainResource = mainResources.get(absoluteURL);
-        if (mainResource == null)
+        synchronized (mainResources)
         {
-            logger.debug("Creating new main resource for {}", absoluteURL);
-            MainResource value = new MainResource(absoluteURL);
-            mainResource = mainResources.putIfAbsent(absoluteURL, value);
+            MainResource mainResource = mainResources.get(absoluteURL);
             if (mainResource == null)
-                mainResource = value;
+            {
+                logger.debug("Creating new main resource for {}", absoluteURL);
+                mainResource = new MainResource(absoluteURL);
+                mainResources.put(absoluteURL, mainResource);
+            }
+            return mainResource;
         }
-        return mainResource;
     }
 
-    private boolean isIfModifiedSinceHeaderPresent(Fields headers)
+    private boolean isConditionalRequest(Fields headers)
     {
-        return headers.get("if-modified-since") != null;
+        return headers.get("if-modified-since") != null || headers.get("if-none-match") != null;
     }
 
     private boolean isValidMethod(String method)
@@ -19,6 +19,9 @@
 package org.eclipse.jetty.spdy.server.http;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.jetty.spdy.api.SPDY;
@@ -29,10 +32,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -107,6 +115,73 @@ public class ReferrerPushStrategyUnitTest
         assertThat("no resources are returned as we want to filter firefox", pushResources.size(), is(0));
     }
 
+    @Test
+    public void testResourcesArePushedOncePerSession()
+    {
+        Fields requestHeaders = getBaseHeaders(VERSION);
+        setMockExpectations();
+        fillPushStrategyCache(requestHeaders);
+
+        setSessionAttributesExpectations();
+        requestHeaders.remove("referer");
+        Set<String> pushResources = referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat("pushResources contains two elements image.jpg and style.css", pushResources.size(), is(2));
+
+        pushResources = referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat("resources already pushed on this session are not pushed again", pushResources.size(), is(0));
+        assertThat(referrerPushStrategy.getAvoidedPushes(), is(2L));
+
+        // The client requests anyway a pushed resource
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), "image.jpg");
+        requestHeaders.put("referer", SCHEME + "://" + HOST + MAIN_URI);
+        referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat(referrerPushStrategy.getWastedPushes(), is(1L));
+    }
+
+    @Test
+    public void testConditionalRequestsPreventPush()
+    {
+        Fields requestHeaders = getBaseHeaders(VERSION);
+        setMockExpectations();
+        String referrerUrl = fillPushStrategyCache(requestHeaders);
+
+        setSessionAttributesExpectations();
+        requestHeaders.remove("referer");
+        requestHeaders.put("if-none-match", "\"1\"");
+        Set<String> pushResources = referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat("conditional main resource requests do not push", pushResources.size(), is(0));
+
+        // The client has style.css in cache
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), "style.css");
+        requestHeaders.put("referer", referrerUrl);
+        referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+
+        requestHeaders.remove("if-none-match");
+        requestHeaders.remove("referer");
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), MAIN_URI);
+        pushResources = referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat("only image.jpg is pushed", pushResources, is((Set<String>)new HashSet<>(Arrays.asList("image.jpg"))));
+    }
+
+    @Test
+    public void testMainResourcesAreBounded()
+    {
+        referrerPushStrategy.setMaxMainResources(1);
+        Fields requestHeaders = getBaseHeaders(VERSION);
+        setMockExpectations();
+        fillPushStrategyCache(requestHeaders);
+
+        requestHeaders.remove("referer");
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), "/other.html");
+        referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat(referrerPushStrategy.getMainResources(), is(1));
+        assertThat(referrerPushStrategy.getEvictedMainResources(), is(1L));
+
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), MAIN_URI);
+        Set<String> pushResources = referrerPushStrategy.apply(stream, requestHeaders, new Fields());
+        assertThat("evicted main resources are learned again", pushResources.size(), is(0));
+    }
+
     private Fields getBaseHeaders(short version)
     {
         Fields requestHeaders = new Fields();
@@ -123,6 +198,27 @@ public class ReferrerPushStrategyUnitTest
         when(session.getVersion()).thenReturn(VERSION);
     }
 
+    private void setSessionAttributesExpectations()
+    {
+        final Map<String, Object> attributes = new HashMap<>();
+        when(session.getAttribute(anyString())).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return attributes.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return attributes.put((String)invocation.getArguments()[0], invocation.getArguments()[1]);
+            }
+        }).when(session).setAttribute(anyString(), any());
+    }
+
     private String fillPushStrategyCache(Fields requestHeaders)
     {
         Set<String> pushResources = referrerPushStrategy.apply(stream, requestHeaders, new Fields());
@@ -20,15 +20,20 @@ package org.eclipse.jetty.spdy.server.http;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
@@ -40,6 +45,7 @@ import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.spdy.api.BytesDataInfo;
 import org.eclipse.jetty.spdy.api.DataInfo;
@@ -575,6 +581,61 @@ public class ServerHTTPSPDYTest extends AbstractHTTPSPDYTest
         assertTrue(dataLatch.await(5, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testGETWithBigFileContent() throws Exception
+    {
+        // A plain SPDY connection runs over a ChannelEndPoint, but the file must still be framed
+        final byte[] data = new byte[128 * 1024];
+        for (int i = 0; i < data.length; ++i)
+            data[i] = (byte)i;
+        final File file = File.createTempFile("content", ".bin");
+        file.deleteOnExit();
+        try (FileOutputStream output = new FileOutputStream(file))
+        {
+            output.write(data);
+        }
+
+        final AtomicLong written = new AtomicLong();
+        final CountDownLatch handlerLatch = new CountDownLatch(1);
+        Session session = startClient(version, startHTTPServer(version, new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request request, HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+                    throws IOException, ServletException
+            {
+                request.setHandled(true);
+                httpResponse.setStatus(HttpServletResponse.SC_OK);
+                httpResponse.setContentLength(data.length);
+                Response response = (Response)httpResponse;
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+                {
+                    response.getHttpOutput().sendContent(channel, 0, data.length);
+                }
+                written.set(response.getContentCount());
+                handlerLatch.countDown();
+            }
+        }), null);
+
+        Fields headers = SPDYTestUtils.createHeaders("localhost", connector.getPort(), version, "GET", "/foo");
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final CountDownLatch dataLatch = new CountDownLatch(1);
+        session.syn(new SynInfo(headers, true), new StreamFrameListener.Adapter()
+        {
+            @Override
+            public void onData(Stream stream, DataInfo dataInfo)
+            {
+                byte[] bytes = dataInfo.asBytes(true);
+                content.write(bytes, 0, bytes.length);
+                if (dataInfo.isClose())
+                    dataLatch.countDown();
+            }
+        });
+        assertTrue(handlerLatch.await(5, TimeUnit.SECONDS));
+        assertTrue(dataLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertArrayEquals(data, content.toByteArray());
+        assertEquals(data.length, written.get());
+    }
+
     @Test
     public void testGETWithBigResponseContentInMultipleWrites() throws Exception
     {
@@ -70,7 +70,9 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
     private final ServerSessionFrameListener listener;
     private int initialWindowSize;
     private boolean executeOnFillable = true;
+    private int executeOnSelectorBudget;
     private final Queue<Session> sessions = new ConcurrentLinkedQueue<>();
+    private CompressionFactory compressionFactory;
 
     public SPDYServerConnectionFactory(int version)
     {
@@ -83,6 +85,7 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
         this.version = (short)version;
         this.listener = listener;
         setInitialWindowSize(65536);
+        setCompressionFactory(new StandardCompressionFactory());
     }
 
     @ManagedAttribute("SPDY version")
@@ -99,13 +102,15 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
     @Override
     public Connection newConnection(Connector connector, EndPoint endPoint)
     {
-        CompressionFactory compressionFactory = new StandardCompressionFactory();
-        Parser parser = new Parser(compressionFactory.newDecompressor());
-        Generator generator = new Generator(connector.getByteBufferPool(), compressionFactory.newCompressor());
+        CompressionFactory compressionFactory = getCompressionFactory();
+        CompressionFactory.Compressor compressor = compressionFactory.newCompressor();
+        CompressionFactory.Decompressor decompressor = compressionFactory.newDecompressor();
+        Parser parser = new Parser(decompressor);
+        Generator generator = new Generator(connector.getByteBufferPool(), compressor);
 
         ServerSessionFrameListener listener = provideServerSessionFrameListener(connector, endPoint);
         SPDYConnection connection = new ServerSPDYConnection(connector, endPoint, parser, listener,
-                executeOnFillable, getInputBufferSize());
+                executeOnFillable, getInputBufferSize(), compressor, decompressor);
 
         FlowControlStrategy flowControlStrategy = newFlowControlStrategy(version);
 
@@ -115,6 +120,7 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
         session.setWindowSize(initialWindowSize);
         parser.addListener(session);
         connection.setSession(session);
+        connection.setExecuteOnSelectorBudget(executeOnSelectorBudget);
 
         sessionOpened(session);
 
@@ -142,6 +148,20 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
         this.initialWindowSize = initialWindowSize;
     }
 
+    public CompressionFactory getCompressionFactory()
+    {
+        return compressionFactory;
+    }
+
+    /**
+     * @param compressionFactory the factory of the headers compression contexts, shared by all the sessions
+     */
+    public void setCompressionFactory(CompressionFactory compressionFactory)
+    {
+        updateBean(this.compressionFactory, compressionFactory);
+        this.compressionFactory = compressionFactory;
+    }
+
     @ManagedAttribute("Execute onFillable")
     public boolean isExecuteOnFillable()
     {
@@ -153,6 +173,26 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
         this.executeOnFillable = executeOnFillable;
     }
 
+    @ManagedAttribute("Consecutive reads executed in the selector thread")
+    public int getExecuteOnSelectorBudget()
+    {
+        return executeOnSelectorBudget;
+    }
+
+    /**
+     * <p>Lets the SPDY connections read and parse frames in the selector thread, for up to the
+     * given number of consecutive reads, saving a thread dispatch per read.</p>
+     * <p>This is safe because SPDY connections never block when reading: application code is
+     * always invoked in another thread.</p>
+     *
+     * @param executeOnSelectorBudget the number of consecutive reads run in the selector thread, or 0 to always dispatch
+     * @see org.eclipse.jetty.io.AbstractConnection#setExecuteOnSelectorBudget(int)
+     */
+    public void setExecuteOnSelectorBudget(int executeOnSelectorBudget)
+    {
+        this.executeOnSelectorBudget = executeOnSelectorBudget;
+    }
+
     protected boolean sessionOpened(Session session)
     {
         // Add sessions only if the connector is not stopping
@@ -188,14 +228,19 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
     private class ServerSPDYConnection extends SPDYConnection implements Runnable
     {
         private final ServerSessionFrameListener listener;
+        private final CompressionFactory.Compressor compressor;
+        private final CompressionFactory.Decompressor decompressor;
         private final AtomicBoolean connected = new AtomicBoolean();
 
         private ServerSPDYConnection(Connector connector, EndPoint endPoint, Parser parser,
-                                     ServerSessionFrameListener listener, boolean executeOnFillable, int bufferSize)
+                                     ServerSessionFrameListener listener, boolean executeOnFillable, int bufferSize,
+                                     CompressionFactory.Compressor compressor, CompressionFactory.Decompressor decompressor)
         {
             super(endPoint, connector.getByteBufferPool(), parser, connector.getExecutor(),
                     executeOnFillable, bufferSize);
             this.listener = listener;
+            this.compressor = compressor;
+            this.decompressor = decompressor;
         }
 
         @Override
@@ -211,6 +256,9 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
         {
             super.onClose();
             sessionClosed(getSession());
+            // Release the compression contexts of the session
+            compressor.end();
+            decompressor.end();
         }
 
         @Override
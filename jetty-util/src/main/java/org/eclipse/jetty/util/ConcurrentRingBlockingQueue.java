@@ -0,0 +1,469 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A lock-free, multiple producers and multiple consumers {@link BlockingQueue}
+ * backed by a circular array.
+ * <p/>
+ * Each slot of the array has a sequence number that tells producers and consumers
+ * whether the slot is free or holds an element for the current lap around the array,
+ * so that {@link #offer(Object)} and {@link #poll()} only need a single CAS on the
+ * tail or head index (algorithm by Dmitry Vyukov).
+ * <p/>
+ * The lock of this queue is only used to park consumers when the queue is empty, and
+ * producers only take it when consumers are parked. This makes this queue suitable
+ * for {@link org.eclipse.jetty.util.thread.QueuedThreadPool} when the contention on the
+ * locks of the default {@link BlockingArrayQueue} becomes measurable.
+ * <p/>
+ * The circular array cannot grow. By default offers fail when it is full, so that a
+ * {@link org.eclipse.jetty.util.thread.QueuedThreadPool} using this queue rejects jobs.
+ * When created with a max capacity larger than the capacity, the elements offered while
+ * the array is full overflow into a linked queue, and are taken after the elements of the
+ * array, until the max capacity is reached; producers keep offering to the overflow until
+ * it is drained, so that the elements are taken in order.
+ * <p/>
+ * {@link #remove(Object)} is a slow path that scans the queue and replaces the element
+ * with a marker that consumers skip. The iterator returns a snapshot.
+ *
+ * @param <E> the type of the elements
+ */
+public class ConcurrentRingBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>
+{
+    private static final int HEAD_OFFSET = MemoryUtils.getLongsPerCacheLine() - 1;
+    private static final int TAIL_OFFSET = MemoryUtils.getLongsPerCacheLine() * 2 - 1;
+    private static final Object REMOVED = new Object();
+
+    private final AtomicLongArray _indexes = new AtomicLongArray(TAIL_OFFSET + 1);
+    private final AtomicReferenceArray<Object> _elements;
+    private final AtomicLongArray _sequences;
+    private final int _mask;
+    private final int _maxCapacity;
+    private final AtomicInteger _removed = new AtomicInteger();
+    private final Queue<E> _overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _overflowed = new AtomicInteger();
+    private final AtomicInteger _waiters = new AtomicInteger();
+    private final Lock _lock = new ReentrantLock();
+    private final Condition _notEmpty = _lock.newCondition();
+
+    /**
+     * @param capacity the capacity of the queue, rounded up to a power of 2
+     */
+    public ConcurrentRingBlockingQueue(int capacity)
+    {
+        this(capacity, 0);
+    }
+
+    /**
+     * @param capacity the capacity of the circular array, rounded up to a power of 2
+     * @param maxCapacity the max number of elements of the queue, including the ones that overflow the
+     * circular array, or {@link Integer#MAX_VALUE} for no limit; values smaller than the capacity
+     * disable the overflow
+     */
+    public ConcurrentRingBlockingQueue(int capacity, int maxCapacity)
+    {
+        if (capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        _elements = new AtomicReferenceArray<>(size);
+        _sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i)
+            _sequences.set(i, i);
+        _mask = size - 1;
+        _maxCapacity = Math.max(size, maxCapacity);
+    }
+
+    /**
+     * @return the capacity of the circular array
+     */
+    public int getCapacity()
+    {
+        return _mask + 1;
+    }
+
+    /**
+     * @return the max number of elements of the queue
+     */
+    public int getMaxCapacity()
+    {
+        return _maxCapacity;
+    }
+
+    @Override
+    public boolean offer(E e)
+    {
+        Objects.requireNonNull(e);
+        // Elements go to the overflow until it is drained, to keep the order
+        if (_overflowed.get() > 0 || !offerRing(e))
+        {
+            if (!offerOverflow(e))
+                return false;
+        }
+
+        if (_waiters.get() > 0)
+            signalConsumer();
+        return true;
+    }
+
+    private boolean offerRing(E e)
+    {
+        while (true)
+        {
+            long tail = _indexes.get(TAIL_OFFSET);
+            int index = (int)(tail & _mask);
+            long sequence = _sequences.get(index);
+            if (sequence == tail)
+            {
+                if (_indexes.compareAndSet(TAIL_OFFSET, tail, tail + 1))
+                {
+                    _elements.lazySet(index, e);
+                    // Publishes the element to consumers
+                    _sequences.set(index, tail + 1);
+                    return true;
+                }
+            }
+            else if (sequence < tail)
+            {
+                // The slot has not been consumed since the previous lap: full
+                return false;
+            }
+        }
+    }
+
+    private boolean offerOverflow(E e)
+    {
+        while (true)
+        {
+            int overflowed = _overflowed.get();
+            if (overflowed >= _maxCapacity - getCapacity())
+                return false;
+            if (_overflowed.compareAndSet(overflowed, overflowed + 1))
+                break;
+        }
+        _overflow.offer(e);
+        return true;
+    }
+
+    @Override
+    public E poll()
+    {
+        E result = pollRing();
+        if (result == null && _overflowed.get() > 0)
+        {
+            result = _overflow.poll();
+            if (result != null)
+                _overflowed.decrementAndGet();
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E pollRing()
+    {
+        while (true)
+        {
+            long head = _indexes.get(HEAD_OFFSET);
+            int index = (int)(head & _mask);
+            long sequence = _sequences.get(index);
+            if (sequence == head + 1)
+            {
+                if (_indexes.compareAndSet(HEAD_OFFSET, head, head + 1))
+                {
+                    // Atomically take the element, so that it cannot be removed concurrently
+                    Object result = _elements.getAndSet(index, null);
+                    // Frees the slot for the producers of the next lap
+                    _sequences.set(index, head + getCapacity());
+                    if (result == REMOVED)
+                    {
+                        _removed.decrementAndGet();
+                        continue;
+                    }
+                    return (E)result;
+                }
+            }
+            else if (sequence < head + 1)
+            {
+                // The slot has not been published yet: empty
+                return null;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek()
+    {
+        long head = _indexes.get(HEAD_OFFSET);
+        long tail = _indexes.get(TAIL_OFFSET);
+        for (long i = head; i < tail; ++i)
+        {
+            int index = (int)(i & _mask);
+            if (_sequences.get(index) != i + 1)
+                break;
+            Object element = _elements.get(index);
+            if (element != null && element != REMOVED)
+                return (E)element;
+        }
+        return _overflowed.get() > 0 ? _overflow.peek() : null;
+    }
+
+    @Override
+    public int size()
+    {
+        // Read the head first, so that the size is never negative
+        long head = _indexes.get(HEAD_OFFSET);
+        long tail = _indexes.get(TAIL_OFFSET);
+        int size = (int)Math.min(tail - head, getCapacity()) - _removed.get();
+        return Math.max(0, size) + _overflowed.get();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return _indexes.get(TAIL_OFFSET) == _indexes.get(HEAD_OFFSET) && _overflowed.get() == 0;
+    }
+
+    @Override
+    public int remainingCapacity()
+    {
+        return getMaxCapacity() - size();
+    }
+    private void signalConsumer()
+    {
+        final Lock lock = _lock;
+        lock.lock();
+        try
+        {
+            _notEmpty.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException
+    {
+        // Producers are not expected to block, so spin until there is room
+        while (!offer(e))
+        {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            LockSupport.parkNanos(1000);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e))
+        {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (System.nanoTime() - deadline >= 0)
+                return false;
+            LockSupport.parkNanos(1000);
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException
+    {
+        while (true)
+        {
+            E result = poll();
+            if (result != null)
+                return taken(result);
+
+            final Lock lock = _lock;
+            lock.lockInterruptibly();
+            try
+            {
+                // Producers check the waiters after having offered, consumers check the
+                // emptiness after having incremented the waiters, so a signal cannot be lost
+                _waiters.incrementAndGet();
+                try
+                {
+                    if (isEmpty())
+                        _notEmpty.await();
+                }
+                finally
+                {
+                    _waiters.decrementAndGet();
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos;
+        while (true)
+        {
+            E result = poll();
+            if (result != null)
+                return taken(result);
+
+            nanos = deadline - System.nanoTime();
+            if (nanos <= 0)
+                return null;
+
+            final Lock lock = _lock;
+            lock.lockInterruptibly();
+            try
+            {
+                _waiters.incrementAndGet();
+                try
+                {
+                    if (isEmpty())
+                        _notEmpty.awaitNanos(nanos);
+                }
+                finally
+                {
+                    _waiters.decrementAndGet();
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    private E taken(E result)
+    {
+        // Pass the signal on to other parked consumers if there are more elements
+        if (_waiters.get() > 0 && !isEmpty())
+            signalConsumer();
+        return result;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements)
+    {
+        if (c == this)
+            throw new IllegalArgumentException();
+        int result = 0;
+        while (result < maxElements)
+        {
+            E element = poll();
+            if (element == null)
+                break;
+            c.add(element);
+            ++result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        if (o == null)
+            return false;
+
+        long head = _indexes.get(HEAD_OFFSET);
+        long tail = _indexes.get(TAIL_OFFSET);
+        for (long i = head; i < tail; ++i)
+        {
+            int index = (int)(i & _mask);
+            if (_sequences.get(index) != i + 1)
+                continue;
+            Object element = _elements.get(index);
+            // Consumers take the element atomically, so either they or we win
+            if (element != null && element != REMOVED && o.equals(element) &&
+                    _elements.compareAndSet(index, element, REMOVED))
+            {
+                _removed.incrementAndGet();
+                return true;
+            }
+        }
+
+        if (_overflowed.get() > 0 && _overflow.remove(o))
+        {
+            _overflowed.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return an iterator over a snapshot of the elements of this queue
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator()
+    {
+        long head = _indexes.get(HEAD_OFFSET);
+        long tail = _indexes.get(TAIL_OFFSET);
+        if (tail <= head && _overflowed.get() == 0)
+            return Collections.<E>emptyList().iterator();
+        List<E> snapshot = new ArrayList<>(size());
+        for (long i = head; i < tail; ++i)
+        {
+            int index = (int)(i & _mask);
+            Object element = _elements.get(index);
+            if (element != null && element != REMOVED && _sequences.get(index) == i + 1)
+                snapshot.add((E)element);
+        }
+        snapshot.addAll(_overflow);
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%d/%d/%d}", getClass().getSimpleName(), hashCode(), size(), getCapacity(), getMaxCapacity());
+    }
+}
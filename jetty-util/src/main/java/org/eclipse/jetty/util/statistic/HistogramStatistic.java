@@ -0,0 +1,312 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jetty.util.Atomics;
+
+
+/* ------------------------------------------------------------ */
+/**
+ * HistogramStatistic
+ * <p>
+ * Provides the count, max and percentiles of a sequence of non negative
+ * samples, both since the last reset and over a rolling time window.
+ * <p>
+ * Samples are counted in log-linear buckets: each power of two range is
+ * divided in 2<sup>precision</sup> linear sub buckets, so that percentiles
+ * are reported with a relative error bounded by 2<sup>-precision</sup>,
+ * whatever the magnitude of the samples.
+ * <p>
+ * To keep {@link #set(long)} cheap and allocation free under contention,
+ * buckets are striped by thread, and the window is a ring of time slots
+ * that are recycled as time passes. The counts are not updated atomically
+ * together, so snapshots are approximate while samples are being recorded.
+ */
+public class HistogramStatistic
+{
+    private static final int MAX_EXPONENT = 36;
+    private static final int MAX_STRIPES = 4;
+
+    private final int _precision;
+    private final int _subBuckets;
+    private final int _buckets;
+    private final long _slotMillis;
+    private final int _slots;
+    private final AtomicLongArray[] _stripes;
+    private final AtomicLongArray _epochs;
+    private final AtomicLong _max = new AtomicLong();
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Creates a histogram with a precision of 3 bits and a window
+     * of 60 seconds made of 6 slots.
+     */
+    public HistogramStatistic()
+    {
+        this(3, 60000, 6);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param precision the number of bits of precision of the buckets, between 1 and 8
+     * @param windowMillis the duration of the rolling window in ms
+     * @param slots the number of slots the window is divided into
+     */
+    public HistogramStatistic(int precision, long windowMillis, int slots)
+    {
+        if (precision < 1 || precision > 8)
+            throw new IllegalArgumentException("precision " + precision);
+        if (slots < 1 || windowMillis < slots)
+            throw new IllegalArgumentException("window " + windowMillis + "/" + slots);
+        _precision = precision;
+        _subBuckets = 1 << precision;
+        _buckets = (MAX_EXPONENT - precision + 2) << precision;
+        _slotMillis = windowMillis / slots;
+        _slots = slots;
+
+        int stripes = 1;
+        while (stripes < Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()))
+            stripes <<= 1;
+        _stripes = new AtomicLongArray[stripes];
+        // Region 0 of each stripe counts since the last reset, the others are the window slots
+        for (int i = 0; i < stripes; i++)
+            _stripes[i] = new AtomicLongArray((slots + 1) * _buckets);
+        _epochs = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++)
+            _epochs.set(i, Long.MIN_VALUE);
+    }
+
+    /* ------------------------------------------------------------ */
+    public void reset()
+    {
+        for (int i = 0; i < _slots; i++)
+            _epochs.set(i, Long.MIN_VALUE);
+        for (AtomicLongArray stripe : _stripes)
+            for (int i = 0; i < stripe.length(); i++)
+                stripe.set(i, 0);
+        _max.set(0);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param sample the sample to record, negative samples are recorded as 0
+     */
+    public void set(final long sample)
+    {
+        int bucket = index(sample);
+        AtomicLongArray stripe = _stripes[(int)Thread.currentThread().getId() & (_stripes.length - 1)];
+        stripe.incrementAndGet(bucket);
+
+        long epoch = now() / _slotMillis;
+        int slot = (int)(epoch % _slots);
+        long current = _epochs.get(slot);
+        if (current < epoch && _epochs.compareAndSet(slot, current, epoch))
+            clearSlot(slot);
+        stripe.incrementAndGet((slot + 1) * _buckets + bucket);
+
+        Atomics.updateMax(_max, sample);
+    }
+
+    private void clearSlot(int slot)
+    {
+        int offset = (slot + 1) * _buckets;
+        for (AtomicLongArray stripe : _stripes)
+            for (int i = 0; i < _buckets; i++)
+                stripe.set(offset + i, 0);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the current time in ms, used to select the window slots
+     */
+    protected long now()
+    {
+        return System.currentTimeMillis();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the max value since the last reset
+     */
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of samples since the last reset
+     */
+    public long getCount()
+    {
+        long count = 0;
+        for (AtomicLongArray stripe : _stripes)
+            for (int i = 0; i < _buckets; i++)
+                count += stripe.get(i);
+        return count;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the duration of the rolling window in ms
+     */
+    public long getWindowMillis()
+    {
+        return _slotMillis * _slots;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return a snapshot of the samples recorded since the last reset
+     */
+    public Snapshot getSnapshot()
+    {
+        long[] counts = new long[_buckets];
+        addRegion(counts, 0);
+        return new Snapshot(counts, _max.get());
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return a snapshot of the samples recorded during the rolling window,
+     * which includes the current (partial) slot and the previous ones.
+     */
+    public Snapshot getWindowSnapshot()
+    {
+        long[] counts = new long[_buckets];
+        long epoch = now() / _slotMillis;
+        for (int slot = 0; slot < _slots; slot++)
+        {
+            long slotEpoch = _epochs.get(slot);
+            if (slotEpoch <= epoch && slotEpoch > epoch - _slots)
+                addRegion(counts, slot + 1);
+        }
+        return new Snapshot(counts, Long.MAX_VALUE);
+    }
+
+    private void addRegion(long[] counts, int region)
+    {
+        int offset = region * _buckets;
+        for (AtomicLongArray stripe : _stripes)
+            for (int i = 0; i < _buckets; i++)
+                counts[i] += stripe.get(offset + i);
+    }
+
+    private int index(long value)
+    {
+        if (value < _subBuckets)
+            return value < 0 ? 0 : (int)value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return _buckets - 1;
+        int shift = exponent - _precision;
+        return ((shift + 1) << _precision) + (int)((value >>> shift) & (_subBuckets - 1));
+    }
+
+    private long highestValue(int index)
+    {
+        if (index < _subBuckets)
+            return index;
+        int shift = (index >> _precision) - 1;
+        long lowest = (long)(_subBuckets + (index & (_subBuckets - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{c=%d,m=%d,p=%d,w=%dx%d}",this.getClass().getSimpleName(),hashCode(),getCount(),_max.get(),_precision,_slots,_slotMillis);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * An immutable copy of the bucket counts of a {@link HistogramStatistic}.
+     */
+    public class Snapshot
+    {
+        private final long[] _counts;
+        private final long _count;
+        private final long _limit;
+
+        private Snapshot(long[] counts, long limit)
+        {
+            long count = 0;
+            for (long c : counts)
+                count += c;
+            _counts = counts;
+            _count = count;
+            _limit = limit;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the number of samples in this snapshot
+         */
+        public long getCount()
+        {
+            return _count;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the (approximate) max sample in this snapshot, or 0 if empty
+         */
+        public long getMax()
+        {
+            for (int i = _counts.length; i-- > 0;)
+                if (_counts[i] > 0)
+                    return Math.min(highestValue(i), _limit);
+            return 0;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @param percentile the percentile, between 0 and 100 (e.g. 99.9)
+         * @return the value that is greater or equal to the given percentage of the
+         * samples in this snapshot (within the precision of the histogram), or 0 if empty
+         */
+        public long getPercentile(double percentile)
+        {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("percentile " + percentile);
+            if (_count == 0)
+                return 0;
+            long rank = Math.max(1, (long)Math.ceil(_count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < _counts.length; i++)
+            {
+                seen += _counts[i];
+                if (seen >= rank)
+                    return Math.min(highestValue(i), _limit);
+            }
+            return getMax();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x{c=%d,p50=%d,p99=%d,p999=%d,m=%d}",getClass().getSimpleName(),hashCode(),_count,getPercentile(50),getPercentile(99),getPercentile(99.9),getMax());
+        }
+    }
+}
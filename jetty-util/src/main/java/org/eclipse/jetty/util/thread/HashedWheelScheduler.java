@@ -0,0 +1,337 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.thread;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.annotation.Name;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/** A scheduler based on a hashed timing wheel.
+ * <p>
+ * Tasks are hashed by their expiration tick into the buckets of a circular wheel, that a
+ * single thread advances every tick. Scheduling and cancelling are O(1) and never
+ * contend on an ordered structure: new and cancelled tasks are handed to the wheel thread
+ * through lock free queues, and only the wheel thread links and unlinks them.
+ * </p>
+ * <p>
+ * The price is precision: tasks are executed up to one tick after their deadline.
+ * This makes this scheduler well suited for timeouts that are rarely expected to expire
+ * and that are frequently scheduled and cancelled, such as the idle timeouts of
+ * many mostly idle connections, whose {@link org.eclipse.jetty.util.thread.Scheduler}
+ * can be replaced by adding an instance of this class as a bean of the server.
+ * </p>
+ * <p>
+ * Tasks are executed by the wheel thread, so they must be quick and non blocking.
+ * </p>
+ */
+public class HashedWheelScheduler extends AbstractLifeCycle implements Scheduler, Runnable
+{
+    private static final Logger LOG = Log.getLogger(HashedWheelScheduler.class);
+
+    private final String _name;
+    private final boolean _daemon;
+    private final long _tickNanos;
+    private final Bucket[] _wheel;
+    private final int _mask;
+    private final Queue<WheelTask> _scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<WheelTask> _cancelled = new ConcurrentLinkedQueue<>();
+    private volatile Thread _thread;
+    private volatile long _startNanos;
+    private long _tick;
+
+    public HashedWheelScheduler()
+    {
+        this(null, false);
+    }
+
+    public HashedWheelScheduler(@Name("name") String name, @Name("daemon") boolean daemon)
+    {
+        this(name, daemon, 100, 512);
+    }
+
+    /**
+     * @param name the name of the wheel thread
+     * @param daemon whether the wheel thread is a daemon thread
+     * @param tickMillis the duration of a tick in milliseconds, which is the precision of this scheduler
+     * @param ticksPerWheel the number of buckets of the wheel, rounded up to a power of 2
+     */
+    public HashedWheelScheduler(@Name("name") String name, @Name("daemon") boolean daemon, @Name("tickMillis") long tickMillis, @Name("ticksPerWheel") int ticksPerWheel)
+    {
+        if (tickMillis <= 0)
+            throw new IllegalArgumentException("tickMillis <= 0");
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30)
+            throw new IllegalArgumentException("ticksPerWheel out of range");
+        _name = name == null ? "Scheduler-" + hashCode() : name;
+        _daemon = daemon;
+        _tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+
+        int size = 1;
+        while (size < ticksPerWheel)
+            size <<= 1;
+        _wheel = new Bucket[size];
+        for (int i = 0; i < size; ++i)
+            _wheel[i] = new Bucket();
+        _mask = size - 1;
+    }
+
+    public long getTickMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_tickNanos);
+    }
+
+    public int getTicksPerWheel()
+    {
+        return _wheel.length;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        _tick = 0;
+        _startNanos = System.nanoTime();
+        Thread thread = new Thread(this, _name);
+        thread.setDaemon(_daemon);
+        _thread = thread;
+        thread.start();
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        Thread thread = _thread;
+        _thread = null;
+        if (thread != null)
+        {
+            thread.interrupt();
+            thread.join();
+        }
+        _scheduled.clear();
+        _cancelled.clear();
+        for (Bucket bucket : _wheel)
+            bucket.clear();
+        super.doStop();
+    }
+
+    @Override
+    public Task schedule(Runnable task, long delay, TimeUnit units)
+    {
+        if (_thread == null)
+            throw new RejectedExecutionException("STOPPED: " + this);
+        long deadline = System.nanoTime() - _startNanos + units.toNanos(delay);
+        WheelTask result = new WheelTask(task, deadline);
+        _scheduled.offer(result);
+        return result;
+    }
+
+    @Override
+    public void run()
+    {
+        Thread thread = Thread.currentThread();
+        while (_thread == thread)
+        {
+            long deadline = _tickNanos * (_tick + 1);
+            long sleep = deadline - (System.nanoTime() - _startNanos);
+            if (sleep > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                }
+                catch (InterruptedException x)
+                {
+                    LOG.ignore(x);
+                }
+                continue;
+            }
+
+            unlinkCancelled();
+            linkScheduled();
+            _wheel[(int)(_tick & _mask)].expire();
+            ++_tick;
+        }
+    }
+
+    private void unlinkCancelled()
+    {
+        while (true)
+        {
+            WheelTask task = _cancelled.poll();
+            if (task == null)
+                break;
+            if (task._bucket != null)
+                task._bucket.remove(task);
+        }
+    }
+
+    private void linkScheduled()
+    {
+        while (true)
+        {
+            WheelTask task = _scheduled.poll();
+            if (task == null)
+                break;
+            if (task._state.get() != WheelTask.SCHEDULED)
+                continue;
+
+            // Never link in the past, tasks already due expire at the current tick
+            long tick = Math.max(task._deadline / _tickNanos, _tick);
+            task._rounds = (tick - _tick) / _wheel.length;
+            _wheel[(int)(tick & _mask)].add(task);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,%dms*%d}", getClass().getSimpleName(), hashCode(), _name, getTickMillis(), getTicksPerWheel());
+    }
+
+    /**
+     * A bucket of the wheel, that is a doubly linked list of tasks only accessed by the wheel thread.
+     */
+    private static class Bucket
+    {
+        private WheelTask _head;
+        private WheelTask _tail;
+
+        private void add(WheelTask task)
+        {
+            task._bucket = this;
+            if (_tail == null)
+            {
+                _head = _tail = task;
+            }
+            else
+            {
+                _tail._next = task;
+                task._prev = _tail;
+                _tail = task;
+            }
+        }
+
+        private void remove(WheelTask task)
+        {
+            WheelTask next = task._next;
+            if (task._prev != null)
+                task._prev._next = next;
+            if (next != null)
+                next._prev = task._prev;
+            if (task == _head)
+                _head = next;
+            if (task == _tail)
+                _tail = task._prev;
+            task._prev = null;
+            task._next = null;
+            task._bucket = null;
+        }
+
+        private void expire()
+        {
+            WheelTask task = _head;
+            while (task != null)
+            {
+                WheelTask next = task._next;
+                if (task._rounds <= 0)
+                {
+                    remove(task);
+                    task.expire();
+                }
+                else if (task._state.get() == WheelTask.CANCELLED)
+                {
+                    remove(task);
+                }
+                else
+                {
+                    --task._rounds;
+                }
+                task = next;
+            }
+        }
+
+        private void clear()
+        {
+            while (_head != null)
+                remove(_head);
+        }
+    }
+
+    private class WheelTask implements Task
+    {
+        private static final int SCHEDULED = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final AtomicInteger _state = new AtomicInteger(SCHEDULED);
+        private final Runnable _task;
+        private final long _deadline;
+        // The fields below are only accessed by the wheel thread
+        private long _rounds;
+        private Bucket _bucket;
+        private WheelTask _prev;
+        private WheelTask _next;
+
+        private WheelTask(Runnable task, long deadline)
+        {
+            _task = task;
+            _deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            if (_state.compareAndSet(SCHEDULED, CANCELLED))
+            {
+                // Let the wheel thread unlink the task so that its memory is freed early
+                _cancelled.offer(this);
+                return true;
+            }
+            return false;
+        }
+
+        private void expire()
+        {
+            if (_state.compareAndSet(SCHEDULED, EXPIRED))
+            {
+                try
+                {
+                    _task.run();
+                }
+                catch (Throwable x)
+                {
+                    LOG.debug("Exception while executing task " + _task, x);
+                }
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s.%s@%x", HashedWheelScheduler.class.getSimpleName(), WheelTask.class.getSimpleName(), hashCode());
+        }
+    }
+}
@@ -83,6 +83,15 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
         this(maxThreads, minThreads, 60000,null);
     }
 
+    /**
+     * @param maxThreads the maximum number of threads
+     * @param minThreads the minimum number of threads
+     * @param idleTimeout the maximum time in ms a thread may be idle before being stopped
+     * @param queue the job queue, or null for a growable {@link BlockingArrayQueue}.
+     * A lock-free {@link org.eclipse.jetty.util.ConcurrentRingBlockingQueue} avoids
+     * contention between threads queuing and taking jobs at high dispatch rates; when it is full,
+     * jobs are rejected, unless it is created with a larger max capacity to let it grow.
+     */
     public QueuedThreadPool(@Name("maxThreads") int maxThreads, @Name("minThreads") int minThreads, @Name("idleTimeout") int idleTimeout, @Name("queue") BlockingQueue<Runnable> queue)
     {
         setMinThreads(minThreads);
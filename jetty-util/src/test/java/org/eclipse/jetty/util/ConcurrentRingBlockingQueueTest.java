@@ -0,0 +1,241 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.toolchain.test.TestTracker;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ConcurrentRingBlockingQueueTest
+{
+    @Rule
+    public final TestTracker tracker = new TestTracker();
+
+    @Test
+    public void testOfferPollWrap() throws Exception
+    {
+        ConcurrentRingBlockingQueue<Integer> queue = new ConcurrentRingBlockingQueue<>(3);
+        Assert.assertEquals(4, queue.getCapacity());
+
+        for (int lap = 0; lap < 3; ++lap)
+        {
+            for (int i = 0; i < 4; ++i)
+                Assert.assertTrue(queue.offer(i));
+            Assert.assertFalse(queue.offer(4));
+            Assert.assertEquals(4, queue.size());
+            Assert.assertEquals(0, queue.remainingCapacity());
+            Assert.assertEquals(Arrays.asList(0, 1, 2, 3), new ArrayList<>(queue));
+
+            Assert.assertEquals(0, (int)queue.peek());
+            for (int i = 0; i < 4; ++i)
+                Assert.assertEquals(i, (int)queue.poll());
+            Assert.assertNull(queue.poll());
+            Assert.assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void testTimedPollOffer() throws Exception
+    {
+        final ConcurrentRingBlockingQueue<Integer> queue = new ConcurrentRingBlockingQueue<>(32);
+
+        Assert.assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+
+        final long timeout = 1000;
+        final Integer item = 1;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread producer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    TimeUnit.MILLISECONDS.sleep(timeout);
+                    queue.offer(item);
+                }
+                catch (Throwable x)
+                {
+                    failure.set(x);
+                }
+            }
+        };
+        producer.start();
+
+        Integer result = queue.poll(2 * timeout, TimeUnit.MILLISECONDS);
+        producer.join();
+        Assert.assertNull(failure.get());
+        Assert.assertSame(item, result);
+    }
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        ConcurrentRingBlockingQueue<Integer> queue = new ConcurrentRingBlockingQueue<>(4);
+        for (int lap = 0; lap < 3; ++lap)
+        {
+            for (int i = 0; i < 4; ++i)
+                Assert.assertTrue(queue.offer(i));
+
+            Assert.assertTrue(queue.remove(0));
+            Assert.assertTrue(queue.remove(2));
+            Assert.assertFalse(queue.remove(2));
+            Assert.assertFalse(queue.remove(4));
+            Assert.assertEquals(2, queue.size());
+            Assert.assertEquals(1, (int)queue.peek());
+            Assert.assertEquals(Arrays.asList(1, 3), new ArrayList<>(queue));
+
+            // Removed elements still use their slot until consumed
+            Assert.assertFalse(queue.offer(4));
+            Assert.assertEquals(1, (int)queue.poll());
+            Assert.assertEquals(3, (int)queue.poll());
+            Assert.assertNull(queue.poll());
+            Assert.assertTrue(queue.isEmpty());
+            Assert.assertEquals(0, queue.size());
+        }
+    }
+
+    @Test
+    public void testOverflow() throws Exception
+    {
+        ConcurrentRingBlockingQueue<Integer> queue = new ConcurrentRingBlockingQueue<>(4, 6);
+        Assert.assertEquals(6, queue.getMaxCapacity());
+
+        for (int i = 0; i < 6; ++i)
+            Assert.assertTrue(queue.offer(i));
+        Assert.assertFalse(queue.offer(6));
+        Assert.assertEquals(6, queue.size());
+        Assert.assertEquals(0, queue.remainingCapacity());
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), new ArrayList<>(queue));
+
+        // The array has room, but the overflow must be drained first to keep the order
+        Assert.assertEquals(0, (int)queue.poll());
+        Assert.assertTrue(queue.remove(5));
+        Assert.assertTrue(queue.offer(6));
+        List<Integer> drained = new ArrayList<>();
+        queue.drainTo(drained);
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 6), drained);
+        Assert.assertTrue(queue.isEmpty());
+
+        // Once drained, the array is used again
+        Assert.assertTrue(queue.offer(7));
+        Assert.assertEquals(7, (int)queue.take());
+    }
+
+    @Test
+    public void testConcurrentOfferTake() throws Exception
+    {
+        testConcurrentOfferTake(new ConcurrentRingBlockingQueue<Integer>(512));
+    }
+
+    @Test
+    public void testConcurrentOfferTakeWithOverflow() throws Exception
+    {
+        testConcurrentOfferTake(new ConcurrentRingBlockingQueue<Integer>(16, Integer.MAX_VALUE));
+    }
+
+    private void testConcurrentOfferTake(final ConcurrentRingBlockingQueue<Integer> queue) throws Exception
+    {
+        int readerCount = 16;
+        final int factor = 2;
+        int writerCount = readerCount * factor;
+        final int iterations = 4096;
+        for (int runs = 0; runs < 16; ++runs)
+        {
+            ExecutorService executor = Executors.newFixedThreadPool(readerCount + writerCount);
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int i = 0; i < readerCount / 2; ++i)
+            {
+                readers.add(executor.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        int sum = 0;
+                        for (int j = 0; j < iterations * factor; ++j)
+                            sum += queue.take();
+                        return sum;
+                    }
+                }));
+                readers.add(executor.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        int sum = 0;
+                        for (int j = 0; j < iterations * factor; ++j)
+                            sum += queue.poll(5, TimeUnit.SECONDS);
+                        return sum;
+                    }
+                }));
+            }
+            for (int i = 0; i < writerCount; ++i)
+            {
+                executor.submit(new Callable<Object>()
+                {
+                    @Override
+                    public Object call() throws Exception
+                    {
+                        for (int j = 0; j < iterations; ++j)
+                            queue.put(1);
+                        return null;
+                    }
+                });
+            }
+
+            int sum = 0;
+            for (Future<Integer> result : readers)
+                sum += result.get();
+
+            Assert.assertEquals(writerCount * iterations, sum);
+            Assert.assertTrue(queue.isEmpty());
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDrain() throws Exception
+    {
+        ConcurrentRingBlockingQueue<Integer> queue = new ConcurrentRingBlockingQueue<>(16);
+        List<Integer> chunk1 = Arrays.asList(1, 2);
+        List<Integer> chunk2 = Arrays.asList(3, 4, 5);
+        queue.addAll(chunk1);
+        queue.addAll(chunk2);
+
+        List<Integer> drainer1 = new ArrayList<>();
+        queue.drainTo(drainer1, chunk1.size());
+        List<Integer> drainer2 = new ArrayList<>();
+        queue.drainTo(drainer2);
+
+        Assert.assertEquals(chunk1, drainer1);
+        Assert.assertEquals(chunk2, drainer2);
+        Assert.assertTrue(queue.isEmpty());
+    }
+}
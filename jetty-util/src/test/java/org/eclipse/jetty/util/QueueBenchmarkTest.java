@@ -71,6 +71,7 @@ public class QueueBenchmarkTest
         queues.add(new ConcurrentLinkedQueue<Runnable>()); // JDK lock-free queue, allocating nodes
         queues.add(new ArrayBlockingQueue<Runnable>(iterations * writers)); // JDK lock-based, circular array queue
         queues.add(new BlockingArrayQueue<Runnable>(iterations * writers)); // Jetty lock-based, circular array queue
+        queues.add(new ConcurrentRingBlockingQueue<Runnable>(iterations * writers)); // Jetty lock-free, circular array queue
 
         testQueues(readers, writers, iterations, queues, false);
     }
@@ -92,6 +93,7 @@ public class QueueBenchmarkTest
         queues.add(new LinkedBlockingQueue<Runnable>());
         queues.add(new ArrayBlockingQueue<Runnable>(iterations * writers));
         queues.add(new BlockingArrayQueue<Runnable>(iterations * writers));
+        queues.add(new ConcurrentRingBlockingQueue<Runnable>(iterations * writers));
 
         testQueues(readers, writers, iterations, queues, true);
     }
@@ -0,0 +1,161 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/* ------------------------------------------------------------ */
+public class HistogramStatisticTest
+{
+    @Test
+    public void testSmallValuesAreExact() throws Exception
+    {
+        HistogramStatistic stats = new HistogramStatistic();
+        for (long x = 0; x < 8; x++)
+            stats.set(x);
+
+        HistogramStatistic.Snapshot snapshot = stats.getSnapshot();
+        assertEquals(8, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(0));
+        assertEquals(3, snapshot.getPercentile(50));
+        assertEquals(7, snapshot.getPercentile(100));
+        assertEquals(7, snapshot.getMax());
+    }
+
+    @Test
+    public void testPercentiles() throws Exception
+    {
+        HistogramStatistic stats = new HistogramStatistic(3, 60000, 6);
+        for (long x = 1; x <= 100000; x++)
+            stats.set(x);
+
+        assertEquals(100000, stats.getCount());
+        assertEquals(100000, stats.getMax());
+
+        HistogramStatistic.Snapshot snapshot = stats.getSnapshot();
+        assertNearEnough(50000, snapshot.getPercentile(50), 1.0 / 8);
+        assertNearEnough(99000, snapshot.getPercentile(99), 1.0 / 8);
+        assertNearEnough(99900, snapshot.getPercentile(99.9), 1.0 / 8);
+        assertEquals(100000, snapshot.getPercentile(100));
+
+        stats.reset();
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getSnapshot().getPercentile(99));
+    }
+
+    @Test
+    public void testTailLatency() throws Exception
+    {
+        HistogramStatistic stats = new HistogramStatistic();
+        for (int i = 0; i < 990; i++)
+            stats.set(10);
+        for (int i = 0; i < 10; i++)
+            stats.set(5000);
+
+        HistogramStatistic.Snapshot snapshot = stats.getSnapshot();
+        assertNearEnough(10, snapshot.getPercentile(50), 1.0 / 8);
+        assertNearEnough(10, snapshot.getPercentile(99), 1.0 / 8);
+        assertNearEnough(5000, snapshot.getPercentile(99.9), 1.0 / 8);
+    }
+
+    @Test
+    public void testWindow() throws Exception
+    {
+        final AtomicLong now = new AtomicLong(1000000);
+        HistogramStatistic stats = new HistogramStatistic(3, 6000, 6)
+        {
+            @Override
+            protected long now()
+            {
+                return now.get();
+            }
+        };
+
+        for (int i = 0; i < 100; i++)
+            stats.set(1000);
+        assertEquals(100, stats.getWindowSnapshot().getCount());
+
+        // Still in the window
+        now.addAndGet(5000);
+        for (int i = 0; i < 100; i++)
+            stats.set(10);
+        assertEquals(200, stats.getWindowSnapshot().getCount());
+
+        // The first samples have left the window
+        now.addAndGet(1000);
+        HistogramStatistic.Snapshot window = stats.getWindowSnapshot();
+        assertEquals(100, window.getCount());
+        assertEquals(10, window.getPercentile(99));
+
+        // The slot of the first samples is reused
+        for (int i = 0; i < 50; i++)
+            stats.set(20);
+        window = stats.getWindowSnapshot();
+        assertEquals(150, window.getCount());
+        assertNearEnough(20, window.getPercentile(99), 1.0 / 8);
+
+        // All samples have left the window
+        now.addAndGet(60000);
+        assertEquals(0, stats.getWindowSnapshot().getCount());
+
+        // But are still counted since the last reset
+        assertEquals(250, stats.getCount());
+        assertEquals(1000, stats.getSnapshot().getPercentile(100));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception
+    {
+        final HistogramStatistic stats = new HistogramStatistic();
+        final int threads = 8;
+        final int samples = 10000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++)
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < samples; i++)
+                        stats.set(i % 100);
+                    latch.countDown();
+                }
+            }.start();
+        }
+        latch.await();
+
+        assertEquals(threads * samples, stats.getCount());
+        assertEquals(99, stats.getMax());
+    }
+
+    private void assertNearEnough(long expected, long actual, double error)
+    {
+        Assert.assertThat(actual, Matchers.greaterThanOrEqualTo(expected));
+        Assert.assertThat(actual, Matchers.lessThanOrEqualTo(expected + (long)Math.ceil(expected * error)));
+    }
+}
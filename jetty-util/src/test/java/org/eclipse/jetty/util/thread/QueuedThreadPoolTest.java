@@ -25,6 +25,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jetty.toolchain.test.AdvancedRunner;
+import org.eclipse.jetty.util.ConcurrentRingBlockingQueue;
 import org.eclipse.jetty.toolchain.test.annotation.Slow;
 import org.junit.Assert;
 import org.junit.Test;
@@ -153,6 +154,18 @@ public class QueuedThreadPoolTest
     @Test
     @Slow
     public void testShrink() throws Exception
+    {
+        testShrink(new QueuedThreadPool());
+    }
+
+    @Test
+    @Slow
+    public void testShrinkWithRingQueue() throws Exception
+    {
+        testShrink(new QueuedThreadPool(10, 2, 400, new ConcurrentRingBlockingQueue<Runnable>(64)));
+    }
+
+    private void testShrink(QueuedThreadPool tp) throws Exception
     {
         final AtomicInteger sleep = new AtomicInteger(100);
         Runnable job = new Runnable()
@@ -171,7 +184,6 @@ public class QueuedThreadPoolTest
 
         };
 
-        QueuedThreadPool tp= new QueuedThreadPool();
         tp.setMinThreads(2);
         tp.setMaxThreads(10);
         tp.setIdleTimeout(400);
@@ -189,6 +201,7 @@ public class QueuedThreadPoolTest
 
         waitForThreads(tp,10);
         waitForIdle(tp,0);
+        Assert.assertTrue(tp.isLowOnThreads());
 
         sleep.set(5);
         for (int i=0;i<500;i++)
@@ -198,6 +211,7 @@ public class QueuedThreadPoolTest
         }
         waitForThreads(tp,2);
         waitForIdle(tp,2);
+        tp.stop();
     }
 
     @Test
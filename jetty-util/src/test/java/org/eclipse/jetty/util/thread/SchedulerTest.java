@@ -47,7 +47,8 @@ public class SchedulerTest
     {
         Object[][] data = new Object[][]{
             {new TimerScheduler()},
-            {new ScheduledExecutorScheduler()}/*,
+            {new ScheduledExecutorScheduler()},
+            {new HashedWheelScheduler()}/*,
             {new ConcurrentScheduler(0)},
             {new ConcurrentScheduler(1500)},
             {new ConcurrentScheduler(executor,1500)}*/
@@ -218,6 +219,61 @@ public class SchedulerTest
         benchmark.stopStatistics();
     }
 
+    @Test
+    @Slow
+    @Ignore
+    public void testIdleTimeoutChurnBenchmark() throws Exception
+    {
+        // Models idle timeouts of many connections that are cancelled and
+        // rescheduled long before they expire
+        churn(200,10000,30000);
+        BenchmarkHelper benchmark = new BenchmarkHelper();
+        benchmark.startStatistics();
+        long start=System.nanoTime();
+        long operations=churn(200,20000,30000);
+        long elapsed=TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+        benchmark.stopStatistics();
+        System.err.printf("%s: %d schedule/cancel in %d ms (%d ops/ms)%n",_scheduler,operations,elapsed,operations/Math.max(1,elapsed));
+    }
+
+    private long churn(int threads, final int iterations, final long delay) throws Exception
+    {
+        Thread[] test = new Thread[threads];
+        final AtomicLong operations = new AtomicLong();
+        final Runnable idle = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        };
+
+        for (int i=test.length;i-->0;)
+        {
+            test[i]=new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j=0;j<iterations;j++)
+                    {
+                        Scheduler.Task task=_scheduler.schedule(idle,delay,TimeUnit.MILLISECONDS);
+                        task.cancel();
+                    }
+                    operations.addAndGet(iterations);
+                }
+            };
+        }
+
+        for (Thread thread : test)
+            thread.start();
+
+        for (Thread thread : test)
+            thread.join();
+
+        return operations.get();
+    }
+
     private void schedule(int threads,final int duration, final int delay, final int interval) throws Exception
     {
         Thread[] test = new Thread[threads];
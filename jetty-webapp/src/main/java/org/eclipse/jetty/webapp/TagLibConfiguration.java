@@ -23,6 +23,7 @@ import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EventListener;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,6 +32,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletContextEvent;
@@ -68,6 +71,13 @@ public class TagLibConfiguration extends AbstractConfiguration
 
     public static final String TLD_RESOURCES = "org.eclipse.jetty.tlds";
 
+    /**
+     * The listeners of the tlds already parsed, by tld location, so that redeploying a webapp
+     * does not parse again the tlds that have not changed.
+     */
+    private static final ConcurrentMap<String, TldListenerClassNames> __tldListenerClassNames = new ConcurrentHashMap<String, TldListenerClassNames>();
+    private static final int __maxCachedTlds = 1024;
+
 
     /**
      * TagLibListener
@@ -149,8 +159,7 @@ public class TagLibConfiguration extends AbstractConfiguration
                 //find the tld files and parse them to get out their
                 //listeners
                 Set<Resource> tlds = findTldResources();
-                List<TldDescriptor> descriptors = parseTlds(tlds);
-                processTlds(descriptors);
+                processTlds(tlds);
 
                 if (_tldListeners == null)
                     return;
@@ -274,51 +283,98 @@ public class TagLibConfiguration extends AbstractConfiguration
 
 
         /**
-         * Parse xml into in-memory tree
-         * @param tlds
+         * Get the class names of the listeners of a tld, parsing it 
+         * only if it has changed since it was last parsed
+         * @param tld
          * @return
          */
-        private List<TldDescriptor> parseTlds (Set<Resource> tlds) {
-            List<TldDescriptor> descriptors = new ArrayList<TldDescriptor>();
+        private List<String> getListenerClassNames (Resource tld)
+        {
+            String location = tld.toString();
+            long lastModified = tld.lastModified();
+            long length = tld.length();
 
-            Resource tld = null;
-            Iterator<Resource> iter = tlds.iterator();
-            while (iter.hasNext())
+            TldListenerClassNames cached = __tldListenerClassNames.get(location);
+            if (cached != null && cached._lastModified == lastModified && cached._length == length)
             {
-                try
-                {
-                    tld = iter.next();
-                    if (LOG.isDebugEnabled()) LOG.debug("TLD="+tld);
+                if (LOG.isDebugEnabled()) LOG.debug("TLD="+tld+" not changed");
+                return cached._classNames;
+            }
 
-                    TldDescriptor d = new TldDescriptor(tld);
-                    d.parse();
-                    descriptors.add(d);
-                }
-                catch(Exception e)
+            List<String> classNames = new ArrayList<String>();
+            try
+            {
+                if (LOG.isDebugEnabled()) LOG.debug("TLD="+tld);
+
+                TldDescriptor d = new TldDescriptor(tld);
+                d.parse();
+                if (d.getRoot() == null)
+                    return classNames;
+
+                Iterator<?> iter = d.getRoot().iterator();
+                while (iter.hasNext())
                 {
-                    LOG.warn("Unable to parse TLD: " + tld,e);
+                    Object o = iter.next();
+                    if (o instanceof XmlParser.Node && "listener".equals(((XmlParser.Node)o).getTag()))
+                        classNames.add(((XmlParser.Node)o).getString("listener-class",false,true));
                 }
             }
-            return descriptors;
+            catch(Exception e)
+            {
+                LOG.warn("Unable to parse TLD: " + tld,e);
+                return classNames;
+            }
+
+            //only remember tlds whose changes can be detected
+            if (lastModified > 0)
+            {
+                if (__tldListenerClassNames.size() >= __maxCachedTlds)
+                    __tldListenerClassNames.clear();
+                __tldListenerClassNames.put(location, new TldListenerClassNames(lastModified, length, classNames));
+            }
+            return classNames;
         }
 
 
         /**
-         * Create listeners from the parsed tld trees
-         * @param descriptors
+         * Create listeners from the tlds
+         * @param tlds
          * @throws Exception
          */
-        private void processTlds (List<TldDescriptor> descriptors) throws Exception {
+        private void processTlds (Set<Resource> tlds) throws Exception {
 
             TldProcessor processor = new TldProcessor();
-            for (TldDescriptor d:descriptors)
-                processor.process(_context, d);
+            for (Resource tld:tlds)
+            {
+                for (String className:getListenerClassNames(tld))
+                    processor.addListener(_context, className);
+            }
 
             _tldListeners = new ArrayList<EventListener>(processor.getListeners());
         }
     }
 
 
+    /**
+     * TldListenerClassNames
+     *
+     * The listeners found in a tld, when it had the given last modified time and length.
+     */
+    private static class TldListenerClassNames
+    {
+        final long _lastModified;
+        final long _length;
+        final List<String> _classNames;
+
+        TldListenerClassNames(long lastModified, long length, List<String> classNames)
+        {
+            _lastModified = lastModified;
+            _length = length;
+            _classNames = Collections.unmodifiableList(classNames);
+        }
+    }
+
+
 
 
     /**
@@ -451,7 +507,12 @@ public class TagLibConfiguration extends AbstractConfiguration
 
         public void visitListener (WebAppContext context, Descriptor descriptor, XmlParser.Node node)
         {
-            String className=node.getString("listener-class",false,true);
+            addListener(context, node.getString("listener-class",false,true));
+        }
+
+
+        public void addListener (WebAppContext context, String className)
+        {
             if (LOG.isDebugEnabled())
                 LOG.debug("listener="+className);
 
@@ -19,21 +19,34 @@
 package org.eclipse.jetty.webapp;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.CodeSigner;
 import java.security.CodeSource;
 import java.security.PermissionCollection;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
+import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.resource.Resource;
@@ -57,14 +70,42 @@ import org.eclipse.jetty.util.resource.ResourceCollection;
  * context classloader will be used.  If that is null then the 
  * classloader that loaded this class is used as the parent.
  * 
+ * The classloader is parallel capable, so that classes of different
+ * names are loaded concurrently. The packages of the jars and directories 
+ * on the classpath are indexed the first time a class or resource is looked 
+ * up, so that a class or resource is only searched for in the jars and 
+ * directories that contain its package. A directory is indexed when it is 
+ * first looked up after it was added to the classpath, so packages created 
+ * in it afterwards are not seen.
+ * The names of the classes that the parent classloader failed to load are 
+ * remembered, so that the parent is not asked again until its classpath 
+ * changes.
  */
 public class WebAppClassLoader extends URLClassLoader
 {
     private static final Logger LOG = Log.getLogger(WebAppClassLoader.class);
+    private static final int __maxParentMisses=4096;
+
+    static
+    {
+        registerAsParallelCapable();
+    }
 
     private final Context _context;
     private final ClassLoader _parent;
     private final Set<String> _extensions=new HashSet<String>();
+    private final Map<String,Boolean> _parentMisses=new LinkedHashMap<String,Boolean>(16,0.75f,true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest)
+        {
+            return size()>__maxParentMisses;
+        }
+    };
+    private int _parentClassPath=-1;
+    private final Object _indexLock=new Object();
+    private final Map<URL,Location> _locations=new HashMap<URL,Location>();
+    private volatile Index _index;
     private String _name=String.valueOf(hashCode());
     
     /* ------------------------------------------------------------ */
@@ -290,6 +331,17 @@ public class WebAppClassLoader extends URLClassLoader
         }
     }
 
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void addURL(URL url)
+    {
+        synchronized (_indexLock)
+        {
+            super.addURL(url);
+            _index=null;
+        }
+    }
+
     /* ------------------------------------------------------------ */
     public PermissionCollection getPermissions(CodeSource cs)
     {
@@ -384,60 +436,276 @@ public class WebAppClassLoader extends URLClassLoader
 
     /* ------------------------------------------------------------ */
     @Override
-    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
     {
-        Class<?> c= findLoadedClass(name);
-        ClassNotFoundException ex= null;
-        boolean tried_parent= false;
-        
-        boolean system_class=_context.isSystemClass(name);
-        boolean server_class=_context.isServerClass(name);
-        
-        if (system_class && server_class)
-        {
-            return null;
-        }
-        
-        if (c == null && _parent!=null && (_context.isParentLoaderPriority() || system_class) && !server_class)
+        synchronized (getClassLoadingLock(name))
         {
-            tried_parent= true;
-            try
+            Class<?> c= findLoadedClass(name);
+            ClassNotFoundException ex= null;
+            boolean tried_parent= false;
+
+            boolean system_class=_context.isSystemClass(name);
+            boolean server_class=_context.isServerClass(name);
+
+            if (system_class && server_class)
             {
-                c= _parent.loadClass(name);
-                if (LOG.isDebugEnabled())
-                    LOG.debug("loaded " + c);
+                return null;
             }
-            catch (ClassNotFoundException e)
+
+            if (c == null && _parent!=null && (_context.isParentLoaderPriority() || system_class) && !server_class)
             {
-                ex= e;
+                tried_parent= true;
+                try
+                {
+                    c= loadParentClass(name);
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("loaded " + c);
+                }
+                catch (ClassNotFoundException e)
+                {
+                    ex= e;
+                }
+            }
+
+            if (c == null)
+            {
+                try
+                {
+                    c= this.findClass(name);
+                }
+                catch (ClassNotFoundException e)
+                {
+                    ex= e;
+                }
             }
+
+            if (c == null && _parent!=null && !tried_parent && !server_class )
+                c= loadParentClass(name);
+
+            if (c == null)
+                throw ex;
+
+            if (resolve)
+                resolveClass(c);
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("loaded " + c+ " from "+c.getClassLoader());
+
+            return c;
         }
+    }
 
-        if (c == null)
+    /* ------------------------------------------------------------ */
+    /** Load a class from the parent classloader, unless it already failed to 
+     * load it and its classpath has not changed since.
+     */
+    private Class<?> loadParentClass(String name) throws ClassNotFoundException
+    {
+        synchronized (_parentMisses)
         {
-            try
+            if (_parentMisses.get(name)!=null && !updateParentClassPath())
+                throw new ClassNotFoundException(name);
+        }
+
+        try
+        {
+            return _parent.loadClass(name);
+        }
+        catch (ClassNotFoundException e)
+        {
+            synchronized (_parentMisses)
             {
-                c= this.findClass(name);
+                updateParentClassPath();
+                _parentMisses.put(name,Boolean.TRUE);
             }
-            catch (ClassNotFoundException e)
+            throw e;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Forget the parent misses if the classpath of the parent changed.
+     * Only the classpath of a {@link URLClassLoader} parent can be checked, 
+     * otherwise the misses are only bounded to the most recent ones.
+     * @return true if the parent misses were forgotten
+     */
+    private boolean updateParentClassPath()
+    {
+        int classPath=_parent instanceof URLClassLoader?((URLClassLoader)_parent).getURLs().length:-1;
+        if (classPath==_parentClassPath)
+            return false;
+        _parentMisses.clear();
+        _parentClassPath=classPath;
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException
+    {
+        String path=name.replace('.','/').concat(".class");
+        List<Location> locations=getLocations(path);
+        if (locations==null)
+            return super.findClass(name);
+
+        try
+        {
+            for (Location location : locations)
             {
-                ex= e;
+                Class<?> c=defineClass(name,path,location);
+                if (c!=null)
+                    return c;
             }
         }
+        catch (IOException e)
+        {
+            throw new ClassNotFoundException(name,e);
+        }
+        throw new ClassNotFoundException(name);
+    }
 
-        if (c == null && _parent!=null && !tried_parent && !server_class )
-            c= _parent.loadClass(name);
+    /* ------------------------------------------------------------ */
+    @Override
+    public URL findResource(String name)
+    {
+        List<Location> locations=getLocations(name);
+        if (locations==null)
+            return super.findResource(name);
 
-        if (c == null)
-            throw ex;
+        for (Location location : locations)
+        {
+            URL url=location.getResource(name);
+            if (url!=null)
+                return url;
+        }
+        return null;
+    }
 
-        if (resolve)
-            resolveClass(c);
+    /* ------------------------------------------------------------ */
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException
+    {
+        List<Location> locations=getLocations(name);
+        if (locations==null)
+            return super.findResources(name);
 
-        if (LOG.isDebugEnabled())
-            LOG.debug("loaded " + c+ " from "+c.getClassLoader());
-        
-        return c;
+        List<URL> urls=new ArrayList<URL>();
+        for (Location location : locations)
+        {
+            URL url=location.getResource(name);
+            if (url!=null)
+                urls.add(url);
+        }
+        return Collections.enumeration(urls);
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Define a class from a jar or directory of the classpath.
+     * @return the class, or null if the location does not contain it
+     */
+    private Class<?> defineClass(String name, String path, Location location) throws IOException
+    {
+        JarEntry entry=null;
+        InputStream in;
+        if (location.isDirectory())
+        {
+            File file=new File(location.getFile(),path);
+            if (!file.isFile())
+                return null;
+            in=new FileInputStream(file);
+        }
+        else
+        {
+            entry=location.getJar().getJarEntry(path);
+            if (entry==null)
+                return null;
+            in=location.getJar().getInputStream(entry);
+        }
+
+        byte[] bytes;
+        try
+        {
+            bytes=IO.readBytes(in);
+        }
+        finally
+        {
+            IO.close(in);
+        }
+
+        // the signers of a jar entry are only known once it has been read
+        CodeSigner[] signers=entry==null?null:entry.getCodeSigners();
+
+        int dot=name.lastIndexOf('.');
+        if (dot>0)
+        {
+            String pkg=name.substring(0,dot);
+            if (getPackage(pkg)==null)
+            {
+                try
+                {
+                    Manifest manifest=location.getManifest();
+                    if (manifest==null)
+                        definePackage(pkg,null,null,null,null,null,null,null);
+                    else
+                        definePackage(pkg,manifest,location.getURL());
+                }
+                catch (IllegalArgumentException e)
+                {
+                    // defined concurrently by another thread
+                    LOG.ignore(e);
+                }
+            }
+        }
+
+        return defineClass(name,bytes,0,bytes.length,new CodeSource(location.getURL(),signers));
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param name the name of a resource
+     * @return the jars and directories, in classpath order, that contain the 
+     * package of the resource, or null if the classpath must be searched.
+     */
+    private List<Location> getLocations(String name)
+    {
+        Index index=getIndex();
+        return index==null?null:index.getLocations(name);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the index of the classpath, built if the classpath changed since
+     * it was last built, or null if the classpath cannot be indexed.
+     */
+    private Index getIndex()
+    {
+        Index index=_index;
+        if (index==null)
+        {
+            synchronized (_indexLock)
+            {
+                index=_index;
+                if (index==null)
+                {
+                    index=new Index(getURLs(),_locations);
+                    _index=index;
+                }
+            }
+        }
+        return index.isComplete()?index:null;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (_indexLock)
+        {
+            for (Location location : _locations.values())
+                location.close();
+            _locations.clear();
+            _index=null;
+        }
+        super.close();
     }
 
     /* ------------------------------------------------------------ */
@@ -445,4 +713,244 @@ public class WebAppClassLoader extends URLClassLoader
     {
         return "WebAppClassLoader=" + _name+"@"+Long.toHexString(hashCode());
     }
+
+    /* ------------------------------------------------------------ */
+    /** The jars and directories of the classpath that contain each package.
+     * A classpath with URLs that are not files, or with jars that reference 
+     * other jars, is not indexed.
+     */
+    private static class Index
+    {
+        private final Map<String,List<Location>> _packages=new HashMap<String,List<Location>>();
+        private boolean _complete;
+
+        private Index(URL[] urls, Map<URL,Location> locations)
+        {
+            try
+            {
+                for (URL url : urls)
+                {
+                    if (!"file".equalsIgnoreCase(url.getProtocol()))
+                        return;
+
+                    Location location=locations.get(url);
+                    if (location==null)
+                    {
+                        location=new Location(url);
+                        locations.put(url,location);
+                    }
+                    if (!location.index(this))
+                        return;
+                }
+                _complete=true;
+
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Indexed {} packages of {} urls",_packages.size(),urls.length);
+            }
+            catch (Exception e)
+            {
+                LOG.debug("Cannot index classpath",e);
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        private void add(String pkg, Location location)
+        {
+            List<Location> locations=_packages.get(pkg);
+            if (locations==null)
+            {
+                locations=new ArrayList<Location>(1);
+                _packages.put(pkg,locations);
+            }
+            if (locations.isEmpty() || locations.get(locations.size()-1)!=location)
+                locations.add(location);
+        }
+
+        /* ------------------------------------------------------------ */
+        private boolean isComplete()
+        {
+            return _complete;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @param name the name of a resource
+         * @return the locations that contain the package of the resource, or 
+         * null if the resource cannot be looked up by its package.
+         */
+        private List<Location> getLocations(String name)
+        {
+            if (name.startsWith("/") || name.contains(".."))
+                return null;
+            List<Location> locations=_packages.get(name.substring(0,name.lastIndexOf('/')+1));
+            if (locations==null)
+                return Collections.emptyList();
+            for (Location location : locations)
+            {
+                // the versioned entries are selected by the jar loader of the JVM
+                if (location.isMultiRelease())
+                    return null;
+            }
+            return locations;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** A jar or directory of the classpath.
+     * The jar is kept open to load the classes and resources it contains.
+     */
+    private static class Location
+    {
+        private static final String VERSIONS="META-INF/versions/";
+        private static final Attributes.Name MULTI_RELEASE=new Attributes.Name("Multi-Release");
+
+        private final URL _url;
+        private final File _file;
+        private final JarFile _jar;
+        private final URL _base;
+        private final Manifest _manifest;
+        private final boolean _multiRelease;
+
+        private Location(URL url) throws Exception
+        {
+            _url=url;
+            _file=new File(url.toURI());
+            if (_file.isDirectory())
+            {
+                _jar=null;
+                _base=url.toString().endsWith("/")?url:new URL(url+"/");
+                _manifest=null;
+            }
+            else
+            {
+                _jar=new JarFile(_file);
+                _base=new URL("jar:"+url+"!/");
+                _manifest=_jar.getManifest();
+            }
+            _multiRelease=_manifest!=null && "true".equalsIgnoreCase(_manifest.getMainAttributes().getValue(MULTI_RELEASE));
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Add the packages of this location to an index.
+         * @return false if this location cannot be indexed
+         */
+        private boolean index(Index index) throws IOException
+        {
+            if (_jar==null)
+            {
+                index(index,_file,"");
+                return true;
+            }
+
+            // the jars referenced by the manifest or the jar index are also searched
+            if (_manifest!=null && _manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH)!=null)
+                return false;
+            if (_jar.getEntry("META-INF/INDEX.LIST")!=null)
+                return false;
+
+            Enumeration<JarEntry> entries=_jar.entries();
+            while (entries.hasMoreElements())
+            {
+                String name=entries.nextElement().getName();
+                index(index,name);
+                // a versioned entry of a multi release jar may be found under its unversioned name
+                if (name.startsWith(VERSIONS))
+                {
+                    int slash=name.indexOf('/',VERSIONS.length());
+                    if (slash>0)
+                        index(index,name.substring(slash+1));
+                }
+            }
+            return true;
+        }
+
+        /* ------------------------------------------------------------ */
+        private void index(Index index, File directory, String pkg)
+        {
+            index.add(pkg,this);
+            File[] files=directory.listFiles();
+            if (files==null)
+                return;
+            for (File file : files)
+            {
+                if (file.isDirectory())
+                    index(index,file,pkg+file.getName()+"/");
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        private void index(Index index, String name)
+        {
+            index.add(name.substring(0,name.lastIndexOf('/')+1),this);
+            // a directory entry is also found by its name without the trailing /
+            if (name.endsWith("/"))
+            {
+                String dir=name.substring(0,name.length()-1);
+                index.add(dir.substring(0,dir.lastIndexOf('/')+1),this);
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        private URL getURL()
+        {
+            return _url;
+        }
+
+        /* ------------------------------------------------------------ */
+        private File getFile()
+        {
+            return _file;
+        }
+
+        /* ------------------------------------------------------------ */
+        private JarFile getJar()
+        {
+            return _jar;
+        }
+
+        /* ------------------------------------------------------------ */
+        private Manifest getManifest()
+        {
+            return _manifest;
+        }
+
+        /* ------------------------------------------------------------ */
+        private boolean isDirectory()
+        {
+            return _jar==null;
+        }
+
+        /* ------------------------------------------------------------ */
+        private boolean isMultiRelease()
+        {
+            return _multiRelease;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @param name the name of a resource
+         * @return the URL of the resource, or null if this location does not contain it
+         */
+        private URL getResource(String name)
+        {
+            if (_jar==null?!new File(_file,name).exists():_jar.getJarEntry(name)==null)
+                return null;
+            try
+            {
+                return new URL(_base,URIUtil.encodePath(name));
+            }
+            catch (MalformedURLException e)
+            {
+                LOG.ignore(e);
+                return null;
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        private void close() throws IOException
+        {
+            if (_jar!=null)
+                _jar.close();
+        }
+    }
 }
@@ -19,19 +19,34 @@
 package org.eclipse.jetty.webapp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.eclipse.jetty.toolchain.test.FS;
+import org.eclipse.jetty.toolchain.test.TestingDir;
 import org.eclipse.jetty.util.resource.Resource;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class WebAppClassLoaderTest
 {
+    @Rule
+    public TestingDir testdir = new TestingDir();
+
     private WebAppContext _context;
     private WebAppClassLoader _loader;
 
@@ -170,6 +185,113 @@ public class WebAppClassLoaderTest
         assertEquals(0,resources.get(0).toString().indexOf("file:"));
     }
 
+    @Test
+    public void testIndexedResources() throws Exception
+    {
+        assertNotNull(_loader.findResource("org/acme/webapp/ClassInJarA.class"));
+        assertNotNull(_loader.findResource("org/acme/other/ClassInClassesC.class"));
+        assertNotNull(_loader.findResource("org/acme/resource.txt"));
+        assertNull(_loader.findResource("org/acme/webapp/Missing.class"));
+        assertNull(_loader.findResource("org/acme/missing/resource.txt"));
+        assertTrue(cantLoadClass("org.acme.missing.ClassInClassesD"));
+
+        // a resource in a directory added to the classpath after it was indexed is found
+        File dir = testdir.getEmptyDir();
+        File resource = new File(dir,"org/acme/missing/resource.txt");
+        FS.ensureDirExists(resource.getParentFile());
+        FS.touch(resource);
+        assertNull(_loader.getResource("org/acme/missing/resource.txt"));
+        _loader.addClassPath(Resource.newResource(dir).toString());
+        assertNotNull(_loader.getResource("org/acme/missing/resource.txt"));
+    }
+
+    @Test
+    public void testLoadFromOwningLocation() throws Exception
+    {
+        _context.setParentLoaderPriority(false);
+        Class<?> clazzA = _loader.loadClass("org.acme.webapp.ClassInJarA");
+        assertSame(_loader,clazzA.getClassLoader());
+        assertTrue(clazzA.getProtectionDomain().getCodeSource().getLocation().toString().endsWith("WEB-INF/lib/acme.jar"));
+        assertNotNull(clazzA.getPackage());
+
+        Class<?> clazzC = _loader.loadClass("org.acme.other.ClassInClassesC");
+        assertSame(_loader,clazzC.getClassLoader());
+        assertTrue(clazzC.getProtectionDomain().getCodeSource().getLocation().toString().endsWith("WEB-INF/classes/"));
+        assertNotNull(clazzC.getPackage());
+
+        URL resource = _loader.findResource("org/acme/webapp/ClassInJarA.class");
+        assertEquals(0,resource.toString().indexOf("jar:file:"));
+        assertNotNull(resource.openStream());
+    }
+
+    @Test
+    public void testParentMissForgottenWhenParentClassPathChanges() throws Exception
+    {
+        ParentLoader parent = new ParentLoader();
+        WebAppClassLoader loader = new WebAppClassLoader(parent,_context);
+        _context.setParentLoaderPriority(true);
+
+        try
+        {
+            loader.loadClass("org.acme.other.ClassInClassesC");
+            assertTrue(false);
+        }
+        catch(ClassNotFoundException e)
+        {
+            assertTrue(true);
+        }
+
+        parent.addURL(Resource.newResource("./src/test/webapp/WEB-INF/classes/").getURL());
+        Class<?> clazz = loader.loadClass("org.acme.other.ClassInClassesC");
+        assertSame(parent,clazz.getClassLoader());
+    }
+
+    @Test
+    public void testConcurrentLoad() throws Exception
+    {
+        final String[] names = new String[]{"org.acme.webapp.ClassInJarA","org.acme.webapp.ClassInJarB","org.acme.other.ClassInClassesC"};
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<Class<?>>> futures = new ArrayList<Future<Class<?>>>();
+            for (int i = 0; i < 64; i++)
+            {
+                final String name = names[i % names.length];
+                futures.add(executor.submit(new Callable<Class<?>>()
+                {
+                    public Class<?> call() throws Exception
+                    {
+                        return _loader.loadClass(name);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++)
+            {
+                Class<?> clazz = futures.get(i).get();
+                assertSame(_loader,clazz.getClassLoader());
+                assertSame(_loader.loadClass(names[i % names.length]),clazz);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class ParentLoader extends URLClassLoader
+    {
+        private ParentLoader()
+        {
+            super(new URL[0],WebAppClassLoaderTest.class.getClassLoader());
+        }
+
+        @Override
+        public void addURL(URL url)
+        {
+            super.addURL(url);
+        }
+    }
+
     private List<URL> toList(Enumeration<URL> e)
     {
         List<URL> list = new ArrayList<URL>();
@@ -0,0 +1,174 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.extensions.compress.CompressionMethod;
+import org.eclipse.jetty.websocket.common.extensions.compress.DeflateCompressionMethod;
+
+/**
+ * An immutable data frame, generated once into network bytes so that it can be written as-is to many connections.
+ * <p>
+ * The frame can also be deflated once, the same way the compression extensions deflate each message, so that connections
+ * that negotiated compression can be sent the compressed bytes.
+ * <p>
+ * Only unmasked (server side) frames can be shared between connections. Each write obtains its own read-only duplicate
+ * of the encoded bytes via {@link #getEncodedBuffer(boolean)}.
+ */
+public class EncodedFrame
+{
+    private static final ByteBufferPool BUFFER_POOL = new MappedByteBufferPool();
+
+    public static EncodedFrame binary(ByteBuffer data, boolean compress)
+    {
+        return new EncodedFrame(WebSocketFrame.binary().setPayload(data),compress);
+    }
+
+    public static EncodedFrame text(String text, boolean compress)
+    {
+        return new EncodedFrame(WebSocketFrame.text(text),compress);
+    }
+
+    private final WebSocketFrame frame;
+    private final ByteBuffer encoded;
+    private final ByteBuffer compressed;
+
+    /**
+     * Encode a data frame.
+     *
+     * @param frame
+     *            the complete (FIN), unmasked, data frame to encode
+     * @param compress
+     *            true to also encode the deflated form of the frame
+     */
+    public EncodedFrame(WebSocketFrame frame, boolean compress)
+    {
+        if (!frame.getType().isData() || !frame.isFin())
+        {
+            throw new IllegalArgumentException("Only complete data frames can be encoded: " + frame);
+        }
+        if (frame.isMasked())
+        {
+            throw new IllegalArgumentException("Masked frames cannot be shared");
+        }
+
+        ByteBuffer payload = frame.hasPayload()?frame.getPayload().asReadOnlyBuffer():BufferUtil.EMPTY_BUFFER;
+        this.frame = new WebSocketFrame(frame,payload);
+        this.encoded = encode(new WebSocketFrame(this.frame));
+        if (compress)
+        {
+            WebSocketFrame deflated = new WebSocketFrame(this.frame,deflate(payload.slice()));
+            deflated.setRsv1(true);
+            this.compressed = encode(deflated);
+        }
+        else
+        {
+            this.compressed = null;
+        }
+    }
+
+    private ByteBuffer deflate(ByteBuffer payload)
+    {
+        DeflateCompressionMethod method = new DeflateCompressionMethod();
+        // Large enough for the deflated payload to be produced in one chunk
+        method.setBufferSize(Math.max(64,payload.remaining() + (payload.remaining() / 16) + 64));
+        CompressionMethod.Process process = method.compress();
+        process.begin();
+        process.input(payload);
+        ByteBuffer result = BufferUtil.EMPTY_BUFFER;
+        while (!process.isDone())
+        {
+            result = process.process();
+        }
+        process.end();
+        return result;
+    }
+
+    private ByteBuffer encode(WebSocketFrame frame)
+    {
+        // Validation is skipped, as RSV1 is legitimately set on the deflated frame
+        Generator generator = new Generator(WebSocketPolicy.newServerPolicy(),BUFFER_POOL,false);
+        ByteBuffer generated = generator.generate(frame);
+        try
+        {
+            // Direct, so that it is not copied again on each of the many writes
+            ByteBuffer result = ByteBuffer.allocateDirect(generated.remaining());
+            result.put(generated).flip();
+            return result.asReadOnlyBuffer();
+        }
+        finally
+        {
+            BUFFER_POOL.release(generated);
+        }
+    }
+
+    /**
+     * @param compressed
+     *            true to obtain the deflated form of the frame, if it has been encoded
+     * @return a read-only duplicate of the network bytes of the frame, ready to be written
+     */
+    public ByteBuffer getEncodedBuffer(boolean compressed)
+    {
+        if (compressed && (this.compressed != null))
+        {
+            return this.compressed.duplicate();
+        }
+        return encoded.duplicate();
+    }
+
+    public int getEncodedLength(boolean compressed)
+    {
+        if (compressed && (this.compressed != null))
+        {
+            return this.compressed.remaining();
+        }
+        return encoded.remaining();
+    }
+
+    public Frame.Type getType()
+    {
+        return frame.getType();
+    }
+
+    public boolean isCompressed()
+    {
+        return compressed != null;
+    }
+
+    /**
+     * @return a new (not encoded) frame with the same payload, for connections that cannot be written the encoded bytes
+     */
+    public WebSocketFrame newFrame()
+    {
+        return new WebSocketFrame(frame);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[%s,len=%d,encoded=%d,compressed=%d]",EncodedFrame.class.getSimpleName(),frame.getType(),frame.getPayloadLength(),
+                encoded.remaining(),(compressed == null)?-1:compressed.remaining());
+    }
+}
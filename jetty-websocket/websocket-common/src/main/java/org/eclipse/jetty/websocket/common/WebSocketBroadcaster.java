@@ -0,0 +1,373 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WebSocketBehavior;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Extension;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.api.extensions.OutgoingFrames;
+import org.eclipse.jetty.websocket.common.extensions.ExtensionStack;
+import org.eclipse.jetty.websocket.common.extensions.compress.FrameCompressionExtension;
+import org.eclipse.jetty.websocket.common.extensions.compress.MessageCompressionExtension;
+import org.eclipse.jetty.websocket.common.extensions.identity.IdentityExtension;
+import org.eclipse.jetty.websocket.common.io.AbstractWebSocketConnection;
+
+/**
+ * Sends the same message to many sessions.
+ * <p>
+ * The message is generated once into an {@link EncodedFrame} (and deflated once, if {@link #setCompress(boolean) compress} is enabled), whose bytes
+ * are then written as-is to each server side session that has no extensions other than the compression ones, bypassing the per session frame
+ * generation. Other sessions are sent a copy of the frame through their extensions, as {@link Session#getRemote()} would.
+ * <p>
+ * A session whose write backlog exceeds {@link #setMaxQueuedBytes(long) max queued bytes} is a slow consumer, and is handled according to the
+ * {@link #setSlowConsumerPolicy(SlowConsumerPolicy) slow consumer policy}.
+ */
+@ManagedObject("Broadcasts messages to many WebSocket sessions")
+public class WebSocketBroadcaster
+{
+    public static enum SlowConsumerPolicy
+    {
+        /**
+         * The message is not sent to the slow session.
+         */
+        DROP_NEWEST,
+        /**
+         * The broadcast messages queued for the slow session, and not being written yet, are dropped to make room for the message.
+         */
+        DROP_OLDEST,
+        /**
+         * The message is not sent and the slow session is closed.
+         */
+        CLOSE
+    }
+
+    private static final Logger LOG = Log.getLogger(WebSocketBroadcaster.class);
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong closedSessions = new AtomicLong();
+    private final Callback callback = new Callback()
+    {
+        @Override
+        public void failed(Throwable x)
+        {
+            LOG.debug("Broadcast write failed",x);
+            failed.incrementAndGet();
+        }
+
+        @Override
+        public void succeeded()
+        {
+            written.incrementAndGet();
+        }
+    };
+    private final WriteCallback writeCallback = new WriteCallback()
+    {
+        @Override
+        public void writeFailed(Throwable x)
+        {
+            callback.failed(x);
+        }
+
+        @Override
+        public void writeSuccess()
+        {
+            callback.succeeded();
+        }
+    };
+    private volatile long maxQueuedBytes = 256 * 1024;
+    private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP_NEWEST;
+    private volatile boolean compress;
+
+    /**
+     * Send a binary message to the given sessions.
+     *
+     * @return the number of sessions the message has been enqueued for
+     */
+    public int broadcast(ByteBuffer data, Iterable<? extends Session> sessions)
+    {
+        return broadcast(EncodedFrame.binary(data,compress),sessions);
+    }
+
+    /**
+     * Send an already encoded message to the given sessions.
+     *
+     * @return the number of sessions the message has been enqueued for
+     */
+    public int broadcast(EncodedFrame frame, Iterable<? extends Session> sessions)
+    {
+        messages.incrementAndGet();
+        int result = 0;
+        for (Session session : sessions)
+        {
+            if (send(frame,session))
+            {
+                ++result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Send a text message to the given sessions.
+     *
+     * @return the number of sessions the message has been enqueued for
+     */
+    public int broadcast(String text, Iterable<? extends Session> sessions)
+    {
+        return broadcast(EncodedFrame.text(text,compress),sessions);
+    }
+
+    /**
+     * Encode a binary message, for it to be {@link #broadcast(EncodedFrame, Iterable) broadcast} possibly many times.
+     */
+    public EncodedFrame encode(ByteBuffer data)
+    {
+        return EncodedFrame.binary(data,compress);
+    }
+
+    /**
+     * Encode a text message, for it to be {@link #broadcast(EncodedFrame, Iterable) broadcast} possibly many times.
+     */
+    public EncodedFrame encode(String text)
+    {
+        return EncodedFrame.text(text,compress);
+    }
+
+    @ManagedAttribute("The number of broadcast messages whose write failed, or that were dropped after being enqueued")
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    @ManagedAttribute("The number of per session messages enqueued")
+    public long getEnqueued()
+    {
+        return enqueued.get();
+    }
+
+    @ManagedAttribute("The max number of bytes queued for write to a session before it is considered a slow consumer")
+    public long getMaxQueuedBytes()
+    {
+        return maxQueuedBytes;
+    }
+
+    @ManagedAttribute("The number of messages broadcast")
+    public long getMessages()
+    {
+        return messages.get();
+    }
+
+    @ManagedAttribute("The number of per session messages not enqueued because the session was a slow consumer")
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    @ManagedAttribute("The number of slow consumer sessions closed")
+    public long getClosedSessions()
+    {
+        return closedSessions.get();
+    }
+
+    @ManagedAttribute("The policy for slow consumer sessions")
+    public SlowConsumerPolicy getSlowConsumerPolicy()
+    {
+        return slowConsumerPolicy;
+    }
+
+    @ManagedAttribute("The number of per session messages written")
+    public long getWritten()
+    {
+        return written.get();
+    }
+
+    @ManagedAttribute("Whether messages are also deflated, for sessions that negotiated compression")
+    public boolean isCompress()
+    {
+        return compress;
+    }
+
+    /**
+     * @return whether the encoded bytes can be written to the connection of the session, or null if they cannot
+     */
+    private Boolean isCompressing(WebSocketSession session)
+    {
+        if ((session.getPolicy() == null) || (session.getPolicy().getBehavior() != WebSocketBehavior.SERVER))
+        {
+            // Client frames must be masked, each with its own mask
+            return null;
+        }
+
+        OutgoingFrames outgoing = session.getOutgoingHandler();
+        if (outgoing == session.getConnection())
+        {
+            return false;
+        }
+        if (!(outgoing instanceof ExtensionStack))
+        {
+            return null;
+        }
+
+        boolean compressing = false;
+        List<Extension> extensions = ((ExtensionStack)outgoing).getExtensions();
+        if (extensions != null)
+        {
+            for (Extension extension : extensions)
+            {
+                if ((extension instanceof MessageCompressionExtension) || (extension instanceof FrameCompressionExtension))
+                {
+                    // Both deflate each message on its own, as EncodedFrame does
+                    compressing = true;
+                }
+                else if (!(extension instanceof IdentityExtension))
+                {
+                    return null;
+                }
+            }
+        }
+        return compressing;
+    }
+
+    @ManagedOperation("Resets the statistics")
+    public void resetStatistics()
+    {
+        messages.set(0);
+        enqueued.set(0);
+        written.set(0);
+        failed.set(0);
+        rejected.set(0);
+        closedSessions.set(0);
+    }
+
+    /**
+     * Send an already encoded message to the given session.
+     *
+     * @return true if the message has been enqueued
+     */
+    public boolean send(EncodedFrame frame, Session session)
+    {
+        if (!session.isOpen())
+        {
+            return false;
+        }
+
+        if (session instanceof WebSocketSession)
+        {
+            WebSocketSession wsSession = (WebSocketSession)session;
+            LogicalConnection connection = wsSession.getConnection();
+            if (connection instanceof AbstractWebSocketConnection)
+            {
+                AbstractWebSocketConnection wsConnection = (AbstractWebSocketConnection)connection;
+                Boolean compressing = isCompressing(wsSession);
+                if (compressing != null)
+                {
+                    boolean dropQueued = slowConsumerPolicy == SlowConsumerPolicy.DROP_OLDEST;
+                    if (wsConnection.outgoingEncodedFrame(frame,compressing,callback,maxQueuedBytes,dropQueued))
+                    {
+                        enqueued.incrementAndGet();
+                        return true;
+                    }
+                    return slowConsumer(session);
+                }
+
+                // The queued frames cannot be dropped, but the session can still be detected as slow
+                if (wsConnection.getQueuedBytes() > maxQueuedBytes)
+                {
+                    return slowConsumer(session);
+                }
+            }
+
+            LOG.debug("Sending {} through the extensions of {}",frame,session);
+            wsSession.getOutgoingHandler().outgoingFrame(frame.newFrame(),writeCallback);
+            enqueued.incrementAndGet();
+            return true;
+        }
+
+        WebSocketFrame copy = frame.newFrame();
+        if (frame.getType() == Frame.Type.TEXT)
+        {
+            session.getRemote().sendStringByFuture(copy.getPayloadAsUTF8());
+        }
+        else
+        {
+            session.getRemote().sendBytesByFuture(copy.getPayload());
+        }
+        enqueued.incrementAndGet();
+        return true;
+    }
+
+    public void setCompress(boolean compress)
+    {
+        this.compress = compress;
+    }
+
+    public void setMaxQueuedBytes(long maxQueuedBytes)
+    {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy)
+    {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    private boolean slowConsumer(Session session)
+    {
+        rejected.incrementAndGet();
+        LOG.debug("Slow consumer {}, policy {}",session,slowConsumerPolicy);
+        if (slowConsumerPolicy == SlowConsumerPolicy.CLOSE)
+        {
+            closedSessions.incrementAndGet();
+            try
+            {
+                session.close(StatusCode.POLICY_VIOLATION,"Slow consumer");
+            }
+            catch (IOException e)
+            {
+                LOG.ignore(e);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[maxQueuedBytes=%d,policy=%s,compress=%b]",WebSocketBroadcaster.class.getSimpleName(),hashCode(),maxQueuedBytes,
+                slowConsumerPolicy,compress);
+    }
+}
@@ -52,6 +52,7 @@ import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.api.extensions.Frame;
 import org.eclipse.jetty.websocket.common.CloseInfo;
 import org.eclipse.jetty.websocket.common.ConnectionState;
+import org.eclipse.jetty.websocket.common.EncodedFrame;
 import org.eclipse.jetty.websocket.common.Generator;
 import org.eclipse.jetty.websocket.common.LogicalConnection;
 import org.eclipse.jetty.websocket.common.Parser;
@@ -382,6 +383,14 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         return getEndPoint().getIdleTimeout();
     }
 
+    /**
+     * @return the number of bytes waiting to be written
+     */
+    public long getQueuedBytes()
+    {
+        return writeBytes.getQueuedBytes();
+    }
+
     public Parser getParser()
     {
         return parser;
@@ -461,6 +470,13 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         }
     }
 
+    @Override
+    protected boolean isNonBlocking()
+    {
+        // Frames are read and parsed without blocking, the event driver must not block either
+        return true;
+    }
+
     @Override
     public void onFillable()
     {
@@ -540,6 +556,28 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         flush();
     }
 
+    /**
+     * Already encoded frame from API destined for network, bypassing the extensions.
+     * 
+     * @return false if the write backlog is full and the frame has not been enqueued
+     * @see WriteBytesProvider#enqueue(EncodedFrame, boolean, Callback, long, boolean)
+     */
+    public boolean outgoingEncodedFrame(EncodedFrame frame, boolean compressed, Callback callback, long maxQueuedBytes, boolean dropQueued)
+    {
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("outgoingEncodedFrame({}, {})",frame,callback);
+        }
+
+        if (!writeBytes.enqueue(frame,compressed,callback,maxQueuedBytes,dropQueued))
+        {
+            return false;
+        }
+
+        flush();
+        return true;
+    }
+
     private int read(ByteBuffer buffer)
     {
         EndPoint endPoint = getEndPoint();
@@ -21,6 +21,7 @@ package org.eclipse.jetty.websocket.common.io;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -32,6 +33,7 @@ import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.EncodedFrame;
 import org.eclipse.jetty.websocket.common.Generator;
 
 /**
@@ -61,6 +63,19 @@ public class WriteBytesProvider implements Callback
             return buffer;
         }
 
+        /**
+         * @return the number of bytes this entry accounts for while queued
+         */
+        public int getQueuedBytes()
+        {
+            return frame.getPayloadLength();
+        }
+
+        public boolean isDone()
+        {
+            return frame.remaining() <= 0;
+        }
+
         public void notifyFailure(Throwable t)
         {
             if (failed.getAndSet(true) == false)
@@ -68,6 +83,51 @@ public class WriteBytesProvider implements Callback
                 notifySafeFailure(callback,t);
             }
         }
+
+        public void release(ByteBuffer buffer)
+        {
+            generator.getBufferPool().release(buffer);
+        }
+    }
+
+    /**
+     * Entry for a frame already encoded into network bytes, possibly shared with other connections.
+     */
+    private class EncodedFrameEntry extends FrameEntry
+    {
+        private final ByteBuffer encoded;
+        private boolean written;
+
+        public EncodedFrameEntry(EncodedFrame frame, boolean compressed, Callback callback)
+        {
+            super(frame.newFrame(),callback);
+            this.encoded = frame.getEncodedBuffer(compressed);
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer()
+        {
+            written = true;
+            return encoded;
+        }
+
+        @Override
+        public int getQueuedBytes()
+        {
+            return encoded.remaining();
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return written;
+        }
+
+        @Override
+        public void release(ByteBuffer buffer)
+        {
+            // Not pooled, may be shared with other connections
+        }
     }
 
     private static final Logger LOG = Log.getLogger(WriteBytesProvider.class);
@@ -78,6 +138,12 @@ public class WriteBytesProvider implements Callback
     private final Callback flushCallback;
     /** Backlog of frames */
     private LinkedList<FrameEntry> queue;
+    /** Encoded frames waiting for the end of the fragmented message being enqueued */
+    private LinkedList<EncodedFrameEntry> deferred;
+    /** Is a fragmented message being enqueued? */
+    private boolean fragmented;
+    /** The number of bytes in the backlog */
+    private long queuedBytes;
     /** the buffer input size */
     private int bufferSize = 2048;
     /** Currently active frame */
@@ -104,6 +170,7 @@ public class WriteBytesProvider implements Callback
         this.generator = Objects.requireNonNull(generator);
         this.flushCallback = Objects.requireNonNull(flushCallback);
         this.queue = new LinkedList<>();
+        this.deferred = new LinkedList<>();
         this.closed = new AtomicBoolean(false);
     }
 
@@ -144,6 +211,7 @@ public class WriteBytesProvider implements Callback
             }
 
             FrameEntry entry = new FrameEntry(frame,callback);
+            queuedBytes += entry.getQueuedBytes();
 
             switch (frame.getType())
             {
@@ -158,6 +226,99 @@ public class WriteBytesProvider implements Callback
                 default:
                     queue.addLast(entry);
             }
+
+            if (!frame.getType().isControl())
+            {
+                fragmented = !frame.isFin();
+                if (!fragmented)
+                {
+                    // Encoded frames cannot interleave with fragments, so they are queued after the last one
+                    queue.addAll(deferred);
+                    deferred.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Enqueue a frame already encoded into network bytes.
+     * <p>
+     * If the bytes in the backlog would exceed {@code maxQueuedBytes}, the frame is not enqueued, unless {@code dropQueued} is true, in which case
+     * previously enqueued encoded frames (that have not started to be written yet) are dropped, oldest first, to make room for it.
+     *
+     * @param frame
+     *            the encoded frame
+     * @param compressed
+     *            true to write the deflated form of the frame
+     * @param callback
+     *            the callback to notify of the write, or of the frame being dropped
+     * @param maxQueuedBytes
+     *            the max number of bytes in the backlog, or -1 for no limit
+     * @param dropQueued
+     *            true to drop queued encoded frames to make room for this one
+     * @return false if the backlog is full, in which case the callback is not notified
+     */
+    public boolean enqueue(EncodedFrame frame, boolean compressed, Callback callback, long maxQueuedBytes, boolean dropQueued)
+    {
+        Objects.requireNonNull(frame);
+        LOG.debug("enqueue({}, {})",frame,callback);
+        synchronized (this)
+        {
+            if (closed.get())
+            {
+                LOG.debug("Write is closed: {} {}",frame,callback);
+                notifySafeFailure(callback,new IOException("Write is closed"));
+                return true;
+            }
+
+            if (failure != null)
+            {
+                LOG.debug("Write is in failure: {} {}",frame,callback);
+                notifySafeFailure(callback,failure);
+                return true;
+            }
+
+            EncodedFrameEntry entry = new EncodedFrameEntry(frame,compressed,callback);
+            if ((maxQueuedBytes >= 0) && ((queuedBytes + entry.getQueuedBytes()) > maxQueuedBytes))
+            {
+                if (dropQueued)
+                {
+                    IOException cause = new IOException("Dropped for slow consumer");
+                    drop(queue,maxQueuedBytes - entry.getQueuedBytes(),cause);
+                    drop(deferred,maxQueuedBytes - entry.getQueuedBytes(),cause);
+                }
+                if ((queuedBytes + entry.getQueuedBytes()) > maxQueuedBytes)
+                {
+                    LOG.debug("Write backlog full ({} bytes): {}",queuedBytes,frame);
+                    return false;
+                }
+            }
+
+            queuedBytes += entry.getQueuedBytes();
+            if (fragmented)
+            {
+                deferred.addLast(entry);
+            }
+            else
+            {
+                queue.addLast(entry);
+            }
+            return true;
+        }
+    }
+
+    private void drop(LinkedList<? extends FrameEntry> entries, long maxQueuedBytes, Throwable cause)
+    {
+        Iterator<? extends FrameEntry> iterator = entries.iterator();
+        while ((queuedBytes > maxQueuedBytes) && iterator.hasNext())
+        {
+            FrameEntry entry = iterator.next();
+            if (entry instanceof EncodedFrameEntry)
+            {
+                iterator.remove();
+                queuedBytes -= entry.getQueuedBytes();
+                entry.notifyFailure(cause);
+            }
         }
     }
 
@@ -182,8 +343,15 @@ public class WriteBytesProvider implements Callback
                 fe.notifyFailure(t);
                 notified = true;
             }
+            for (FrameEntry fe : deferred)
+            {
+                fe.notifyFailure(t);
+                notified = true;
+            }
 
             queue.clear();
+            deferred.clear();
+            queuedBytes = 0;
 
             if (notified)
             {
@@ -212,6 +380,17 @@ public class WriteBytesProvider implements Callback
         return bufferSize;
     }
 
+    /**
+     * @return the number of bytes in the backlog, not counting the frame being written
+     */
+    public long getQueuedBytes()
+    {
+        synchronized (this)
+        {
+            return queuedBytes;
+        }
+    }
+
     /**
      * Get the next ByteBuffer to write.
      * 
@@ -230,6 +409,7 @@ public class WriteBytesProvider implements Callback
                 }
                 // get current topmost entry
                 active = queue.pop();
+                queuedBytes -= active.getQueuedBytes();
             }
 
             if (active == null)
@@ -295,15 +475,16 @@ public class WriteBytesProvider implements Callback
 
         synchronized (this)
         {
-            // Release the active byte buffer first
-            generator.getBufferPool().release(buffer);
-
             if (active == null)
             {
+                generator.getBufferPool().release(buffer);
                 return;
             }
 
-            if (active.frame.remaining() <= 0)
+            // Release the active byte buffer first
+            active.release(buffer);
+
+            if (active.isDone())
             {
                 // All done with active FrameEntry
                 successCallback = active.callback;
@@ -345,6 +526,7 @@ public class WriteBytesProvider implements Callback
         {
             b.append(",active=").append(active);
             b.append(",queue.size=").append(queue.size());
+            b.append(",queuedBytes=").append(queuedBytes);
         }
         b.append(']');
         return b.toString();
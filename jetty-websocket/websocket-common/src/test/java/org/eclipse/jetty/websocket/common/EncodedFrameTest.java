@@ -0,0 +1,112 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common;
+
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Random;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.common.extensions.compress.MessageCompressionExtension;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EncodedFrameTest
+{
+    @Test
+    public void testEncodedAsGenerated()
+    {
+        String message = "0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF";
+        EncodedFrame frame = EncodedFrame.text(message,false);
+
+        ByteBufferPool bufferPool = new MappedByteBufferPool();
+        Generator generator = new Generator(WebSocketPolicy.newServerPolicy(),bufferPool);
+        ByteBuffer expected = generator.generate(WebSocketFrame.text(message));
+
+        Assert.assertFalse("Compressed",frame.isCompressed());
+        ByteBufferAssert.assertEquals("Encoded",expected,frame.getEncodedBuffer(false));
+        // No compressed form, the plain one is used
+        ByteBufferAssert.assertEquals("Encoded",expected,frame.getEncodedBuffer(true));
+        Assert.assertThat("Encoded length",frame.getEncodedLength(false),is(expected.remaining()));
+    }
+
+    @Test
+    public void testEncodedBuffersAreIndependent()
+    {
+        EncodedFrame frame = EncodedFrame.binary(BufferUtil.toBuffer("Hello World"),false);
+
+        ByteBuffer buffer1 = frame.getEncodedBuffer(false);
+        ByteBuffer buffer2 = frame.getEncodedBuffer(false);
+        Assert.assertTrue("Read only",buffer1.isReadOnly());
+
+        int length = buffer2.remaining();
+        buffer1.position(buffer1.limit());
+        Assert.assertThat("Other buffer remaining",buffer2.remaining(),is(length));
+        Assert.assertThat("New buffer remaining",frame.getEncodedBuffer(false).remaining(),is(length));
+    }
+
+    @Test
+    public void testCompressedParsedByCompressionExtension()
+    {
+        // Large and not very compressible, to span several deflate buffers
+        Random random = new Random(1);
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 128 * 1024; i++)
+        {
+            message.append((char)('a' + random.nextInt(26)));
+        }
+        EncodedFrame frame = EncodedFrame.text(message.toString(),true);
+        Assert.assertTrue("Compressed",frame.isCompressed());
+        Assert.assertThat("Compressed length",frame.getEncodedLength(true),lessThan(frame.getEncodedLength(false)));
+
+        WebSocketPolicy policy = WebSocketPolicy.newClientPolicy();
+        policy.setMaxMessageSize(256 * 1024);
+        MessageCompressionExtension ext = new MessageCompressionExtension();
+        ext.setBufferPool(new MappedByteBufferPool());
+        ext.setPolicy(policy);
+        ext.setConfig(ExtensionConfig.parse("permessage-compress"));
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        ext.setNextIncomingFrames(capture);
+
+        Parser parser = new UnitParser(policy);
+        parser.configureFromExtensions(Collections.singletonList(ext));
+        parser.setIncomingFramesHandler(ext);
+        parser.parse(frame.getEncodedBuffer(true));
+
+        capture.assertNoErrors();
+        StringBuilder actual = new StringBuilder();
+        for (WebSocketFrame received : capture.getFrames())
+        {
+            actual.append(received.getPayloadAsUTF8());
+        }
+        Assert.assertThat("Decompressed",actual.toString(),is(message.toString()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testControlFrameCannotBeEncoded()
+    {
+        new EncodedFrame(WebSocketFrame.ping(),false);
+    }
+}
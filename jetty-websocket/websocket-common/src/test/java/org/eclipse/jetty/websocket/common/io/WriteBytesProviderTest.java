@@ -0,0 +1,141 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.io;
+
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.FutureCallback;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.ByteBufferAssert;
+import org.eclipse.jetty.websocket.common.EncodedFrame;
+import org.eclipse.jetty.websocket.common.Generator;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WriteBytesProviderTest
+{
+    private WriteBytesProvider newWriteBytesProvider()
+    {
+        Generator generator = new Generator(WebSocketPolicy.newServerPolicy(),new MappedByteBufferPool());
+        return new WriteBytesProvider(generator,new FutureCallback());
+    }
+
+    private ByteBuffer write(WriteBytesProvider bytes)
+    {
+        ByteBuffer buffer = bytes.getByteBuffer();
+        Assert.assertThat("Buffer",buffer,notNullValue());
+        ByteBuffer copy = BufferUtil.toBuffer(BufferUtil.toArray(buffer));
+        buffer.position(buffer.limit());
+        bytes.succeeded();
+        return copy;
+    }
+
+    @Test
+    public void testEncodedFrameWritten() throws Exception
+    {
+        WriteBytesProvider bytes = newWriteBytesProvider();
+        EncodedFrame frame = EncodedFrame.text("Hello",false);
+        FutureCallback callback = new FutureCallback();
+
+        Assert.assertTrue("Enqueued",bytes.enqueue(frame,false,callback,-1,false));
+        Assert.assertThat("Queued bytes",bytes.getQueuedBytes(),is((long)frame.getEncodedLength(false)));
+
+        ByteBufferAssert.assertEquals("Written",frame.getEncodedBuffer(false),write(bytes));
+        Assert.assertTrue("Callback done",callback.isDone());
+        Assert.assertThat("Queued bytes",bytes.getQueuedBytes(),is(0L));
+        Assert.assertThat("Nothing else",bytes.getByteBuffer(),nullValue());
+    }
+
+    @Test
+    public void testBacklogFull() throws Exception
+    {
+        WriteBytesProvider bytes = newWriteBytesProvider();
+        EncodedFrame frame = EncodedFrame.text("Hello",false);
+        long max = 2 * frame.getEncodedLength(false);
+
+        Assert.assertTrue("Enqueued",bytes.enqueue(frame,false,null,max,false));
+        Assert.assertTrue("Enqueued",bytes.enqueue(frame,false,null,max,false));
+        FutureCallback callback = new FutureCallback();
+        Assert.assertFalse("Backlog full",bytes.enqueue(frame,false,callback,max,false));
+        Assert.assertFalse("Callback not notified",callback.isDone());
+
+        // Once the backlog is written, frames can be enqueued again
+        write(bytes);
+        Assert.assertTrue("Enqueued",bytes.enqueue(frame,false,null,max,false));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception
+    {
+        WriteBytesProvider bytes = newWriteBytesProvider();
+        EncodedFrame first = EncodedFrame.text("First",false);
+        EncodedFrame second = EncodedFrame.text("Second",false);
+        long max = 2 * second.getEncodedLength(false);
+
+        FutureCallback dropped = new FutureCallback();
+        Assert.assertTrue("Enqueued",bytes.enqueue(first,false,dropped,max,true));
+        Assert.assertTrue("Enqueued",bytes.enqueue(second,false,null,max,true));
+        Assert.assertTrue("Enqueued",bytes.enqueue(second,false,null,max,true));
+
+        Assert.assertTrue("Oldest dropped",dropped.isDone());
+        Assert.assertTrue("Oldest failed",isFailed(dropped));
+        ByteBufferAssert.assertEquals("Written",second.getEncodedBuffer(false),write(bytes));
+        ByteBufferAssert.assertEquals("Written",second.getEncodedBuffer(false),write(bytes));
+    }
+
+    @Test
+    public void testEncodedFramesDoNotInterleaveFragments() throws Exception
+    {
+        WriteBytesProvider bytes = newWriteBytesProvider();
+        Generator generator = new Generator(WebSocketPolicy.newServerPolicy(),new MappedByteBufferPool());
+        EncodedFrame encoded = EncodedFrame.binary(BufferUtil.toBuffer("Broadcast"),false);
+
+        WebSocketFrame fragment1 = WebSocketFrame.text("Hello ").setFin(false);
+        WebSocketFrame fragment2 = new WebSocketFrame(OpCode.CONTINUATION).setPayload("World").setFin(true);
+        ByteBuffer expected1 = generator.generate(new WebSocketFrame(fragment1));
+        ByteBuffer expected2 = generator.generate(new WebSocketFrame(fragment2));
+
+        bytes.enqueue(fragment1,null);
+        Assert.assertTrue("Enqueued",bytes.enqueue(encoded,false,null,-1,false));
+        bytes.enqueue(fragment2,null);
+
+        ByteBufferAssert.assertEquals("Fragment 1",expected1,write(bytes));
+        ByteBufferAssert.assertEquals("Fragment 2",expected2,write(bytes));
+        ByteBufferAssert.assertEquals("Encoded",encoded.getEncodedBuffer(false),write(bytes));
+    }
+
+    private boolean isFailed(FutureCallback callback)
+    {
+        try
+        {
+            callback.get();
+            return false;
+        }
+        catch (Exception x)
+        {
+            return true;
+        }
+    }
+}
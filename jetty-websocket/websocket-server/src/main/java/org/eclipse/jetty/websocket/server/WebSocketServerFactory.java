@@ -93,6 +93,7 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
     private final WebSocketExtensionFactory extensionFactory;
     private WebSocketCreator creator;
     private List<Class<?>> registeredSocketClasses;
+    private int executeOnSelectorBudget;
 
     public WebSocketServerFactory()
     {
@@ -264,6 +265,12 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
         return extensionFactory;
     }
 
+    @Override
+    public int getExecuteOnSelectorBudget()
+    {
+        return executeOnSelectorBudget;
+    }
+
     @Override
     public WebSocketPolicy getPolicy()
     {
@@ -358,6 +365,12 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
         this.creator = creator;
     }
 
+    @Override
+    public void setExecuteOnSelectorBudget(int budget)
+    {
+        this.executeOnSelectorBudget = budget;
+    }
+
     /**
      * Upgrade the request/response to a WebSocket Connection.
      * <p>
@@ -416,6 +429,7 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
             Executor executor = http.getConnector().getExecutor();
             ByteBufferPool bufferPool = http.getConnector().getByteBufferPool();
             WebSocketServerConnection wsConnection = new WebSocketServerConnection(endp,executor,scheduler,driver.getPolicy(),bufferPool,this);
+            wsConnection.setExecuteOnSelectorBudget(executeOnSelectorBudget);
             connection = wsConnection;
 
             extensionStack.configure(wsConnection.getParser());
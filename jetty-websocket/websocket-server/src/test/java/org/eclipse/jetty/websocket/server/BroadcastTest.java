@@ -0,0 +1,157 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.server;
+
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.WebSocketBroadcaster;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.eclipse.jetty.websocket.common.extensions.compress.MessageCompressionExtension;
+import org.eclipse.jetty.websocket.server.blockhead.BlockheadClient;
+import org.eclipse.jetty.websocket.server.helper.IncomingFramesCapture;
+import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
+import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of {@link WebSocketBroadcaster} sending to real server sessions.
+ */
+public class BroadcastTest
+{
+    @SuppressWarnings("serial")
+    public static class BroadcastServlet extends WebSocketServlet
+    {
+        @Override
+        public void configure(WebSocketServletFactory factory)
+        {
+            factory.getExtensionFactory().register("permessage-compress",MessageCompressionExtension.class);
+            factory.register(BroadcastSocket.class);
+        }
+    }
+
+    /**
+     * Broadcasts the text messages it receives to all the connected sessions.
+     */
+    @WebSocket
+    public static class BroadcastSocket
+    {
+        private Session session;
+
+        @OnWebSocketConnect
+        public void onConnect(Session session)
+        {
+            this.session = session;
+            sessions.add(session);
+        }
+
+        @OnWebSocketClose
+        public void onClose(int statusCode, String reason)
+        {
+            sessions.remove(session);
+        }
+
+        @OnWebSocketMessage
+        public void onText(String message)
+        {
+            broadcaster.broadcast(message,sessions);
+        }
+    }
+
+    private static final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private static final WebSocketBroadcaster broadcaster = new WebSocketBroadcaster();
+    private static SimpleServletServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception
+    {
+        broadcaster.setCompress(true);
+        server = new SimpleServletServer(new BroadcastServlet());
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer()
+    {
+        server.stop();
+    }
+
+    @Test
+    public void testBroadcast() throws Exception
+    {
+        List<BlockheadClient> clients = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < 4; i++)
+            {
+                BlockheadClient client = new BlockheadClient(server.getServerUri());
+                client.clearExtensions();
+                if ((i % 2) == 0)
+                {
+                    // Half the clients receive the compressed frame
+                    client.getExtensionFactory().register("permessage-compress",MessageCompressionExtension.class);
+                    client.addExtensions("permessage-compress");
+                }
+                client.setTimeout(TimeUnit.SECONDS,1);
+                client.connect();
+                client.sendStandardRequest();
+                client.expectUpgradeResponse();
+                clients.add(client);
+            }
+
+            String message = "Hello Everybody, Hello Everybody, Hello Everybody";
+            for (int i = 0; i < 2; i++)
+            {
+                clients.get(0).write(WebSocketFrame.text(message + i));
+
+                for (BlockheadClient client : clients)
+                {
+                    IncomingFramesCapture capture = client.readFrames(1,TimeUnit.SECONDS,1);
+                    WebSocketFrame frame = capture.getFrames().poll();
+                    Assert.assertThat("Frame.opcode",frame.getOpCode(),is(OpCode.TEXT));
+                    Assert.assertThat("Frame.payload",frame.getPayloadAsUTF8(),is(message + i));
+                    client.clearCaptured();
+                }
+            }
+
+            Assert.assertThat("Enqueued",broadcaster.getEnqueued(),is(8L));
+            Assert.assertThat("Rejected",broadcaster.getRejected(),is(0L));
+        }
+        finally
+        {
+            for (BlockheadClient client : clients)
+            {
+                client.close();
+            }
+        }
+    }
+}
@@ -308,6 +308,11 @@ public class BlockheadClient implements IncomingFrames, OutgoingFrames, Connecti
         return configs;
     }
 
+    public WebSocketExtensionFactory getExtensionFactory()
+    {
+        return extensionFactory;
+    }
+
     public List<String> getExtensions()
     {
         return extensions;
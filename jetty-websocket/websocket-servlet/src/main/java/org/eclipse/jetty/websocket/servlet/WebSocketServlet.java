@@ -76,6 +76,10 @@ import org.eclipse.jetty.websocket.api.annotations.WebSocket;
  * 
  * <dt>inputBufferSize</dt>
  * <dd>set the size in bytes of the buffer used to read raw bytes from the network layer<br>
+ * 
+ * <dt>executeOnSelectorBudget</dt>
+ * <dd>set the number of consecutive reads run in the selector thread, only for websockets that never block, see
+ * {@link WebSocketServletFactory#setExecuteOnSelectorBudget(int)}<br>
  * </dl>
  */
 @SuppressWarnings("serial")
@@ -138,6 +142,12 @@ public abstract class WebSocketServlet extends HttpServlet
 
             factory = baseFactory.createFactory(policy);
 
+            String budget = getInitParameter("executeOnSelectorBudget");
+            if (budget != null)
+            {
+                factory.setExecuteOnSelectorBudget(Integer.parseInt(budget));
+            }
+
             configure(factory);
 
             factory.init();
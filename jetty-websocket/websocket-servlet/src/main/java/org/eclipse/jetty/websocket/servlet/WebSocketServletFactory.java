@@ -42,6 +42,12 @@ public interface WebSocketServletFactory
 
     public abstract ExtensionFactory getExtensionFactory();
 
+    /**
+     * @return the number of consecutive reads of a websocket connection run in the selector thread
+     * @see #setExecuteOnSelectorBudget(int)
+     */
+    public int getExecuteOnSelectorBudget();
+
     /**
      * Get the base policy in use for WebSockets.
      * <p>
@@ -66,4 +72,15 @@ public interface WebSocketServletFactory
     public void register(Class<?> websocketPojo);
 
     public abstract void setCreator(WebSocketCreator creator);
+
+    /**
+     * Let the websocket connections read, parse and deliver frames in the selector thread, for up to the given number of consecutive reads,
+     * saving a thread dispatch per read.
+     * <p>
+     * Note: only enable this if the websockets never block when handling incoming frames, as they are invoked by the selector thread.
+     * 
+     * @param budget
+     *            the number of consecutive reads run in the selector thread, or 0 to always dispatch (the default)
+     */
+    public void setExecuteOnSelectorBudget(int budget);
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.server.SessionManager;
+import org.eclipse.jetty.server.session.AbstractSessionMigrationTest.TestServlet;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * WriteBehindSessionTest
+ *
+ * Check that the changes to a session are written to the database only when the
+ * write behind sessions are flushed, and that several changes are written at once.
+ */
+public class WriteBehindSessionTest
+{
+    public static class WriteBehindTestServer extends JdbcTestServer
+    {
+        public WriteBehindTestServer(int port)
+        {
+            super(port);
+        }
+
+        @Override
+        public SessionManager newSessionManager()
+        {
+            JDBCSessionManager manager = (JDBCSessionManager)super.newSessionManager();
+            manager.setWriteBehindInterval(60000); //only written when flushed by the test
+            return manager;
+        }
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception
+    {
+        String contextPath = "";
+        String servletMapping = "/server";
+        AbstractTestServer server1 = new WriteBehindTestServer(0);
+        ServletContextHandler context1 = server1.addContext(contextPath);
+        context1.addServlet(TestServlet.class, servletMapping);
+
+        try
+        {
+            server1.start();
+            int port1=server1.getPort();
+
+            AbstractTestServer server2 = new JdbcTestServer(0);
+            server2.addContext(contextPath).addServlet(TestServlet.class, servletMapping);
+
+            try
+            {
+                server2.start();
+                int port2=server2.getPort();
+
+                HttpClient client = new HttpClient();
+                client.start();
+                try
+                {
+                    // Create a session on server1 and change it a few times
+                    ContentResponse response = client.POST("http://localhost:" + port1 + contextPath + servletMapping + "?action=set&value=1").send();
+                    assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+                    String sessionCookie = response.getHeaders().getStringField("Set-Cookie");
+                    assertTrue(sessionCookie != null);
+                    // Mangle the cookie, replacing Path with $Path, etc.
+                    sessionCookie = sessionCookie.replaceFirst("(\\W)(P|p)ath=", "$1\\$Path=");
+
+                    for (int value = 2; value <= 3; value++)
+                    {
+                        Request request = client.newRequest("http://localhost:" + port1 + contextPath + servletMapping + "?action=set&value=" + value);
+                        request.header("Cookie", sessionCookie);
+                        response = request.send();
+                        assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+                    }
+
+                    // Write the changes, then read the session from server2
+                    JDBCSessionManager manager = (JDBCSessionManager)context1.getSessionHandler().getSessionManager();
+                    assertTrue(manager.isWriteBehind());
+                    manager.flushSessions();
+
+                    Request request = client.newRequest("http://localhost:" + port2 + contextPath + servletMapping + "?action=get");
+                    request.header("Cookie", sessionCookie);
+                    response = request.send();
+                    assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+                    assertEquals("3",response.getContentAsString().trim());
+                }
+                finally
+                {
+                    client.stop();
+                }
+            }
+            finally
+            {
+                server2.stop();
+            }
+        }
+        finally
+        {
+            server1.stop();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        try
+        {
+            DriverManager.getConnection( "jdbc:derby:sessions;shutdown=true" );
+        }
+        catch( SQLException expected )
+        {
+        }
+    }
+}
@@ -0,0 +1,43 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.tests.startup;
+
+import java.util.Set;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletContainerInitializer;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.HandlesTypes;
+import javax.servlet.annotation.WebServlet;
+
+/**
+ * A ServletContainerInitializer interested in all the servlets, so that the benchmark
+ * also measures the scanning of the class hierarchy done for @HandlesTypes.
+ */
+@HandlesTypes({Servlet.class, WebServlet.class})
+public class BenchmarkInitializer implements ServletContainerInitializer
+{
+    public static final String HANDLED_TYPES = "org.eclipse.jetty.tests.startup.handledTypes";
+
+    public void onStartup(Set<Class<?>> classes, ServletContext context) throws ServletException
+    {
+        context.setAttribute(HANDLED_TYPES, classes == null?0:classes.size());
+    }
+}
@@ -0,0 +1,210 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.tests.startup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.eclipse.jetty.annotations.AnnotationConfiguration;
+import org.eclipse.jetty.annotations.JarScanCache;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Measures the time to start a webapp with many jars in WEB-INF/lib, most of the time
+ * being spent scanning the jars for annotations.
+ * <p>
+ * The webapp is generated in a temporary directory, with jars of classes of which one in ten
+ * is a {@code @WebServlet}. It is then started with the jars scanned serially, in parallel,
+ * and in parallel with a {@link JarScanCache} that is empty for the first start only.
+ * <pre>
+ * java org.eclipse.jetty.tests.startup.StartupBenchmark [jars [classes per jar [threads [starts]]]]
+ * </pre>
+ */
+public class StartupBenchmark
+{
+    private static final String[] CONFIGURATIONS = new String[]
+    {
+        "org.eclipse.jetty.webapp.WebInfConfiguration",
+        "org.eclipse.jetty.webapp.WebXmlConfiguration",
+        "org.eclipse.jetty.webapp.MetaInfConfiguration",
+        "org.eclipse.jetty.webapp.FragmentConfiguration",
+        "org.eclipse.jetty.annotations.AnnotationConfiguration",
+        "org.eclipse.jetty.webapp.JettyWebXmlConfiguration"
+    };
+
+    private final File _webapp;
+    private final int _starts;
+
+    public StartupBenchmark(File webapp, int starts)
+    {
+        _webapp = webapp;
+        _starts = starts;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int jars = args.length > 0?Integer.parseInt(args[0]):200;
+        int classes = args.length > 1?Integer.parseInt(args[1]):200;
+        int threads = args.length > 2?Integer.parseInt(args[2]):Runtime.getRuntime().availableProcessors();
+        int starts = args.length > 3?Integer.parseInt(args[3]):3;
+
+        File dir = File.createTempFile("startup-benchmark", "");
+        dir.delete();
+        try
+        {
+            File webapp = new File(dir, "webapp");
+            createWebApp(webapp, jars, classes);
+            System.err.printf("Webapp with %d jars of %d classes in %s%n", jars, classes, webapp);
+
+            StartupBenchmark benchmark = new StartupBenchmark(webapp, starts);
+            benchmark.run("serial", 1, null);
+            benchmark.run("parallel", threads, null);
+            JarScanCache cache = new JarScanCache(new File(dir, "cache"));
+            benchmark.run("parallel cached", threads, cache);
+            System.err.println(cache);
+        }
+        finally
+        {
+            IO.delete(dir);
+        }
+    }
+
+    /**
+     * Start and stop the webapp
+     *
+     * @param name the name of the run
+     * @param threads the number of threads to scan the jars with
+     * @param cache the jar scan cache, or null for none
+     */
+    public void run(String name, int threads, JarScanCache cache) throws Exception
+    {
+        for (int i = 0; i < _starts; i++)
+        {
+            Server server = new Server();
+            WebAppContext context = new WebAppContext();
+            context.setContextPath("/");
+            context.setWar(_webapp.getAbsolutePath());
+            context.setConfigurationClasses(CONFIGURATIONS);
+            // let the webapp see the initializer, found by the ServiceLoader of the webapp
+            context.prependServerClass("-org.eclipse.jetty.tests.startup.");
+            context.setAttribute(AnnotationConfiguration.SCAN_THREADS, String.valueOf(threads));
+            if (cache != null)
+                context.setAttribute(AnnotationConfiguration.JAR_SCAN_CACHE, cache);
+            server.setHandler(context);
+
+            try
+            {
+                long start = System.nanoTime();
+                server.start();
+                long elapsed = System.nanoTime() - start;
+
+                Object handled = context.getServletContext().getAttribute(BenchmarkInitializer.HANDLED_TYPES);
+                System.err.printf("%s start %d: %d ms, %d servlets, %s types handled%n", name, i, elapsed / 1000000,
+                        context.getServletHandler().getServlets().length, handled);
+            }
+            finally
+            {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * Create an exploded webapp with generated jars in WEB-INF/lib
+     */
+    public static void createWebApp(File webapp, int jars, int classes) throws IOException
+    {
+        File lib = new File(webapp, "WEB-INF/lib");
+        if (!lib.mkdirs())
+            throw new IOException("Cannot create " + lib);
+
+        Writer webXml = new OutputStreamWriter(new FileOutputStream(new File(webapp, "WEB-INF/web.xml")), "UTF-8");
+        try
+        {
+            webXml.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            webXml.write("<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"3.0\" metadata-complete=\"false\">\n");
+            webXml.write("</web-app>\n");
+        }
+        finally
+        {
+            webXml.close();
+        }
+
+        for (int j = 0; j < jars; j++)
+        {
+            JarOutputStream jar = new JarOutputStream(new FileOutputStream(new File(lib, "lib" + j + ".jar")));
+            try
+            {
+                for (int c = 0; c < classes; c++)
+                {
+                    String className = "org/eclipse/jetty/tests/startup/lib" + j + "/Class" + c;
+                    jar.putNextEntry(new JarEntry(className + ".class"));
+                    jar.write(createClass(className, (c % 10) == 0?"/lib" + j + "/" + c:null));
+                    jar.closeEntry();
+                }
+            }
+            finally
+            {
+                jar.close();
+            }
+        }
+    }
+
+    /**
+     * @param className the internal name of the class
+     * @param urlPattern the url pattern of the class as a {@code @WebServlet}, or null for a plain class
+     */
+    private static byte[] createClass(String className, String urlPattern)
+    {
+        String superName = urlPattern == null?"java/lang/Object":"javax/servlet/http/HttpServlet";
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC + Opcodes.ACC_SUPER, className, null, superName, new String[]{"java/io/Serializable"});
+
+        if (urlPattern != null)
+        {
+            AnnotationVisitor annotation = writer.visitAnnotation("Ljavax/servlet/annotation/WebServlet;", true);
+            AnnotationVisitor patterns = annotation.visitArray("urlPatterns");
+            patterns.visit(null, urlPattern);
+            patterns.visitEnd();
+            annotation.visitEnd();
+        }
+
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V");
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}